@@ -0,0 +1,149 @@
+/**
+ * GpioTrace backed by the sorted times (long[]) and levels (bitset) of a GpioEventBuffer, about 8 bytes per edge.
+ *
+ * The trace of a loader is a live view: it grows with the sorted events of its buffer. Views created by
+ * subTrace() and range() share the arrays and cover a fixed range of events.
+ */
+public final class ArrayGpioTrace implements GpioTrace {
+  private final GpioEventBuffer events;
+  private final int nodeId;
+  private final int pinId;
+  // events [from, to) of the buffer, to < 0 for all its sorted events from on
+  private final int from;
+  private final int to;
+
+  ArrayGpioTrace(GpioEventBuffer events, int nodeId, int pinId) {
+    this(events, nodeId, pinId, 0, -1);
+  }
+
+  private ArrayGpioTrace(GpioEventBuffer events, int nodeId, int pinId, int from, int to) {
+    this.events = events;
+    this.nodeId = nodeId;
+    this.pinId = pinId;
+    this.from = from;
+    this.to = to;
+  }
+
+  private int end() {
+    return to < 0 ? events.sortedSize() : to;
+  }
+
+  @Override
+  public int getNodeId() {
+    return nodeId;
+  }
+
+  public int getPinId() {
+    return pinId;
+  }
+
+  @Override
+  public String getPinName() {
+    return GpioPins.name(pinId);
+  }
+
+  @Override
+  public int size() {
+    return end() - from;
+  }
+
+  @Override
+  public int getModCount() {
+    return events.modCount();
+  }
+
+  @Override
+  public long getTime(int i) {
+    return events.getTime(from + i);
+  }
+
+  @Override
+  public boolean getLevel(int i) {
+    return events.getLevel(from + i);
+  }
+
+  @Override
+  public long getStartTime() {
+    return size() == 0 ? Long.MAX_VALUE : getTime(0);
+  }
+
+  /**
+   * @return time of the last event, Long.MIN_VALUE if there is none
+   */
+  public long getEndTime() {
+    int size = size();
+    return size == 0 ? Long.MIN_VALUE : getTime(size - 1);
+  }
+
+  /**
+   * @return the first index in [0, size()) whose time is after time (inclusive) or not before time, size() if
+   *         there is none
+   */
+  private int search(long time, boolean inclusive) {
+    long[] times = events.times();
+    int lo = from;
+    int hi = end();
+    while (lo < hi) {
+      int m = (lo + hi) >>> 1;
+      if (times[m] < time || (inclusive && times[m] == time))
+        lo = m + 1;
+      else
+        hi = m;
+    }
+    return lo - from;
+  }
+
+  @Override
+  public int floorIndex(long time) {
+    return search(time, true) - 1;
+  }
+
+  @Override
+  public int lowerIndex(long time) {
+    return search(time, false) - 1;
+  }
+
+  @Override
+  public int ceilingIndex(long time) {
+    return search(time, false);
+  }
+
+  @Override
+  public int higherIndex(long time) {
+    return search(time, true);
+  }
+
+  @Override
+  public ArrayGpioTrace subTrace(int from, int to) {
+    if (from < 0 || to > size() || from > to)
+      throw new IndexOutOfBoundsException(String.format("[%d, %d) of %d events", from, to, size()));
+    return new ArrayGpioTrace(events, nodeId, pinId, this.from + from, this.from + to);
+  }
+
+  @Override
+  public ArrayGpioTrace range(long start, long end) {
+    int first = ceilingIndex(start);
+    return subTrace(first, Math.max(first, floorIndex(end) + 1));
+  }
+
+  @Override
+  public GpioCursor cursor() {
+    return new GpioTraceCursor(this, pinId);
+  }
+
+  @Override
+  public GpioEvent[] getEventsCoveringTimespan(long start, long end) {
+    int first = Math.max(0, floorIndex(start));
+    int last = floorIndex(end);
+    String pinName = getPinName();
+    GpioEvent[] covering = new GpioEvent[Math.max(0, last + 1 - first)];
+    for (int i = first; i <= last; ++i)
+      covering[i - first] = new GpioEvent(getTime(i), nodeId, pinName, getLevel(i));
+    return covering;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s of node %d: %d events", getPinName(), nodeId, size());
+  }
+}
@@ -2,8 +2,8 @@
 * Created by andreas on 29.10.14.
 */
 public class BoundedTimeValue extends ObservableValue<Long> {
-  private final long min;
-  private final long max;
+  private long min;
+  private long max;
 
   public BoundedTimeValue(long min, long max, long current) {
     super();
@@ -15,6 +15,27 @@ public class BoundedTimeValue extends ObservableValue<Long> {
     setValue(current);
   }
 
+  public long getMin() {
+    return min;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * Changes the bounds, moving the current value into them if necessary.
+   */
+  public void setBounds(long min, long max) {
+    if (min > max)
+      throw new IllegalArgumentException();
+    this.min = min;
+    this.max = max;
+
+    if (getValue() != null)
+      setValue(getValue());
+  }
+
   @Override
   public void setValue(Long newValue) {
     if (newValue == null)
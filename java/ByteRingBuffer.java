@@ -0,0 +1,89 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded byte queue between one producing and one consuming thread.
+ *
+ * offer() never blocks, it rejects data which doesn't fit as a whole so the producer can stop reading its source
+ * (backpressure); take() blocks until data is available. The space listener is called whenever take() freed
+ * space, e.g. to wake up the producer.
+ */
+final class ByteRingBuffer {
+  private final byte[] data;
+  private final Runnable spaceListener;
+  // guarded by this
+  private int head;
+  private int size;
+  private boolean closed;
+
+  /**
+   * @param spaceListener called (without holding the lock) after take() freed space, can be null
+   */
+  ByteRingBuffer(int capacity, Runnable spaceListener) {
+    if (capacity <= 0)
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    this.data = new byte[capacity];
+    this.spaceListener = spaceListener;
+  }
+
+  int capacity() {
+    return data.length;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Appends all remaining bytes of src if there is enough space, otherwise leaves src unchanged.
+   *
+   * @return whether the bytes were appended
+   */
+  synchronized boolean offer(ByteBuffer src) {
+    if (closed)
+      throw new IllegalStateException("closed");
+    int n = src.remaining();
+    if (n > data.length - size)
+      return false;
+
+    int tail = (head + size) % data.length;
+    int first = Math.min(n, data.length - tail);
+    src.get(data, tail, first);
+    src.get(data, 0, n - first);
+    size += n;
+    notifyAll();
+    return true;
+  }
+
+  /**
+   * Moves as many bytes as fit into dst, waiting until there is at least one.
+   *
+   * @return the number of bytes moved, -1 if the buffer is closed and empty
+   */
+  int take(ByteBuffer dst) throws InterruptedException {
+    int n;
+    synchronized (this) {
+      while (size == 0 && !closed)
+        wait();
+      if (size == 0)
+        return -1;
+
+      n = Math.min(size, dst.remaining());
+      int first = Math.min(n, data.length - head);
+      dst.put(data, head, first);
+      dst.put(data, 0, n - first);
+      head = (head + n) % data.length;
+      size -= n;
+    }
+    if (n > 0 && spaceListener != null)
+      spaceListener.run();
+    return n;
+  }
+
+  /**
+   * Rejects further offers; take() returns the remaining bytes and -1 afterwards.
+   */
+  synchronized void close() {
+    closed = true;
+    notifyAll();
+  }
+}
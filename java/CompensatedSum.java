@@ -0,0 +1,45 @@
+/**
+ * Sum of doubles with the rounding errors collected separately (Kahan-Babuska / Neumaier summation), so sums of
+ * millions of samples stay exact to the last bits. Prefix sums keep both parts; the difference of two prefixes is
+ * taken part by part, see difference().
+ */
+final class CompensatedSum {
+  private double sum;
+  private double compensation;
+
+  void add(double value) {
+    double t = sum + value;
+    if (Math.abs(sum) >= Math.abs(value))
+      compensation += (sum - t) + value;
+    else
+      compensation += (value - t) + sum;
+    sum = t;
+  }
+
+  void clear() {
+    sum = 0;
+    compensation = 0;
+  }
+
+  /**
+   * @return the rounded sum, without the compensation
+   */
+  double sum() {
+    return sum;
+  }
+
+  double compensation() {
+    return compensation;
+  }
+
+  double value() {
+    return sum + compensation;
+  }
+
+  /**
+   * @return (sum + compensation) - (fromSum + fromCompensation), with the large parts subtracted first
+   */
+  static double difference(double fromSum, double fromCompensation, double sum, double compensation) {
+    return (sum - fromSum) + (compensation - fromCompensation);
+  }
+}
@@ -0,0 +1,384 @@
+import java.util.Arrays;
+
+/**
+ * GpioTrace storing the times of the edges as varint deltas in blocks of BLOCK_SIZE events, about 2 bytes per edge
+ * when the edges of a pin are microseconds apart.
+ *
+ * The first time of every block is kept uncompressed as a skip index: a query searches the block binary and decodes
+ * just that block. The last decoded block is cached, so events are read sequentially at about array speed.
+ * The trace of a loader is a live view which grows when events are added; views created by subTrace() and range()
+ * share the blocks and cover a fixed range of events.
+ */
+public final class CompressedGpioTrace implements GpioTrace {
+  static final int BLOCK_SHIFT = 7;
+  static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+  private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+  /**
+   * The events, shared by all views.
+   */
+  private static final class Blocks {
+    // the deltas of the times to their predecessor, the first event of a block has the delta 0 to the block start
+    byte[] data = new byte[64];
+    int length;
+    long[] blockStarts = new long[4];
+    int[] blockOffsets = new int[4];
+    long[] levels = new long[1];
+    int size;
+    long lastTime;
+    // incremented when events are removed, invalidates the decoded block
+    int modCount;
+    // the block decoded last, its array is reused for the next one; guarded by this as the views may be read on
+    // several threads
+    private final long[] decodedTimes = new long[BLOCK_SIZE];
+    private int decodedBlock = -1;
+    private int decodedCount;
+    private int decodedModCount;
+
+    int blockCount() {
+      return (size + BLOCK_MASK) >>> BLOCK_SHIFT;
+    }
+
+    void add(long time, boolean level) {
+      if (size > 0 && time < lastTime)
+        throw new IllegalArgumentException("events must be added in time order: " + time + " after " + lastTime);
+
+      long delta = 0;
+      if ((size & BLOCK_MASK) == 0) {
+        int iBlock = size >>> BLOCK_SHIFT;
+        if (iBlock == blockStarts.length) {
+          blockStarts = Arrays.copyOf(blockStarts, iBlock * 2);
+          blockOffsets = Arrays.copyOf(blockOffsets, iBlock * 2);
+        }
+        blockStarts[iBlock] = time;
+        blockOffsets[iBlock] = length;
+      } else {
+        delta = time - lastTime;
+      }
+      if (length + VarInts.MAX_LENGTH > data.length)
+        data = Arrays.copyOf(data, Math.max(length + VarInts.MAX_LENGTH, data.length + (data.length >> 1)));
+      length = VarInts.write(data, length, delta);
+
+      if (GpioEventBuffer.levelWords(size + 1) > levels.length)
+        levels = Arrays.copyOf(levels, levels.length * 2);
+      if (level)
+        levels[size >>> 6] |= 1L << size;
+      lastTime = time;
+      ++size;
+    }
+
+    /**
+     * Removes the events from position size on.
+     */
+    void truncate(int size) {
+      if (size == this.size)
+        return;
+      int iBlock = size >>> BLOCK_SHIFT;
+      int pos = blockOffsets[iBlock];
+      for (int i = 0; i < (size & BLOCK_MASK); ++i)
+        pos = VarInts.skip(data, pos);
+      if (size > 0)
+        lastTime = getTime(size - 1);
+      length = pos;
+      for (int i = size; i < this.size; ++i)
+        levels[i >>> 6] &= ~(1L << i);
+      this.size = size;
+      ++modCount;
+    }
+
+    synchronized long getTime(int i) {
+      decodeCached(i >>> BLOCK_SHIFT);
+      return decodedTimes[i & BLOCK_MASK];
+    }
+
+    boolean getLevel(int i) {
+      return (levels[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private void decodeCached(int iBlock) {
+      int count = Math.min(BLOCK_SIZE, size - (iBlock << BLOCK_SHIFT));
+      if (decodedBlock == iBlock && decodedModCount == modCount && decodedCount == count)
+        return;
+
+      decodedCount = decode(iBlock, decodedTimes);
+      decodedBlock = iBlock;
+      decodedModCount = modCount;
+    }
+
+    /**
+     * @return number of times of the block decoded into times
+     */
+    int decode(int iBlock, long[] times) {
+      int end = iBlock + 1 < blockCount() ? blockOffsets[iBlock + 1] : length;
+      return VarInts.decodeDeltas(data, blockOffsets[iBlock], end, blockStarts[iBlock], times);
+    }
+
+    /**
+     * @param inclusive whether events at time are skipped as well
+     * @return the first position whose time is after (inclusive) or not before (exclusive) time, size if there is
+     *         none
+     */
+    synchronized int search(long time, boolean inclusive) {
+      // the last block starting before time contains the position or ends right before it
+      int lo = 0;
+      int hi = blockCount();
+      while (lo < hi) {
+        int m = (lo + hi) >>> 1;
+        if (blockStarts[m] < time || (inclusive && blockStarts[m] == time))
+          lo = m + 1;
+        else
+          hi = m;
+      }
+      if (lo == 0)
+        return 0;
+
+      int iBlock = lo - 1;
+      decodeCached(iBlock);
+      lo = 1;
+      hi = decodedCount;
+      while (lo < hi) {
+        int m = (lo + hi) >>> 1;
+        if (decodedTimes[m] < time || (inclusive && decodedTimes[m] == time))
+          lo = m + 1;
+        else
+          hi = m;
+      }
+      return (iBlock << BLOCK_SHIFT) + lo;
+    }
+  }
+
+  /**
+   * Cursor decoding the blocks into its own array, unlike getTime() it doesn't synchronize.
+   */
+  private final class BlockCursor implements GpioCursor {
+    private final long[] times = new long[BLOCK_SIZE];
+    // the decoded block, its event count and the modCount it was decoded at
+    private int iBlock = -1;
+    private int count;
+    private int modCount;
+    private int index = -1;
+    // end of the range, -1 for all events of the trace (which might grow)
+    private int end = -1;
+
+    @Override
+    public void seek(long start, long end) {
+      index = Math.max(0, floorIndex(start)) - 1;
+      this.end = Math.max(index + 1, floorIndex(end) + 1);
+    }
+
+    @Override
+    public boolean next() {
+      if (index + 1 >= (end < 0 ? size() : end))
+        return false;
+      ++index;
+      return true;
+    }
+
+    @Override
+    public long time() {
+      int i = from + index;
+      int iBlock = i >>> BLOCK_SHIFT;
+      if (iBlock != this.iBlock || modCount != blocks.modCount || (i & BLOCK_MASK) >= count) {
+        count = blocks.decode(iBlock, times);
+        modCount = blocks.modCount;
+        this.iBlock = iBlock;
+      }
+      return times[i & BLOCK_MASK];
+    }
+
+    @Override
+    public int observer() {
+      return nodeId;
+    }
+
+    @Override
+    public int pin() {
+      return pinId;
+    }
+
+    @Override
+    public boolean level() {
+      return blocks.getLevel(from + index);
+    }
+  }
+
+  private final Blocks blocks;
+  private final int nodeId;
+  private final int pinId;
+  // events [from, to) of the blocks, to < 0 for all events from on
+  private final int from;
+  private final int to;
+
+  CompressedGpioTrace(int nodeId, int pinId) {
+    this(new Blocks(), nodeId, pinId, 0, -1);
+  }
+
+  private CompressedGpioTrace(Blocks blocks, int nodeId, int pinId, int from, int to) {
+    this.blocks = blocks;
+    this.nodeId = nodeId;
+    this.pinId = pinId;
+    this.from = from;
+    this.to = to;
+  }
+
+  /**
+   * @return compressed copy of the trace
+   */
+  public static CompressedGpioTrace of(GpioTrace trace) {
+    CompressedGpioTrace compressed = new CompressedGpioTrace(trace.getNodeId(), GpioPins.id(trace.getPinName()));
+    for (int i = 0; i < trace.size(); ++i)
+      compressed.blocks.add(trace.getTime(i), trace.getLevel(i));
+    return compressed;
+  }
+
+  /**
+   * Adds the sorted events of the buffer. Events with the same time as events of the trace are added after them.
+   */
+  void addAll(GpioEventBuffer events) {
+    if (to >= 0)
+      throw new IllegalStateException("views can't be extended");
+    int n = events.size();
+    if (n == 0)
+      return;
+
+    // only the events after the first new one have to be merged again
+    int merged = blocks.size == 0 ? 0 : blocks.search(events.getTime(0), true);
+    int nOld = blocks.size - merged;
+    long[] oldTimes = new long[nOld];
+    boolean[] oldLevels = new boolean[nOld];
+    for (int i = 0; i < nOld; ++i) {
+      oldTimes[i] = blocks.getTime(merged + i);
+      oldLevels[i] = blocks.getLevel(merged + i);
+    }
+    blocks.truncate(merged);
+
+    int iOld = 0;
+    int iNew = 0;
+    while (iOld < nOld || iNew < n) {
+      if (iNew == n || iOld < nOld && oldTimes[iOld] <= events.getTime(iNew)) {
+        blocks.add(oldTimes[iOld], oldLevels[iOld]);
+        ++iOld;
+      } else {
+        blocks.add(events.getTime(iNew), events.getLevel(iNew));
+        ++iNew;
+      }
+    }
+  }
+
+  private int end() {
+    return to < 0 ? blocks.size : to;
+  }
+
+  /**
+   * @return bytes used by the events of all views of this trace, without the array headers
+   */
+  public long getMemoryUsage() {
+    return blocks.data.length + blocks.blockStarts.length * 8L + blocks.blockOffsets.length * 4L +
+        blocks.levels.length * 8L;
+  }
+
+  @Override
+  public int getNodeId() {
+    return nodeId;
+  }
+
+  public int getPinId() {
+    return pinId;
+  }
+
+  @Override
+  public String getPinName() {
+    return GpioPins.name(pinId);
+  }
+
+  @Override
+  public int size() {
+    return end() - from;
+  }
+
+  @Override
+  public int getModCount() {
+    return blocks.modCount;
+  }
+
+  @Override
+  public long getTime(int i) {
+    return blocks.getTime(from + i);
+  }
+
+  @Override
+  public boolean getLevel(int i) {
+    return blocks.getLevel(from + i);
+  }
+
+  @Override
+  public long getStartTime() {
+    return size() == 0 ? Long.MAX_VALUE : getTime(0);
+  }
+
+  /**
+   * @return time of the last event, Long.MIN_VALUE if there is none
+   */
+  public long getEndTime() {
+    int size = size();
+    return size == 0 ? Long.MIN_VALUE : getTime(size - 1);
+  }
+
+  private int search(long time, boolean inclusive) {
+    return Math.min(Math.max(blocks.search(time, inclusive), from), end()) - from;
+  }
+
+  @Override
+  public int floorIndex(long time) {
+    return search(time, true) - 1;
+  }
+
+  @Override
+  public int lowerIndex(long time) {
+    return search(time, false) - 1;
+  }
+
+  @Override
+  public int ceilingIndex(long time) {
+    return search(time, false);
+  }
+
+  @Override
+  public int higherIndex(long time) {
+    return search(time, true);
+  }
+
+  @Override
+  public CompressedGpioTrace subTrace(int from, int to) {
+    if (from < 0 || to > size() || from > to)
+      throw new IndexOutOfBoundsException(String.format("[%d, %d) of %d events", from, to, size()));
+    return new CompressedGpioTrace(blocks, nodeId, pinId, this.from + from, this.from + to);
+  }
+
+  @Override
+  public CompressedGpioTrace range(long start, long end) {
+    int first = ceilingIndex(start);
+    return subTrace(first, Math.max(first, floorIndex(end) + 1));
+  }
+
+  @Override
+  public GpioCursor cursor() {
+    return new BlockCursor();
+  }
+
+  @Override
+  public GpioEvent[] getEventsCoveringTimespan(long start, long end) {
+    int first = Math.max(0, floorIndex(start));
+    int last = floorIndex(end);
+    String pinName = getPinName();
+    GpioEvent[] covering = new GpioEvent[Math.max(0, last + 1 - first)];
+    for (int i = first; i <= last; ++i)
+      covering[i - first] = new GpioEvent(getTime(i), nodeId, pinName, getLevel(i));
+    return covering;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s of node %d: %d compressed events", getPinName(), nodeId, size());
+  }
+}
@@ -0,0 +1,338 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sparse index of a flocklab csv file: the byte offset of every rowsPerBlock-th row together with the smallest and
+ * largest timestamp of the rows of each block.
+ *
+ * Besides that the index collects the series of the file, i.e. the distinct combinations of observer id and the
+ * first column after it (the pin name of gpio traces).
+ *
+ * build() scans the file without parsing more than the first columns. The blocks found so far can be queried
+ * (from any thread) while the index is being built.
+ */
+public class CsvBlockIndex {
+  private static final int WINDOW_SIZE = 64 << 20;
+
+  public interface Listener {
+    /**
+     * Called from the indexing thread whenever blocks were added to the index.
+     */
+    void blocksIndexed(CsvBlockIndex index);
+
+    /**
+     * Called from the indexing thread for every series when it occurs for the first time.
+     */
+    void seriesFound(CsvBlockIndex index, int observerID, String series);
+  }
+
+  private final File file;
+  private final int rowsPerBlock;
+  private final List<Listener> listeners;
+  private LoadProgress progress;
+
+  // guarded by this
+  private long[] blockOffsets;
+  private long[] blockMinTimes;
+  private long[] blockMaxTimes;
+  private int nBlocks;
+  private long indexedBytes;
+  private long startTime;
+  private long endTime;
+  private boolean complete;
+
+  // only used by the indexing thread
+  private final SeriesTable series;
+  private long blockStart;
+  private long blockMinTime;
+  private long blockMaxTime;
+  private int blockRows;
+  private long rows;
+
+  public CsvBlockIndex(File file, int rowsPerBlock) {
+    if (file == null)
+      throw new IllegalArgumentException("file can't be null");
+    if (rowsPerBlock < 1)
+      throw new IllegalArgumentException("rowsPerBlock must be positive");
+
+    this.file = file;
+    this.rowsPerBlock = rowsPerBlock;
+    this.listeners = new ArrayList<Listener>();
+    this.blockOffsets = new long[16];
+    this.blockMinTimes = new long[16];
+    this.blockMaxTimes = new long[16];
+    this.startTime = Long.MAX_VALUE;
+    this.endTime = Long.MIN_VALUE;
+    this.series = new SeriesTable();
+  }
+
+  public synchronized void addListener(Listener listener) {
+    if (listener == null)
+      throw new IllegalArgumentException();
+    listeners.add(listener);
+  }
+
+  /**
+   * Reports the scanned bytes and rows to the progress; build() throws an InterruptedIOException when it is
+   * cancelled.
+   */
+  public void setProgress(LoadProgress progress) {
+    this.progress = progress;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Scans the file, publishing blocks window by window. Usually run on a background thread.
+   */
+  public void build() throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    try {
+      FileChannel channel = in.getChannel();
+      long size = channel.size();
+      long pos = 0;
+      blockStart = 0;
+      resetBlock();
+      while (pos < size) {
+        int length = (int) Math.min(WINDOW_SIZE, size - pos);
+        boolean isLastWindow = pos + length == size;
+        ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+        int consumed = scanRows(window, pos, length, isLastWindow);
+        if (consumed == 0 && !isLastWindow)
+          throw new IOException(String.format("row at offset %d is longer than %d bytes", pos, WINDOW_SIZE));
+        pos += consumed;
+        synchronized (this) {
+          indexedBytes = pos;
+        }
+        fireBlocksIndexed();
+        if (progress != null) {
+          progress.addBytes(consumed);
+          progress.addRows(rows);
+          rows = 0;
+          progress.checkCancelled();
+        }
+      }
+      if (blockRows > 0)
+        finishBlock(size);
+    } finally {
+      in.close();
+      synchronized (this) {
+        complete = true;
+      }
+      fireBlocksIndexed();
+    }
+  }
+
+  private int scanRows(ByteBuffer buf, long windowStart, int to, boolean endOfInput) {
+    int lineStart = 0;
+    while (lineStart < to) {
+      int lineEnd = CsvFields.indexOf(buf, (byte) '\n', lineStart, to);
+      if (lineEnd < 0) {
+        if (!endOfInput)
+          return lineStart;
+        lineEnd = to;
+      }
+      scanRow(buf, windowStart, lineStart, lineEnd);
+      lineStart = lineEnd + 1;
+    }
+    return Math.min(lineStart, to);
+  }
+
+  private void scanRow(ByteBuffer buf, long windowStart, int from, int to) {
+    if (to > from && buf.get(to - 1) == '\r')
+      --to;
+    if (to == from || buf.get(from) == '#')
+      return;
+
+    int timeEnd = CsvFields.indexOf(buf, (byte) ',', from, to);
+    int observerEnd = timeEnd < 0 ? -1 : CsvFields.indexOf(buf, (byte) ',', timeEnd + 1, to);
+    if (observerEnd < 0)
+      throw new IllegalArgumentException("malformed row: " + CsvFields.decode(buf, from, to));
+    long time = CsvFields.parseTime(buf, from, timeEnd);
+    int observerID = CsvFields.parseInt(buf, timeEnd + 1, observerEnd);
+    int seriesEnd = CsvFields.indexOf(buf, (byte) ',', observerEnd + 1, to);
+    series.find(observerID, buf, observerEnd + 1, seriesEnd < 0 ? to : seriesEnd);
+
+    if (blockRows == rowsPerBlock) {
+      finishBlock(windowStart + from);
+      blockStart = windowStart + from;
+      resetBlock();
+      fireBlocksIndexed();
+    }
+    blockMinTime = Math.min(blockMinTime, time);
+    blockMaxTime = Math.max(blockMaxTime, time);
+    ++blockRows;
+    ++rows;
+  }
+
+  private void resetBlock() {
+    blockMinTime = Long.MAX_VALUE;
+    blockMaxTime = Long.MIN_VALUE;
+    blockRows = 0;
+  }
+
+  private synchronized void finishBlock(long blockEnd) {
+    if (nBlocks + 1 >= blockOffsets.length) {
+      blockOffsets = Arrays.copyOf(blockOffsets, blockOffsets.length * 2);
+      blockMinTimes = Arrays.copyOf(blockMinTimes, blockMinTimes.length * 2);
+      blockMaxTimes = Arrays.copyOf(blockMaxTimes, blockMaxTimes.length * 2);
+    }
+    blockOffsets[nBlocks] = blockStart;
+    blockOffsets[nBlocks + 1] = blockEnd;
+    blockMinTimes[nBlocks] = blockMinTime;
+    blockMaxTimes[nBlocks] = blockMaxTime;
+    ++nBlocks;
+    startTime = Math.min(startTime, blockMinTime);
+    endTime = Math.max(endTime, blockMaxTime);
+  }
+
+  private void fireBlocksIndexed() {
+    List<Listener> notified;
+    synchronized (this) {
+      notified = new ArrayList<Listener>(listeners);
+    }
+    for (Listener l : notified)
+      l.blocksIndexed(this);
+  }
+
+  private void fireSeriesFound(int observerID, String seriesName) {
+    List<Listener> notified;
+    synchronized (this) {
+      notified = new ArrayList<Listener>(listeners);
+    }
+    for (Listener l : notified)
+      l.seriesFound(this, observerID, seriesName);
+  }
+
+  public synchronized boolean isComplete() {
+    return complete;
+  }
+
+  public synchronized int getBlockCount() {
+    return nBlocks;
+  }
+
+  /**
+   * @return number of bytes of the file scanned so far
+   */
+  public synchronized long getIndexedBytes() {
+    return indexedBytes;
+  }
+
+  /**
+   * @return the smallest timestamp of the blocks indexed so far (Long.MAX_VALUE if there are none)
+   */
+  public synchronized long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * @return the largest timestamp of the blocks indexed so far (Long.MIN_VALUE if there are none)
+   */
+  public synchronized long getEndTime() {
+    return endTime;
+  }
+
+  public synchronized long getBlockStart(int iBlock) {
+    checkBlock(iBlock);
+    return blockOffsets[iBlock];
+  }
+
+  public synchronized long getBlockEnd(int iBlock) {
+    checkBlock(iBlock);
+    return blockOffsets[iBlock + 1];
+  }
+
+  public synchronized long getBlockMinTime(int iBlock) {
+    checkBlock(iBlock);
+    return blockMinTimes[iBlock];
+  }
+
+  public synchronized long getBlockMaxTime(int iBlock) {
+    checkBlock(iBlock);
+    return blockMaxTimes[iBlock];
+  }
+
+  /**
+   * @return indices (ascending) of the blocks holding rows with timestamps in [from, to]
+   */
+  public synchronized int[] blocksOverlapping(long from, long to) {
+    int[] result = new int[nBlocks];
+    int n = 0;
+    for (int i = 0; i < nBlocks; ++i) {
+      if (blockMinTimes[i] <= to && blockMaxTimes[i] >= from)
+        result[n++] = i;
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  private void checkBlock(int iBlock) {
+    if (iBlock < 0 || iBlock >= nBlocks)
+      throw new IndexOutOfBoundsException("no block " + iBlock);
+  }
+
+  /**
+   * Open addressing hash set of (observer id, series column) pairs, compares the column in place.
+   */
+  private final class SeriesTable {
+    private int[] observers = new int[64];
+    private byte[][] names = new byte[64][];
+    private int size = 0;
+
+    void find(int observerID, ByteBuffer buf, int from, int to) {
+      from = CsvFields.skipSpaces(buf, from, to);
+      to = CsvFields.trimEnd(buf, from, to);
+      int mask = names.length - 1;
+      for (int slot = hash(observerID, buf, from, to) & mask; ; slot = (slot + 1) & mask) {
+        if (names[slot] == null) {
+          insert(slot, observerID, buf, from, to);
+          return;
+        }
+        if (observers[slot] == observerID && CsvFields.equalBytes(buf, from, to, names[slot]))
+          return;
+      }
+    }
+
+    private void insert(int slot, int observerID, ByteBuffer buf, int from, int to) {
+      String name = CsvFields.decode(buf, from, to);
+      observers[slot] = observerID;
+      names[slot] = name.getBytes(CsvFields.UTF_8);
+      if (++size * 2 > names.length)
+        grow();
+      fireSeriesFound(observerID, name);
+    }
+
+    private void grow() {
+      int[] oldObservers = observers;
+      byte[][] oldNames = names;
+      observers = new int[oldNames.length * 2];
+      names = new byte[oldNames.length * 2][];
+      int mask = names.length - 1;
+      for (int i = 0; i < oldNames.length; ++i) {
+        if (oldNames[i] == null)
+          continue;
+        ByteBuffer name = ByteBuffer.wrap(oldNames[i]);
+        int slot = hash(oldObservers[i], name, 0, oldNames[i].length) & mask;
+        while (names[slot] != null)
+          slot = (slot + 1) & mask;
+        observers[slot] = oldObservers[i];
+        names[slot] = oldNames[i];
+      }
+    }
+
+    private int hash(int observerID, ByteBuffer buf, int from, int to) {
+      int h = observerID * 0x9e3779b9;
+      for (int i = from; i < to; ++i)
+        h = 31 * h + buf.get(i);
+      return h ^ (h >>> 16);
+    }
+  }
+}
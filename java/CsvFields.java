@@ -0,0 +1,183 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Allocation free helpers for scanning the fields of flocklab csv rows in place.
+ *
+ * All ranges are given as absolute [from, to) indices into the buffer; the buffer's position and limit are
+ * never touched, so a buffer can be shared by several scanners.
+ */
+final class CsvFields {
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Number of fraction digits of a timestamp in tens of nanoseconds.
+   */
+  private static final int FRACTION_DIGITS = 8;
+  private static final long[] FRACTION_SCALE = {
+      100000000L, 10000000L, 1000000L, 100000L, 10000L, 1000L, 100L, 10L, 1L};
+
+  /**
+   * Decimals with at most this many digits and fraction digits are exactly representable as mantissa and power
+   * of ten, so their quotient is correctly rounded.
+   */
+  private static final int MAX_EXACT_DIGITS = 15;
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19,
+      1e20, 1e21, 1e22};
+
+  private CsvFields() {
+  }
+
+  /**
+   * @return index of the first occurrence of b in [from, to) or -1
+   */
+  static int indexOf(ByteBuffer buf, byte b, int from, int to) {
+    for (int i = from; i < to; ++i) {
+      if (buf.get(i) == b)
+        return i;
+    }
+    return -1;
+  }
+
+  static int skipSpaces(ByteBuffer buf, int from, int to) {
+    while (from < to && isSpace(buf.get(from)))
+      ++from;
+    return from;
+  }
+
+  static int trimEnd(ByteBuffer buf, int from, int to) {
+    while (to > from && isSpace(buf.get(to - 1)))
+      --to;
+    return to;
+  }
+
+  private static boolean isSpace(byte b) {
+    return b == ' ' || b == '\t' || b == '\r';
+  }
+
+  /**
+   * Decodes a timestamp field to tens of nanoseconds.
+   *
+   * Accepts "seconds.fraction" (fraction digits beyond tens of nanoseconds are truncated) as well as plain
+   * integer nanoseconds.
+   */
+  static long parseTime(ByteBuffer buf, int from, int to) {
+    from = skipSpaces(buf, from, to);
+    to = trimEnd(buf, from, to);
+    if (from == to)
+      throw new NumberFormatException("empty timestamp");
+
+    long integral = 0;
+    int i = from;
+    for (; i < to; ++i) {
+      byte b = buf.get(i);
+      if (b == '.')
+        break;
+      integral = integral * 10 + digit(buf, b, from, to);
+    }
+    if (i == to) {
+      // nanoseconds, the plugin works in tens of nanoseconds
+      return integral / 10;
+    }
+
+    long fraction = 0;
+    int nFractionDigits = 0;
+    for (++i; i < to; ++i) {
+      int d = digit(buf, buf.get(i), from, to);
+      if (nFractionDigits < FRACTION_DIGITS) {
+        fraction = fraction * 10 + d;
+        ++nFractionDigits;
+      }
+    }
+    return integral * FRACTION_SCALE[0] + fraction * FRACTION_SCALE[nFractionDigits];
+  }
+
+  static int parseInt(ByteBuffer buf, int from, int to) {
+    from = skipSpaces(buf, from, to);
+    to = trimEnd(buf, from, to);
+    if (from == to)
+      throw new NumberFormatException("empty integer field");
+
+    boolean negative = buf.get(from) == '-';
+    long value = 0;
+    for (int i = negative ? from + 1 : from; i < to; ++i) {
+      value = value * 10 + digit(buf, buf.get(i), from, to);
+      if (value > Integer.MAX_VALUE + 1L)
+        throw new NumberFormatException("integer out of range: " + decode(buf, from, to));
+    }
+    value = negative ? -value : value;
+    if (value > Integer.MAX_VALUE)
+      throw new NumberFormatException("integer out of range: " + decode(buf, from, to));
+    return (int) value;
+  }
+
+  /**
+   * Decodes a decimal number. Plain decimals of up to 15 digits are converted in place (exactly, as by
+   * Double.parseDouble), anything else, e.g. exponents, is passed on to Double.parseDouble.
+   */
+  static double parseDouble(ByteBuffer buf, int from, int to) {
+    from = skipSpaces(buf, from, to);
+    to = trimEnd(buf, from, to);
+    if (from == to)
+      throw new NumberFormatException("empty number field");
+
+    boolean negative = buf.get(from) == '-';
+    long mantissa = 0;
+    int nDigits = 0;
+    int nFractionDigits = -1;
+    for (int i = negative || buf.get(from) == '+' ? from + 1 : from; i < to; ++i) {
+      byte b = buf.get(i);
+      if (b == '.' && nFractionDigits < 0) {
+        nFractionDigits = 0;
+      } else if (b >= '0' && b <= '9' && nDigits < MAX_EXACT_DIGITS && nFractionDigits < POWERS_OF_TEN.length - 1) {
+        mantissa = mantissa * 10 + (b - '0');
+        if (mantissa > 0)
+          ++nDigits;
+        if (nFractionDigits >= 0)
+          ++nFractionDigits;
+      } else {
+        return Double.parseDouble(decode(buf, from, to));
+      }
+    }
+    double value = nFractionDigits > 0 ? mantissa / POWERS_OF_TEN[nFractionDigits] : mantissa;
+    return negative ? -value : value;
+  }
+
+  private static int digit(ByteBuffer buf, byte b, int from, int to) {
+    if (b < '0' || b > '9')
+      throw new NumberFormatException("not a number: " + decode(buf, from, to));
+    return b - '0';
+  }
+
+  /**
+   * @return true if the bytes in [from, to) are exactly the given bytes
+   */
+  static boolean equalBytes(ByteBuffer buf, int from, int to, byte[] bytes) {
+    if (to - from != bytes.length)
+      return false;
+    for (int i = 0; i < bytes.length; ++i) {
+      if (buf.get(from + i) != bytes[i])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the trimmed field in [from, to) consists of the single character c
+   */
+  static boolean isSingleChar(ByteBuffer buf, int from, int to, char c) {
+    from = skipSpaces(buf, from, to);
+    to = trimEnd(buf, from, to);
+    return to - from == 1 && buf.get(from) == c;
+  }
+
+  static String decode(ByteBuffer buf, int from, int to) {
+    byte[] bytes = new byte[to - from];
+    ByteBuffer range = buf.duplicate();
+    range.limit(to);
+    range.position(from);
+    range.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+}
@@ -0,0 +1,278 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Receives flocklab csv rows (the columns of the result file the parser loads) over TCP, e.g. from a test which is
+ * still running, and hands them to a sink as chunk loaders to be added with appendChunk().
+ *
+ * A selector thread reads all connections and moves complete rows into a bounded ring buffer; a consumer thread
+ * parses them straight from the bytes (as FlocklabCsvParser does with mapped files) and calls the sink. When the
+ * ring buffer is full, the connections whose rows don't fit aren't read anymore until the consumer caught up, so
+ * the TCP window closes and the producers are slowed down instead of the data piling up in memory. A sink which
+ * blocks slows the producers down the same way.
+ *
+ * Rows must not be longer than the read buffer of a connection, a connection sending a longer row is closed. A
+ * batch with a malformed row is dropped.
+ */
+public class CsvIngestServer implements Closeable {
+  public interface Sink {
+    /**
+     * Called from the consumer thread with the rows received since the last call.
+     */
+    void rowsReceived(FlocklabCsvLoader chunk) throws InterruptedException;
+  }
+
+  public static final int DEFAULT_BUFFER_CAPACITY = 4 << 20;
+  private static final int READ_BUFFER_SIZE = 64 << 10;
+
+  private final FlocklabCsvLoader parser;
+  private final Sink sink;
+  private final ByteRingBuffer ring;
+  private final Selector selector;
+  private ServerSocketChannel serverChannel;
+  private Thread selectorThread;
+  private Thread consumerThread;
+  private volatile boolean closed;
+
+  private static final class Connection {
+    final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    boolean endOfStream;
+  }
+
+  /**
+   * @param parser parses the received rows with parseRows(), it isn't changed
+   * @param bufferCapacity capacity of the ring buffer in bytes, at least the read buffer size of a connection
+   */
+  public CsvIngestServer(FlocklabCsvLoader parser, Sink sink, int bufferCapacity) throws IOException {
+    if (parser == null)
+      throw new IllegalArgumentException("parser can't be null");
+    if (sink == null)
+      throw new IllegalArgumentException("sink can't be null");
+    if (bufferCapacity < READ_BUFFER_SIZE)
+      throw new IllegalArgumentException("bufferCapacity must be at least " + READ_BUFFER_SIZE);
+
+    this.parser = parser;
+    this.sink = sink;
+    this.selector = Selector.open();
+    this.ring = new ByteRingBuffer(bufferCapacity, new Runnable() {
+      @Override
+      public void run() {
+        selector.wakeup();
+      }
+    });
+  }
+
+  /**
+   * Starts accepting connections on the loopback interface.
+   *
+   * @param port the port to listen on, 0 for any free port
+   */
+  public synchronized void start(int port) throws IOException {
+    start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+  }
+
+  public synchronized void start(InetSocketAddress address) throws IOException {
+    if (serverChannel != null)
+      throw new IllegalStateException("already started");
+    if (closed)
+      throw new IllegalStateException("closed");
+
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(address);
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+    selectorThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          selectLoop();
+        } catch (IOException e) {
+          if (!closed)
+            e.printStackTrace();
+        } finally {
+          ring.close();
+        }
+      }
+    }, "csv ingest " + getPort());
+    consumerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          consumeLoop();
+        } catch (InterruptedException e) {
+          // closed
+        }
+      }
+    }, "csv ingest consumer " + getPort());
+    selectorThread.setDaemon(true);
+    consumerThread.setDaemon(true);
+    selectorThread.start();
+    consumerThread.start();
+  }
+
+  /**
+   * @return the port the server listens on, -1 if it isn't started
+   */
+  public synchronized int getPort() {
+    if (serverChannel == null)
+      return -1;
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * Stops accepting and reading connections and the consumer; rows which weren't handed to the sink yet are lost.
+   */
+  @Override
+  public void close() throws IOException {
+    Thread selecting;
+    Thread consuming;
+    synchronized (this) {
+      closed = true;
+      selecting = selectorThread;
+      consuming = consumerThread;
+    }
+    selector.wakeup();
+    ring.close();
+    if (consuming != null)
+      consuming.interrupt();
+    try {
+      if (selecting != null)
+        selecting.join();
+      if (consuming != null)
+        consuming.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      for (SelectionKey key : selector.keys())
+        key.channel().close();
+      selector.close();
+    }
+  }
+
+  private void selectLoop() throws IOException {
+    // connections waiting for space in the ring buffer
+    List<SelectionKey> paused = new ArrayList<SelectionKey>();
+    while (!closed) {
+      selector.select();
+
+      for (Iterator<SelectionKey> it = paused.iterator(); it.hasNext(); ) {
+        SelectionKey key = it.next();
+        if (!key.isValid() || forwardRows(key)) {
+          it.remove();
+          resume(key);
+        }
+      }
+
+      for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+        SelectionKey key = it.next();
+        it.remove();
+        if (!key.isValid())
+          continue;
+        if (key.isAcceptable()) {
+          SocketChannel channel = serverChannel.accept();
+          if (channel != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+          }
+        } else if (key.isReadable()) {
+          if (!read(key)) {
+            key.interestOps(0);
+            paused.add(key);
+          } else {
+            resume(key);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads from the connection and forwards its complete rows.
+   *
+   * @return false if the rows didn't fit into the ring buffer
+   */
+  private boolean read(SelectionKey key) throws IOException {
+    Connection connection = (Connection) key.attachment();
+    int n;
+    try {
+      n = ((SocketChannel) key.channel()).read(connection.buffer);
+    } catch (IOException e) {
+      // the producer went away
+      key.channel().close();
+      return true;
+    }
+    if (n < 0) {
+      connection.endOfStream = true;
+      ByteBuffer buffer = connection.buffer;
+      if (buffer.position() > 0 && buffer.get(buffer.position() - 1) != '\n') {
+        // the last row isn't terminated
+        if (!buffer.hasRemaining()) {
+          key.channel().close();
+          return true;
+        }
+        buffer.put((byte) '\n');
+      }
+    }
+    return forwardRows(key);
+  }
+
+  /**
+   * Offers the complete rows in the read buffer to the ring buffer, closes the connection if it is done.
+   *
+   * @return false if the rows didn't fit into the ring buffer
+   */
+  private boolean forwardRows(SelectionKey key) throws IOException {
+    Connection connection = (Connection) key.attachment();
+    ByteBuffer buffer = connection.buffer;
+    int rowsEnd = buffer.position();
+    while (rowsEnd > 0 && buffer.get(rowsEnd - 1) != '\n')
+      --rowsEnd;
+
+    if (rowsEnd > 0) {
+      ByteBuffer rows = buffer.duplicate();
+      rows.position(0).limit(rowsEnd);
+      if (!ring.offer(rows))
+        return false;
+      buffer.flip();
+      buffer.position(rowsEnd);
+      buffer.compact();
+    } else if (!buffer.hasRemaining()) {
+      System.err.println("csv ingest: row longer than " + buffer.capacity() + " bytes, closing connection");
+      key.channel().close();
+      return true;
+    }
+
+    if (connection.endOfStream && buffer.position() == 0)
+      key.channel().close();
+    return true;
+  }
+
+  private static void resume(SelectionKey key) {
+    Connection connection = (Connection) key.attachment();
+    if (key.isValid() && !connection.endOfStream)
+      key.interestOps(SelectionKey.OP_READ);
+  }
+
+  private void consumeLoop() throws InterruptedException {
+    ByteBuffer batch = ByteBuffer.allocate(ring.capacity());
+    while (ring.take(batch) >= 0) {
+      batch.flip();
+      FlocklabCsvLoader chunk;
+      try {
+        chunk = parser.parseRows(batch);
+        batch.compact();
+      } catch (IOException | RuntimeException e) {
+        e.printStackTrace();
+        batch.clear();
+        continue;
+      }
+      sink.rowsReceived(chunk);
+    }
+  }
+}
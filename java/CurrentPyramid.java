@@ -0,0 +1,343 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sidecar of a CurrentTraceFromFile file holding min, max and sum of the values of every block of 2^k samples, for
+ * all k from BASE_SHIFT on. The sample count of a block follows from its position. Envelopes of any range of samples
+ * are combined from O(log n) blocks and at most two partial base blocks, so no spike is lost when zoomed out.
+ *
+ * For averages and integrals of any range in O(log n), the sidecar also holds compensated prefix sums at every
+ * start of a base block: the sum of the values before it and the trapezoid integral of the segments starting
+ * before it (value times tens of nanoseconds), see CompensatedSum.
+ *
+ * The sidecar is built in one streaming pass over the trace the first time it is opened and memory mapped
+ * afterwards. Layout (little endian): a header with the size and modification time of the trace, followed by the
+ * levels from the finest one on, every block as min, max, sum (doubles), and the prefixes as sum, its compensation,
+ * integral, its compensation (doubles). It is rebuilt when the trace changed.
+ */
+final class CurrentPyramid {
+  static final String SUFFIX = ".pyramid";
+  static final int BASE_SHIFT = 4;
+
+  private static final long MAGIC = 0x444d41525950434cL; // "LCPYRAMD"
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 8 + 4 + 8 + 8 + 8 + 4;
+  private static final int BLOCK_SIZE = 3 * 8;
+  private static final int PREFIX_SIZE = 4 * 8;
+  private static final int READ_BUFFER_SIZE = 1 << 20;
+  private static final int WRITE_BUFFER_SIZE = 64 << 10;
+
+  /**
+   * Min, max, sum and count of values.
+   */
+  static final class Summary {
+    double min;
+    double max;
+    double sum;
+    long count;
+
+    void clear() {
+      min = Double.POSITIVE_INFINITY;
+      max = Double.NEGATIVE_INFINITY;
+      sum = 0;
+      count = 0;
+    }
+
+    void add(double value) {
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      sum += value;
+      ++count;
+    }
+
+    void add(double min, double max, double sum, long count) {
+      this.min = Math.min(this.min, min);
+      this.max = Math.max(this.max, max);
+      this.sum += sum;
+      this.count += count;
+    }
+  }
+
+  private final long nSamples;
+  private final long[] levelOffsets;
+  private final long[] levelBlocks;
+  private final long prefixOffset;
+  private final MappedByteBuffer blocks;
+
+  private CurrentPyramid(long nSamples, MappedByteBuffer blocks) {
+    this.nSamples = nSamples;
+    this.levelBlocks = levelBlocks(nSamples);
+    this.levelOffsets = new long[levelBlocks.length];
+    long offset = HEADER_SIZE;
+    for (int level = 0; level < levelBlocks.length; ++level) {
+      levelOffsets[level] = offset;
+      offset += levelBlocks[level] * BLOCK_SIZE;
+    }
+    this.prefixOffset = offset;
+    this.blocks = blocks;
+  }
+
+  static File pyramidFileOf(File traceFile) {
+    return new File(traceFile.getParentFile(), traceFile.getName() + SUFFIX);
+  }
+
+  /**
+   * @return block counts of the levels, the last level has a single block
+   */
+  private static long[] levelBlocks(long nSamples) {
+    if (nSamples == 0)
+      return new long[0];
+    int nLevels = 1;
+    for (long n = (nSamples + (1 << BASE_SHIFT) - 1) >>> BASE_SHIFT; n > 1; n = (n + 1) >>> 1)
+      ++nLevels;
+    long[] counts = new long[nLevels];
+    counts[0] = (nSamples + (1 << BASE_SHIFT) - 1) >>> BASE_SHIFT;
+    for (int level = 1; level < nLevels; ++level)
+      counts[level] = (counts[level - 1] + 1) >>> 1;
+    return counts;
+  }
+
+  /**
+   * @return number of prefixes, one at every block start before the last sample
+   */
+  static long prefixCount(long nSamples) {
+    return nSamples == 0 ? 0 : ((nSamples - 1) >>> BASE_SHIFT) + 1;
+  }
+
+  private static long fileSize(long nSamples) {
+    long size = HEADER_SIZE;
+    for (long n : levelBlocks(nSamples))
+      size += n * BLOCK_SIZE;
+    return size + prefixCount(nSamples) * PREFIX_SIZE;
+  }
+
+  /**
+   * Maps the pyramid of the trace, building it first if it is missing or stale.
+   *
+   * @param nSamples number of samples of the trace
+   */
+  static CurrentPyramid open(File traceFile, long nSamples) throws IOException {
+    File pyramidFile = pyramidFileOf(traceFile);
+    long size = fileSize(nSamples);
+    if (size > Integer.MAX_VALUE)
+      throw new IOException("pyramid of " + traceFile + " would be larger than 2GB");
+    if (!isValid(pyramidFile, traceFile, nSamples, size))
+      build(traceFile, pyramidFile, nSamples);
+
+    RandomAccessFile file = new RandomAccessFile(pyramidFile, "r");
+    try {
+      MappedByteBuffer blocks = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+      blocks.order(ByteOrder.LITTLE_ENDIAN);
+      return new CurrentPyramid(nSamples, blocks);
+    } finally {
+      // the mapping stays valid
+      file.close();
+    }
+  }
+
+  private static boolean isValid(File pyramidFile, File traceFile, long nSamples, long size) throws IOException {
+    if (!pyramidFile.isFile() || pyramidFile.length() != size)
+      return false;
+    RandomAccessFile file = new RandomAccessFile(pyramidFile, "r");
+    try {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(file.getChannel(), header, 0);
+      return header.getLong() == MAGIC &&
+          header.getInt() == VERSION &&
+          header.getLong() == traceFile.length() &&
+          header.getLong() == traceFile.lastModified() &&
+          header.getLong() == nSamples &&
+          header.getInt() == BASE_SHIFT;
+    } finally {
+      file.close();
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer dst, long pos) throws IOException {
+    while (dst.hasRemaining()) {
+      if (channel.read(dst, pos + dst.position()) < 0)
+        throw new EOFException("unexpected end of " + channel);
+    }
+    dst.flip();
+  }
+
+  /**
+   * Streams the samples once, a block is written as soon as it is complete. Every level has a small write buffer
+   * flushed to the level's region, so the memory doesn't depend on the length of the trace.
+   */
+  private static void build(File traceFile, File pyramidFile, long nSamples) throws IOException {
+    long[] counts = levelBlocks(nSamples);
+    int nLevels = counts.length;
+    long[] positions = new long[nLevels];
+    ByteBuffer[] buffers = new ByteBuffer[nLevels];
+    long offset = HEADER_SIZE;
+    for (int level = 0; level < nLevels; ++level) {
+      positions[level] = offset;
+      offset += counts[level] * BLOCK_SIZE;
+      buffers[level] = ByteBuffer.allocate((int) Math.min(WRITE_BUFFER_SIZE, counts[level] * BLOCK_SIZE))
+          .order(ByteOrder.LITTLE_ENDIAN);
+    }
+    // the block being summarized on every level, level > 0 counts children
+    Summary[] open = new Summary[nLevels];
+    for (int level = 0; level < nLevels; ++level) {
+      open[level] = new Summary();
+      open[level].clear();
+    }
+
+    long prefixPosition = offset;
+    ByteBuffer prefixes = ByteBuffer.allocate((int) Math.min(WRITE_BUFFER_SIZE / PREFIX_SIZE,
+                                                             Math.max(1, prefixCount(nSamples))) * PREFIX_SIZE)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    CompensatedSum sum = new CompensatedSum();
+    CompensatedSum integral = new CompensatedSum();
+    long previousTime = 0;
+    double previousValue = 0;
+
+    File tmpFile = new File(pyramidFile.getParentFile(), pyramidFile.getName() + ".tmp");
+    RandomAccessFile in = new RandomAccessFile(traceFile, "r");
+    RandomAccessFile out = new RandomAccessFile(tmpFile, "rw");
+    try {
+      out.setLength(0);
+      FileChannel outChannel = out.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.putLong(MAGIC).putInt(VERSION).putLong(traceFile.length()).putLong(traceFile.lastModified())
+          .putLong(nSamples).putInt(BASE_SHIFT);
+      header.flip();
+      write(outChannel, header, 0);
+
+      FileChannel inChannel = in.getChannel();
+      ByteBuffer records = ByteBuffer.allocateDirect(READ_BUFFER_SIZE / CurrentTraceFromFile.RECORD_SIZE *
+                                                     CurrentTraceFromFile.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      long pos = 0;
+      long end = nSamples * CurrentTraceFromFile.RECORD_SIZE;
+      long iSample = 0;
+      while (pos < end) {
+        records.clear();
+        records.limit((int) Math.min(records.capacity(), end - pos));
+        readFully(inChannel, records, pos);
+        pos += records.limit();
+        for (int i = 0; i < records.limit(); i += CurrentTraceFromFile.RECORD_SIZE, ++iSample) {
+          long time = records.getLong(i);
+          double value = records.getDouble(i + CurrentTraceFromFile.TIMESTAMP_SIZE);
+          if (iSample > 0)
+            integral.add((previousValue + value) / 2 * (time - previousTime));
+          if ((iSample & ((1 << BASE_SHIFT) - 1)) == 0) {
+            if (prefixes.remaining() < PREFIX_SIZE) {
+              prefixes.flip();
+              prefixPosition = write(outChannel, prefixes, prefixPosition);
+              prefixes.clear();
+            }
+            prefixes.putDouble(sum.sum()).putDouble(sum.compensation())
+                .putDouble(integral.sum()).putDouble(integral.compensation());
+          }
+          sum.add(value);
+          previousTime = time;
+          previousValue = value;
+
+          open[0].add(value);
+          if (open[0].count == 1 << BASE_SHIFT)
+            close(0, open, buffers, positions, outChannel);
+        }
+      }
+      prefixes.flip();
+      write(outChannel, prefixes, prefixPosition);
+      // the partial blocks at the end
+      for (int level = 0; level < nLevels; ++level) {
+        if (open[level].count > 0)
+          close(level, open, buffers, positions, outChannel);
+        buffers[level].flip();
+        write(outChannel, buffers[level], positions[level]);
+      }
+      out.close();
+      in.close();
+      if (pyramidFile.exists() && !pyramidFile.delete())
+        throw new IOException("can't replace " + pyramidFile);
+      if (!tmpFile.renameTo(pyramidFile))
+        throw new IOException("can't rename " + tmpFile + " to " + pyramidFile);
+    } finally {
+      in.close();
+      out.close();
+      if (tmpFile.exists() && !tmpFile.delete())
+        System.err.println("can't delete " + tmpFile);
+    }
+  }
+
+  /**
+   * Writes the open block of the level and adds it to the one of the next level.
+   */
+  private static void close(int level, Summary[] open, ByteBuffer[] buffers, long[] positions, FileChannel out)
+      throws IOException {
+    Summary block = open[level];
+    ByteBuffer buffer = buffers[level];
+    if (buffer.remaining() < BLOCK_SIZE) {
+      buffer.flip();
+      positions[level] = write(out, buffer, positions[level]);
+      buffer.clear();
+    }
+    buffer.putDouble(block.min).putDouble(block.max).putDouble(block.sum);
+
+    if (level + 1 < open.length) {
+      Summary parent = open[level + 1];
+      // the count of a parent is its number of children
+      parent.add(block.min, block.max, block.sum, 1);
+      if (parent.count == 2)
+        close(level + 1, open, buffers, positions, out);
+    }
+    block.clear();
+  }
+
+  /**
+   * @return position after the written bytes
+   */
+  private static long write(FileChannel channel, ByteBuffer src, long pos) throws IOException {
+    while (src.hasRemaining())
+      pos += channel.write(src, pos);
+    return pos;
+  }
+
+  /**
+   * Adds the values of the blocks [from, to) of the finest level, combined from as few blocks as possible.
+   */
+  void addBlocks(long from, long to, Summary summary) {
+    for (int level = 0; from < to; ++level, from >>>= 1, to >>>= 1) {
+      if ((from & 1) != 0)
+        addBlock(level, from++, summary);
+      if ((to & 1) != 0)
+        addBlock(level, --to, summary);
+    }
+  }
+
+  /**
+   * @return sum of the values of the samples [from << BASE_SHIFT, to << BASE_SHIFT), from and to < prefixCount()
+   */
+  double sumBetween(long from, long to) {
+    int a = (int) (prefixOffset + from * PREFIX_SIZE);
+    int b = (int) (prefixOffset + to * PREFIX_SIZE);
+    return CompensatedSum.difference(blocks.getDouble(a), blocks.getDouble(a + 8),
+                                     blocks.getDouble(b), blocks.getDouble(b + 8));
+  }
+
+  /**
+   * @return trapezoid integral between the samples from << BASE_SHIFT and to << BASE_SHIFT, from and to <
+   *         prefixCount()
+   */
+  double integralBetween(long from, long to) {
+    int a = (int) (prefixOffset + from * PREFIX_SIZE);
+    int b = (int) (prefixOffset + to * PREFIX_SIZE);
+    return CompensatedSum.difference(blocks.getDouble(a + 16), blocks.getDouble(a + 24),
+                                     blocks.getDouble(b + 16), blocks.getDouble(b + 24));
+  }
+
+  private void addBlock(int level, long i, Summary summary) {
+    int offset = (int) (levelOffsets[level] + i * BLOCK_SIZE);
+    int shift = BASE_SHIFT + level;
+    long count = Math.min(nSamples, (i + 1) << shift) - (i << shift);
+    summary.add(blocks.getDouble(offset), blocks.getDouble(offset + 8), blocks.getDouble(offset + 16), count);
+  }
+}
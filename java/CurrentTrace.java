@@ -17,5 +17,12 @@ public interface CurrentTrace {
    */
   public Double averageIn(long timeA, long timeB);
 
+  /**
+   * @return the integral of the linearly interpolated samples between the two times, in value times tens of
+   *         nanoseconds (the charge for a current, times the supply voltage the energy); null if the range doesn't
+   *         overlap the samples
+   */
+  public Double integralIn(long timeA, long timeB);
+
   SampleIterator<Double> getMeasurementsCovering(long startTime, long endTime, long maxDeltaT) throws IOException;
 }
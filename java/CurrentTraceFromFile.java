@@ -3,52 +3,113 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Created by andreas on 03.11.14.
+ *
+ * The records are memory mapped in segments of 2^segmentShift records, so files larger than 2GB can be read, and
+ * read with absolute gets only. The trace has no mutable reading state: any number of threads can query it
+ * concurrently.
  */
 public class CurrentTraceFromFile implements CurrentTrace {
-  private static final int TIMESTAMP_SIZE = 8;
-  private static final int VALUE_SIZE = 8;
-  private static final int RECORD_SIZE = TIMESTAMP_SIZE + VALUE_SIZE;
-  private static final int FOOTER_SIZE = 8;
+  static final int TIMESTAMP_SIZE = 8;
+  static final int VALUE_SIZE = 8;
+  static final int RECORD_SIZE = TIMESTAMP_SIZE + VALUE_SIZE;
+  static final int FOOTER_SIZE = 8;
+  // 2^26 records of 16 bytes, i.e. segments of 1GB
+  static final int SEGMENT_SHIFT = 26;
 
-  private final RandomAccessFile file;
+  /**
+   * Decimated samples of getMeasurementsCovering(), replaced as a whole.
+   */
+  private static final class Decimation {
+    final long startTime;
+    final long endTime;
+    final long maxDeltaT;
+    final List<Long> times;
+    final List<Double> values;
+
+    Decimation(long startTime, long endTime, long maxDeltaT, List<Long> times, List<Double> values) {
+      this.startTime = startTime;
+      this.endTime = endTime;
+      this.maxDeltaT = maxDeltaT;
+      this.times = times;
+      this.values = values;
+    }
+  }
+
+  private final MappedByteBuffer[] segments;
+  private final int segmentShift;
+  private final long segmentMask;
   private final long nSamples;
 
   private final Long startTime;
   private final Long endTime;
   private final int nodeId;
 
-  private final byte[] recordBuffer;
-  private final ByteBuffer byteBuffer;
   private final long samplingPeriod;
+  // whether the samples are about samplingPeriod apart, so indexes can be predicted from times
+  private final boolean regular;
+  // null if it couldn't be built, zoomed out views are decimated then
+  private final CurrentPyramid pyramid;
 
 
   public CurrentTraceFromFile(File filePath) throws IOException {
+    this(filePath, SEGMENT_SHIFT);
+  }
+
+  /**
+   * @param segmentShift log2 of the records per mapped segment
+   */
+  CurrentTraceFromFile(File filePath, int segmentShift) throws IOException {
+    if (segmentShift < 0 || segmentShift > SEGMENT_SHIFT)
+      throw new IllegalArgumentException("illegal segment shift " + segmentShift);
     nodeId = Integer.parseInt(filePath.getName());
-    recordBuffer = new byte[RECORD_SIZE];
-    byteBuffer = ByteBuffer.wrap(recordBuffer).order(ByteOrder.LITTLE_ENDIAN);
-
-    file = new RandomAccessFile(filePath, "r");
-    if ((file.length() - FOOTER_SIZE) % RECORD_SIZE != 0)
-      throw new IllegalArgumentException(String.format("illegal file size. Footer missing?"));
-    nSamples = (file.length() - FOOTER_SIZE) / RECORD_SIZE;
-    file.seek(file.length() - FOOTER_SIZE);
-    file.readFully(recordBuffer, 0, 8);
-    samplingPeriod = byteBuffer.getLong(0);
+    this.segmentShift = segmentShift;
+    this.segmentMask = (1L << segmentShift) - 1;
+
+    RandomAccessFile file = new RandomAccessFile(filePath, "r");
+    try {
+      if ((file.length() - FOOTER_SIZE) % RECORD_SIZE != 0)
+        throw new IllegalArgumentException(String.format("illegal file size. Footer missing?"));
+      nSamples = (file.length() - FOOTER_SIZE) / RECORD_SIZE;
+      byte[] footer = new byte[FOOTER_SIZE];
+      file.seek(file.length() - FOOTER_SIZE);
+      file.readFully(footer);
+      samplingPeriod = ByteBuffer.wrap(footer).order(ByteOrder.LITTLE_ENDIAN).getLong(0);
+
+      // the mappings stay valid when the file is closed
+      segments = new MappedByteBuffer[(int) ((nSamples + segmentMask) >>> segmentShift)];
+      for (int i = 0; i < segments.length; ++i) {
+        long first = (long) i << segmentShift;
+        long count = Math.min(nSamples - first, 1L << segmentShift);
+        segments[i] = file.getChannel().map(FileChannel.MapMode.READ_ONLY, first * RECORD_SIZE, count * RECORD_SIZE);
+        segments[i].order(ByteOrder.LITTLE_ENDIAN);
+      }
+    } finally {
+      file.close();
+    }
     if (nSamples > 0) {
-      file.seek(0);
-      file.readFully(recordBuffer, 0, 8);
-      startTime = byteBuffer.getLong(0);
-      file.seek((nSamples - 1) * RECORD_SIZE);
-      file.readFully(recordBuffer, 0, 8);
-      endTime = byteBuffer.getLong(0);
+      startTime = getTime(0);
+      endTime = getTime(nSamples - 1);
     } else {
       startTime = endTime = null;
     }
+    // gaps and jitter up to a few percent of the trace are corrected locally
+    regular = nSamples > 0 && samplingPeriod > 0 &&
+        Math.abs((endTime - startTime) / samplingPeriod - (nSamples - 1)) <= nSamples / 16;
+
+    CurrentPyramid pyramid = null;
+    try {
+      pyramid = CurrentPyramid.open(filePath, nSamples);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    this.pyramid = pyramid;
   }
 
   @Override
@@ -69,27 +130,20 @@ public class CurrentTraceFromFile implements CurrentTrace {
   @Override
   public Double interpolationAt(long time) {
     Double result = null;
-    try {
-      long pos = searchInFileBinary(time);
-      if (pos >= 0) {
-        loadSample(pos);
-        result = readValue();
-      } else {
-        long lowerPos = -(pos + 1) - 1;
-        long upperPos = -(pos + 1);
-        if (lowerPos >= 0 && upperPos < nSamples) {
-          loadSample(upperPos);
-          double upperVal = readValue();
-          long upperTime = readTime();
-          loadSample(lowerPos);
-          long lowerTime = readTime();
-          double lowerVal = readValue();
-          if (lowerTime != upperTime)
-            result = lowerVal + (time - lowerTime) / (double)(upperTime - lowerTime) * (upperVal - lowerVal);
-        }
+    long pos = searchInFile(time);
+    if (pos >= 0) {
+      result = getValue(pos);
+    } else {
+      long lowerPos = -(pos + 1) - 1;
+      long upperPos = -(pos + 1);
+      if (lowerPos >= 0 && upperPos < nSamples) {
+        double upperVal = getValue(upperPos);
+        long upperTime = getTime(upperPos);
+        long lowerTime = getTime(lowerPos);
+        double lowerVal = getValue(lowerPos);
+        if (lowerTime != upperTime)
+          result = lowerVal + (time - lowerTime) / (double)(upperTime - lowerTime) * (upperVal - lowerVal);
       }
-    } catch (IOException e) {
-      e.printStackTrace();
     }
     return result;
   }
@@ -101,88 +155,188 @@ public class CurrentTraceFromFile implements CurrentTrace {
       timeA = timeB;
       timeB = end;
     }
-    try {
-      long startPos = searchInFileBinary(timeA);
-      if (startPos < 0)
-        startPos = -(startPos + 1);
-      long endPos = searchInFileBinary(timeB);
-      if (endPos < 0)
-        endPos = -(endPos + 1) - 1;
-      long count = 0;
-      double sum = 0d;
-      for (long pos = startPos; pos < nSamples && pos <= endPos; ++pos) {
-        ++count;
-        loadSample(pos);
-        sum += readValue();
-      }
-      if (count > 0)
-        return sum / count;
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
+    long startPos = searchInFile(timeA);
+    if (startPos < 0)
+      startPos = -(startPos + 1);
+    long endPos = searchInFile(timeB);
+    if (endPos < 0)
+      endPos = -(endPos + 1) - 1;
+    endPos = Math.min(endPos, nSamples - 1);
+    if (startPos <= endPos)
+      return sumSamples(startPos, endPos + 1) / (endPos + 1 - startPos);
     return null;
   }
 
-  private void loadSample(long iSample) throws IOException {
-    file.seek(iSample * RECORD_SIZE);
-    file.readFully(recordBuffer, 0, RECORD_SIZE);
+  @Override
+  public Double integralIn(long timeA, long timeB) {
+    if (nSamples == 0)
+      return null;
+    long start = Math.max(Math.min(timeA, timeB), startTime);
+    long end = Math.min(Math.max(timeA, timeB), endTime);
+    if (start > end)
+      return null;
+    long first = floorSample(start);
+    long last = floorSample(end);
+    return integralSamples(first, last) + integralInSegment(last, end) - integralInSegment(first, start);
+  }
+
+  /**
+   * @return index of the last sample at or before time, -1 if there is none
+   */
+  private long floorSample(long time) {
+    long pos = searchInFile(time);
+    return pos >= 0 ? pos : -(pos + 1) - 1;
   }
 
-  private long readTime() {
-    return byteBuffer.getLong(0);
+  /**
+   * @return integral from the sample to time, which is before the next sample
+   */
+  private double integralInSegment(long iSample, long time) {
+    long sampleTime = getTime(iSample);
+    double value = getValue(iSample);
+    if (time == sampleTime)
+      return 0;
+    double valueAtTime = value + (time - sampleTime) / (double) (getTime(iSample + 1) - sampleTime) *
+        (getValue(iSample + 1) - value);
+    return (value + valueAtTime) / 2 * (time - sampleTime);
   }
 
-  private double readValue() {
-    return byteBuffer.getDouble(TIMESTAMP_SIZE);
+  /**
+   * @return sum of the values of the samples [from, to), from the prefix sums of the pyramid for whole blocks
+   */
+  private double sumSamples(long from, long to) {
+    CompensatedSum sum = new CompensatedSum();
+    long firstBlock = (from + (1 << CurrentPyramid.BASE_SHIFT) - 1) >>> CurrentPyramid.BASE_SHIFT;
+    long endBlock = Math.min(to >>> CurrentPyramid.BASE_SHIFT, CurrentPyramid.prefixCount(nSamples) - 1);
+    if (pyramid != null && firstBlock < endBlock) {
+      addSamples(from, firstBlock << CurrentPyramid.BASE_SHIFT, sum);
+      sum.add(pyramid.sumBetween(firstBlock, endBlock));
+      addSamples(endBlock << CurrentPyramid.BASE_SHIFT, to, sum);
+    } else {
+      addSamples(from, to, sum);
+    }
+    return sum.value();
+  }
+
+  /**
+   * @return trapezoid integral from sample from to sample to
+   */
+  private double integralSamples(long from, long to) {
+    CompensatedSum integral = new CompensatedSum();
+    long firstBlock = (from + (1 << CurrentPyramid.BASE_SHIFT) - 1) >>> CurrentPyramid.BASE_SHIFT;
+    long endBlock = to >>> CurrentPyramid.BASE_SHIFT;
+    if (pyramid != null && firstBlock < endBlock) {
+      addSegments(from, firstBlock << CurrentPyramid.BASE_SHIFT, integral);
+      integral.add(pyramid.integralBetween(firstBlock, endBlock));
+      addSegments(endBlock << CurrentPyramid.BASE_SHIFT, to, integral);
+    } else {
+      addSegments(from, to, integral);
+    }
+    return integral.value();
+  }
+
+  private void addSamples(long from, long to, CompensatedSum sum) {
+    for (long pos = from; pos < to; ++pos)
+      sum.add(getValue(pos));
+  }
+
+  /**
+   * Adds the trapezoids of the segments between the samples from and to.
+   */
+  private void addSegments(long from, long to, CompensatedSum integral) {
+    for (long pos = from; pos < to; ++pos)
+      integral.add((getValue(pos) + getValue(pos + 1)) / 2 * (getTime(pos + 1) - getTime(pos)));
+  }
+
+  private void addSamples(long from, long to, CurrentPyramid.Summary summary) {
+    for (long pos = from; pos < to; ++pos)
+      summary.add(getValue(pos));
+  }
+
+  /**
+   * Summarizes the samples [from, to) from the pyramid blocks inside the range and the samples at its ends.
+   */
+  private void summarize(long from, long to, CurrentPyramid.Summary summary) {
+    summary.clear();
+    long firstBlock = (from + (1 << CurrentPyramid.BASE_SHIFT) - 1) >>> CurrentPyramid.BASE_SHIFT;
+    // the last block is complete if the range ends with the trace
+    long endBlock = to == nSamples ? (to + (1 << CurrentPyramid.BASE_SHIFT) - 1) >>> CurrentPyramid.BASE_SHIFT
+                                   : to >>> CurrentPyramid.BASE_SHIFT;
+    if (firstBlock >= endBlock) {
+      addSamples(from, to, summary);
+      return;
+    }
+    addSamples(from, firstBlock << CurrentPyramid.BASE_SHIFT, summary);
+    pyramid.addBlocks(firstBlock, endBlock, summary);
+    addSamples(Math.min(to, endBlock << CurrentPyramid.BASE_SHIFT), to, summary);
+  }
+
+  private long getTime(long iSample) {
+    return segments[(int) (iSample >>> segmentShift)].getLong((int) (iSample & segmentMask) * RECORD_SIZE);
+  }
+
+  private double getValue(long iSample) {
+    return segments[(int) (iSample >>> segmentShift)].getDouble((int) (iSample & segmentMask) * RECORD_SIZE +
+                                                               TIMESTAMP_SIZE);
   }
 
-  private final List<Long> times = new ArrayList<Long>();
-  private final List<Double> values = new ArrayList<Double>();
 //  private final List<Samples<Double>> samplesChunks = new ArrayList<Samples<Double>>();
-  private long cachedMaxDeltaT = Long.MAX_VALUE;
-  private long cachedStartTime = Long.MAX_VALUE;
-  private long cachedEndTime = Long.MIN_VALUE;
+  private volatile Decimation decimation =
+      new Decimation(Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, new ArrayList<Long>(), new ArrayList<Double>());
 
   @Override
   public SampleIterator<Double> getMeasurementsCovering(long startTime, long endTime, long maxDeltaT) throws IOException {
-    if (nSamples > 0 && (maxDeltaT < cachedMaxDeltaT || startTime < cachedStartTime || endTime > cachedEndTime)) {
-      times.clear();
-      values.clear();
+    Decimation cached = decimation;
+    if (nSamples > 0 && (maxDeltaT < cached.maxDeltaT || startTime < cached.startTime || endTime > cached.endTime)) {
+      List<Long> times = new ArrayList<Long>();
+      List<Double> values = new ArrayList<Double>();
 
-      long iSample = searchInFileBinary(startTime);
-//      long iSample = searchInFileInterpolating(startTime);
+      long iSample = searchInFile(startTime);
       if (iSample < 0)
         iSample = Math.max(-(iSample + 2), 0);
-      loadSample(iSample);
 
 
-      long time = readTime();
+      long time = getTime(iSample);
       long dataMaxDeltaT = 0L;
-      if (time <= endTime) {
+      final long jumpWidth = Math.max(maxDeltaT / samplingPeriod, 1);
+      if (time <= endTime && pyramid != null && jumpWidth > 2) {
+        // min and max of the samples of every point, so no spike gets lost
+        long lastSample = searchInFile(endTime);
+        lastSample = Math.min(nSamples - 1, lastSample < 0 ? -(lastSample + 1) : lastSample);
+        CurrentPyramid.Summary summary = new CurrentPyramid.Summary();
+        long lastTime = time;
+        for (long from = iSample; from <= lastSample; from += jumpWidth) {
+          long to = Math.min(lastSample + 1, from + jumpWidth);
+          summarize(from, to, summary);
+          time = getTime(from);
+          times.add(time);
+          values.add(summary.min);
+          times.add(getTime(to - 1));
+          values.add(summary.max);
+          dataMaxDeltaT = Math.max(time - lastTime, dataMaxDeltaT);
+          lastTime = time;
+        }
+      } else if (time <= endTime) {
         times.add(time);
-        values.add(readValue());
-
-        final long jumpWidth = Math.max(maxDeltaT / samplingPeriod, 1);
+        values.add(getValue(iSample));
 
         do {
           long lastTime = time;
           iSample = Math.min(nSamples - 1, iSample + jumpWidth);
 
-          loadSample(iSample);
-          time = readTime();
+          time = getTime(iSample);
           times.add(time);
-          values.add(readValue());
+          values.add(getValue(iSample));
 
           dataMaxDeltaT = Math.max(time - lastTime, dataMaxDeltaT);
 
         } while (time < endTime && iSample < nSamples - 1);
       }
 
-      cachedStartTime = startTime;
-      cachedEndTime = endTime;
-      cachedMaxDeltaT = Math.min(maxDeltaT, dataMaxDeltaT);
+      cached = new Decimation(startTime, endTime, Math.min(maxDeltaT, dataMaxDeltaT), times, values);
+      decimation = cached;
     }
-    return new ListSampleIterator<Double>(times, values);
+    return new ListSampleIterator<Double>(cached.times, cached.values);
   }
 
 
@@ -195,61 +349,76 @@ public class CurrentTraceFromFile implements CurrentTrace {
    * @param searchTime the time to search in the file
    * @return index of the sample with the specified time or -(index_where_it_should_be_inserted + 1)
    */
-  private long searchInFileBinary(final long searchTime) throws IOException {
+  private long searchInFileBinary(final long searchTime) {
     long lower = 0;
     long upper = nSamples;
 
-    long time = searchTime + 1; // just some value not equal to searchTime
     while (lower < upper) {
       long current = lower + (upper - lower) / 2;
-      time = getTime(current);
-      if (searchTime > time)
+      if (searchTime > getTime(current))
         lower = current + 1;
       else
         upper = current;
     }
 
-    if (time == searchTime)
+    // the last probed sample isn't necessarily the one at upper
+    if (upper < nSamples && getTime(upper) == searchTime)
       return upper;
     else
       return -(upper + 1);
   }
 
-  private long searchInFileInterpolating(final long searchTime) throws IOException {
-    if (nSamples == 0)
-      return -1;
+  /**
+   * Like searchInFileBinary(), but starts at the index predicted from the sampling period and gallops from there:
+   * in a regular file the sample is found with one or two reads, gaps and jitter cost O(log distance) reads.
+   * Irregular files are searched binary.
+   */
+  private long searchInFile(final long searchTime) {
+    if (!regular)
+      return searchInFileBinary(searchTime);
+    if (searchTime <= startTime)
+      return searchTime == startTime ? 0 : -1;
+    if (searchTime > endTime)
+      return -(nSamples + 1);
+
+    long predicted = Math.min(nSamples - 1, (searchTime - startTime) / samplingPeriod);
+    // the first sample not before searchTime is in [lower, upper]
+    long lower;
+    long upper;
+    long step = 1;
+    if (getTime(predicted) < searchTime) {
+      lower = predicted + 1;
+      upper = nSamples;
+      for (long i = lower; i < nSamples; i = lower + step - 1, step <<= 1) {
+        if (getTime(i) >= searchTime) {
+          upper = i;
+          break;
+        }
+        lower = i + 1;
+      }
+    } else {
+      lower = 0;
+      upper = predicted;
+      for (long i = upper - 1; i >= 0; i = upper - step, step <<= 1) {
+        if (getTime(i) < searchTime) {
+          lower = i + 1;
+          break;
+        }
+        upper = i;
+      }
+    }
 
-    long lower = 0;
-    long lowerTime = getTime(lower);
-    long upper = nSamples - 1;
-    long upperTime = getTime(upper);
-
-    while (lowerTime <= searchTime && searchTime <= upperTime) {
-      long mid = lower + (searchTime - lowerTime) / (upperTime - lowerTime) * (upper - lower);
-      long time = getTime(mid);
-      if (time < searchTime) {
-        lower = mid + 1;
-        lowerTime = getTime(lower);
-      } else if (searchTime < time) {
-        upper = mid - 1;
-        upperTime = getTime(upper);
-      } else
-        return mid;
+    while (lower < upper) {
+      long current = lower + (upper - lower) / 2;
+      if (getTime(current) < searchTime)
+        lower = current + 1;
+      else
+        upper = current;
     }
-    if (searchTime < lowerTime)
-      return -lower - 1;
+    if (getTime(upper) == searchTime)
+      return upper;
     else
-      return -(upper + 1) - 1;
-  }
-
-  /**
-   *
-   * @param pos  0 <= _ < nSamples
-   */
-  private long getTime(long pos) throws IOException {
-    file.seek(pos * RECORD_SIZE);
-    file.readFully(recordBuffer, 0, TIMESTAMP_SIZE);
-    return byteBuffer.getLong(0);
+      return -(upper + 1);
   }
 
 
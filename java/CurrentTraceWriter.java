@@ -0,0 +1,145 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams samples into the binary format read by CurrentTraceFromFile: little endian records of time (long, tens
+ * of nanoseconds) and value (double), followed by the sampling period (long) as footer.
+ *
+ * Records are collected in a direct buffer and written in large blocks. Every flush() writes the footer behind
+ * the records written so far, so the file can be read while samples are still appended; the next flush()
+ * overwrites it again.
+ */
+public class CurrentTraceWriter implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  private final ByteBuffer footer;
+  // <= 0 if it is estimated from the samples
+  private final long samplingPeriod;
+  // end of the records in the file
+  private long recordsEnd;
+  private long nSamples;
+  private long firstTime;
+  private long lastTime;
+
+  /**
+   * Creates the file, replacing an existing one.
+   *
+   * @param samplingPeriod sampling period written to the footer; if it is not positive, the average distance
+   *                       of the samples is written
+   */
+  public CurrentTraceWriter(File file, long samplingPeriod) throws IOException {
+    this(new RandomAccessFile(file, "rw"), samplingPeriod);
+    this.file.setLength(0);
+  }
+
+  private CurrentTraceWriter(RandomAccessFile file, long samplingPeriod) {
+    this.file = file;
+    this.channel = file.getChannel();
+    this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    this.footer = ByteBuffer.allocate(CurrentTraceFromFile.FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    this.samplingPeriod = samplingPeriod;
+  }
+
+  /**
+   * Opens an existing file to append further samples. The sampling period of its footer is kept.
+   */
+  public static CurrentTraceWriter append(File file) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "rw");
+    try {
+      long size = in.length();
+      if (size < CurrentTraceFromFile.FOOTER_SIZE || (size - CurrentTraceFromFile.FOOTER_SIZE) % CurrentTraceFromFile.RECORD_SIZE != 0)
+        throw new IOException(String.format("illegal size of %s. Footer missing?", file));
+
+      ByteBuffer record = ByteBuffer.allocate(CurrentTraceFromFile.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(in.getChannel(), record, size - CurrentTraceFromFile.FOOTER_SIZE, CurrentTraceFromFile.FOOTER_SIZE);
+      CurrentTraceWriter writer = new CurrentTraceWriter(in, record.getLong(0));
+      writer.recordsEnd = size - CurrentTraceFromFile.FOOTER_SIZE;
+      writer.nSamples = writer.recordsEnd / CurrentTraceFromFile.RECORD_SIZE;
+      if (writer.nSamples > 0) {
+        readFully(in.getChannel(), record, 0, CurrentTraceFromFile.TIMESTAMP_SIZE);
+        writer.firstTime = record.getLong(0);
+        readFully(in.getChannel(), record, writer.recordsEnd - CurrentTraceFromFile.RECORD_SIZE, CurrentTraceFromFile.TIMESTAMP_SIZE);
+        writer.lastTime = record.getLong(0);
+      }
+      return writer;
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer dst, long pos, int length) throws IOException {
+    dst.clear();
+    dst.limit(length);
+    while (dst.hasRemaining()) {
+      if (channel.read(dst, pos + dst.position()) < 0)
+        throw new IOException("unexpected end of file");
+    }
+  }
+
+  /**
+   * @param time not before the time of the previous sample
+   */
+  public void append(long time, double value) throws IOException {
+    if (nSamples > 0 && time < lastTime)
+      throw new IllegalArgumentException(String.format("sample at %d appended after sample at %d", time, lastTime));
+
+    if (buffer.remaining() < CurrentTraceFromFile.RECORD_SIZE)
+      writeBuffer();
+    buffer.putLong(time);
+    buffer.putDouble(value);
+    if (nSamples == 0)
+      firstTime = time;
+    lastTime = time;
+    ++nSamples;
+  }
+
+  public long getSampleCount() {
+    return nSamples;
+  }
+
+  /**
+   * Writes the buffered samples and the footer.
+   */
+  public void flush() throws IOException {
+    writeBuffer();
+    footer.clear();
+    footer.putLong(0, getSamplingPeriod());
+    while (footer.hasRemaining())
+      channel.write(footer, recordsEnd + footer.position());
+  }
+
+  private void writeBuffer() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining())
+      recordsEnd += channel.write(buffer, recordsEnd);
+    buffer.clear();
+  }
+
+  private long getSamplingPeriod() {
+    if (samplingPeriod > 0)
+      return samplingPeriod;
+    // CurrentTraceFromFile divides by the sampling period, it must not be 0
+    return nSamples > 1 ? Math.max(1, (lastTime - firstTime) / (nSamples - 1)) : 1;
+  }
+
+  /**
+   * Flushes and closes the file.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      file.close();
+    }
+  }
+}
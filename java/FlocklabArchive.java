@@ -0,0 +1,73 @@
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The result files of a flocklab measurement inside the downloaded tar.gz archive. The files are streamed from the
+ * archive, so it doesn't need to be extracted; there are no extracted files to return.
+ */
+public class FlocklabArchive implements IFlockLabMeasurementFiles {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final File archive;
+
+  public FlocklabArchive(File archive) {
+    if (archive == null)
+      throw new IllegalArgumentException("Archive can't be null");
+    if (!archive.isFile())
+      throw new IllegalArgumentException("Archive must be a file");
+
+    this.archive = archive;
+  }
+
+  public static boolean isArchive(File file) {
+    String name = file.getName().toLowerCase();
+    return file.isFile() && (name.endsWith(".tar.gz") || name.endsWith(".tgz"));
+  }
+
+  public File getArchive() {
+    return archive;
+  }
+
+  @Override
+  public File getSerialOutputFile() {
+    return null;
+  }
+
+  @Override
+  public File getGpioTraceFile() {
+    return null;
+  }
+
+  @Override
+  public InputStream openSerialOutput() throws IOException {
+    return openEntry("serial.csv");
+  }
+
+  @Override
+  public InputStream openGpioTrace() throws IOException {
+    return openEntry("gpiotraces.csv");
+  }
+
+  /**
+   * Decompresses the archive up to the first file with the given name.
+   *
+   * @return stream of the file content (closing it closes the archive) or null if there is no such file
+   */
+  private InputStream openEntry(String baseName) throws IOException {
+    InputStream in = new GZIPInputStream(new FileInputStream(archive), BUFFER_SIZE);
+    boolean found = false;
+    try {
+      TarReader tar = new TarReader(in);
+      for (TarReader.Entry entry = tar.next(); entry != null; entry = tar.next()) {
+        if (entry.getBaseName().equals(baseName)) {
+          found = true;
+          return entry.getContent();
+        }
+      }
+      return null;
+    } finally {
+      if (!found)
+        in.close();
+    }
+  }
+}
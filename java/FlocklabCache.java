@@ -0,0 +1,318 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Binary sidecar caching the parsed content of a flocklab result file, so it doesn't have to be parsed again.
+ *
+ * Layout (little endian): magic, format version, name of the loader class, size, modification time and content
+ * hash of the csv file the cache was built from, followed by the columns written by the loader.
+ * A cache is only used if all of these match; otherwise it is considered stale and rebuilt.
+ */
+final class FlocklabCache {
+  static final String SUFFIX = ".cache";
+
+  private static final long MAGIC = 0x454843414a4f4f4cL; // "LOOJACHE"
+  private static final int VERSION = 4;
+
+  /**
+   * The content hash only covers the first and last bytes and some samples in between, hashing the complete
+   * file would take about as long as parsing it. Together with size and modification time this is good enough
+   * to detect replaced result files.
+   */
+  private static final int HASH_EDGE_SIZE = 64 << 10;
+  private static final int HASH_SAMPLE_SIZE = 4 << 10;
+  private static final int HASH_SAMPLES = 16;
+
+  private FlocklabCache() {
+  }
+
+  static File cacheFileOf(File csvFile) {
+    return new File(csvFile.getParentFile(), csvFile.getName() + SUFFIX);
+  }
+
+  /**
+   * @return true if the cache exists and was written by the given loader class for the current csv file
+   */
+  static boolean isValid(File cacheFile, File csvFile, Class<?> loaderClass) {
+    Reader in = null;
+    try {
+      in = open(cacheFile, csvFile, loaderClass);
+      return in != null;
+    } catch (IOException e) {
+      return false;
+    } catch (RuntimeException e) {
+      return false;
+    } finally {
+      if (in != null)
+        in.close();
+    }
+  }
+
+  /**
+   * @return a reader positioned at the first column or null if the cache is stale
+   */
+  static Reader open(File cacheFile, File csvFile, Class<?> loaderClass) throws IOException {
+    if (!cacheFile.isFile() || !csvFile.isFile())
+      return null;
+
+    Reader in = new Reader(cacheFile);
+    boolean valid = false;
+    try {
+      valid = in.getLong() == MAGIC &&
+          in.getInt() == VERSION &&
+          in.getString().equals(loaderClass.getName()) &&
+          in.getLong() == csvFile.length() &&
+          in.getLong() == csvFile.lastModified() &&
+          in.getLong() == contentHash(csvFile);
+    } finally {
+      if (!valid)
+        in.close();
+    }
+    return valid ? in : null;
+  }
+
+  /**
+   * Creates a writer for the cache of the csv file. The cache only replaces an existing one when the writer is
+   * committed.
+   */
+  static Writer create(File cacheFile, File csvFile, Class<?> loaderClass) throws IOException {
+    Writer out = new Writer(cacheFile);
+    out.putLong(MAGIC);
+    out.putInt(VERSION);
+    out.putString(loaderClass.getName());
+    out.putLong(csvFile.length());
+    out.putLong(csvFile.lastModified());
+    out.putLong(contentHash(csvFile));
+    return out;
+  }
+
+  private static long contentHash(File csvFile) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(csvFile, "r");
+    try {
+      long size = file.length();
+      CRC32 crc = new CRC32();
+      byte[] block = new byte[HASH_EDGE_SIZE];
+      hashBlock(file, crc, block, 0, HASH_EDGE_SIZE);
+      for (int i = 1; i <= HASH_SAMPLES; ++i)
+        hashBlock(file, crc, block, size / (HASH_SAMPLES + 1) * i, HASH_SAMPLE_SIZE);
+      hashBlock(file, crc, block, size - HASH_EDGE_SIZE, HASH_EDGE_SIZE);
+      return crc.getValue();
+    } finally {
+      file.close();
+    }
+  }
+
+  private static void hashBlock(RandomAccessFile file, CRC32 crc, byte[] block, long pos, int length) throws IOException {
+    pos = Math.max(0, pos);
+    length = (int) Math.min(length, file.length() - pos);
+    if (length > 0) {
+      file.seek(pos);
+      file.readFully(block, 0, length);
+      crc.update(block, 0, length);
+    }
+  }
+
+  /**
+   * Sequential reader mapping the cache window by window, so caches larger than 2GB can be read as well.
+   */
+  static final class Reader implements Closeable {
+    private static final int WINDOW_SIZE = 64 << 20;
+
+    private final FileInputStream file;
+    private final FileChannel channel;
+    private final long size;
+    private ByteBuffer window;
+    private long windowStart;
+
+    private Reader(File cacheFile) throws IOException {
+      this.file = new FileInputStream(cacheFile);
+      this.channel = file.getChannel();
+      this.size = channel.size();
+      this.windowStart = 0;
+      this.window = ByteBuffer.allocate(0);
+    }
+
+    /**
+     * Makes sure the window holds the next n bytes.
+     */
+    private ByteBuffer ensure(int n) throws IOException {
+      if (window.remaining() < n) {
+        windowStart += window.position();
+        if (size - windowStart < n)
+          throw new EOFException("truncated cache file");
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(Math.max(WINDOW_SIZE, n), size - windowStart));
+        window.order(ByteOrder.LITTLE_ENDIAN);
+      }
+      return window;
+    }
+
+    byte getByte() throws IOException {
+      return ensure(1).get();
+    }
+
+    int getInt() throws IOException {
+      return ensure(4).getInt();
+    }
+
+    long getLong() throws IOException {
+      return ensure(8).getLong();
+    }
+
+    void getBytes(byte[] dst, int offset, int length) throws IOException {
+      while (length > 0) {
+        int n = Math.min(length, WINDOW_SIZE);
+        ensure(n).get(dst, offset, n);
+        offset += n;
+        length -= n;
+      }
+    }
+
+    void getInts(int[] dst, int length) throws IOException {
+      for (int offset = 0; offset < length; ) {
+        int n = Math.min(length - offset, WINDOW_SIZE / 4);
+        ByteBuffer w = ensure(n * 4);
+        w.asIntBuffer().get(dst, offset, n);
+        w.position(w.position() + n * 4);
+        offset += n;
+      }
+    }
+
+    void getLongs(long[] dst, int length) throws IOException {
+      for (int offset = 0; offset < length; ) {
+        int n = Math.min(length - offset, WINDOW_SIZE / 8);
+        ByteBuffer w = ensure(n * 8);
+        w.asLongBuffer().get(dst, offset, n);
+        w.position(w.position() + n * 8);
+        offset += n;
+      }
+    }
+
+    String getString() throws IOException {
+      int length = getInt();
+      if (length < 0 || length > size)
+        throw new IOException("corrupt cache file");
+      byte[] bytes = new byte[length];
+      getBytes(bytes, 0, length);
+      return new String(bytes, CsvFields.UTF_8);
+    }
+
+    @Override
+    public void close() {
+      try {
+        file.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Buffered little endian writer. Writes to a temporary file which replaces the cache on commit().
+   */
+  static final class Writer implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final File cacheFile;
+    private final File tmpFile;
+    private final FileOutputStream file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    private Writer(File cacheFile) throws IOException {
+      this.cacheFile = cacheFile;
+      this.tmpFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+      this.file = new FileOutputStream(tmpFile);
+      this.channel = file.getChannel();
+      this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private ByteBuffer ensure(int n) throws IOException {
+      if (buffer.remaining() < n)
+        flush();
+      return buffer;
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+      buffer.clear();
+    }
+
+    void putByte(byte b) throws IOException {
+      ensure(1).put(b);
+    }
+
+    void putInt(int i) throws IOException {
+      ensure(4).putInt(i);
+    }
+
+    void putLong(long l) throws IOException {
+      ensure(8).putLong(l);
+    }
+
+    void putBytes(byte[] src, int offset, int length) throws IOException {
+      while (length > 0) {
+        int n = Math.min(length, BUFFER_SIZE);
+        ensure(n).put(src, offset, n);
+        offset += n;
+        length -= n;
+      }
+    }
+
+    void putInts(int[] src, int length) throws IOException {
+      for (int offset = 0; offset < length; ) {
+        int n = Math.min(length - offset, BUFFER_SIZE / 4);
+        ByteBuffer b = ensure(n * 4);
+        b.asIntBuffer().put(src, offset, n);
+        b.position(b.position() + n * 4);
+        offset += n;
+      }
+    }
+
+    void putLongs(long[] src, int length) throws IOException {
+      for (int offset = 0; offset < length; ) {
+        int n = Math.min(length - offset, BUFFER_SIZE / 8);
+        ByteBuffer b = ensure(n * 8);
+        b.asLongBuffer().put(src, offset, n);
+        b.position(b.position() + n * 8);
+        offset += n;
+      }
+    }
+
+    void putString(String s) throws IOException {
+      byte[] bytes = s.getBytes(CsvFields.UTF_8);
+      putInt(bytes.length);
+      putBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes the remaining data and replaces the cache file.
+     */
+    void commit() throws IOException {
+      flush();
+      file.close();
+      if (cacheFile.exists() && !cacheFile.delete())
+        throw new IOException("can't replace " + cacheFile);
+      if (!tmpFile.renameTo(cacheFile))
+        throw new IOException("can't rename " + tmpFile + " to " + cacheFile);
+    }
+
+    /**
+     * Discards the written data unless the writer was committed.
+     */
+    @Override
+    public void close() {
+      try {
+        file.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      if (tmpFile.exists() && !tmpFile.delete())
+        System.err.println("can't delete " + tmpFile);
+    }
+  }
+}
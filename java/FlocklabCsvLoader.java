@@ -1,51 +1,412 @@
 import java.io.*;
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
-public abstract class FlocklabCsvLoader {
-  private final BufferedReader fileReader;
-  private long startTime;
-  private long endTime;
-  private int nSkipColumns;
+/**
+ * Parser whose events can be loaded in parallel chunks, extended incrementally and cached: the rows of a chunk
+ * are parsed into a loader of its own (see newChunkLoader()), which is merged into this loader afterwards.
+ */
+public abstract class FlocklabCsvLoader extends FlocklabCsvParser {
+  /**
+   * Files are not split into chunks smaller than this for parallel loading.
+   */
+  private static final int MIN_CHUNK_SIZE = 1 << 20;
+  /**
+   * Streams are read in blocks of this size, which are parsed in parallel.
+   */
+  private static final int STREAM_BLOCK_SIZE = 8 << 20;
+
+  protected FlocklabCsvLoader(File file) {
+    super(file);
+  }
 
   protected FlocklabCsvLoader(Reader reader) {
-    assert reader != null;
+    super(reader);
+  }
 
-    this.fileReader = new BufferedReader(reader);
+  /**
+   * Constructor for loaders which only collect the rows of a chunk of another loader's input or are fed through
+   * load(InputStream, ForkJoinPool).
+   */
+  protected FlocklabCsvLoader() {
+    super();
+  }
 
-    this.startTime = Long.MAX_VALUE;
-    this.endTime = Long.MIN_VALUE;
+  /**
+   * Loads the input split at row boundaries into (at most) nChunks chunks, which are parsed in parallel into
+   * chunk loaders and merged afterwards. The result is the same as the one of load().
+   */
+  public final void load(ForkJoinPool pool, int nChunks) throws IOException {
+    if (pool == null)
+      throw new IllegalArgumentException("pool can't be null");
+    if (nChunks < 1)
+      throw new IllegalArgumentException("nChunks must be positive");
+
+    if (getFile() != null) {
+      FileInputStream in = new FileInputStream(getFile());
+      try {
+        FileChannel channel = in.getChannel();
+        long size = channel.size();
+        loadChunks(pool, channel, null, chunkBoundaries(channel, null, size, nChunks));
+      } finally {
+        in.close();
+      }
+    } else {
+      ByteBuffer bytes = readInput();
+      loadChunks(pool, null, bytes, chunkBoundaries(null, bytes, bytes.limit(), nChunks));
+    }
   }
 
-  public final void load() throws IOException {
-    String line;
+  /**
+   * Loads the rows of a stream, e.g. a file inside a compressed archive. The calling thread reads the stream (and
+   * does the decompression) block by block while the blocks, cut at row boundaries, are parsed by the pool. The
+   * result is the same as the one of load().
+   */
+  public final void load(InputStream in, ForkJoinPool pool) throws IOException {
+    if (in == null)
+      throw new IllegalArgumentException("in can't be null");
+    if (pool == null)
+      throw new IllegalArgumentException("pool can't be null");
 
-    while ((line = fileReader.readLine()) != null) {
-      if (line.startsWith("#"))
+    // at most two blocks per worker are buffered, the reader waits for the oldest one otherwise; a task releases
+    // its block when it is parsed, only its chunk loader is kept until the chunks are merged
+    int maxPending = 2 * pool.getParallelism();
+    final List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+    byte[] block = new byte[STREAM_BLOCK_SIZE];
+    int filled = 0;
+    boolean endOfInput = false;
+    while (!endOfInput) {
+      int n = in.read(block, filled, block.length - filled);
+      if (n < 0)
+        endOfInput = true;
+      else
+        filled += n;
+      if (filled < block.length && !endOfInput)
         continue;
 
-      String [] parts = line.split(",", 3);
+      // the block ends after its last complete row, the rest is carried over to the next block
+      ByteBuffer bytes = ByteBuffer.wrap(block, 0, filled);
+      int end = endOfInput ? filled : lastRowEnd(bytes, filled);
+      if (end == 0 && !endOfInput) {
+        block = Arrays.copyOf(block, block.length * 2);
+        continue;
+      }
+
+      if (end > 0) {
+        FlocklabCsvLoader chunk = newChunkLoader();
+        chunk.setProgress(getProgress());
+        ChunkTask task = new ChunkTask(chunk, null, bytes, 0, end);
+        tasks.add(task);
+        pool.execute(task);
+        if (tasks.size() >= maxPending)
+          tasks.get(tasks.size() - maxPending).join();
+      }
+
+      byte[] next = new byte[Math.max(STREAM_BLOCK_SIZE, filled - end)];
+      System.arraycopy(block, end, next, 0, filled - end);
+      filled -= end;
+      block = next;
+      if (getProgress() != null)
+        getProgress().checkCancelled();
+    }
+    mergeChunkTasks(pool, tasks);
+  }
+
+  /**
+   * @return offset after the last newline of the file behind offset from, from if there is none
+   */
+  private static long lastRowEnd(File file, long from) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      return lastRowEnd(in.getChannel(), from, in.length());
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @return offset after the last newline in [from, to) of the channel, from if there is none
+   */
+  private static long lastRowEnd(FileChannel channel, long from, long to) throws IOException {
+    ByteBuffer probe = ByteBuffer.allocate(4096);
+    for (long blockEnd = to; blockEnd > from; blockEnd -= probe.capacity()) {
+      long blockStart = Math.max(from, blockEnd - probe.capacity());
+      probe.clear();
+      probe.limit((int) (blockEnd - blockStart));
+      while (probe.hasRemaining()) {
+        if (channel.read(probe, blockStart + probe.position()) <= 0)
+          break;
+      }
+      int end = lastRowEnd(probe, probe.position());
+      if (end > 0)
+        return blockStart + end;
+    }
+    return from;
+  }
+
+  /**
+   * Parses the rows of the byte range [from, to) of the input file into a new chunk loader, leaving this loader
+   * unchanged. Both from and to have to be row boundaries, e.g. offsets taken from a CsvBlockIndex.
+   */
+  public final FlocklabCsvLoader loadRange(long from, long to) throws IOException {
+    if (getFile() == null)
+      throw new IllegalStateException("only loaders reading a file can load ranges");
+    if (from < 0 || from > to)
+      throw new IllegalArgumentException("illegal range");
+
+    FlocklabCsvLoader chunk = newChunkLoader();
+    FileInputStream in = new FileInputStream(getFile());
+    try {
+      chunk.consumeChannel(in.getChannel(), from, to);
+    } finally {
+      in.close();
+    }
+    return chunk;
+  }
+
+  /**
+   * Parses the complete rows appended to the input file after offset from into a new chunk loader, leaving this
+   * loader unchanged (so it can run on another thread). The chunk is added with appendChunk(); the offset of the
+   * next call is the chunk's getLoadedSize().
+   *
+   * @param from a row boundary, initially the getLoadedSize() of this loader
+   * @return null if no complete row was appended
+   */
+  public final FlocklabCsvLoader loadAppended(long from) throws IOException {
+    if (getFile() == null)
+      throw new IllegalStateException("only loaders reading a file can load appended rows");
+
+    long end = lastRowEnd(getFile(), from);
+    return end > from ? loadRange(from, end) : null;
+  }
+
+  /**
+   * Parses the complete rows in [position, limit) of the buffer into a new chunk loader, leaving this loader
+   * unchanged, e.g. rows received over the network. The buffer's position is moved behind the parsed rows, a
+   * trailing row without line terminator is left. The chunk is added with appendChunk().
+   */
+  public final FlocklabCsvLoader parseRows(ByteBuffer rows) throws IOException {
+    FlocklabCsvLoader chunk = newChunkLoader();
+    rows.position(chunk.consumeLines(rows, rows.position(), rows.limit(), false));
+    return chunk;
+  }
+
+  /**
+   * Adds the events of a chunk loaded by loadAppended() or parseRows(). Existing traces are extended in place.
+   */
+  public final void appendChunk(final FlocklabCsvLoader chunk) {
+    if (chunk == null || chunk.getClass() != getClass())
+      throw new IllegalArgumentException("chunk must be loaded by a loader of the same kind");
+
+    ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        mergeChunks(Collections.singletonList(chunk));
+      }
+    });
+    extendTimeRange(chunk.getStartTime(), chunk.getEndTime());
+    extendLoadedSize(chunk.getLoadedSize());
+  }
+
+  /**
+   * Restores the events from a cache written by writeCache() instead of parsing the input file.
+   *
+   * @return false if the cache is missing, was built from a different version of the input file or with other
+   *         settings of the loader or is corrupt; the loader is unchanged in that case. Only a corrupt cache is
+   *         reported.
+   */
+  public final boolean loadCache(File cacheFile) {
+    if (getFile() == null)
+      throw new IllegalStateException("only loaders reading a file can be cached");
+
+    FlocklabCache.Reader in = null;
+    try {
+      in = FlocklabCache.open(cacheFile, getFile(), getClass());
+      if (in == null)
+        return false;
+      long cachedStartTime = in.getLong();
+      long cachedEndTime = in.getLong();
+      if (!readCacheColumns(in))
+        return false;
+      extendTimeRange(cachedStartTime, cachedEndTime);
+      // the cache was validated against the current size of the file
+      extendLoadedSize(lastRowEnd(getFile(), 0));
+      if (getProgress() != null)
+        getProgress().addBytes(getFile().length());
+      return true;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+      return false;
+    } finally {
+      if (in != null)
+        in.close();
+    }
+  }
+
+  /**
+   * Writes the loaded events to a cache for the current content of the input file.
+   */
+  public final void writeCache(File cacheFile) throws IOException {
+    if (getFile() == null)
+      throw new IllegalStateException("only loaders reading a file can be cached");
+
+    FlocklabCache.Writer out = FlocklabCache.create(cacheFile, getFile(), getClass());
+    try {
+      out.putLong(getStartTime());
+      out.putLong(getEndTime());
+      writeCacheColumns(out);
+      out.commit();
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @return an empty loader of the same kind, which is fed with the rows of one chunk
+   */
+  protected abstract FlocklabCsvLoader newChunkLoader();
+
+  /**
+   * Adds the events of the given chunk loaders to this loader. The chunks are given in input order and the
+   * result must be the same as if their rows had been processed by this loader.
+   * Runs inside a fork join pool, so it may fork tasks itself.
+   */
+  protected abstract void mergeChunks(List<FlocklabCsvLoader> chunks);
 
-      // time
-      // TODO for now divide by ten because the plugin works in tenth of nanoseconds
-      long time =  Long.parseLong(parts[0].trim())/10;
+  protected abstract void writeCacheColumns(FlocklabCache.Writer out) throws IOException;
 
-      // overseer id
-      int overseerID = Integer.parseInt(parts[1].trim());
+  /**
+   * Reads the columns written by writeCacheColumns(). Must not modify the loader before all columns are read,
+   * so a corrupt cache leaves it unchanged.
+   *
+   * @return false if the cache was written with other settings of the loader, it is stale then
+   */
+  protected abstract boolean readCacheColumns(FlocklabCache.Reader in) throws IOException;
 
+  private void loadChunks(ForkJoinPool pool, final FileChannel channel, final ByteBuffer bytes, long[] boundaries)
+      throws IOException {
+    final List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+    for (int i = 0; i + 1 < boundaries.length; ++i) {
+      if (boundaries[i] < boundaries[i + 1]) {
+        FlocklabCsvLoader chunk = newChunkLoader();
+        chunk.setProgress(getProgress());
+        tasks.add(new ChunkTask(chunk, channel, bytes, boundaries[i], boundaries[i + 1]));
+      }
+    }
+    pool.invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        ForkJoinTask.invokeAll(tasks);
+      }
+    });
+    mergeChunkTasks(pool, tasks);
+  }
 
-      startTime = Math.min(startTime, time);
-      endTime = Math.max(startTime, time);
-      processRow(time, overseerID, parts[2]);
+  private void mergeChunkTasks(ForkJoinPool pool, List<ChunkTask> tasks) throws IOException {
+    for (ChunkTask task : tasks)
+      task.join();
+
+    final List<FlocklabCsvLoader> chunks = new ArrayList<FlocklabCsvLoader>();
+    for (ChunkTask task : tasks) {
+      if (task.failure != null)
+        throw task.failure;
+      chunks.add(task.chunk);
+      extendTimeRange(task.chunk.getStartTime(), task.chunk.getEndTime());
+      extendLoadedSize(task.chunk.getLoadedSize());
     }
+    pool.invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        mergeChunks(chunks);
+      }
+    });
   }
 
-  public final long getStartTime() {
-    return startTime;
+  private static class ChunkTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final FlocklabCsvLoader chunk;
+    private final FileChannel channel;
+    // released once the rows are parsed
+    private ByteBuffer bytes;
+    private final long from;
+    private final long to;
+    private IOException failure;
+
+    ChunkTask(FlocklabCsvLoader chunk, FileChannel channel, ByteBuffer bytes, long from, long to) {
+      this.chunk = chunk;
+      this.channel = channel;
+      this.bytes = bytes;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        if (channel != null)
+          chunk.consumeChannel(channel, from, to);
+        else {
+          chunk.consumeLines(bytes, (int) from, (int) to, true);
+          chunk.reportProgress(to - from);
+        }
+      } catch (IOException e) {
+        failure = e;
+      } finally {
+        bytes = null;
+      }
+    }
+  }
+
+  /**
+   * Splits [0, size) of either the channel or the buffer into nChunks parts starting at row boundaries.
+   */
+  private static long[] chunkBoundaries(FileChannel channel, ByteBuffer bytes, long size, int nChunks)
+      throws IOException {
+    nChunks = (int) Math.max(1, Math.min(nChunks, size / MIN_CHUNK_SIZE));
+    long[] boundaries = new long[nChunks + 1];
+    boundaries[nChunks] = size;
+    ByteBuffer probe = ByteBuffer.allocate(4096);
+    for (int i = 1; i < nChunks; ++i) {
+      long pos = Math.max(boundaries[i - 1], i * (size / nChunks));
+      boundaries[i] = channel != null ?
+          nextRowStart(channel, pos, size, probe) :
+          nextRowStart(bytes, (int) pos, (int) size);
+    }
+    return boundaries;
   }
 
-  public final long getEndTime() {
-    return endTime;
+  private static long nextRowStart(FileChannel channel, long pos, long size, ByteBuffer probe) throws IOException {
+    if (pos == 0)
+      return 0;
+    // start looking at the byte before pos in case pos already is the start of a row
+    for (long blockStart = pos - 1; blockStart < size; blockStart += probe.capacity()) {
+      probe.clear();
+      while (probe.hasRemaining()) {
+        if (channel.read(probe, blockStart + probe.position()) <= 0)
+          break;
+      }
+      int newline = CsvFields.indexOf(probe, (byte) '\n', 0, probe.position());
+      if (newline >= 0)
+        return blockStart + newline + 1;
+    }
+    return size;
   }
 
-  protected abstract void processRow(long time, int observerID, String rest);
+  private static long nextRowStart(ByteBuffer bytes, int pos, int size) {
+    if (pos == 0)
+      return 0;
+    int newline = CsvFields.indexOf(bytes, (byte) '\n', pos - 1, size);
+    return newline < 0 ? size : newline + 1;
+  }
 }
@@ -0,0 +1,296 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Parses the rows of a flocklab csv file in place from mapped buffers and hands them to processRow() one after
+ * the other. FlocklabCsvLoader adds parallel and incremental loading and caching on top of this for loaders whose
+ * events can be merged.
+ */
+public abstract class FlocklabCsvParser {
+  /**
+   * Size of the file regions mapped at once. Rows never straddle two windows, a partial row at the end of a
+   * window is parsed again from the start of the next one.
+   */
+  static final int WINDOW_SIZE = 64 << 20;
+
+  private final File file;
+  private final Reader reader;
+  private long startTime;
+  private long endTime;
+  // input offset of the buffer being parsed and of the start and end of the current row
+  private long bufferOffset;
+  private long rowOffset;
+  private long rowEnd;
+  // end of the last complete row loaded from the input file
+  private long loadedSize;
+  private LoadProgress progress;
+  private long rows;
+  private long reportedRows;
+
+  protected FlocklabCsvParser(File file) {
+    if (file == null)
+      throw new IllegalArgumentException("file can't be null");
+
+    this.file = file;
+    this.reader = null;
+
+    this.startTime = Long.MAX_VALUE;
+    this.endTime = Long.MIN_VALUE;
+  }
+
+  protected FlocklabCsvParser(Reader reader) {
+    if (reader == null)
+      throw new IllegalArgumentException("reader can't be null");
+
+    this.file = null;
+    this.reader = reader;
+
+    this.startTime = Long.MAX_VALUE;
+    this.endTime = Long.MIN_VALUE;
+  }
+
+  /**
+   * Constructor for parsers without input of their own, e.g. the chunk loaders of a FlocklabCsvLoader.
+   */
+  protected FlocklabCsvParser() {
+    this.file = null;
+    this.reader = null;
+
+    this.startTime = Long.MAX_VALUE;
+    this.endTime = Long.MIN_VALUE;
+  }
+
+  /**
+   * Reports the parsed bytes and rows to the progress, which also allows to cancel loading: the load methods throw an
+   * InterruptedIOException then.
+   */
+  public final void setProgress(LoadProgress progress) {
+    this.progress = progress;
+  }
+
+  final LoadProgress getProgress() {
+    return progress;
+  }
+
+  public final void load() throws IOException {
+    if (file != null) {
+      FileInputStream in = new FileInputStream(file);
+      try {
+        FileChannel channel = in.getChannel();
+        consumeChannel(channel, 0, channel.size());
+      } finally {
+        in.close();
+      }
+    } else {
+      ByteBuffer bytes = readInput();
+      consumeLines(bytes, 0, bytes.limit(), true);
+      reportProgress(bytes.limit());
+    }
+  }
+
+  /**
+   * Parses the rows starting at the given ascending offsets of the input file, e.g. the rows of one node taken
+   * from a NodeRowIndex. Only the mapped windows holding these rows are touched.
+   */
+  public final void loadRows(long[] rowOffsets) throws IOException {
+    if (file == null)
+      throw new IllegalStateException("only parsers reading a file can load rows");
+
+    FileInputStream in = new FileInputStream(file);
+    try {
+      FileChannel channel = in.getChannel();
+      long size = channel.size();
+      ByteBuffer window = null;
+      long windowEnd = 0;
+      long rowBytes = 0;
+      for (int i = 0; i < rowOffsets.length; ++i) {
+        long offset = rowOffsets[i];
+        if (i > 0 && offset <= rowOffsets[i - 1])
+          throw new IllegalArgumentException("row offsets must be ascending");
+        if (offset < 0 || offset >= size)
+          throw new IllegalArgumentException("row offset " + offset + " outside of the file");
+
+        int rowEnd = window == null || offset >= windowEnd ?
+            -1 :
+            CsvFields.indexOf(window, (byte) '\n', (int) (offset - bufferOffset), window.limit());
+        if (rowEnd < 0 && windowEnd < size) {
+          reportProgress(rowBytes);
+          rowBytes = 0;
+          int length = (int) Math.min(WINDOW_SIZE, size - offset);
+          window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+          bufferOffset = offset;
+          windowEnd = offset + length;
+          rowEnd = CsvFields.indexOf(window, (byte) '\n', 0, length);
+          if (rowEnd < 0 && windowEnd < size)
+            throw new IOException(String.format("row at offset %d is longer than %d bytes", offset, WINDOW_SIZE));
+        }
+        if (rowEnd < 0)
+          rowEnd = window.limit();
+        parseRow(window, (int) (offset - bufferOffset), rowEnd);
+        rowBytes += Math.min(rowEnd + 1, window.limit()) - (offset - bufferOffset);
+      }
+      reportProgress(rowBytes);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @return offset after the last complete (newline terminated) row loaded from the input file
+   */
+  public final long getLoadedSize() {
+    return loadedSize;
+  }
+
+  final void extendLoadedSize(long loadedSize) {
+    this.loadedSize = Math.max(this.loadedSize, loadedSize);
+  }
+
+  /**
+   * Includes events which weren't parsed from rows, e.g. imported from another format, in the time range.
+   */
+  protected final void extendTimeRange(long startTime, long endTime) {
+    this.startTime = Math.min(this.startTime, startTime);
+    this.endTime = Math.max(this.endTime, endTime);
+  }
+
+  public final long getStartTime() {
+    return startTime;
+  }
+
+  public final long getEndTime() {
+    return endTime;
+  }
+
+  /**
+   * @return offset of the row currently processed in the input, only valid during processRow()
+   */
+  protected final long getRowOffset() {
+    return rowOffset;
+  }
+
+  /**
+   * @return offset of the end (the line terminator) of the row currently processed in the input, only valid
+   *         during processRow()
+   */
+  protected final long getRowEnd() {
+    return rowEnd;
+  }
+
+  /**
+   * @return the input file or null if the parser reads a stream
+   */
+  public final File getFile() {
+    return file;
+  }
+
+  /**
+   * Called once per data row.
+   *
+   * @param row       buffer holding the row; only valid during the call
+   * @param restStart index of the first byte after the observer id column
+   * @param restEnd   index after the last byte of the row (line terminator excluded)
+   */
+  protected abstract void processRow(long time, int observerID, ByteBuffer row, int restStart, int restEnd);
+
+  /**
+   * Parses all complete rows of [from, to) of the channel, mapping at most WINDOW_SIZE bytes at a time.
+   */
+  final void consumeChannel(FileChannel channel, long from, long to) throws IOException {
+    long pos = from;
+    while (pos < to) {
+      int length = (int) Math.min(WINDOW_SIZE, to - pos);
+      boolean isLastWindow = pos + length == to;
+      ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+      bufferOffset = pos;
+      int consumed = consumeLines(window, 0, length, isLastWindow);
+      if (consumed == 0 && !isLastWindow)
+        throw new IOException(String.format("row at offset %d is longer than %d bytes", pos, WINDOW_SIZE));
+      // a row without line terminator at the end might still be written, it isn't counted as loaded
+      int complete = consumed > 0 && window.get(consumed - 1) != '\n' ? lastRowEnd(window, consumed) : consumed;
+      extendLoadedSize(pos + complete);
+      pos += consumed;
+      reportProgress(consumed);
+    }
+  }
+
+  final void reportProgress(long bytes) throws InterruptedIOException {
+    if (progress == null)
+      return;
+    progress.addBytes(bytes);
+    progress.addRows(rows - reportedRows);
+    reportedRows = rows;
+    progress.checkCancelled();
+  }
+
+  /**
+   * Parses all complete rows in [from, to) of the buffer.
+   *
+   * @param endOfInput if true a trailing row without line terminator is parsed as well
+   * @return index after the last consumed row
+   */
+  final int consumeLines(ByteBuffer buf, int from, int to, boolean endOfInput) throws IOException {
+    int lineStart = from;
+    while (lineStart < to) {
+      int lineEnd = CsvFields.indexOf(buf, (byte) '\n', lineStart, to);
+      if (lineEnd < 0) {
+        if (!endOfInput)
+          return lineStart;
+        parseRow(buf, lineStart, to);
+        return to;
+      }
+      parseRow(buf, lineStart, lineEnd);
+      lineStart = lineEnd + 1;
+    }
+    return lineStart;
+  }
+
+  private void parseRow(ByteBuffer buf, int from, int to) throws IOException {
+    rowEnd = bufferOffset + to;
+    if (to > from && buf.get(to - 1) == '\r')
+      --to;
+    if (to == from || buf.get(from) == '#')
+      return;
+
+    int timeEnd = CsvFields.indexOf(buf, (byte) ',', from, to);
+    int observerEnd = timeEnd < 0 ? -1 : CsvFields.indexOf(buf, (byte) ',', timeEnd + 1, to);
+    if (observerEnd < 0)
+      throw new IOException("malformed row: " + CsvFields.decode(buf, from, to));
+
+    long time = CsvFields.parseTime(buf, from, timeEnd);
+    int observerID = CsvFields.parseInt(buf, timeEnd + 1, observerEnd);
+    rowOffset = bufferOffset + from;
+
+    startTime = Math.min(startTime, time);
+    endTime = Math.max(endTime, time);
+    processRow(time, observerID, buf, observerEnd + 1, to);
+    ++rows;
+  }
+
+  /**
+   * @return index after the last newline in [0, to) of the buffer, 0 if there is none
+   */
+  static int lastRowEnd(ByteBuffer bytes, int to) {
+    for (int i = to - 1; i >= 0; --i) {
+      if (bytes.get(i) == '\n')
+        return i + 1;
+    }
+    return 0;
+  }
+
+  /**
+   * @return the bytes of the reader of the parser
+   */
+  final ByteBuffer readInput() throws IOException {
+    if (reader == null)
+      throw new IllegalStateException("parsers without input can only load streams");
+    StringBuilder content = new StringBuilder();
+    char[] chunk = new char[8192];
+    int n;
+    while ((n = reader.read(chunk)) != -1)
+      content.append(chunk, 0, n);
+    return CsvFields.UTF_8.encode(CharBuffer.wrap(content));
+  }
+}
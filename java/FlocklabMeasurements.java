@@ -1,5 +1,4 @@
-import java.io.File;
-import java.io.FileFilter;
+import java.io.*;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -14,6 +13,7 @@ import java.util.Set;
 public class FlocklabMeasurements implements IFlockLabMeasurementFiles {
   private File gpioTrace;
   private File serial;
+  private File powerProfiling;
 
   public FlocklabMeasurements(File folder) {
     if (folder == null)
@@ -25,9 +25,15 @@ public class FlocklabMeasurements implements IFlockLabMeasurementFiles {
     if (!serial.exists() || !serial.isFile())
       serial = null;
 
-    gpioTrace = new File(folder, "gpiotraces.csv");
+    gpioTrace = new File(folder, LoaderRegistry.GPIO_TRACES);
+    if (!gpioTrace.isFile())
+      gpioTrace = new File(folder, LoaderRegistry.GPIO_TRACING);
     if (!gpioTrace.exists() || !gpioTrace.isFile())
       gpioTrace = null;
+
+    powerProfiling = new File(folder, "powerprofiling.csv");
+    if (!powerProfiling.exists() || !powerProfiling.isFile())
+      powerProfiling = null;
   }
 
   public boolean hasSerialOut() {
@@ -37,6 +43,22 @@ public class FlocklabMeasurements implements IFlockLabMeasurementFiles {
   public File getSerialOutputFile() {
     return serial;
   }
+  /**
+   * @return true if there is an up to date cache of the parsed serial output
+   */
+  public boolean hasSerialOutputCache() {
+    return serial != null && FlocklabCache.isValid(getSerialOutputCacheFile(), serial, SerialLoader.class);
+  }
+  /**
+   * @return location of the cache of the parsed serial output (which might not exist yet); null without serial output
+   */
+  public File getSerialOutputCacheFile() {
+    return serial == null ? null : FlocklabCache.cacheFileOf(serial);
+  }
+  @Override
+  public InputStream openSerialOutput() throws IOException {
+    return serial == null ? null : new FileInputStream(serial);
+  }
   public boolean hasGpioTrace() {
     return gpioTrace != null;
   }
@@ -44,4 +66,33 @@ public class FlocklabMeasurements implements IFlockLabMeasurementFiles {
   public File getGpioTraceFile() {
     return gpioTrace;
   }
+  @Override
+  public InputStream openGpioTrace() throws IOException {
+    return gpioTrace == null ? null : new FileInputStream(gpioTrace);
+  }
+  /**
+   * @return true if there is an up to date cache of the parsed gpio trace
+   */
+  public boolean hasGpioTraceCache() {
+    return gpioTrace != null && FlocklabCache.isValid(getGpioTraceCacheFile(), gpioTrace, GpioLoader.class);
+  }
+  /**
+   * @return location of the cache of the parsed gpio trace (which might not exist yet); null without gpio trace
+   */
+  public File getGpioTraceCacheFile() {
+    return gpioTrace == null ? null : FlocklabCache.cacheFileOf(gpioTrace);
+  }
+  public boolean hasPowerProfiling() {
+    return powerProfiling != null;
+  }
+  public File getPowerProfilingFile() {
+    return powerProfiling;
+  }
+  /**
+   * @return directory of the binary power traces converted by PowerProfilingConverter (which might not exist yet);
+   *         null without power profiling
+   */
+  public File getPowerTraceDir() {
+    return powerProfiling == null ? null : new File(powerProfiling.getParentFile(), "powerprofiling");
+  }
 }
@@ -5,4 +5,14 @@ public interface FlocklabNode {
   int getId();
   SerialEvent [] getSerialOutputs();
   GpioEvent [] getGpioTrace();
+
+  /**
+   * @return cursor over the gpio events, like getGpioTrace() without creating an object per event
+   */
+  GpioCursor gpioCursor();
+
+  /**
+   * @return cursor over the serial output, like getSerialOutputs() without creating an object per line
+   */
+  SerialCursor serialCursor();
 }
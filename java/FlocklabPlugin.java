@@ -41,6 +41,14 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Timeline plugin for flocklab test result data (gpio trace and actuation, power measurements, ...)
@@ -78,95 +86,32 @@ public class FlocklabPlugin extends VisPlugin {
 
     // set result dir
     JFileChooser measurementDirChooser = new JFileChooser();
-    measurementDirChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+    // either the extracted result directory or the downloaded archive
+    measurementDirChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
     int fileChooseResult = measurementDirChooser.showOpenDialog(this);
     assert fileChooseResult == JFileChooser.APPROVE_OPTION;
 
 
-    // serial output
-    FlocklabMeasurements measurementFiles = new FlocklabMeasurements(measurementDirChooser.getSelectedFile());
-
-    final String charsetName = "UTF-8"; // or "ISO-8859-1"
-    SerialLoader serialLoader = new SerialLoader(
-        new InputStreamReader(
-            new FileInputStream(measurementFiles.getSerialOutputFile()),
-            charsetName));
-    serialLoader.load();
-    final SerialEvent[] serialEvents = serialLoader.getEvents();
+    final IFlockLabMeasurementFiles measurementFiles = FlocklabArchive.isArchive(measurementDirChooser.getSelectedFile()) ?
+        new FlocklabArchive(measurementDirChooser.getSelectedFile()) :
+        new FlocklabMeasurements(measurementDirChooser.getSelectedFile());
+    this.measurementDir = measurementDirChooser.getSelectedFile();
+    this.gpioTraceFile = measurementFiles.getGpioTraceFile();
+    this.serialOutputFile = measurementFiles.getSerialOutputFile();
+    this.backgroundExecutor = Executors.newCachedThreadPool();
+    this.tailExecutor = Executors.newSingleThreadExecutor();
+    this.pendingUpdates = new ConcurrentLinkedQueue<Runnable>();
+    this.loadProgress = new LoadProgress();
 
-
-    // gpioTrace
-    GpioLoader gpioTraceLoader = new GpioLoader(
-        new InputStreamReader(
-            new FileInputStream(
-                measurementFiles.getGpioTraceFile()),
-            charsetName));
-    gpioTraceLoader.load();
-    Map<Integer, Map<String, NavigableMap<Long, Boolean>>> gpioEvents = gpioTraceLoader.getEvents();
-
-    // timeline
-    Set<Integer> ids = new HashSet<Integer>();
-    ids.addAll(gpioEvents.keySet());
-
-    long t0 = Math.min(gpioTraceLoader.getStartTime(), serialLoader.getStartTime());
-    long tEnd = Math.max(gpioTraceLoader.getEndTime(), serialLoader.getEndTime());
-
-    final long startTime = t0;
-    final long endTime = tEnd;
+    // timeline, the time range is set once the first data is loaded
     TimePlot.timePerPixel = this.timePerPixel;
-    TimePlot.startTime = startTime;
-    TimePlot.endTime = endTime;
+    TimePlot.startTime = 0;
+    TimePlot.endTime = 0;
 
     // info text
-    Calendar c = Calendar.getInstance();
-    TimeValue startTimeValue = new TimeValue(startTime);
-    c.setTimeInMillis(startTimeValue.milliSeconds());
-    String startDateText = String.format(
-        "%04d.%02d.%02d %02d:%02d:%02d.%03d%03d",
-        c.get(Calendar.YEAR),
-        c.get(Calendar.MONTH) + 1,
-        c.get(Calendar.DAY_OF_MONTH),
-        c.get(Calendar.HOUR_OF_DAY),
-        c.get(Calendar.MINUTE),
-        c.get(Calendar.SECOND),
-        c.get(Calendar.MILLISECOND),
-        startTimeValue.remainingMicroSeconds());
-    TimeValue endTimeValue = new TimeValue(endTime);
-    c.setTimeInMillis(endTimeValue.milliSeconds());
-    String endDateText = String.format(
-        "%04d.%02d.%02d %02d:%02d:%02d.%03d%03d",
-        c.get(Calendar.YEAR),
-        c.get(Calendar.MONTH) + 1,
-        c.get(Calendar.DAY_OF_MONTH),
-        c.get(Calendar.HOUR_OF_DAY),
-        c.get(Calendar.MINUTE),
-        c.get(Calendar.SECOND),
-        c.get(Calendar.MILLISECOND),
-        endTimeValue.remainingMicroSeconds());
-    TimeValue duration = new TimeValue(endTime - startTime);
-    String durationText = String.format("%d:%02d:%02d.%03d%03d",
-        duration.hours(),
-        duration.remainingMinutes(),
-        duration.remainingMicroSeconds(),
-        duration.remainingMilliSeconds(),
-        duration.remainingMicroSeconds());
-
     setLayout(new BorderLayout());
-    add(
-      new JLabel(String.format(
-        "<html>" +
-          "Showing Testbed results from:<br>" +
-          "%s<br>" +
-          "<br>" +
-          "Start: %s<br>" +
-          "End: %s<br>" +
-          "Duration: %s" +
-        "<html>",
-        measurementDirChooser.getSelectedFile().getAbsolutePath(),
-        startDateText,
-        endDateText,
-        durationText)),
-      BorderLayout.CENTER);
+    this.infoLabel = new JLabel();
+    add(infoLabel, BorderLayout.CENTER);
     setSize(300, 200);
 
 
@@ -179,39 +124,44 @@ public class FlocklabPlugin extends VisPlugin {
 
 
     //// TIMELINE
-    JLabel timeInfoLabel = new JLabel("Start: " + startDateText + "    End: " + endDateText + "    Duration: " + durationText);
-    timeLineFrame.add(timeInfoLabel, BorderLayout.PAGE_START);
+    this.timeInfoLabel = new JLabel();
+    updateTimeInfo();
+
+    // loading progress
+    this.progressBar = new JProgressBar(0, PROGRESS_BAR_MAXIMUM);
+    this.progressLabel = new JLabel();
+    this.progressPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    progressPanel.add(progressBar);
+    progressPanel.add(progressLabel);
+    progressPanel.add(new JButton(new AbstractAction("cancel") {
+      @Override
+      public void actionPerformed(ActionEvent actionEvent) {
+        loadProgress.cancel();
+      }
+    }));
+    Box pageStartBox = Box.createVerticalBox();
+    pageStartBox.add(timeInfoLabel);
+    pageStartBox.add(progressPanel);
+    timeLineFrame.add(pageStartBox, BorderLayout.PAGE_START);
 
-    currentTime = new BoundedTimeValue(startTime, endTime, startTime);
+    currentTime = new BoundedTimeValue(0, 0, 0);
     this.timeLinePanel = new TimeLinePanel(timePerPixel, currentTime);
     GpioPlot.eventDestination = timeLinePanel;
-
-    // power and gpio GUI
-    for (int id : new TreeSet<Integer>(ids)) {
-      final Box nodeBox = Box.createVerticalBox();
-
-      // add gpio trace
-      if (gpioEvents.containsKey(id)) {
-        Map<String, NavigableMap<Long, Boolean>> traces = gpioEvents.get(id);
-        for (String pinName : new TreeSet<String>(traces.keySet())) {
-          NavigableMap<Long, Boolean> gpioTrace = traces.get(pinName);
-
-          final GpioPlot line = new GpioPlot(gpioTrace, pinName, currentTime, getPinDescription(pinName));
-
-          final ObservableValue<Boolean> traceVisibility = getGpioTraceVisibility(pinName);
-          traceVisibility.addObserver(new Observer() {
-            @Override
-            public void update(Observable observable, Object o) {
-              line.setVisible(traceVisibility.getValue());
-            }
-          });
-          nodeBox.add(line);
-        }
+    this.nodeBoxes = new TreeMap<Integer, Box>();
+    this.nodePinNames = new HashMap<Integer, SortedSet<String>>();
+    this.pinNames = new TreeSet<String>();
+    this.gpioPlots = new HashMap<Integer, Map<String, GpioPlot>>();
+    this.timeZoomListener = new TimePlot.TimeZoomListener() {
+      @Override
+      public void zoomedIn(TimePlot.TimeZoomEvent timeZoomEvent) {
+        zoomIn(timeZoomEvent.getTime());
       }
-      nodeBox.add(Box.createRigidArea(new Dimension(0, 2)));
 
-      timeLinePanel.addNodeBox(id, nodeBox);
-    }
+      @Override
+      public void zoomedOut(TimePlot.TimeZoomEvent timeZoomEvent) {
+        zoomOut(timeZoomEvent.getTime());
+      }
+    };
 
     final JScrollPane timeScrollPane = new JScrollPane(
         timeLinePanel,
@@ -235,45 +185,32 @@ public class FlocklabPlugin extends VisPlugin {
     // time scroll bar stuff
     this.timeScrollBar = new JScrollBar(Adjustable.HORIZONTAL);
     timeScrollBar.setMaximum(Integer.MAX_VALUE);
-    final AdjustmentListener adjustmentListener = new AdjustmentListener() {
+    this.timeScrollBarListener = new AdjustmentListener() {
       @Override
       public void adjustmentValueChanged(AdjustmentEvent adjustmentEvent) {
-          long newTime = startTime + (long) (timeScrollBar.getValue() / (double) timeScrollBar.getMaximum() * (endTime - startTime));
+          long newTime = TimePlot.startTime + (long) (timeScrollBar.getValue() / (double) timeScrollBar.getMaximum() * (TimePlot.endTime - TimePlot.startTime));
           currentTime.setValue(newTime);
       }
     };
-    timeScrollBar.addAdjustmentListener(adjustmentListener);
+    timeScrollBar.addAdjustmentListener(timeScrollBarListener);
 
     // adjusting time scrollbars extent value
-    final ActionListener timeScrollBarAction =  new ActionListener() {
-      @Override
-      public void actionPerformed(ActionEvent actionEvent) {
-        double maxValue = timeScrollBar.getMaximum();
-        final double fractionShowed = timePerPixel.getValue() / (endTime - startTime) * TimePlot.getDisplayedWidth();
-        timeScrollBar.removeAdjustmentListener(adjustmentListener);
-        timeScrollBar.setValue((int) ((currentTime.getValue() - startTime) / (double) (endTime - startTime) * maxValue));
-        timeScrollBar.setVisibleAmount((int) (maxValue * fractionShowed));
-        timeScrollBar.setBlockIncrement(Math.max(1, (int) (maxValue * fractionShowed * 0.3)));
-        timeScrollBar.setUnitIncrement(Math.max(1, (int) (maxValue * fractionShowed * 0.02)));
-        timeScrollBar.addAdjustmentListener(adjustmentListener);
-      }
-    };
     currentTime.addObserver(new Observer() {
       @Override
       public void update(Observable observable, Object o) {
-        timeScrollBarAction.actionPerformed(null);
+        updateTimeScrollBar();
       }
     });
     TimePlot.addDisplayedWidthListener(new DisplayedWidthListener() {
       @Override
       public void widthChanged(int newWidth) {
-        timeScrollBarAction.actionPerformed(null);
+        updateTimeScrollBar();
       }
     });
     timePerPixel.addObserver(new Observer() {
       @Override
       public void update(Observable observable, Object o) {
-        timeScrollBarAction.actionPerformed(null);
+        updateTimeScrollBar();
       }
     });
 
@@ -287,7 +224,7 @@ public class FlocklabPlugin extends VisPlugin {
     timeLineFrame.setJMenuBar(menuBar);
 
     // events menu
-    JMenu eventsMenu = new JMenu("Events");
+    this.eventsMenu = new JMenu("Events");
     final JCheckBox currentCb = new JCheckBox("current", true);
     currentCb.addActionListener(new ActionListener() {
       @Override
@@ -315,27 +252,26 @@ public class FlocklabPlugin extends VisPlugin {
       }
     });
     eventsMenu.add(currentCb);
-    //// gpio trace
-    for (final String pinName : new TreeSet<String>(gpioTraceLoader.getOccuringPinNames())) {
-      final JCheckBox cb = new JCheckBox("gpio trace: " + pinName, true);
-      final ObservableValue<Boolean> vis = getGpioTraceVisibility(pinName);
-      cb.addActionListener(new ActionListener() {
-        @Override
-        public void actionPerformed(ActionEvent actionEvent) {
-          vis.setValue(cb.isSelected());
-        }
-      });
-      vis.addObserver(new Observer() {
-        @Override
-        public void update(Observable observable, Object o) {
-          cb.setSelected(vis.getValue());
-        }
-      });
-      eventsMenu.add(cb);
-    }
+    eventsMenu.addSeparator();
+    eventsMenu.add(new AbstractAction("export visible gpio traces as vcd...") {
+      @Override
+      public void actionPerformed(ActionEvent actionEvent) {
+        JFileChooser fc = new JFileChooser();
+        if (fc.showSaveDialog(FlocklabPlugin.this) == JFileChooser.APPROVE_OPTION)
+          exportVcd(fc.getSelectedFile());
+      }
+    });
+    eventsMenu.add(new AbstractAction("import vcd...") {
+      @Override
+      public void actionPerformed(ActionEvent actionEvent) {
+        JFileChooser fc = new JFileChooser();
+        if (fc.showOpenDialog(FlocklabPlugin.this) == JFileChooser.APPROVE_OPTION)
+          importVcd(fc.getSelectedFile());
+      }
+    });
 
     // nodes menu
-    JMenu nodesMenu = new JMenu("Nodes");
+    this.nodesMenu = new JMenu("Nodes");
     nodesMenu.add(new AbstractAction("all") {
       @Override
       public void actionPerformed(ActionEvent actionEvent) {
@@ -352,23 +288,6 @@ public class FlocklabPlugin extends VisPlugin {
         }
       }
     });
-    for (final int id : new TreeSet<Integer>(ids)) {
-      final JCheckBox cb = new JCheckBox("" + id, true);
-      final ObservableValue<Boolean> vis = timeLinePanel.getMoteVisibilities().get(id);
-      cb.addActionListener(new ActionListener() {
-        @Override
-        public void actionPerformed(ActionEvent actionEvent) {
-          vis.setValue(cb.isSelected());
-        }
-      });
-      vis.addObserver(new Observer() {
-        @Override
-        public void update(Observable observable, Object o) {
-          cb.setSelected(vis.getValue());
-        }
-      });
-      nodesMenu.add(cb);
-    }
     menuBar.add(nodesMenu);
 
     // zoom Menu
@@ -378,26 +297,71 @@ public class FlocklabPlugin extends VisPlugin {
     menuBar.add(zoomMenu);
 
     // pin description menu
-    JMenu pinDescriptionMenu = new JMenu("GPIO-pins");
-    final Set<String> pinNames = new TreeSet<String>();
-    pinNames.addAll(gpioTraceLoader.getOccuringPinNames());
-    for (final String pinName : pinNames) {
-      pinDescriptionMenu.add(new AbstractAction(pinName) {
-        @Override
-        public void actionPerformed(ActionEvent actionEvent) {
-          ObservableValue<String> pinDescription = getPinDescription(pinName);
-          String currentDescription = pinDescription.getValue();
-          if (currentDescription == null)
-            currentDescription = "";
-          String newDescription =
-              JOptionPane.showInputDialog(FlocklabPlugin.this, "Set the description for pin: " + pinName, currentDescription);
-          if (newDescription != null)
-            pinDescription.setValue(newDescription);
-        }
-      });
-    }
+    this.pinDescriptionMenu = new JMenu("GPIO-pins");
     menuBar.add(pinDescriptionMenu);
 
+    // live menu, following a running test is possible once its results are loaded
+    JMenu liveMenu = new JMenu("Live");
+    this.tailMenuItem = new JCheckBoxMenuItem("follow appended results");
+    tailMenuItem.setEnabled(false);
+    tailMenuItem.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent actionEvent) {
+        setTailing(tailMenuItem.isSelected());
+      }
+    });
+    liveMenu.add(tailMenuItem);
+    this.gpioIngestMenuItem = new JCheckBoxMenuItem("receive gpio rows over tcp...");
+    gpioIngestMenuItem.setEnabled(false);
+    gpioIngestMenuItem.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent actionEvent) {
+        gpioIngestServer = setIngesting(gpioIngestServer, tailGpioLoader, gpioIngestMenuItem);
+      }
+    });
+    liveMenu.add(gpioIngestMenuItem);
+    this.serialIngestMenuItem = new JCheckBoxMenuItem("receive serial rows over tcp...");
+    serialIngestMenuItem.setEnabled(false);
+    serialIngestMenuItem.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent actionEvent) {
+        serialIngestServer = setIngesting(serialIngestServer, tailSerialLoader, serialIngestMenuItem);
+      }
+    });
+    liveMenu.add(serialIngestMenuItem);
+    menuBar.add(liveMenu);
+
+    // results of the background loading are applied to the gui every UPDATE_INTERVAL ms
+    this.updateTimer = new javax.swing.Timer(UPDATE_INTERVAL, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent actionEvent) {
+        Runnable update;
+        while (!updatesPaused && (update = pendingUpdates.poll()) != null)
+          update.run();
+        updateProgress();
+      }
+    });
+    updateTimer.start();
+    backgroundExecutor.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (measurementFiles instanceof FlocklabMeasurements)
+            loadMeasurements((FlocklabMeasurements) measurementFiles);
+          else
+            loadStreams(measurementFiles);
+        } catch (InterruptedIOException e) {
+          System.err.println("loading of " + measurementDir + " cancelled");
+        } catch (IOException e) {
+          e.printStackTrace();
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+        } finally {
+          loadProgress.finish();
+        }
+      }
+    });
+
     // config menu
     JMenu timeLineConfigMenu = new JMenu("config");
     timeLineConfigMenu.add(new AbstractAction("save") {
@@ -477,20 +441,6 @@ public class FlocklabPlugin extends VisPlugin {
       }
     });
 
-    for (final TimePlot tl : TimePlot.getTimePlots()) {
-      tl.addTimeZoomListener(new TimePlot.TimeZoomListener() {
-        @Override
-        public void zoomedIn(TimePlot.TimeZoomEvent timeZoomEvent) {
-          zoomIn(timeZoomEvent.getTime());
-        }
-
-        @Override
-        public void zoomedOut(TimePlot.TimeZoomEvent timeZoomEvent) {
-          zoomOut(timeZoomEvent.getTime());
-        }
-      });
-    }
-
     // TODO only construct if serial.csv is supplied
     // scroll serial table when clicking in timeline
     // TimePlot.addMouseTimeListener(new MouseTimeListener() {
@@ -590,7 +540,10 @@ public class FlocklabPlugin extends VisPlugin {
           }
         }
       } else if ("time".equals(name)) {
-        currentTime.setValue(Long.parseLong(e.getText()));
+        if (hasTimeRange)
+          currentTime.setValue(Long.parseLong(e.getText()));
+        else
+          configuredTime = Long.parseLong(e.getText());
       } else if ("timePerPixel".equals(name)) {
         timePerPixel.setValue(Double.parseDouble(e.getText()));
       } else if ("gpioPinDescriptions".equals(name)) {
@@ -611,9 +564,71 @@ public class FlocklabPlugin extends VisPlugin {
   // PRIVATE
 
   private static final String XML_CONFIG_ROOT_NAME = "timelineConf";
+  /**
+   * Gpio traces larger than this fraction of the maximum heap size are loaded windowed, see WindowedGpioTraces.
+   */
+  private static final int WINDOWED_LOADING_HEAP_FRACTION = 4;
+  private static final int ROWS_PER_BLOCK = 1 << 16;
+  private static final int MIN_RESIDENT_BLOCKS = 8;
+  // rough heap usage of a parsed gpio event (time, level bit and growth slack of the block and window buffers)
+  private static final long BYTES_PER_GPIO_EVENT = 24;
+  /**
+   * Edges of glitching pins faster than this are collapsed into bursts (1000 edges within 1 ms).
+   */
+  private static final GpioBurstPolicy GPIO_BURST_POLICY = new GpioBurstPolicy(1000, 100000);
+  /**
+   * Gpio traces of at least this size and number of nodes are loaded node by node, see NodeRowIndex.
+   */
+  private static final long NODE_PARTITIONING_MIN_SIZE = 64 << 20;
+  private static final int NODE_PARTITIONING_MIN_NODES = 16;
+  private static final int UPDATE_INTERVAL = 100;
+  private static final int PROGRESS_BAR_MAXIMUM = 1000;
 
   private final TimeLinePanel timeLinePanel;
   private final JScrollBar timeScrollBar;
+  private final AdjustmentListener timeScrollBarListener;
+  private final JLabel infoLabel;
+  private final JLabel timeInfoLabel;
+  private final File measurementDir;
+  private final JMenu eventsMenu;
+  private final JMenu nodesMenu;
+  private final JMenu pinDescriptionMenu;
+  private final TimePlot.TimeZoomListener timeZoomListener;
+  private final SortedMap<Integer, Box> nodeBoxes;
+  private final Map<Integer, SortedSet<String>> nodePinNames;
+  private final SortedSet<String> pinNames;
+  private final Map<Integer, Map<String, GpioPlot>> gpioPlots;
+  private final ExecutorService backgroundExecutor;
+  private final File gpioTraceFile;
+  private final File serialOutputFile;
+  private final LoadProgress loadProgress;
+  // gui updates from the loading threads
+  private final Queue<Runnable> pendingUpdates;
+  // set while the shown traces are read in the background, e.g. exported; the updates stay queued
+  private boolean updatesPaused;
+  private final javax.swing.Timer updateTimer;
+  private final JPanel progressPanel;
+  private final JProgressBar progressBar;
+  private final JLabel progressLabel;
+  // false until the first data is loaded
+  private boolean hasTimeRange;
+  // time from a config loaded before the time range was known
+  private Long configuredTime;
+  // tail mode: the loaders holding the shown events are extended by rows appended to their files (null if the
+  // file isn't loaded completely or not at all)
+  private GpioLoader tailGpioLoader;
+  private SerialLoader tailSerialLoader;
+  private ResultFileWatcher tailWatcher;
+  private final JCheckBoxMenuItem tailMenuItem;
+  // parses the appended rows; the offsets up to which the files are loaded are only used by it
+  private final ExecutorService tailExecutor;
+  private long gpioTailOffset;
+  private long serialTailOffset;
+  // rows streamed by a producer over tcp are added to the same loaders as in tail mode (null if not receiving)
+  private CsvIngestServer gpioIngestServer;
+  private CsvIngestServer serialIngestServer;
+  private final JCheckBoxMenuItem gpioIngestMenuItem;
+  private final JCheckBoxMenuItem serialIngestMenuItem;
 
   private final TimePerPixel timePerPixel;
   private final BoundedTimeValue currentTime;
@@ -625,6 +640,831 @@ public class FlocklabPlugin extends VisPlugin {
   // private final SerialIoFrame serialIoFrame;
   private final JFrame timeLineFrame;
 
+  /**
+   * Extends the time range of the timeline whenever further blocks of the file are indexed.
+   */
+  private void followTimeRange(final CsvBlockIndex index) {
+    final Runnable extend = new Runnable() {
+      @Override
+      public void run() {
+        if (index.getBlockCount() > 0)
+          extendTimeRange(index.getStartTime(), index.getEndTime());
+      }
+    };
+    index.addListener(new CsvBlockIndex.Listener() {
+      @Override
+      public void blocksIndexed(CsvBlockIndex index) {
+        publish(extend);
+      }
+
+      @Override
+      public void seriesFound(CsvBlockIndex index, int observerID, String series) {
+      }
+    });
+    extend.run();
+  }
+  private void extendTimeRange(long start, long end) {
+    if (hasTimeRange && start >= TimePlot.startTime && end <= TimePlot.endTime)
+      return;
+
+    TimePlot.startTime = hasTimeRange ? Math.min(TimePlot.startTime, start) : start;
+    TimePlot.endTime = hasTimeRange ? Math.max(TimePlot.endTime, end) : end;
+    hasTimeRange = true;
+    currentTime.setBounds(TimePlot.startTime, TimePlot.endTime);
+    if (configuredTime != null) {
+      currentTime.setValue(configuredTime);
+      configuredTime = null;
+    }
+    updateTimeInfo();
+    updateTimeScrollBar();
+  }
+  private void updateTimeInfo() {
+    if (!hasTimeRange) {
+      infoLabel.setText("<html>Loading testbed results from:<br>" + measurementDir.getAbsolutePath() + "<html>");
+      timeInfoLabel.setText("Loading ...");
+      return;
+    }
+
+    String startDateText = formatDate(TimePlot.startTime);
+    String endDateText = formatDate(TimePlot.endTime);
+    TimeValue duration = new TimeValue(TimePlot.endTime - TimePlot.startTime);
+    String durationText = String.format("%d:%02d:%02d.%03d%03d",
+        duration.hours(),
+        duration.remainingMinutes(),
+        duration.remainingMicroSeconds(),
+        duration.remainingMilliSeconds(),
+        duration.remainingMicroSeconds());
+
+    infoLabel.setText(String.format(
+        "<html>" +
+          "Showing Testbed results from:<br>" +
+          "%s<br>" +
+          "<br>" +
+          "Start: %s<br>" +
+          "End: %s<br>" +
+          "Duration: %s" +
+        "<html>",
+        measurementDir.getAbsolutePath(),
+        startDateText,
+        endDateText,
+        durationText));
+    timeInfoLabel.setText("Start: " + startDateText + "    End: " + endDateText + "    Duration: " + durationText);
+  }
+  private static String formatDate(long time) {
+    Calendar c = Calendar.getInstance();
+    TimeValue timeValue = new TimeValue(time);
+    c.setTimeInMillis(timeValue.milliSeconds());
+    return String.format(
+        "%04d.%02d.%02d %02d:%02d:%02d.%03d%03d",
+        c.get(Calendar.YEAR),
+        c.get(Calendar.MONTH) + 1,
+        c.get(Calendar.DAY_OF_MONTH),
+        c.get(Calendar.HOUR_OF_DAY),
+        c.get(Calendar.MINUTE),
+        c.get(Calendar.SECOND),
+        c.get(Calendar.MILLISECOND),
+        timeValue.remainingMicroSeconds());
+  }
+  private void updateTimeScrollBar() {
+    if (!hasTimeRange || !TimePlot.hasDisplayedWidth())
+      return;
+
+    long startTime = TimePlot.startTime;
+    long endTime = TimePlot.endTime;
+    double maxValue = timeScrollBar.getMaximum();
+    final double fractionShowed = timePerPixel.getValue() / (endTime - startTime) * TimePlot.getDisplayedWidth();
+    timeScrollBar.removeAdjustmentListener(timeScrollBarListener);
+    timeScrollBar.setValue((int) ((currentTime.getValue() - startTime) / (double) (endTime - startTime) * maxValue));
+    timeScrollBar.setVisibleAmount((int) (maxValue * fractionShowed));
+    timeScrollBar.setBlockIncrement(Math.max(1, (int) (maxValue * fractionShowed * 0.3)));
+    timeScrollBar.setUnitIncrement(Math.max(1, (int) (maxValue * fractionShowed * 0.02)));
+    timeScrollBar.addAdjustmentListener(timeScrollBarListener);
+  }
+  private void updateProgress() {
+    if (!progressPanel.isVisible())
+      return;
+    if (loadProgress.isFinished()) {
+      progressPanel.setVisible(false);
+      return;
+    }
+
+    long bytes = loadProgress.getBytes();
+    long totalBytes = loadProgress.getTotalBytes();
+    long rows = loadProgress.getRows();
+    double seconds = Math.max(1e-3, loadProgress.getElapsedSeconds());
+    progressBar.setValue(totalBytes == 0 ? 0 : (int) (PROGRESS_BAR_MAXIMUM * Math.min(1, bytes / (double) totalBytes)));
+    progressLabel.setText(String.format(
+        "%sB (%sB/s), %s rows (%s rows/s)",
+        FloatUtils.convert(bytes, 1),
+        FloatUtils.convert(bytes / seconds, 1),
+        FloatUtils.convert(rows, 1),
+        FloatUtils.convert(rows / seconds, 1)));
+  }
+  /**
+   * Queues an update of the gui, it is run on the event dispatch thread with the next tick of the update timer.
+   */
+  private void publish(Runnable update) {
+    pendingUpdates.add(update);
+  }
+  private void publishTimeRange(final long start, final long end) {
+    publish(new Runnable() {
+      @Override
+      public void run() {
+        extendTimeRange(start, end);
+      }
+    });
+  }
+  /**
+   * Shows the traces of the node loaded so far. Called from the loading thread.
+   */
+  private void publishNode(final int id, GpioLoader loader) {
+    final Map<String, GpioTrace> traces = loader.getTraces().get(id);
+    if (traces == null)
+      return;
+    final Map<String, NavigableMap<Long, GpioBurst>> bursts = new HashMap<String, NavigableMap<Long, GpioBurst>>();
+    for (String pinName : traces.keySet())
+      bursts.put(pinName, loader.getBursts(id, pinName));
+    publish(new Runnable() {
+      @Override
+      public void run() {
+        for (String pinName : new TreeSet<String>(traces.keySet()))
+          addGpioPlot(id, pinName, traces.get(pinName), bursts.get(pinName));
+      }
+    });
+  }
+  /**
+   * Loads the result files on a background thread, the gui is only changed through published updates.
+   * The gpio trace and the serial output are loaded concurrently by a MeasurementLoader, unless the gpio trace is
+   * too large for the heap: it is loaded windowed on the calling thread then.
+   */
+  private void loadMeasurements(final FlocklabMeasurements measurementFiles) throws IOException {
+    File gpioTrace = measurementFiles.getGpioTraceFile();
+    boolean windowedGpioTrace =
+        gpioTrace != null && gpioTrace.length() > Runtime.getRuntime().maxMemory() / WINDOWED_LOADING_HEAP_FRACTION;
+
+    // only files whose results are used are loaded: the gpio trace is plotted, the serial output is used by tail
+    // mode and for the time range. There are no views of actuation and power profiles yet.
+    LoaderRegistry registry = new LoaderRegistry();
+    if (gpioTrace != null && !windowedGpioTrace) {
+      registry.register(gpioTrace.getName(), new LoaderRegistry.FileLoader() {
+        @Override
+        public FlocklabCsvParser load(File resultFile, LoadProgress progress, ForkJoinPool pool, int nChunks)
+            throws IOException {
+          File cacheFile = measurementFiles.getGpioTraceCacheFile();
+          GpioLoader cached =
+              measurementFiles.hasGpioTraceCache() ? loadCachedGpioTrace(resultFile, cacheFile, progress) : null;
+          return cached != null ? cached : loadGpioTraceByNode(resultFile, cacheFile, progress, pool, nChunks);
+        }
+      });
+    }
+    Future<?> serialIndexing = null;
+    if (!windowedGpioTrace) {
+      registry.register(LoaderRegistry.SERIAL, LoaderRegistry.createDefault().get(LoaderRegistry.SERIAL));
+    } else if (measurementFiles.hasSerialOut()) {
+      // the serial output isn't shown yet, when memory is short only its time range is determined
+      final File serialOutput = measurementFiles.getSerialOutputFile();
+      serialIndexing = backgroundExecutor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          indexTimeRange(serialOutput);
+          return null;
+        }
+      });
+    }
+    MeasurementLoader files = new MeasurementLoader(measurementDir, registry, loadProgress);
+    files.addListener(new MeasurementLoader.Listener() {
+      @Override
+      public void fileLoaded(String fileName, FlocklabCsvParser loader) {
+        if (loader instanceof SerialLoader)
+          publishTailLoader((SerialLoader) loader, loader.getLoadedSize());
+      }
+
+      @Override
+      public void timeRangeChanged(long startTime, long endTime) {
+        publishTimeRange(startTime, endTime);
+      }
+    });
+    files.start();
+
+    // gpio traces which don't fit into memory are only indexed, the blocks around the displayed time are parsed on demand
+    if (windowedGpioTrace)
+      loadWindowedGpioTrace(gpioTrace);
+
+    Collection<Future<?>> loads = new ArrayList<Future<?>>(files.getFutures().values());
+    if (serialIndexing != null)
+      loads.add(serialIndexing);
+    for (Future<?> load : loads)
+      awaitLoad(load);
+
+    publish(new Runnable() {
+      @Override
+      public void run() {
+        tailMenuItem.setEnabled(tailGpioLoader != null || tailSerialLoader != null);
+        gpioIngestMenuItem.setEnabled(tailGpioLoader != null);
+        serialIngestMenuItem.setEnabled(tailSerialLoader != null);
+      }
+    });
+  }
+  /**
+   * Waits for a concurrently loaded file; its failure is reported, a cancellation is passed on.
+   */
+  private void awaitLoad(Future<?> load) throws InterruptedIOException {
+    try {
+      load.get();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("loading interrupted");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof InterruptedIOException)
+        throw (InterruptedIOException) e.getCause();
+      e.getCause().printStackTrace();
+    }
+  }
+  /**
+   * Loads result files which are only available as streams, e.g. from an archive. Without random access they are
+   * neither cached nor loaded windowed or node by node.
+   */
+  private void loadStreams(IFlockLabMeasurementFiles measurementFiles) throws IOException {
+    ForkJoinPool loadPool = ForkJoinPool.commonPool();
+
+    // gpioTrace
+    InputStream gpioTrace = measurementFiles.openGpioTrace();
+    if (gpioTrace != null) {
+      try {
+        GpioLoader loader = new GpioLoader();
+        loader.setBurstPolicy(null, GPIO_BURST_POLICY);
+        loader.setCompressTraces(true);
+        loader.setProgress(loadProgress);
+        loader.load(gpioTrace, loadPool);
+        Map<Integer, Map<String, GpioTrace>> gpioEvents = loader.getTraces();
+        if (!gpioEvents.isEmpty())
+          publishTimeRange(loader.getStartTime(), loader.getEndTime());
+        for (int id : new TreeSet<Integer>(gpioEvents.keySet()))
+          publishNode(id, loader);
+      } finally {
+        gpioTrace.close();
+      }
+    }
+
+    // serial output
+    InputStream serialOutput = measurementFiles.openSerialOutput();
+    if (serialOutput != null) {
+      try {
+        SerialLoader loader = new SerialLoader();
+        loader.setProgress(loadProgress);
+        loader.load(serialOutput, loadPool);
+        if (loader.getStartTime() <= loader.getEndTime())
+          publishTimeRange(loader.getStartTime(), loader.getEndTime());
+      } finally {
+        serialOutput.close();
+      }
+    }
+  }
+  private void loadWindowedGpioTrace(File gpioTrace) throws IOException {
+    final CsvBlockIndex index = new CsvBlockIndex(gpioTrace, ROWS_PER_BLOCK);
+    index.setProgress(loadProgress);
+    int maxResidentBlocks = (int) Math.max(
+        MIN_RESIDENT_BLOCKS,
+        Runtime.getRuntime().maxMemory() / WINDOWED_LOADING_HEAP_FRACTION / (ROWS_PER_BLOCK * BYTES_PER_GPIO_EVENT));
+    final WindowedGpioTraces traces =
+        new WindowedGpioTraces(new GpioLoader(gpioTrace), index, backgroundExecutor, maxResidentBlocks);
+    publish(new Runnable() {
+      @Override
+      public void run() {
+        showWindowedGpioTraces(traces);
+        followTimeRange(index);
+      }
+    });
+    loadProgress.addTotalBytes(gpioTrace.length());
+    index.build();
+  }
+  private void indexTimeRange(File file) throws IOException {
+    final CsvBlockIndex index = new CsvBlockIndex(file, ROWS_PER_BLOCK);
+    index.setProgress(loadProgress);
+    publish(new Runnable() {
+      @Override
+      public void run() {
+        followTimeRange(index);
+      }
+    });
+    loadProgress.addTotalBytes(file.length());
+    index.build();
+  }
+  /**
+   * @return the loader of the cached traces, null if the cache turned out to be stale
+   */
+  private GpioLoader loadCachedGpioTrace(File gpioTrace, File cacheFile, LoadProgress progress) {
+    GpioLoader loader = newGpioTraceLoader(gpioTrace);
+    loader.setProgress(progress);
+    progress.addTotalBytes(gpioTrace.length());
+    if (!loader.loadCache(cacheFile)) {
+      progress.addTotalBytes(-gpioTrace.length());
+      return null;
+    }
+
+    Map<Integer, Map<String, GpioTrace>> gpioEvents = loader.getTraces();
+    if (!gpioEvents.isEmpty())
+      publishTimeRange(loader.getStartTime(), loader.getEndTime());
+    for (int id : new TreeSet<Integer>(gpioEvents.keySet()))
+      publishNode(id, loader);
+    publishTailLoader(loader, loader.getLoadedSize());
+    return loader;
+  }
+  /**
+   * Loads the nodes of the gpio trace in parallel on the pool, every node is shown as soon as its rows are parsed.
+   * Large traces of many nodes are partitioned instead: the rows of a node are only parsed once it is shown.
+   *
+   * @return the loader of all nodes, the node index if the nodes are loaded when they are shown
+   */
+  private FlocklabCsvLoader loadGpioTraceByNode(final File gpioTrace, File cacheFile, final LoadProgress progress,
+                                                ForkJoinPool pool, int nChunks) throws IOException {
+    final NodeRowIndex nodeIndex = new NodeRowIndex(gpioTrace);
+    nodeIndex.setProgress(progress);
+    File indexFile = NodeRowIndex.indexFileOf(gpioTrace);
+    progress.addTotalBytes(gpioTrace.length());
+    LoaderRegistry.loadCached(nodeIndex, indexFile, pool, nChunks);
+    final SortedSet<Integer> ids = nodeIndex.getNodeIds();
+    if (ids.isEmpty())
+      return nodeIndex;
+    publishTimeRange(nodeIndex.getStartTime(), nodeIndex.getEndTime());
+
+    if (gpioTrace.length() >= NODE_PARTITIONING_MIN_SIZE && ids.size() >= NODE_PARTITIONING_MIN_NODES) {
+      publish(new Runnable() {
+        @Override
+        public void run() {
+          for (int id : ids) {
+            addNodeBox(id);
+            loadNodeWhenShown(nodeIndex, id);
+          }
+        }
+      });
+      return nodeIndex;
+    }
+
+    progress.addTotalBytes(gpioTrace.length());
+    Collection<Future<GpioLoader>> nodeLoads = new ArrayList<Future<GpioLoader>>();
+    for (final int id : ids) {
+      nodeLoads.add(pool.submit(new Callable<GpioLoader>() {
+        @Override
+        public GpioLoader call() throws IOException {
+          GpioLoader nodeLoader = newGpioTraceLoader(gpioTrace);
+          nodeLoader.setProgress(progress);
+          nodeLoader.loadRows(nodeIndex.getRowOffsets(id));
+          publishNode(id, nodeLoader);
+          return nodeLoader;
+        }
+      }));
+    }
+    // the nodes are combined into one loader for tail mode and the cache
+    GpioLoader loader = newGpioTraceLoader(gpioTrace);
+    try {
+      for (Future<GpioLoader> nodeLoad : nodeLoads)
+        loader.addNodes(nodeLoad.get());
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("loading interrupted");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    } finally {
+      for (Future<GpioLoader> nodeLoad : nodeLoads)
+        nodeLoad.cancel(false);
+    }
+    publishTailLoader(loader, nodeIndex.getLoadedSize());
+    try {
+      loader.writeCache(cacheFile);
+    } catch (IOException e) {
+      // the cache is optional, e.g. the result directory might not be writable
+      e.printStackTrace();
+    }
+    return loader;
+  }
+  /**
+   * @return loader of the gpio trace with the settings of the plugin
+   */
+  private GpioLoader newGpioTraceLoader(File gpioTrace) {
+    GpioLoader loader = new GpioLoader(gpioTrace);
+    loader.setBurstPolicy(null, GPIO_BURST_POLICY);
+    loader.setCompressTraces(true);
+    return loader;
+  }
+  private void showWindowedGpioTraces(final WindowedGpioTraces traces) {
+    traces.addListener(new WindowedGpioTraces.Listener() {
+      @Override
+      public void traceAdded(int nodeId, String pinName, GpioTrace trace) {
+        addGpioPlot(nodeId, pinName, trace, null);
+      }
+
+      @Override
+      public void tracesChanged() {
+        timeLinePanel.repaint();
+      }
+    });
+    Observer windowObserver = new Observer() {
+      @Override
+      public void update(Observable observable, Object o) {
+        showGpioWindow(traces);
+      }
+    };
+    currentTime.addObserver(windowObserver);
+    timePerPixel.addObserver(windowObserver);
+    TimePlot.addDisplayedWidthListener(new DisplayedWidthListener() {
+      @Override
+      public void widthChanged(int newWidth) {
+        showGpioWindow(traces);
+      }
+    });
+    showGpioWindow(traces);
+  }
+  private void showGpioWindow(WindowedGpioTraces traces) {
+    long start = currentTime.getValue();
+    int width = TimePlot.hasDisplayedWidth() ? TimePlot.getDisplayedWidth() : timeLineFrame.getWidth();
+    traces.showWindow(start, start + (long) (width * timePerPixel.getValue()));
+  }
+  /**
+   * Makes the completely loaded file available to tail mode.
+   *
+   * @param loadedSize end of the rows of the file contained in the loader
+   */
+  private void publishTailLoader(final FlocklabCsvLoader loader, final long loadedSize) {
+    tailExecutor.submit(new Runnable() {
+      @Override
+      public void run() {
+        if (loader instanceof GpioLoader)
+          gpioTailOffset = loadedSize;
+        else
+          serialTailOffset = loadedSize;
+      }
+    });
+    publish(new Runnable() {
+      @Override
+      public void run() {
+        if (loader instanceof GpioLoader)
+          tailGpioLoader = (GpioLoader) loader;
+        else
+          tailSerialLoader = (SerialLoader) loader;
+      }
+    });
+  }
+  /**
+   * Starts or stops watching the result files for appended rows.
+   */
+  private void setTailing(boolean tailing) {
+    if (tailWatcher != null) {
+      tailWatcher.stop();
+      tailWatcher = null;
+    }
+    if (!tailing)
+      return;
+
+    final GpioLoader gpioLoader = tailGpioLoader;
+    final SerialLoader serialLoader = tailSerialLoader;
+    Collection<File> files = new ArrayList<File>();
+    if (gpioLoader != null)
+      files.add(gpioTraceFile);
+    if (serialLoader != null)
+      files.add(serialOutputFile);
+    try {
+      tailWatcher = new ResultFileWatcher(files, new ResultFileWatcher.Listener() {
+        @Override
+        public void fileModified(File file) {
+          tailExecutor.submit(tailTask(file, gpioLoader, serialLoader));
+        }
+      });
+      tailWatcher.start();
+    } catch (IOException e) {
+      e.printStackTrace();
+      tailMenuItem.setSelected(false);
+      return;
+    }
+    // rows appended while tail mode was off
+    for (File file : files)
+      tailExecutor.submit(tailTask(file, gpioLoader, serialLoader));
+  }
+  /**
+   * Parses the rows appended to the file since the last time and publishes them. Runs on the tail executor.
+   */
+  private Runnable tailTask(final File file, final GpioLoader gpioLoader, final SerialLoader serialLoader) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (file.equals(gpioTraceFile)) {
+            final GpioLoader chunk = (GpioLoader) gpioLoader.loadAppended(gpioTailOffset);
+            if (chunk == null)
+              return;
+            gpioTailOffset = chunk.getLoadedSize();
+            publish(new Runnable() {
+              @Override
+              public void run() {
+                appendGpioChunk(gpioLoader, chunk);
+              }
+            });
+          } else {
+            final SerialLoader chunk = (SerialLoader) serialLoader.loadAppended(serialTailOffset);
+            if (chunk == null)
+              return;
+            serialTailOffset = chunk.getLoadedSize();
+            publish(new Runnable() {
+              @Override
+              public void run() {
+                serialLoader.appendChunk(chunk);
+                extendTimeRange(serialLoader.getStartTime(), serialLoader.getEndTime());
+              }
+            });
+          }
+        } catch (IOException e) {
+          e.printStackTrace();
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+        }
+      }
+    };
+  }
+  /**
+   * Starts receiving rows for the loader on a port asked from the user if the menu item was selected, otherwise
+   * stops the running server.
+   *
+   * @return the running server or null
+   */
+  private CsvIngestServer setIngesting(CsvIngestServer server, final FlocklabCsvLoader loader,
+                                       JCheckBoxMenuItem menuItem) {
+    if (server != null) {
+      try {
+        server.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    if (!menuItem.isSelected())
+      return null;
+
+    String port = JOptionPane.showInputDialog(timeLineFrame, "local port to receive csv rows on:", "0");
+    try {
+      CsvIngestServer started = new CsvIngestServer(loader, new CsvIngestServer.Sink() {
+        @Override
+        public void rowsReceived(final FlocklabCsvLoader chunk) throws InterruptedException {
+          // wait until the rows are shown, a fast producer is slowed down instead of flooding the gui
+          final CountDownLatch applied = new CountDownLatch(1);
+          publish(new Runnable() {
+            @Override
+            public void run() {
+              if (loader instanceof GpioLoader) {
+                appendGpioChunk((GpioLoader) loader, (GpioLoader) chunk);
+              } else {
+                loader.appendChunk(chunk);
+                extendTimeRange(loader.getStartTime(), loader.getEndTime());
+              }
+              applied.countDown();
+            }
+          });
+          applied.await();
+        }
+      }, CsvIngestServer.DEFAULT_BUFFER_CAPACITY);
+      started.start(port == null ? 0 : Integer.parseInt(port.trim()));
+      menuItem.setToolTipText("listening on port " + started.getPort());
+      return started;
+    } catch (IOException | NumberFormatException e) {
+      e.printStackTrace();
+      menuItem.setSelected(false);
+      return null;
+    }
+  }
+  /**
+   * Writes the traces of the visible gpio plots of visible nodes in the background.
+   */
+  private void exportVcd(final File file) {
+    final Map<Integer, Map<String, GpioTrace>> traces = new TreeMap<Integer, Map<String, GpioTrace>>();
+    for (Map.Entry<Integer, Map<String, GpioPlot>> node : gpioPlots.entrySet()) {
+      if (!timeLinePanel.getMoteVisibility(node.getKey()).getValue())
+        continue;
+      Map<String, GpioTrace> nodeTraces = new TreeMap<String, GpioTrace>();
+      for (Map.Entry<String, GpioPlot> pin : node.getValue().entrySet()) {
+        if (pin.getValue().isVisible())
+          nodeTraces.put(pin.getKey(), pin.getValue().getTrace());
+      }
+      if (!nodeTraces.isEmpty())
+        traces.put(node.getKey(), nodeTraces);
+    }
+    // the traces are only extended by updates on the gui thread, they are held back while the traces are written
+    updatesPaused = true;
+    backgroundExecutor.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          VcdExporter.export(traces, file);
+        } catch (IOException e) {
+          e.printStackTrace();
+        } finally {
+          SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+              updatesPaused = false;
+            }
+          });
+        }
+      }
+    });
+  }
+  /**
+   * Loads the signals of a value change dump in the background and adds them to the shown gpio traces; they
+   * replace the traces of pins which are shown already.
+   */
+  private void importVcd(final File file) {
+    backgroundExecutor.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          final GpioLoader imported = VcdImporter.load(file);
+          publish(new Runnable() {
+            @Override
+            public void run() {
+              if (tailGpioLoader != null) {
+                appendGpioChunk(tailGpioLoader, imported);
+                return;
+              }
+              // the imported signals replace shown traces of the same pins, e.g. when an export is imported again
+              for (Map.Entry<Integer, Map<String, GpioTrace>> node : imported.getTraces().entrySet()) {
+                for (String pinName : new TreeSet<String>(node.getValue().keySet()))
+                  addGpioPlot(node.getKey(), pinName, node.getValue().get(pinName), null);
+              }
+              extendTimeRange(imported.getStartTime(), imported.getEndTime());
+            }
+          });
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    });
+  }
+  /**
+   * Extends the shown traces by the appended events; only the plots of traces with new events are repainted.
+   */
+  private void appendGpioChunk(GpioLoader loader, GpioLoader chunk) {
+    Map<Integer, Set<String>> appendedPins = new TreeMap<Integer, Set<String>>();
+    for (int id : chunk.getNodeIds())
+      appendedPins.put(id, new TreeSet<String>(chunk.getPinNames(id)));
+    loader.appendChunk(chunk);
+    // sorts the appended events into the shown traces
+    Map<Integer, Map<String, GpioTrace>> traces = loader.getTraces();
+    extendTimeRange(loader.getStartTime(), loader.getEndTime());
+
+    for (Map.Entry<Integer, Set<String>> node : appendedPins.entrySet()) {
+      Map<String, GpioPlot> nodePlots = gpioPlots.get(node.getKey());
+      for (String pinName : node.getValue()) {
+        GpioPlot plot = nodePlots == null ? null : nodePlots.get(pinName);
+        if (plot == null)
+          addGpioPlot(node.getKey(), pinName, traces.get(node.getKey()).get(pinName),
+                      loader.getBursts(node.getKey(), pinName));
+        else
+          plot.repaint();
+      }
+    }
+  }
+  /**
+   * Hides the node and parses its rows of the gpio trace the first time it is made visible.
+   */
+  private void loadNodeWhenShown(final NodeRowIndex nodeIndex, final int id) {
+    final ObservableValue<Boolean> vis = timeLinePanel.getMoteVisibility(id);
+    vis.setValue(false);
+    vis.addObserver(new Observer() {
+      private boolean loading = false;
+
+      @Override
+      public void update(Observable observable, Object o) {
+        if (loading || !vis.getValue())
+          return;
+        loading = true;
+        backgroundExecutor.submit(new Runnable() {
+          @Override
+          public void run() {
+            boolean loaded = false;
+            try {
+              GpioLoader nodeLoader = newGpioTraceLoader(gpioTraceFile);
+              nodeLoader.loadRows(nodeIndex.getRowOffsets(id));
+              publishNode(id, nodeLoader);
+              loaded = true;
+            } catch (IOException e) {
+              e.printStackTrace();
+            } finally {
+              // the node is loaded again when it is shown the next time
+              if (!loaded) {
+                publish(new Runnable() {
+                  @Override
+                  public void run() {
+                    loading = false;
+                  }
+                });
+              }
+            }
+          }
+        });
+      }
+    });
+  }
+  private Box addNodeBox(int id) {
+    Box nodeBox = nodeBoxes.get(id);
+    if (nodeBox == null) {
+      nodeBox = Box.createVerticalBox();
+      nodeBox.add(Box.createRigidArea(new Dimension(0, 2)));
+      nodeBoxes.put(id, nodeBox);
+      nodePinNames.put(id, new TreeSet<String>());
+      timeLinePanel.addNodeBox(id, nodeBox);
+      addNodeMenuEntry(id);
+    }
+    return nodeBox;
+  }
+  /**
+   * Adds the plot of a gpio trace, creating the box and menu entries of its node and pin if necessary. A plot of
+   * the pin shown already is replaced.
+   *
+   * @param bursts the collapsed edges of the trace or null if there are none
+   */
+  private void addGpioPlot(final int id, final String pinName, GpioTrace gpioTrace,
+                           NavigableMap<Long, GpioBurst> bursts) {
+    Box nodeBox = addNodeBox(id);
+    if (pinNames.add(pinName))
+      addPinMenuEntries(pinName);
+
+    GpioPlot line = new GpioPlot(gpioTrace, pinName, currentTime, getPinDescription(pinName));
+    if (bursts != null)
+      line.setBursts(bursts);
+    final ObservableValue<Boolean> traceVisibility = getGpioTraceVisibility(pinName);
+    line.setVisible(traceVisibility.getValue());
+    line.addTimeZoomListener(timeZoomListener);
+    Map<String, GpioPlot> nodePlots = gpioPlots.get(id);
+    if (nodePlots == null)
+      gpioPlots.put(id, nodePlots = new HashMap<String, GpioPlot>());
+    GpioPlot replaced = nodePlots.put(pinName, line);
+    if (replaced == null) {
+      // shows or hides the current plot of the pin
+      traceVisibility.addObserver(new Observer() {
+        @Override
+        public void update(Observable observable, Object o) {
+          gpioPlots.get(id).get(pinName).setVisible(traceVisibility.getValue());
+        }
+      });
+    } else {
+      nodeBox.remove(replaced);
+      TimePlot.removeTimePlot(replaced);
+    }
+
+    SortedSet<String> nodePins = nodePinNames.get(id);
+    nodePins.add(pinName);
+    nodeBox.add(line, nodePins.headSet(pinName).size());
+    timeLinePanel.revalidate();
+  }
+  private void addNodeMenuEntry(int id) {
+    final ObservableValue<Boolean> vis = timeLinePanel.getMoteVisibilities().get(id);
+    final JCheckBox cb = new JCheckBox("" + id, vis.getValue());
+    cb.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent actionEvent) {
+        vis.setValue(cb.isSelected());
+      }
+    });
+    vis.addObserver(new Observer() {
+      @Override
+      public void update(Observable observable, Object o) {
+        cb.setSelected(vis.getValue());
+      }
+    });
+    // behind "all" and "none"
+    nodesMenu.add(cb, 2 + nodeBoxes.headMap(id).size());
+  }
+  private void addPinMenuEntries(final String pinName) {
+    final JCheckBox cb = new JCheckBox("gpio trace: " + pinName, true);
+    final ObservableValue<Boolean> vis = getGpioTraceVisibility(pinName);
+    cb.setSelected(vis.getValue());
+    cb.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent actionEvent) {
+        vis.setValue(cb.isSelected());
+      }
+    });
+    vis.addObserver(new Observer() {
+      @Override
+      public void update(Observable observable, Object o) {
+        cb.setSelected(vis.getValue());
+      }
+    });
+    // behind "all", "none" and "current"
+    int iPin = pinNames.headSet(pinName).size();
+    eventsMenu.add(cb, 3 + iPin);
+
+    pinDescriptionMenu.add(new JMenuItem(new AbstractAction(pinName) {
+      @Override
+      public void actionPerformed(ActionEvent actionEvent) {
+        ObservableValue<String> pinDescription = getPinDescription(pinName);
+        String currentDescription = pinDescription.getValue();
+        if (currentDescription == null)
+          currentDescription = "";
+        String newDescription =
+            JOptionPane.showInputDialog(FlocklabPlugin.this, "Set the description for pin: " + pinName, currentDescription);
+        if (newDescription != null)
+          pinDescription.setValue(newDescription);
+      }
+    }), iPin);
+  }
   private void setAllEventVisibilities(boolean visible) {
     currentVisibility.setValue(visible);
     for (ObservableValue<Boolean> vis : gpioTraceVisibilities.values())
@@ -673,6 +1513,15 @@ public class FlocklabPlugin extends VisPlugin {
     // TODO only construct if serial.csv is supplied
     // serialIoFrame.dispose();
     timeLineFrame.dispose();
+    updateTimer.stop();
+    loadProgress.cancel();
+    setTailing(false);
+    gpioIngestMenuItem.setSelected(false);
+    gpioIngestServer = setIngesting(gpioIngestServer, null, gpioIngestMenuItem);
+    serialIngestMenuItem.setSelected(false);
+    serialIngestServer = setIngesting(serialIngestServer, null, serialIngestMenuItem);
+    backgroundExecutor.shutdownNow();
+    tailExecutor.shutdownNow();
     TimePlot.clearTimelines();
   }
 }
@@ -0,0 +1,83 @@
+/**
+ * Summary of the edges of a pin between startTime and endTime (both edges included) which were collapsed by a
+ * GpioBurstPolicy. The edge count and the time the pin was high are exact; the last edge is kept as an event, so
+ * the level after the burst is known. The rows of the edges are in [rowsStart, rowsEnd) of the loaded file.
+ */
+public final class GpioBurst {
+  private final long startTime;
+  private final long endTime;
+  private final long edgeCount;
+  private final long highTime;
+  private final long rowsStart;
+  private final long rowsEnd;
+
+  public GpioBurst(long startTime, long endTime, long edgeCount, long highTime, long rowsStart, long rowsEnd) {
+    if (endTime < startTime)
+      throw new IllegalArgumentException("burst ends before it starts");
+    if (edgeCount < 1 || highTime < 0 || highTime > endTime - startTime)
+      throw new IllegalArgumentException("illegal burst statistics");
+    this.startTime = startTime;
+    this.endTime = endTime;
+    this.edgeCount = edgeCount;
+    this.highTime = highTime;
+    this.rowsStart = rowsStart;
+    this.rowsEnd = rowsEnd;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  public long getEndTime() {
+    return endTime;
+  }
+
+  public long getEdgeCount() {
+    return edgeCount;
+  }
+
+  /**
+   * @return the time between startTime and endTime the pin was high
+   */
+  public long getHighTime() {
+    return highTime;
+  }
+
+  public double getHighTimeFraction() {
+    return endTime == startTime ? 0 : (double) highTime / (endTime - startTime);
+  }
+
+  /**
+   * @return offset of the first row of the burst in the loaded file
+   */
+  public long getRowsStart() {
+    return rowsStart;
+  }
+
+  /**
+   * @return offset behind the last row of the burst in the loaded file
+   */
+  public long getRowsEnd() {
+    return rowsEnd;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof GpioBurst))
+      return false;
+    GpioBurst other = (GpioBurst) obj;
+    return startTime == other.startTime && endTime == other.endTime && edgeCount == other.edgeCount &&
+        highTime == other.highTime && rowsStart == other.rowsStart && rowsEnd == other.rowsEnd;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (startTime ^ (startTime >>> 32)) * 31 + (int) (edgeCount ^ (edgeCount >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("burst [%d, %d]: %d edges, %.1f%% high", startTime, endTime, edgeCount,
+                         100 * getHighTimeFraction());
+  }
+}
@@ -0,0 +1,209 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Applies a GpioBurstPolicy to the events of one pin while they are appended in row order.
+ *
+ * Events go to the buffer until the last maxEdges + 1 of them lie within the window; these are taken out of the
+ * buffer again and, like all following edges up to a window without edge, only added to the burst statistics.
+ * The last edge of the burst is appended to the buffer when the burst ends.
+ *
+ * The detector of a chunk loader doesn't know whether a burst of the previous chunk goes on, so it keeps the events
+ * up to the first window without edge (the head) aside; takeOver() runs them through the detector of the previous
+ * chunks, from then on both detectors agree. This holds as long as the rows of the pin around that gap are in time
+ * order.
+ */
+final class GpioBurstDetector {
+  private final GpioEventBuffer buffer;
+  private final GpioBurstPolicy policy;
+  // row offsets of the recently appended events, next is the position of the next (and oldest) one
+  private final long[] rowOffsets;
+  private int next;
+  // number of events appended since the last burst, their rows are known
+  private int recent;
+
+  // the open burst
+  private boolean inBurst;
+  private long start;
+  private long last;
+  private boolean lastLevel;
+  private long edges;
+  private long highTime;
+  private long rowsStart;
+  private long rowsEnd;
+
+  // the head of a chunk, null if the detector starts from the first row
+  private GpioEventBuffer head;
+  private long[] headRowOffsets;
+  private long[] headRowEnds;
+  private long headEndTime;
+  private boolean headComplete;
+
+  /**
+   * @param deferHead whether the detector is fed with a chunk of the rows, which doesn't start at the first row
+   */
+  GpioBurstDetector(GpioEventBuffer buffer, GpioBurstPolicy policy, boolean deferHead) {
+    this.buffer = buffer;
+    this.policy = policy;
+    this.rowOffsets = new long[policy.getMaxEdges() + 1];
+    if (deferHead) {
+      head = new GpioEventBuffer();
+      headRowOffsets = new long[16];
+      headRowEnds = new long[16];
+    }
+  }
+
+  /**
+   * @param rowEnd end of the row of the event in the input
+   * @return the burst which ended before this event or null
+   */
+  GpioBurst add(long time, boolean level, long rowOffset, long rowEnd) {
+    if (head != null && !headComplete) {
+      if (head.size() > 0 && time - headEndTime >= policy.getWindow()) {
+        headComplete = true;
+      } else {
+        addToHead(time, level, rowOffset, rowEnd);
+        return null;
+      }
+    }
+
+    GpioBurst ended = null;
+    if (inBurst) {
+      if (time - last < policy.getWindow()) {
+        fold(time, level);
+        rowsEnd = rowEnd;
+        return null;
+      }
+      ended = close();
+    }
+
+    int pos = buffer.size();
+    buffer.add(time, level);
+    int n = rowOffsets.length;
+    rowOffsets[next] = rowOffset;
+    next = (next + 1) % n;
+    ++recent;
+    if (recent >= n && time - buffer.getTime(pos + 1 - n) < policy.getWindow()) {
+      int first = pos + 1 - n;
+      start = buffer.getTime(first);
+      last = start;
+      lastLevel = buffer.getLevel(first);
+      edges = 1;
+      highTime = 0;
+      for (int i = first + 1; i <= pos; ++i)
+        fold(buffer.getTime(i), buffer.getLevel(i));
+      rowsStart = rowOffsets[next];
+      rowsEnd = rowEnd;
+      buffer.truncate(first);
+      inBurst = true;
+    }
+    return ended;
+  }
+
+  private void addToHead(long time, boolean level, long rowOffset, long rowEnd) {
+    int i = head.size();
+    if (i == headRowOffsets.length) {
+      headRowOffsets = Arrays.copyOf(headRowOffsets, 2 * i);
+      headRowEnds = Arrays.copyOf(headRowEnds, 2 * i);
+    }
+    head.add(time, level);
+    headRowOffsets[i] = rowOffset;
+    headRowEnds[i] = rowEnd;
+    headEndTime = i == 0 ? time : Math.max(headEndTime, time);
+  }
+
+  private void fold(long time, boolean level) {
+    // rows out of time order count as edges without duration
+    if (time > last) {
+      if (lastLevel)
+        highTime += time - last;
+      last = time;
+    }
+    lastLevel = level;
+    ++edges;
+  }
+
+  /**
+   * Ends the open burst, e.g. at the end of the input. Events appended to the buffer by others afterwards are not
+   * considered for the next burst. The head of a chunk is left to takeOver() or closeHead().
+   *
+   * @return the burst or null if there was none
+   */
+  GpioBurst close() {
+    recent = 0;
+    if (!inBurst)
+      return null;
+
+    inBurst = false;
+    buffer.add(last, lastLevel);
+    return new GpioBurst(start, last, edges, highTime, rowsStart, rowsEnd);
+  }
+
+  /**
+   * Continues with the rows of the chunk of the given detector, which follows the rows of this one: its head is
+   * added to this detector, which then takes over its state. The events in the buffer of the chunk have to be
+   * appended to the buffer of this detector afterwards.
+   *
+   * @return the bursts which ended in the head of the chunk
+   */
+  List<GpioBurst> takeOver(GpioBurstDetector chunk) {
+    if (!chunk.policy.equals(policy))
+      throw new IllegalArgumentException("the chunk was loaded with another policy");
+
+    List<GpioBurst> ended = new ArrayList<GpioBurst>();
+    int headSize = chunk.head == null ? 0 : chunk.head.size();
+    for (int i = 0; i < headSize; ++i) {
+      GpioBurst burst = add(chunk.head.getTime(i), chunk.head.getLevel(i), chunk.headRowOffsets[i],
+                            chunk.headRowEnds[i]);
+      if (burst != null)
+        ended.add(burst);
+    }
+    if (chunk.head != null && !chunk.headComplete)
+      return ended;
+
+    // after the window without edge the detectors agree, the first event of the chunk ends a burst of this one
+    GpioBurst burst = close();
+    if (burst != null)
+      ended.add(burst);
+    System.arraycopy(chunk.rowOffsets, 0, rowOffsets, 0, rowOffsets.length);
+    next = chunk.next;
+    recent = chunk.recent;
+    inBurst = chunk.inBurst;
+    start = chunk.start;
+    last = chunk.last;
+    lastLevel = chunk.lastLevel;
+    edges = chunk.edges;
+    highTime = chunk.highTime;
+    rowsStart = chunk.rowsStart;
+    rowsEnd = chunk.rowsEnd;
+    return ended;
+  }
+
+  /**
+   * Puts the events of the head in front of the buffer as if the detector had started with them, for a chunk which
+   * is used on its own. The burst has to be closed before.
+   *
+   * @return the bursts of the head
+   */
+  List<GpioBurst> closeHead() {
+    if (inBurst)
+      throw new IllegalStateException("the burst has to be closed first");
+    if (head == null)
+      return new ArrayList<GpioBurst>();
+
+    GpioEventBuffer events = new GpioEventBuffer();
+    GpioBurstDetector detector = new GpioBurstDetector(events, policy, false);
+    List<GpioBurst> ended = detector.takeOver(this);
+    GpioBurst burst = detector.close();
+    if (burst != null)
+      ended.add(burst);
+    events.addAll(buffer);
+    buffer.clear();
+    buffer.addAll(events);
+    head = null;
+    headRowOffsets = null;
+    headRowEnds = null;
+    return ended;
+  }
+}
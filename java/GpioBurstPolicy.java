@@ -0,0 +1,43 @@
+/**
+ * When a pin toggles faster than maxEdges edges within window (tens of nanoseconds), e.g. because it is floating,
+ * its edges are stored as a GpioBurst summary instead of individual events until the pin is quiet for a window.
+ */
+public final class GpioBurstPolicy {
+  private final int maxEdges;
+  private final long window;
+
+  public GpioBurstPolicy(int maxEdges, long window) {
+    if (maxEdges < 2)
+      throw new IllegalArgumentException("maxEdges must be at least 2: " + maxEdges);
+    if (window <= 0)
+      throw new IllegalArgumentException("window must be positive: " + window);
+    this.maxEdges = maxEdges;
+    this.window = window;
+  }
+
+  public int getMaxEdges() {
+    return maxEdges;
+  }
+
+  public long getWindow() {
+    return window;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof GpioBurstPolicy))
+      return false;
+    GpioBurstPolicy other = (GpioBurstPolicy) obj;
+    return maxEdges == other.maxEdges && window == other.window;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * maxEdges + (int) (window ^ (window >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("more than %d edges within %d", maxEdges, window);
+  }
+}
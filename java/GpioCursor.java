@@ -0,0 +1,32 @@
+/**
+ * Reusable position in the events of a gpio trace. The values of the current event are read straight from the
+ * trace, scanning allocates nothing.
+ *
+ * A new cursor is before the first event of the whole trace; call next() before reading the first event.
+ */
+public interface GpioCursor {
+  /**
+   * Positions the cursor before the events covering [start, end]: the events in it and the one before start, which
+   * gives the level at start (like GpioTrace.getEventsCoveringTimespan).
+   */
+  void seek(long start, long end);
+
+  /**
+   * @return false if there is no further event in the range
+   */
+  boolean next();
+
+  long time();
+
+  /**
+   * @return id of the node of the trace
+   */
+  int observer();
+
+  /**
+   * @return id of the pin, see GpioPins
+   */
+  int pin();
+
+  boolean level();
+}
@@ -0,0 +1,207 @@
+import java.util.Arrays;
+
+/**
+ * Growable primitive storage of the events of one gpio pin: times and levels (as bits).
+ *
+ * Events are appended in row order while loading and sorted by sort() afterwards. The sort is stable, events
+ * with the same time stay in row order.
+ */
+final class GpioEventBuffer {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private long[] times;
+  private long[] levels;
+  private int size;
+  // events [0, sortedSize) are sorted
+  private int sortedSize;
+  // incremented when sorted events move or are removed
+  private int modCount;
+
+  GpioEventBuffer() {
+    this.times = new long[INITIAL_CAPACITY];
+    this.levels = new long[levelWords(INITIAL_CAPACITY)];
+  }
+
+  GpioEventBuffer(long[] times, long[] levels, int size) {
+    if (size < 0 || size > times.length || levelWords(size) > levels.length)
+      throw new IllegalArgumentException();
+    this.times = times;
+    this.levels = levels;
+    this.size = size;
+  }
+
+  static int levelWords(int nEvents) {
+    return (nEvents + 63) >>> 6;
+  }
+
+  void add(long time, boolean level) {
+    ensureCapacity(size + 1);
+    times[size] = time;
+    if (level)
+      levels[size >>> 6] |= 1L << size;
+    ++size;
+  }
+
+  /**
+   * Appends all events of the other buffer in its order.
+   */
+  void addAll(GpioEventBuffer other) {
+    ensureCapacity(size + other.size);
+    System.arraycopy(other.times, 0, times, size, other.size);
+    for (int i = 0; i < other.size; ++i) {
+      if (other.getLevel(i))
+        levels[(size + i) >>> 6] |= 1L << (size + i);
+    }
+    size += other.size;
+  }
+
+  /**
+   * Removes the events from position size on, they must not be sorted yet.
+   */
+  void truncate(int size) {
+    if (size < sortedSize || size > this.size)
+      throw new IllegalArgumentException("can't truncate " + this.size + " events to " + size);
+    for (int i = size; i < this.size; ++i)
+      levels[i >>> 6] &= ~(1L << i);
+    this.size = size;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > times.length) {
+      times = Arrays.copyOf(times, Math.max(capacity, times.length + (times.length >> 1)));
+      levels = Arrays.copyOf(levels, levelWords(times.length));
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  long getTime(int i) {
+    return times[i];
+  }
+
+  boolean getLevel(int i) {
+    return (levels[i >>> 6] & (1L << i)) != 0;
+  }
+
+  /**
+   * @return count of changes of the sorted events other than appending
+   */
+  int modCount() {
+    return modCount;
+  }
+
+  boolean isSorted() {
+    return sortedSize == size;
+  }
+
+  /**
+   * @return the number of events at the start which are sorted
+   */
+  int sortedSize() {
+    return sortedSize;
+  }
+
+  void clear() {
+    Arrays.fill(levels, 0, levelWords(size), 0);
+    size = 0;
+    sortedSize = 0;
+    ++modCount;
+  }
+
+  /**
+   * Removes all events like clear() and drops the grown arrays, e.g. after the events were moved to another store.
+   */
+  void release() {
+    times = new long[INITIAL_CAPACITY];
+    levels = new long[levelWords(INITIAL_CAPACITY)];
+    size = 0;
+    sortedSize = 0;
+    ++modCount;
+  }
+
+  /**
+   * Replaces the events by the ones of the other buffer without copying them, the other buffer is released.
+   */
+  void moveFrom(GpioEventBuffer other) {
+    times = other.times;
+    levels = other.levels;
+    size = other.size;
+    sortedSize = other.sortedSize;
+    ++modCount;
+    other.release();
+  }
+
+  /**
+   * Sorts the events appended since the last sort into the sorted ones.
+   *
+   * @return the first position whose event changed, i.e. the old sorted size if the new events were appended in
+   *         time order
+   */
+  int sort() {
+    int oldSortedSize = sortedSize;
+    if (oldSortedSize == size)
+      return size;
+
+    // sorted events up to the earliest new one keep their position
+    long minNewTime = Long.MAX_VALUE;
+    for (int i = oldSortedSize; i < size; ++i)
+      minNewTime = Math.min(minNewTime, times[i]);
+    int from = upperBound(minNewTime, oldSortedSize);
+
+    int[] order = SortedRuns.stableOrder(times, from, size);
+    sortedSize = size;
+    if (order == null)
+      return oldSortedSize;
+    if (from < oldSortedSize)
+      ++modCount;
+
+    long[] sortedTimes = new long[order.length];
+    long[] sortedLevels = new long[levelWords(order.length)];
+    for (int i = 0; i < order.length; ++i) {
+      sortedTimes[i] = times[order[i]];
+      if (getLevel(order[i]))
+        sortedLevels[i >>> 6] |= 1L << i;
+    }
+    System.arraycopy(sortedTimes, 0, times, from, order.length);
+    for (int i = 0; i < order.length; ++i) {
+      int pos = from + i;
+      if ((sortedLevels[i >>> 6] & (1L << i)) != 0)
+        levels[pos >>> 6] |= 1L << pos;
+      else
+        levels[pos >>> 6] &= ~(1L << pos);
+    }
+    return from;
+  }
+
+  /**
+   * @return the first position in [0, to) whose time is after time, to if there is none
+   */
+  private int upperBound(long time, int to) {
+    int lo = 0;
+    int hi = to;
+    while (lo < hi) {
+      int m = (lo + hi) >>> 1;
+      if (times[m] <= time)
+        lo = m + 1;
+      else
+        hi = m;
+    }
+    return lo;
+  }
+
+  /**
+   * @return the times of the events, valid up to size()
+   */
+  long[] times() {
+    return times;
+  }
+
+  /**
+   * @return the levels of the events as bits, valid up to size()
+   */
+  long[] levels() {
+    return levels;
+  }
+}
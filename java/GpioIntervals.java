@@ -0,0 +1,270 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.NavigableMap;
+
+/**
+ * Run-length index of a gpio trace: consecutive events of the same level are merged into runs, so neighbouring runs
+ * alternate their level. A prefix array of the high time before every run answers the level at a time, the run
+ * around it, the high time and the number of edges in a range with a binary search each.
+ *
+ * The index follows a growing trace: update() indexes events appended since the last update and rebuilds the index
+ * if the trace changed otherwise (see GpioTrace.getModCount()). The time before the first event counts as low.
+ *
+ * The edges of collapsed bursts (see GpioBurst) aren't in the trace, it holds the level before the burst up to its
+ * last edge. The high time and edge count queries take the statistics of the bursts instead, pro-rated for bursts
+ * which are only partly in the range.
+ */
+public final class GpioIntervals {
+  private final GpioTrace trace;
+  // start of run r, the run lasts until the start of run r + 1 (or forever for the last run)
+  private long[] runStarts;
+  // high time of the runs [0, r), up to the start of run r
+  private long[] highBefore;
+  private int runCount;
+  private boolean firstLevel;
+  // events [0, indexed) of the trace are indexed at modCount
+  private int indexed;
+  private int modCount;
+  // the bursts by start time and prefix sums over bursts [0, b): their statistics and what the trace has instead
+  private NavigableMap<Long, GpioBurst> bursts = Collections.emptyNavigableMap();
+  private GpioBurst[] indexedBursts = new GpioBurst[0];
+  private long[] burstEnds = new long[0];
+  private long[] burstHighBefore = new long[1];
+  private long[] burstEdgesBefore = new long[1];
+  private long[] traceHighBefore = new long[1];
+  private long[] traceEdgesBefore = new long[1];
+
+  public GpioIntervals(GpioTrace trace) {
+    if (trace == null)
+      throw new IllegalArgumentException();
+    this.trace = trace;
+    this.runStarts = new long[16];
+    this.highBefore = new long[16];
+    update();
+  }
+
+  public GpioTrace getTrace() {
+    return trace;
+  }
+
+  /**
+   * @param bursts the collapsed edges of the trace by start time, the map may grow with the trace
+   */
+  public void setBursts(NavigableMap<Long, GpioBurst> bursts) {
+    if (bursts == null)
+      throw new IllegalArgumentException();
+    this.bursts = bursts;
+    indexBursts();
+  }
+
+  /**
+   * Indexes events added to the trace and bursts since the last update.
+   */
+  public void update() {
+    int size = trace.size();
+    if (size == indexed && trace.getModCount() == modCount && bursts.size() == indexedBursts.length)
+      return;
+    if (trace.getModCount() != modCount || size < indexed) {
+      modCount = trace.getModCount();
+      indexed = 0;
+      runCount = 0;
+    }
+
+    for (int i = indexed; i < size; ++i) {
+      boolean level = trace.getLevel(i);
+      if (runCount > 0 && level == getRunLevel(runCount - 1))
+        continue;
+      long time = trace.getTime(i);
+      if (runCount == runStarts.length) {
+        runStarts = Arrays.copyOf(runStarts, runCount * 2);
+        highBefore = Arrays.copyOf(highBefore, runCount * 2);
+      }
+      if (runCount == 0) {
+        firstLevel = level;
+        highBefore[0] = 0;
+      } else {
+        int last = runCount - 1;
+        highBefore[runCount] = highBefore[last] + (getRunLevel(last) ? time - runStarts[last] : 0);
+      }
+      runStarts[runCount++] = time;
+    }
+    indexed = size;
+    indexBursts();
+  }
+
+  private void indexBursts() {
+    int n = bursts.size();
+    indexedBursts = bursts.values().toArray(new GpioBurst[n]);
+    burstEnds = new long[n];
+    burstHighBefore = new long[n + 1];
+    burstEdgesBefore = new long[n + 1];
+    traceHighBefore = new long[n + 1];
+    traceEdgesBefore = new long[n + 1];
+    for (int b = 0; b < n; ++b) {
+      GpioBurst burst = indexedBursts[b];
+      burstEnds[b] = burst.getEndTime();
+      burstHighBefore[b + 1] = burstHighBefore[b] + burst.getHighTime();
+      burstEdgesBefore[b + 1] = burstEdgesBefore[b] + burst.getEdgeCount();
+      traceHighBefore[b + 1] = traceHighBefore[b] + traceHighTime(burst.getStartTime(), burst.getEndTime());
+      traceEdgesBefore[b + 1] = traceEdgesBefore[b] + traceEdgeCount(burst.getStartTime() - 1, burst.getEndTime());
+    }
+  }
+
+  public int getRunCount() {
+    return runCount;
+  }
+
+  public long getRunStart(int r) {
+    return runStarts[r];
+  }
+
+  /**
+   * @return start of the next run, Long.MAX_VALUE for the last run
+   */
+  public long getRunEnd(int r) {
+    return r + 1 < runCount ? runStarts[r + 1] : Long.MAX_VALUE;
+  }
+
+  public boolean getRunLevel(int r) {
+    return firstLevel ^ (r & 1) != 0;
+  }
+
+  /**
+   * @return index of the run containing time, -1 if time is before the first event
+   */
+  public int runIndex(long time) {
+    int lo = 0;
+    int hi = runCount;
+    while (lo < hi) {
+      int m = (lo + hi) >>> 1;
+      if (runStarts[m] <= time)
+        lo = m + 1;
+      else
+        hi = m;
+    }
+    return lo - 1;
+  }
+
+  /**
+   * @return high time from the first event up to time
+   */
+  private long highTimeUntil(long time) {
+    int r = runIndex(time);
+    if (r < 0)
+      return 0;
+    return highBefore[r] + (getRunLevel(r) ? time - runStarts[r] : 0);
+  }
+
+  private long traceHighTime(long start, long end) {
+    return highTimeUntil(end) - highTimeUntil(start);
+  }
+
+  private int traceEdgeCount(long start, long end) {
+    return Math.max(0, runIndex(end)) - Math.max(0, runIndex(start));
+  }
+
+  /**
+   * @return index of the first burst ending at or after time, the number of bursts if there is none
+   */
+  private int burstIndex(long time) {
+    int lo = 0;
+    int hi = burstEnds.length;
+    while (lo < hi) {
+      int m = (lo + hi) >>> 1;
+      if (burstEnds[m] < time)
+        lo = m + 1;
+      else
+        hi = m;
+    }
+    return lo;
+  }
+
+  /**
+   * @return index after the last burst starting at or before time
+   */
+  private int burstEndIndex(long time) {
+    int b = burstIndex(time);
+    return b < indexedBursts.length && indexedBursts[b].getStartTime() <= time ? b + 1 : b;
+  }
+
+  /**
+   * @return time the pin was high in [start, end]
+   */
+  public long getHighTime(long start, long end) {
+    if (start > end)
+      throw new IllegalArgumentException("start " + start + " after end " + end);
+    long high = traceHighTime(start, end);
+    int first = burstIndex(start);
+    int last = burstEndIndex(end) - 1;
+    if (last < first)
+      return high;
+    // the bursts in between are covered completely
+    if (last - first > 1) {
+      high += burstHighBefore[last] - burstHighBefore[first + 1];
+      high -= traceHighBefore[last] - traceHighBefore[first + 1];
+    }
+    high += burstHighTime(indexedBursts[first], start, end);
+    if (last != first)
+      high += burstHighTime(indexedBursts[last], start, end);
+    return high;
+  }
+
+  /**
+   * @return high time of the part of the burst in [start, end] instead of the one of the trace
+   */
+  private long burstHighTime(GpioBurst burst, long start, long end) {
+    long from = Math.max(start, burst.getStartTime());
+    long to = Math.min(end, burst.getEndTime());
+    if (to <= from)
+      return 0;
+    long duration = burst.getEndTime() - burst.getStartTime();
+    long high = to - from == duration ? burst.getHighTime() :
+        Math.round(burst.getHighTime() * ((to - from) / (double) duration));
+    return high - traceHighTime(from, to);
+  }
+
+  /**
+   * @return fraction of [start, end] the pin was high, 0 for an empty range
+   */
+  public double getDutyCycle(long start, long end) {
+    if (start == end)
+      return 0;
+    return getHighTime(start, end) / (double) (end - start);
+  }
+
+  /**
+   * @return number of level changes in (start, end]; the first event isn't a change, every edge of a burst is one
+   */
+  public int getEdgeCount(long start, long end) {
+    if (start > end)
+      throw new IllegalArgumentException("start " + start + " after end " + end);
+    long edges = traceEdgeCount(start, end);
+    int first = burstIndex(start + 1);
+    int last = burstEndIndex(end) - 1;
+    if (last < first)
+      return (int) edges;
+    if (last - first > 1) {
+      edges += burstEdgesBefore[last] - burstEdgesBefore[first + 1];
+      edges -= traceEdgesBefore[last] - traceEdgesBefore[first + 1];
+    }
+    edges += burstEdgeCount(indexedBursts[first], start, end);
+    if (last != first)
+      edges += burstEdgeCount(indexedBursts[last], start, end);
+    return (int) edges;
+  }
+
+  /**
+   * @return edges of the part of the burst in (start, end] instead of the ones of the trace
+   */
+  private long burstEdgeCount(GpioBurst burst, long start, long end) {
+    // the burst covers (startTime - 1, endTime]
+    long from = Math.max(start, burst.getStartTime() - 1);
+    long to = Math.min(end, burst.getEndTime());
+    if (to <= from)
+      return 0;
+    long duration = burst.getEndTime() - burst.getStartTime() + 1;
+    long edges = to - from == duration ? burst.getEdgeCount() :
+        Math.round(burst.getEdgeCount() * ((to - from) / (double) duration));
+    return edges - traceEdgeCount(from, to);
+  }
+}
@@ -1,54 +1,584 @@
+import java.io.File;
+import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Created by andreas on 08.10.14.
  */
+
+/**
+ * Loads gpio traces in two phases: the rows are appended to a primitive GpioEventBuffer per node and pin while
+ * parsing, and sorted (stably) when the events are requested. The traces of getTraces() are views of the sorted
+ * buffers; events of a pin with the same time stay in row order.
+ * With setCompressTraces() the sorted events are moved to CompressedGpioTraces instead and the buffers only stage
+ * the events loaded since the last request.
+ */
 public class GpioLoader extends FlocklabCsvLoader {
-  private final Map<Integer, Map<String, NavigableMap<Long, Boolean>>> eventTable;
+  private final Map<Integer, Map<String, GpioEventBuffer>> buffers;
+  // views of the buffers, they grow when further events are loaded
+  private final Map<Integer, Map<String, GpioTrace>> traces;
+  // pin names seen so far (interned by GpioPins) and their encoding, used to map a pin column to its name without
+  // decoding it
+  private final List<String> pinNames;
+  private final List<byte[]> encodedPinNames;
+  // buffer of the previous row, rows of the same node and pin often follow each other
+  private int lastNodeId;
+  private String lastPinName;
+  private GpioEventBuffer lastBuffer;
+  // burst collapsing, the policy of a pin overrides the default policy
+  private GpioBurstPolicy defaultBurstPolicy;
+  private final Map<String, GpioBurstPolicy> burstPolicies;
+  private final Map<Integer, Map<String, GpioBurstDetector>> detectors;
+  private final Map<Integer, Map<String, NavigableMap<Long, GpioBurst>>> bursts;
+  // detector of the buffer of the previous row, null if the pin has no policy
+  private GpioEventBuffer detectorBuffer;
+  private GpioBurstDetector lastDetector;
+  // whether the loader is fed with a chunk of the rows, see GpioBurstDetector
+  private boolean chunk;
+  private boolean compressTraces;
+
+  public GpioLoader(File file) {
+    super(file);
+    buffers = new HashMap<Integer, Map<String, GpioEventBuffer>>();
+    traces = new HashMap<Integer, Map<String, GpioTrace>>();
+    pinNames = new ArrayList<String>();
+    encodedPinNames = new ArrayList<byte[]>();
+    burstPolicies = new TreeMap<String, GpioBurstPolicy>();
+    detectors = new HashMap<Integer, Map<String, GpioBurstDetector>>();
+    bursts = new HashMap<Integer, Map<String, NavigableMap<Long, GpioBurst>>>();
+  }
 
   public GpioLoader(Reader reader) {
     super(reader);
-    eventTable = new HashMap<Integer, Map<String, NavigableMap<Long, Boolean>>>();
+    buffers = new HashMap<Integer, Map<String, GpioEventBuffer>>();
+    traces = new HashMap<Integer, Map<String, GpioTrace>>();
+    pinNames = new ArrayList<String>();
+    encodedPinNames = new ArrayList<byte[]>();
+    burstPolicies = new TreeMap<String, GpioBurstPolicy>();
+    detectors = new HashMap<Integer, Map<String, GpioBurstDetector>>();
+    bursts = new HashMap<Integer, Map<String, NavigableMap<Long, GpioBurst>>>();
+  }
+
+  /**
+   * Loader without input of its own, fed through load(InputStream, ForkJoinPool) or used as chunk loader.
+   */
+  public GpioLoader() {
+    super();
+    buffers = new HashMap<Integer, Map<String, GpioEventBuffer>>();
+    traces = new HashMap<Integer, Map<String, GpioTrace>>();
+    pinNames = new ArrayList<String>();
+    encodedPinNames = new ArrayList<byte[]>();
+    burstPolicies = new TreeMap<String, GpioBurstPolicy>();
+    detectors = new HashMap<Integer, Map<String, GpioBurstDetector>>();
+    bursts = new HashMap<Integer, Map<String, NavigableMap<Long, GpioBurst>>>();
+  }
+
+  private GpioEventBuffer buffer(int nodeId, String pinName) {
+    if (lastBuffer != null && lastNodeId == nodeId && lastPinName == pinName)
+      return lastBuffer;
+
+    Map<String, GpioEventBuffer> nodeBuffers = buffers.get(nodeId);
+    if (nodeBuffers == null) {
+      nodeBuffers = new HashMap<String, GpioEventBuffer>();
+      buffers.put(nodeId, nodeBuffers);
+    }
+    GpioEventBuffer buffer = nodeBuffers.get(pinName);
+    if (buffer == null) {
+      buffer = new GpioEventBuffer();
+      nodeBuffers.put(pinName, buffer);
+    }
+
+    lastNodeId = nodeId;
+    lastPinName = pinName;
+    lastBuffer = buffer;
+    return buffer;
+  }
+
+  private String pinName(ByteBuffer row, int from, int to) {
+    from = CsvFields.skipSpaces(row, from, to);
+    to = CsvFields.trimEnd(row, from, to);
+    for (int i = 0; i < encodedPinNames.size(); ++i) {
+      if (CsvFields.equalBytes(row, from, to, encodedPinNames.get(i)))
+        return pinNames.get(i);
+    }
+    return internPinName(CsvFields.decode(row, from, to));
+  }
+
+  /**
+   * @return the instance of the pin name used by all loaders
+   */
+  private String internPinName(String pinName) {
+    int i = pinNames.indexOf(pinName);
+    if (i >= 0)
+      return pinNames.get(i);
+    pinName = GpioPins.name(GpioPins.id(pinName));
+    pinNames.add(pinName);
+    encodedPinNames.add(pinName.getBytes(CsvFields.UTF_8));
+    return pinName;
   }
 
-  private NavigableMap<Long, Boolean> nodePinEvents(int nodeId, String pinName) {
-    Map<String, NavigableMap<Long, Boolean>> nodeMap = eventTable.get(nodeId);
-    NavigableMap<Long, Boolean> events;
+  /**
+   * @return the buffer the events of the pin are appended to, for events which aren't parsed from rows; their
+   *         time range is added with extendTimeRange()
+   */
+  final GpioEventBuffer eventBuffer(int nodeId, String pinName) {
+    return buffer(nodeId, internPinName(pinName));
+  }
+
+  @Override
+  protected void processRow(long time, int overseerID, ByteBuffer row, int restStart, int restEnd) {
+    int pinEnd = CsvFields.indexOf(row, (byte) ',', restStart, restEnd);
+    if (pinEnd < 0)
+      throw new IllegalArgumentException("gpio row without value: " + CsvFields.decode(row, restStart, restEnd));
+    String pinID = pinName(row, restStart, pinEnd);
+    boolean level = CsvFields.isSingleChar(row, pinEnd + 1, restEnd, '1');
 
-    // TODO add the nodeMap to the eventTable in the processRow method
-    if (nodeMap == null) {
-      nodeMap = new HashMap<String, NavigableMap<Long, Boolean>>();
-      eventTable.put(nodeId, nodeMap);
-      events = null;
+    GpioEventBuffer buffer = buffer(overseerID, pinID);
+    if (buffer != detectorBuffer) {
+      detectorBuffer = buffer;
+      lastDetector = detector(overseerID, pinID, buffer);
+    }
+    if (lastDetector == null) {
+      buffer.add(time, level);
     } else {
-      events = nodeMap.get(pinName);
+      GpioBurst burst = lastDetector.add(time, level, getRowOffset(), getRowEnd());
+      if (burst != null)
+        addBurst(overseerID, pinID, burst);
     }
+  }
 
-    if (events == null) {
-      events = new TreeMap<Long, Boolean>();
-      nodeMap.put(pinName, events);
+  /**
+   * Collapses the bursts of the pin in the rows loaded afterwards, see GpioBurstPolicy. The raw edges of a burst
+   * can be loaded with loadBurstEdges().
+   *
+   * @param pinName the pin or null for the default policy of all pins without policy of their own
+   * @param policy the policy or null to store all edges
+   */
+  public void setBurstPolicy(String pinName, GpioBurstPolicy policy) {
+    if (pinName == null)
+      defaultBurstPolicy = policy;
+    else if (policy == null)
+      burstPolicies.remove(pinName);
+    else
+      burstPolicies.put(pinName, policy);
+    detectorBuffer = null;
+  }
+
+  private GpioBurstDetector detector(int nodeId, String pinName, GpioEventBuffer buffer) {
+    if (defaultBurstPolicy == null && burstPolicies.isEmpty())
+      return null;
+    Map<String, GpioBurstDetector> nodeDetectors = detectors.get(nodeId);
+    if (nodeDetectors == null) {
+      nodeDetectors = new HashMap<String, GpioBurstDetector>();
+      detectors.put(nodeId, nodeDetectors);
+    }
+    GpioBurstDetector detector = nodeDetectors.get(pinName);
+    if (detector == null) {
+      GpioBurstPolicy policy = burstPolicies.containsKey(pinName) ? burstPolicies.get(pinName) : defaultBurstPolicy;
+      if (policy == null)
+        return null;
+      detector = new GpioBurstDetector(buffer, policy, chunk);
+      nodeDetectors.put(pinName, detector);
     }
+    return detector;
+  }
 
-    return events;
+  private void addBurst(int nodeId, String pinName, GpioBurst burst) {
+    burstsOf(nodeId, pinName).put(burst.getStartTime(), burst);
+  }
+
+  private NavigableMap<Long, GpioBurst> burstsOf(int nodeId, String pinName) {
+    Map<String, NavigableMap<Long, GpioBurst>> nodeBursts = bursts.get(nodeId);
+    if (nodeBursts == null) {
+      nodeBursts = new HashMap<String, NavigableMap<Long, GpioBurst>>();
+      bursts.put(nodeId, nodeBursts);
+    }
+    NavigableMap<Long, GpioBurst> pinBursts = nodeBursts.get(pinName);
+    if (pinBursts == null) {
+      pinBursts = new TreeMap<Long, GpioBurst>();
+      nodeBursts.put(pinName, pinBursts);
+    }
+    return pinBursts;
+  }
+
+  /**
+   * Ends the open bursts, their last edges are appended to the buffers. The detectors of a chunk used on its own
+   * start with the first row of the chunk then.
+   */
+  private void closeBursts() {
+    for (Map.Entry<Integer, Map<String, GpioBurstDetector>> node : detectors.entrySet()) {
+      for (Map.Entry<String, GpioBurstDetector> pin : node.getValue().entrySet()) {
+        GpioBurst burst = pin.getValue().close();
+        if (burst != null)
+          addBurst(node.getKey(), pin.getKey(), burst);
+        for (GpioBurst headBurst : pin.getValue().closeHead())
+          addBurst(node.getKey(), pin.getKey(), headBurst);
+      }
+    }
+  }
+
+  /**
+   * @return the bursts of the pin by start time; the map stays the same when further events are loaded
+   */
+  public NavigableMap<Long, GpioBurst> getBursts(int nodeId, String pinName) {
+    finish();
+    return Collections.unmodifiableNavigableMap(burstsOf(nodeId, internPinName(pinName)));
+  }
+
+  /**
+   * Parses the rows of the burst from the input file again.
+   *
+   * @return all edges of the pin within the burst
+   */
+  public GpioTrace loadBurstEdges(int nodeId, String pinName, GpioBurst burst) throws IOException {
+    if (getFile() == null)
+      throw new IllegalStateException("only bursts loaded from a file can be loaded again");
+
+    // the chunk loaders of a loader without policy keep all edges
+    GpioLoader raw = (GpioLoader) new GpioLoader(getFile()).loadRange(burst.getRowsStart(), burst.getRowsEnd());
+    Map<String, GpioTrace> nodeTraces = raw.getTraces().get(nodeId);
+    GpioTrace edges = nodeTraces == null ? null : nodeTraces.get(pinName);
+    if (edges == null)
+      return new ArrayGpioTrace(new GpioEventBuffer(), nodeId, GpioPins.id(pinName));
+    return edges.range(burst.getStartTime(), burst.getEndTime());
+  }
+
+  /**
+   * Stores the traces delta compressed, see CompressedGpioTrace; must be set before events are loaded.
+   */
+  public void setCompressTraces(boolean compressTraces) {
+    if (!traces.isEmpty())
+      throw new IllegalStateException("the traces are loaded already");
+    this.compressTraces = compressTraces;
+  }
+
+  @Override
+  protected FlocklabCsvLoader newChunkLoader() {
+    GpioLoader chunk = new GpioLoader();
+    chunk.defaultBurstPolicy = defaultBurstPolicy;
+    chunk.burstPolicies.putAll(burstPolicies);
+    chunk.chunk = true;
+    return chunk;
+  }
+
+  @Override
+  protected void mergeChunks(List<FlocklabCsvLoader> chunks) {
+    // the events of the chunks follow the events of this loader in row order, they are sorted on demand
+    for (FlocklabCsvLoader c : chunks) {
+      GpioLoader chunk = (GpioLoader) c;
+      // the open bursts go on in the chunk, the events of its head come before the ones in its buffers
+      for (Map.Entry<Integer, Map<String, GpioBurstDetector>> node : chunk.detectors.entrySet()) {
+        for (Map.Entry<String, GpioBurstDetector> pin : node.getValue().entrySet()) {
+          String pinName = internPinName(pin.getKey());
+          GpioBurstDetector detector = detector(node.getKey(), pinName, buffer(node.getKey(), pinName));
+          for (GpioBurst burst : detector.takeOver(pin.getValue()))
+            addBurst(node.getKey(), pinName, burst);
+        }
+      }
+      for (Map.Entry<Integer, Map<String, GpioEventBuffer>> node : chunk.buffers.entrySet()) {
+        for (Map.Entry<String, GpioEventBuffer> pin : node.getValue().entrySet())
+          buffer(node.getKey(), internPinName(pin.getKey())).addAll(pin.getValue());
+      }
+      for (Map.Entry<Integer, Map<String, NavigableMap<Long, GpioBurst>>> node : chunk.bursts.entrySet()) {
+        for (Map.Entry<String, NavigableMap<Long, GpioBurst>> pin : node.getValue().entrySet())
+          burstsOf(node.getKey(), internPinName(pin.getKey())).putAll(pin.getValue());
+      }
+    }
+  }
+
+  /**
+   * Takes over the traces and bursts of the other loader, e.g. of nodes loaded separately with loadRows(). The
+   * loaders must not have events of the same node; the traces stay the same objects and grow with this loader.
+   */
+  void addNodes(GpioLoader other) {
+    if (other.compressTraces != compressTraces)
+      throw new IllegalArgumentException("the loaders store their traces differently");
+    finish();
+    other.finish();
+    for (Integer nodeId : other.buffers.keySet()) {
+      if (buffers.containsKey(nodeId))
+        throw new IllegalArgumentException("both loaders have events of node " + nodeId);
+    }
+
+    // the pin names are interned by GpioPins for all loaders
+    buffers.putAll(other.buffers);
+    traces.putAll(other.traces);
+    bursts.putAll(other.bursts);
+    extendTimeRange(other.getStartTime(), other.getEndTime());
+  }
+
+  /**
+   * Sorts the events loaded since the last call, the traces of new pins are created.
+   */
+  private void finish() {
+    closeBursts();
+    final List<GpioEventBuffer> unsorted = new ArrayList<GpioEventBuffer>();
+    List<Integer> nodeIds = new ArrayList<Integer>();
+    List<String> pins = new ArrayList<String>();
+    for (Map.Entry<Integer, Map<String, GpioEventBuffer>> node : buffers.entrySet()) {
+      for (Map.Entry<String, GpioEventBuffer> pin : node.getValue().entrySet()) {
+        if (!pin.getValue().isSorted()) {
+          unsorted.add(pin.getValue());
+          nodeIds.add(node.getKey());
+          pins.add(pin.getKey());
+        }
+      }
+    }
+    if (unsorted.isEmpty())
+      return;
+
+    // sorting the events of different pins is independent
+    ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        List<RecursiveAction> sorts = new ArrayList<RecursiveAction>();
+        for (int i = 0; i < unsorted.size(); ++i) {
+          final GpioEventBuffer buffer = unsorted.get(i);
+          sorts.add(new RecursiveAction() {
+            @Override
+            protected void compute() {
+              buffer.sort();
+            }
+          });
+        }
+        invokeAll(sorts);
+      }
+    });
+
+    for (int i = 0; i < unsorted.size(); ++i) {
+      GpioEventBuffer buffer = unsorted.get(i);
+      if (!traces.containsKey(nodeIds.get(i)))
+        traces.put(nodeIds.get(i), new HashMap<String, GpioTrace>());
+      Map<String, GpioTrace> nodeTraces = traces.get(nodeIds.get(i));
+      GpioTrace trace = nodeTraces.get(pins.get(i));
+      if (trace == null) {
+        int pinId = GpioPins.id(pins.get(i));
+        trace = compressTraces ? new CompressedGpioTrace(nodeIds.get(i), pinId) :
+            new ArrayGpioTrace(buffer, nodeIds.get(i), pinId);
+        nodeTraces.put(pins.get(i), trace);
+      }
+      if (compressTraces) {
+        ((CompressedGpioTrace) trace).addAll(buffer);
+        // the buffer only stages the next events, they are usually few
+        buffer.release();
+      }
+    }
   }
 
   @Override
-  protected void processRow(long time, int overseerID, String rest) {
-    String[] restParts = rest.split(",", 2);
-    String pinID = restParts[0].trim();
+  protected void writeCacheColumns(FlocklabCache.Writer out) throws IOException {
+    finish();
+    int nTraces = 0;
+    for (Map<String, GpioEventBuffer> nodeBuffers : buffers.values())
+      nTraces += nodeBuffers.size();
+    out.putInt(nTraces);
+
+    for (Map.Entry<Integer, Map<String, GpioEventBuffer>> node : buffers.entrySet()) {
+      for (String pinName : node.getValue().keySet()) {
+        GpioTrace trace = traces.containsKey(node.getKey()) ? traces.get(node.getKey()).get(pinName) : null;
+        out.putInt(node.getKey());
+        out.putString(pinName);
+        writeCacheEvents(out, trace);
+      }
+    }
+
+    // the bursts depend on the policies
+    writeBurstPolicy(out, defaultBurstPolicy);
+    out.putInt(burstPolicies.size());
+    for (Map.Entry<String, GpioBurstPolicy> policy : burstPolicies.entrySet()) {
+      out.putString(policy.getKey());
+      writeBurstPolicy(out, policy.getValue());
+    }
+    int nBurstTraces = 0;
+    for (Map<String, NavigableMap<Long, GpioBurst>> nodeBursts : bursts.values())
+      nBurstTraces += nodeBursts.size();
+    out.putInt(nBurstTraces);
+    for (Map.Entry<Integer, Map<String, NavigableMap<Long, GpioBurst>>> node : bursts.entrySet()) {
+      for (Map.Entry<String, NavigableMap<Long, GpioBurst>> pin : node.getValue().entrySet()) {
+        out.putInt(node.getKey());
+        out.putString(pin.getKey());
+        out.putInt(pin.getValue().size());
+        for (GpioBurst burst : pin.getValue().values()) {
+          out.putLong(burst.getStartTime());
+          out.putLong(burst.getEndTime());
+          out.putLong(burst.getEdgeCount());
+          out.putLong(burst.getHighTime());
+          out.putLong(burst.getRowsStart());
+          out.putLong(burst.getRowsEnd());
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the times and then the levels of the trace, in pieces so compressed traces aren't decoded as a whole.
+   */
+  private static void writeCacheEvents(FlocklabCache.Writer out, GpioTrace trace) throws IOException {
+    int n = trace == null ? 0 : trace.size();
+    out.putInt(n);
+    long[] piece = new long[4096];
+    for (int from = 0; from < n; from += piece.length) {
+      int length = Math.min(piece.length, n - from);
+      for (int i = 0; i < length; ++i)
+        piece[i] = trace.getTime(from + i);
+      out.putLongs(piece, length);
+    }
+    for (int from = 0; from < n; from += piece.length * 64) {
+      int length = Math.min(piece.length * 64, n - from);
+      Arrays.fill(piece, 0);
+      for (int i = 0; i < length; ++i) {
+        if (trace.getLevel(from + i))
+          piece[i >>> 6] |= 1L << i;
+      }
+      out.putLongs(piece, GpioEventBuffer.levelWords(length));
+    }
+  }
+
+  private static void writeBurstPolicy(FlocklabCache.Writer out, GpioBurstPolicy policy) throws IOException {
+    out.putInt(policy == null ? 0 : policy.getMaxEdges());
+    out.putLong(policy == null ? 0 : policy.getWindow());
+  }
 
-    nodePinEvents(overseerID, pinID).put(time, restParts[1].trim().equals("1"));
+  private static GpioBurstPolicy readBurstPolicy(FlocklabCache.Reader in) throws IOException {
+    int maxEdges = in.getInt();
+    long window = in.getLong();
+    return maxEdges == 0 ? null : new GpioBurstPolicy(maxEdges, window);
   }
 
+  @Override
+  protected boolean readCacheColumns(FlocklabCache.Reader in) throws IOException {
+    Map<Integer, Map<String, GpioEventBuffer>> cachedBuffers = new HashMap<Integer, Map<String, GpioEventBuffer>>();
+    int nTraces = in.getInt();
+    for (int iTrace = 0; iTrace < nTraces; ++iTrace) {
+      int nodeId = in.getInt();
+      String pinName = in.getString();
+      int n = in.getInt();
+      if (n < 0)
+        throw new IOException("corrupt cache file");
+      long[] times = new long[n];
+      long[] levels = new long[GpioEventBuffer.levelWords(n)];
+      in.getLongs(times, n);
+      in.getLongs(levels, levels.length);
+      for (int i = 1; i < n; ++i) {
+        if (times[i] < times[i - 1])
+          throw new IOException("corrupt cache file, unordered gpio events");
+      }
+
+      Map<String, GpioEventBuffer> nodeBuffers = cachedBuffers.get(nodeId);
+      if (nodeBuffers == null) {
+        nodeBuffers = new HashMap<String, GpioEventBuffer>();
+        cachedBuffers.put(nodeId, nodeBuffers);
+      }
+      nodeBuffers.put(pinName, new GpioEventBuffer(times, levels, n));
+    }
+
+    GpioBurstPolicy cachedDefaultPolicy = readBurstPolicy(in);
+    Map<String, GpioBurstPolicy> cachedPolicies = new TreeMap<String, GpioBurstPolicy>();
+    int nPolicies = in.getInt();
+    for (int i = 0; i < nPolicies; ++i)
+      cachedPolicies.put(in.getString(), readBurstPolicy(in));
+    if (!(cachedDefaultPolicy == null ? defaultBurstPolicy == null : cachedDefaultPolicy.equals(defaultBurstPolicy)) ||
+        !cachedPolicies.equals(burstPolicies))
+      return false;
+
+    Map<Integer, Map<String, List<GpioBurst>>> cachedBursts = new HashMap<Integer, Map<String, List<GpioBurst>>>();
+    int nBurstTraces = in.getInt();
+    for (int iTrace = 0; iTrace < nBurstTraces; ++iTrace) {
+      int nodeId = in.getInt();
+      String pinName = in.getString();
+      int n = in.getInt();
+      if (n < 0)
+        throw new IOException("corrupt cache file");
+      List<GpioBurst> pinBursts = new ArrayList<GpioBurst>(n);
+      for (int i = 0; i < n; ++i)
+        pinBursts.add(new GpioBurst(in.getLong(), in.getLong(), in.getLong(), in.getLong(), in.getLong(), in.getLong()));
+      if (!cachedBursts.containsKey(nodeId))
+        cachedBursts.put(nodeId, new HashMap<String, List<GpioBurst>>());
+      cachedBursts.get(nodeId).put(pinName, pinBursts);
+    }
+
+    // the cached events are sorted, they are appended like loaded rows
+    for (Map.Entry<Integer, Map<String, GpioEventBuffer>> node : cachedBuffers.entrySet()) {
+      for (Map.Entry<String, GpioEventBuffer> pin : node.getValue().entrySet())
+        buffer(node.getKey(), internPinName(pin.getKey())).addAll(pin.getValue());
+    }
+    for (Map.Entry<Integer, Map<String, List<GpioBurst>>> node : cachedBursts.entrySet()) {
+      for (Map.Entry<String, List<GpioBurst>> pin : node.getValue().entrySet()) {
+        for (GpioBurst burst : pin.getValue())
+          addBurst(node.getKey(), internPinName(pin.getKey()), burst);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the node ids of the loaded events
+   */
+  public final Set<Integer> getNodeIds() {
+    return Collections.unmodifiableSet(buffers.keySet());
+  }
+
+  /**
+   * @return the pins of the node with loaded events
+   */
+  public final Set<String> getPinNames(int nodeId) {
+    Map<String, GpioEventBuffer> nodeBuffers = buffers.get(nodeId);
+    return nodeBuffers == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(nodeBuffers.keySet());
+  }
+
+  /**
+   * Sorts the events loaded so far if necessary. The returned traces stay the same when further events are
+   * loaded, they grow by the next call.
+   */
+  public Map<Integer, Map<String, GpioTrace>> getTraces() {
+    finish();
+    return traces;
+  }
+
+  /**
+   * @return copies of the traces as maps from time to level
+   */
   public Map<Integer, Map<String, NavigableMap<Long, Boolean>>> getEvents() {
-    return eventTable;
+    Map<Integer, Map<String, NavigableMap<Long, Boolean>>> events =
+        new HashMap<Integer, Map<String, NavigableMap<Long, Boolean>>>();
+    for (Map.Entry<Integer, Map<String, GpioTrace>> node : getTraces().entrySet()) {
+      Map<String, NavigableMap<Long, Boolean>> nodeEvents = new HashMap<String, NavigableMap<Long, Boolean>>();
+      for (Map.Entry<String, GpioTrace> pin : node.getValue().entrySet())
+        nodeEvents.put(pin.getKey(), toNavigableMap(pin.getValue()));
+      events.put(node.getKey(), nodeEvents);
+    }
+    return events;
+  }
+
+  /**
+   * @return the events of the trace as a map, of several events with the same time only the last one is kept
+   */
+  static NavigableMap<Long, Boolean> toNavigableMap(GpioTrace trace) {
+    Long[] keys = new Long[trace.size()];
+    Boolean[] values = new Boolean[trace.size()];
+    int n = 0;
+    for (int i = 0; i < trace.size(); ++i) {
+      long time = trace.getTime(i);
+      if (n == 0 || keys[n - 1] != time)
+        keys[n++] = time;
+      values[n - 1] = trace.getLevel(i);
+    }
+    if (n < keys.length) {
+      keys = Arrays.copyOf(keys, n);
+      values = Arrays.copyOf(values, n);
+    }
+    // filling a TreeMap from a SortedMap takes linear time
+    return new TreeMap<Long, Boolean>(new SortedEntries<Long, Boolean>(keys, values));
   }
 
   public final Set<String> getOccuringPinNames() {
     Set<String> pinNames = new HashSet<String>();
-    for (Map<String, NavigableMap<Long, Boolean>> nodeEvents : eventTable.values()) {
-      pinNames.addAll(nodeEvents.keySet());
+    for (Map<String, GpioEventBuffer> nodeBuffers : buffers.values()) {
+      pinNames.addAll(nodeBuffers.keySet());
     }
     return Collections.unmodifiableSet(pinNames);
   }
@@ -0,0 +1,37 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns gpio pin names to small integer ids, which are shared by all traces.
+ */
+public final class GpioPins {
+  // guarded by GpioPins.class
+  private static final List<String> names = new ArrayList<String>();
+  private static final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+  private GpioPins() {
+  }
+
+  public static synchronized int id(String pinName) {
+    if (pinName == null)
+      throw new IllegalArgumentException("pinName can't be null");
+    Integer id = ids.get(pinName);
+    if (id == null) {
+      id = names.size();
+      names.add(pinName);
+      ids.put(pinName, id);
+    }
+    return id;
+  }
+
+  /**
+   * @return the name of the pin, the same instance for all calls
+   */
+  public static synchronized String name(int id) {
+    if (id < 0 || id >= names.size())
+      throw new IllegalArgumentException("unknown pin id " + id);
+    return names.get(id);
+  }
+}
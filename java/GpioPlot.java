@@ -9,10 +9,13 @@ import java.util.List;
 
 public class GpioPlot extends TimePlot {
 
-  private final NavigableMap<Long, Boolean> trace;
+  private final GpioTrace trace;
+  private final GpioIntervals intervals;
   public static JComponent eventDestination;
   private final String pinName;
   private final ObservableValue<String> pinDescription;
+  // collapsed edges, drawn as blocks over the trace
+  private NavigableMap<Long, GpioBurst> bursts = Collections.emptyNavigableMap();
 
   private final float strokeThickness = 2.0f;
   private final BasicStroke traceStroke =
@@ -25,8 +28,12 @@ public class GpioPlot extends TimePlot {
   Color highColor = new Color(19,115,44);
   Color verticalLineColor = new Color(200,200,200);
   Color interiorColor = new Color(235,235,235);
+  Color burstColor = new Color(230, 150, 40, 160);
+  Color activityColor = new Color(90, 90, 90);
+  // activityColor blended towards highColor by the fraction of high time
+  private final Color[] activityShades = new Color[17];
 
-  public GpioPlot(NavigableMap<Long, Boolean> trace, String pinName, BoundedTimeValue currentTime, ObservableValue<String> pinDescription) {
+  public GpioPlot(GpioTrace trace, String pinName, BoundedTimeValue currentTime, ObservableValue<String> pinDescription) {
     super(currentTime);
 
     if (pinDescription == null)
@@ -35,11 +42,42 @@ public class GpioPlot extends TimePlot {
       throw new IllegalArgumentException();
 
     this.trace = trace;
+    this.intervals = new GpioIntervals(trace);
+    for (int i = 0; i < activityShades.length; ++i) {
+      float high = i / (float) (activityShades.length - 1);
+      activityShades[i] = new Color(
+          (int) (activityColor.getRed() + high * (highColor.getRed() - activityColor.getRed())),
+          (int) (activityColor.getGreen() + high * (highColor.getGreen() - activityColor.getGreen())),
+          (int) (activityColor.getBlue() + high * (highColor.getBlue() - activityColor.getBlue())));
+    }
     this.pinName = pinName;
     this.pinDescription = pinDescription;
     setLayout(null);
   }
 
+  public GpioTrace getTrace() {
+    return trace;
+  }
+
+  /**
+   * @return run-length index of the trace, updated to its current events
+   */
+  public GpioIntervals getIntervals() {
+    intervals.update();
+    return intervals;
+  }
+
+  /**
+   * @param bursts the bursts of the pin by start time, see GpioLoader.getBursts()
+   */
+  public void setBursts(NavigableMap<Long, GpioBurst> bursts) {
+    if (bursts == null)
+      throw new IllegalArgumentException();
+    this.bursts = bursts;
+    intervals.setBursts(bursts);
+    repaint();
+  }
+
   @Override
   public int getHeight() {
     return 40;
@@ -53,16 +91,18 @@ public class GpioPlot extends TimePlot {
 
     fillIntervall(g, currentTime, TimePlot.endTime, Color.WHITE, true);
 
-    Long timeOfLastEventBeforeCurrentTime = trace.floorKey(currentTime);
-    NavigableMap<Long, Boolean> events = trace.subMap(
-        timeOfLastEventBeforeCurrentTime == null ?
-            currentTime :
-            timeOfLastEventBeforeCurrentTime,
-        true,
-        plotEndTime, true);
+    // the last event before currentTime and the ones up to plotEndTime
+    int firstEvent = Math.max(0, trace.floorIndex(currentTime));
+    int endEvent = trace.floorIndex(plotEndTime) + 1;
 
 
     Graphics2D g2d = (Graphics2D) g;
+    if (endEvent - firstEvent > getWidth()) {
+      // more edges than pixels, draw pixel columns instead
+      paintColumns(g2d, timePerPixel);
+      paintBursts(g2d, timePerPixel, plotEndTime);
+      return;
+    }
     Path2D horizontalOffscreenLine = new Path2D.Double();
     int previousSignal = -1;
     double previousYPos = 0;
@@ -73,7 +113,7 @@ public class GpioPlot extends TimePlot {
     g2d.setStroke(traceStroke);
 
     // -- Draw Traces --
-    for (Map.Entry<Long, Boolean> e : events.entrySet()) {
+    for (int iEvent = firstEvent; iEvent < endEvent; ++iEvent) {
         double length;
         long startT;
         int currentSignal;
@@ -84,8 +124,8 @@ public class GpioPlot extends TimePlot {
 
 
         // Because inverted coordinate system. replace with screen space transformation.
-        currentSignal = e.getValue() ? 0 : 1;
-        currentTimestamp = e.getKey();
+        currentSignal = trace.getLevel(iEvent) ? 0 : 1;
+        currentTimestamp = trace.getTime(iEvent);
         currentYPos = currentSignal * getHeight();
 
         startT = Math.max(currentTime, previousTimestamp);
@@ -149,6 +189,69 @@ public class GpioPlot extends TimePlot {
 
     }
 
+    paintBursts(g2d, timePerPixel, plotEndTime);
+  }
+
+  /**
+   * Draws the trace column by column from the interval index, the cost depends on the width and not on the number
+   * of edges: a stretch of columns without edges is drawn as one line, a column with several edges as an activity
+   * band whose shade gives the fraction of time the pin was high.
+   */
+  void paintColumns(Graphics2D g2d, double timePerPixel) {
+    GpioIntervals intervals = getIntervals();
+    int width = getWidth();
+    int height = getHeight();
+    int lineOffset = (int) Math.ceil(strokeThickness / 2);
+    g2d.setStroke(traceStroke);
+
+    int x = 0;
+    while (x < width) {
+      long columnStart = currentTime + (long) (x * timePerPixel);
+      long columnEnd = currentTime + (long) ((x + 1) * timePerPixel);
+      int run = intervals.runIndex(columnStart);
+      int edges = intervals.getEdgeCount(columnStart, columnEnd);
+
+      if (edges == 0) {
+        // the level stays until the next run starts
+        long runEnd = run + 1 < intervals.getRunCount() ? intervals.getRunStart(run + 1) : Long.MAX_VALUE;
+        int endX = runEnd == Long.MAX_VALUE ? width : (int) Math.min(width, (runEnd - currentTime) / timePerPixel);
+        endX = Math.max(endX, x + 1);
+        if (run >= 0 && intervals.getRunLevel(run)) {
+          g2d.setColor(interiorColor);
+          g2d.fillRect(x, lineOffset, endX - x, height - lineOffset);
+          g2d.setColor(highColor);
+          g2d.drawLine(x, lineOffset, endX, lineOffset);
+        } else if (run >= 0) {
+          g2d.setColor(lowColor);
+          g2d.drawLine(x, height - lineOffset, endX, height - lineOffset);
+        }
+        x = endX;
+      } else if (edges == 1) {
+        g2d.setColor(verticalLineColor);
+        g2d.drawLine(x, lineOffset, x, height - lineOffset);
+        ++x;
+      } else {
+        double high = intervals.getDutyCycle(columnStart, columnEnd);
+        g2d.setColor(activityShades[(int) Math.round(high * (activityShades.length - 1))]);
+        g2d.fillRect(x, 0, 1, height);
+        ++x;
+      }
+    }
+  }
+
+  private void paintBursts(Graphics2D g2d, double timePerPixel, long plotEndTime) {
+    // -- Draw Bursts --
+    Long firstBurst = bursts.floorKey(currentTime);
+    g2d.setColor(burstColor);
+    for (GpioBurst burst : bursts.subMap(firstBurst == null ? currentTime : firstBurst, true, plotEndTime, true).values()) {
+      if (burst.getEndTime() < currentTime)
+        continue;
+      double startX = (burst.getStartTime() - currentTime) / timePerPixel;
+      double endX = (burst.getEndTime() - currentTime) / timePerPixel;
+      // at least one pixel wide
+      g2d.fill(new Rectangle2D.Double(startX, 0, Math.max(1, endX - startX), getHeight()));
+    }
+
 
   }
 
@@ -164,32 +267,26 @@ public class GpioPlot extends TimePlot {
 
     long mouseTime = (long) (mouseEvent.getX() * timePerPixel.getValue()) + currentTime;
 
-    // take earlier events as long as the value does not change
-    Map.Entry<Long, Boolean> lastEvent = trace.floorEntry(mouseTime);
-    Map.Entry<Long, Boolean> preLastEvent = lastEvent;
-    while (preLastEvent != null && preLastEvent.getValue() == lastEvent.getValue()) {
-      Map.Entry<Long, Boolean> temp = preLastEvent;
-      preLastEvent = trace.lowerEntry(lastEvent.getKey());
-      lastEvent = temp;
-    }
-    Map.Entry<Long, Boolean> nextEvent = trace.higherEntry(mouseTime);
-    // take next event different from the last one
-    if (lastEvent != null) {
-      while (nextEvent != null && nextEvent.getValue() == lastEvent.getValue()) {
-        nextEvent = trace.higherEntry(nextEvent.getKey());
-      }
-    }
+    // the run of equal levels around the mouse, or the burst the trace only has the level before of
+    GpioIntervals intervals = getIntervals();
+    int run = intervals.runIndex(mouseTime);
+    int nextRun = run + 1;
+    Map.Entry<Long, GpioBurst> burst = bursts.floorEntry(mouseTime);
+    boolean inBurst = burst != null && burst.getValue().getEndTime() >= mouseTime;
 
-    String toolTipText = pinName;
-    toolTipText += " : ";
     Long start = null;
     Long end = null;
-    if (preLastEvent != null) {
-      start = lastEvent.getKey();
-    }
+    if (inBurst) {
+      start = burst.getValue().getStartTime();
+      end = burst.getValue().getEndTime();
+    } else {
+      if (run > 0) {
+        start = intervals.getRunStart(run);
+      }
 
-    if (nextEvent != null) {
-      end = nextEvent.getKey();
+      if (nextRun < intervals.getRunCount()) {
+        end = intervals.getRunStart(nextRun);
+      }
     }
 
     String endTimeString = "...";
@@ -216,16 +313,18 @@ public class GpioPlot extends TimePlot {
 
     b.append(" : ");
 
-    if (lastEvent == null) {
+    if (inBurst) {
+      b.append("toggling");
+    } else if (run < 0) {
       b.append("unknown");
-      if (nextEvent != null) {
+      if (nextRun < intervals.getRunCount()) {
         b.append(" then ");
-        if (nextEvent.getValue())
+        if (intervals.getRunLevel(nextRun))
           b.append("high");
         else
           b.append("low");
       }
-    } else if (lastEvent.getValue())
+    } else if (intervals.getRunLevel(run))
       b.append("high");
     else
       b.append("low");
@@ -238,6 +337,12 @@ public class GpioPlot extends TimePlot {
       b.append(" (")
        .append(FloatUtils.convert((end - start) * 1e-8, 2))
        .append("s)");
+    if (inBurst)
+      b.append("<br>burst of ")
+       .append(burst.getValue().getEdgeCount())
+       .append(" edges, ")
+       .append(String.format("%.1f", 100 * burst.getValue().getHighTimeFraction()))
+       .append("% high");
     b.append("</html>");
 
     setToolTipText(b.toString());
@@ -1,7 +1,70 @@
 /**
  * Created by andreas on 08.10.14.
  */
+
+/**
+ * Edges of one gpio pin of a node in time order, edges with the same time (glitches) in row order. Events are
+ * addressed by their index; the index queries search binary.
+ */
 public interface GpioTrace {
+  /**
+   * @return time of the first event, Long.MAX_VALUE if there is none
+   */
   long getStartTime();
+
+  /**
+   * @return the events in [start, end] and the one before start, which gives the level at start
+   */
   GpioEvent[] getEventsCoveringTimespan(long start, long end);
+
+  int getNodeId();
+
+  String getPinName();
+
+  int size();
+
+  /**
+   * @return count of changes of the events other than appending after the last one; an index over the events stays
+   *         valid as long as it doesn't change
+   */
+  int getModCount();
+
+  long getTime(int i);
+
+  boolean getLevel(int i);
+
+  /**
+   * @return index of the last event at or before time, -1 if there is none
+   */
+  int floorIndex(long time);
+
+  /**
+   * @return index of the last event before time, -1 if there is none
+   */
+  int lowerIndex(long time);
+
+  /**
+   * @return index of the first event at or after time, size() if there is none
+   */
+  int ceilingIndex(long time);
+
+  /**
+   * @return index of the first event after time, size() if there is none
+   */
+  int higherIndex(long time);
+
+  /**
+   * @return view of the events [from, to)
+   */
+  GpioTrace subTrace(int from, int to);
+
+  /**
+   * @return view of the events in [start, end]
+   */
+  GpioTrace range(long start, long end);
+
+  /**
+   * @return new cursor before the first event, see GpioCursor.seek() to scan a time range
+   */
+  GpioCursor cursor();
 }
@@ -0,0 +1,51 @@
+/**
+ * GpioCursor over the events of a trace by index.
+ */
+final class GpioTraceCursor implements GpioCursor {
+  private final GpioTrace trace;
+  private final int pinId;
+  private int index;
+  // end of the range, -1 for all events of the trace (which might grow)
+  private int end;
+
+  GpioTraceCursor(GpioTrace trace, int pinId) {
+    this.trace = trace;
+    this.pinId = pinId;
+    this.index = -1;
+    this.end = -1;
+  }
+
+  @Override
+  public void seek(long start, long end) {
+    index = Math.max(0, trace.floorIndex(start)) - 1;
+    this.end = Math.max(index + 1, trace.floorIndex(end) + 1);
+  }
+
+  @Override
+  public boolean next() {
+    if (index + 1 >= (end < 0 ? trace.size() : end))
+      return false;
+    ++index;
+    return true;
+  }
+
+  @Override
+  public long time() {
+    return trace.getTime(index);
+  }
+
+  @Override
+  public int observer() {
+    return trace.getNodeId();
+  }
+
+  @Override
+  public int pin() {
+    return pinId;
+  }
+
+  @Override
+  public boolean level() {
+    return trace.getLevel(index);
+  }
+}
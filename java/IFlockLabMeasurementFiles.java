@@ -1,4 +1,6 @@
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Created by andreas on 08.10.14.
@@ -8,6 +10,21 @@ import java.io.File;
  * Interface to the result files of a flocklab measurement.
  */
 public interface IFlockLabMeasurementFiles {
+  /**
+   * @return the extracted file or null if there is none
+   */
   File getSerialOutputFile();
+  /**
+   * @return the extracted file or null if there is none
+   */
   File getGpioTraceFile();
+
+  /**
+   * @return stream of the serial output or null if there is none
+   */
+  InputStream openSerialOutput() throws IOException;
+  /**
+   * @return stream of the gpio trace or null if there is none
+   */
+  InputStream openGpioTrace() throws IOException;
 }
@@ -0,0 +1,92 @@
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of loading measurement files, shared by the loading threads (which add to it) and the gui (which
+ * displays it and may cancel the loading).
+ *
+ * The progress of a single file can be tracked by a child progress, which adds everything to its parent as well
+ * and is cancelled with it.
+ */
+public class LoadProgress {
+  private final LoadProgress parent;
+  private final AtomicLong bytes;
+  private final AtomicLong totalBytes;
+  private final AtomicLong rows;
+  private final long startNanos;
+  private volatile boolean cancelled;
+  private volatile boolean finished;
+
+  public LoadProgress() {
+    this(null);
+  }
+
+  public LoadProgress(LoadProgress parent) {
+    this.parent = parent;
+    this.bytes = new AtomicLong();
+    this.totalBytes = new AtomicLong();
+    this.rows = new AtomicLong();
+    this.startNanos = System.nanoTime();
+  }
+
+  /**
+   * Announces that n more bytes are going to be processed.
+   */
+  public void addTotalBytes(long n) {
+    totalBytes.addAndGet(n);
+    if (parent != null)
+      parent.addTotalBytes(n);
+  }
+
+  public void addBytes(long n) {
+    bytes.addAndGet(n);
+    if (parent != null)
+      parent.addBytes(n);
+  }
+
+  public void addRows(long n) {
+    rows.addAndGet(n);
+    if (parent != null)
+      parent.addRows(n);
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  public long getTotalBytes() {
+    return totalBytes.get();
+  }
+
+  public long getRows() {
+    return rows.get();
+  }
+
+  public double getElapsedSeconds() {
+    return (System.nanoTime() - startNanos) * 1e-9;
+  }
+
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled || (parent != null && parent.isCancelled());
+  }
+
+  /**
+   * @throws InterruptedIOException if the loading was cancelled
+   */
+  public void checkCancelled() throws InterruptedIOException {
+    if (isCancelled())
+      throw new InterruptedIOException("loading cancelled");
+  }
+
+  public void finish() {
+    finished = true;
+  }
+
+  public boolean isFinished() {
+    return finished;
+  }
+}
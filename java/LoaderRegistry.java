@@ -0,0 +1,133 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Knows how to load the result files of a flocklab test, keyed by file name.
+ *
+ * createDefault() covers the current flocklab result files; loaders of further formats are added with
+ * register().
+ */
+public class LoaderRegistry {
+  /**
+   * Loads one kind of result file.
+   */
+  public interface FileLoader {
+    /**
+     * @param progress progress of this file, the loading stops with an InterruptedIOException when it is cancelled
+     * @return the loader holding the loaded events
+     */
+    FlocklabCsvParser load(File resultFile, LoadProgress progress, ForkJoinPool pool, int nChunks) throws IOException;
+  }
+
+  public static final String SERIAL = "serial.csv";
+  public static final String GPIO_TRACING = "gpiotracing.csv";
+  /**
+   * Name of the gpio trace used by earlier versions of flocklab.
+   */
+  public static final String GPIO_TRACES = "gpiotraces.csv";
+  public static final String GPIO_ACTUATION = "gpioactuation.csv";
+  public static final String POWER_PROFILING = "powerprofiling.csv";
+
+  private final Map<String, FileLoader> loaders;
+
+  public LoaderRegistry() {
+    this.loaders = new LinkedHashMap<String, FileLoader>();
+  }
+
+  /**
+   * @return registry of the serial output, gpio tracing and actuation (cached after the first load) and the
+   *         power profiling (converted to CurrentTraceFromFile traces in the directory "powerprofiling")
+   */
+  public static LoaderRegistry createDefault() {
+    LoaderRegistry registry = new LoaderRegistry();
+    registry.register(SERIAL, new FileLoader() {
+      @Override
+      public FlocklabCsvParser load(File resultFile, LoadProgress progress, ForkJoinPool pool, int nChunks)
+          throws IOException {
+        return loadCached(new SerialLoader(resultFile), resultFile, progress, pool, nChunks);
+      }
+    });
+    FileLoader gpioLoader = new FileLoader() {
+      @Override
+      public FlocklabCsvParser load(File resultFile, LoadProgress progress, ForkJoinPool pool, int nChunks)
+          throws IOException {
+        return loadCached(new GpioLoader(resultFile), resultFile, progress, pool, nChunks);
+      }
+    };
+    registry.register(GPIO_TRACING, gpioLoader);
+    registry.register(GPIO_TRACES, gpioLoader);
+    // actuation rows have the same columns as tracing rows
+    registry.register(GPIO_ACTUATION, gpioLoader);
+    registry.register(POWER_PROFILING, new FileLoader() {
+      @Override
+      public FlocklabCsvParser load(File resultFile, LoadProgress progress, ForkJoinPool pool, int nChunks)
+          throws IOException {
+        PowerProfilingConverter converter =
+            new PowerProfilingConverter(resultFile, new File(resultFile.getParentFile(), "powerprofiling"), 0);
+        converter.setProgress(progress);
+        progress.addTotalBytes(resultFile.length());
+        converter.convert();
+        return converter;
+      }
+    });
+    return registry;
+  }
+
+  /**
+   * Loads from the cache of the file if it is up to date, otherwise parses the file and (re)builds the cache.
+   */
+  private static FlocklabCsvLoader loadCached(FlocklabCsvLoader loader, File resultFile, LoadProgress progress,
+                                              ForkJoinPool pool, int nChunks) throws IOException {
+    loader.setProgress(progress);
+    progress.addTotalBytes(resultFile.length());
+    loadCached(loader, FlocklabCache.cacheFileOf(resultFile), pool, nChunks);
+    return loader;
+  }
+
+  /**
+   * Loads from the cache if it is up to date, otherwise parses the file and (re)builds the cache.
+   */
+  static void loadCached(FlocklabCsvLoader loader, File cacheFile, ForkJoinPool pool, int nChunks) throws IOException {
+    if (loader.loadCache(cacheFile))
+      return;
+
+    loader.load(pool, nChunks);
+    try {
+      loader.writeCache(cacheFile);
+    } catch (IOException e) {
+      // the cache is optional, e.g. the result directory might not be writable
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Registers the loader of result files with the given name, replacing a previously registered one.
+   */
+  public void register(String fileName, FileLoader loader) {
+    if (fileName == null)
+      throw new IllegalArgumentException("fileName can't be null");
+    if (loader == null)
+      throw new IllegalArgumentException("loader can't be null");
+    loaders.put(fileName, loader);
+  }
+
+  public void unregister(String fileName) {
+    loaders.remove(fileName);
+  }
+
+  /**
+   * @return the loader of result files with the given name or null if there is none
+   */
+  public FileLoader get(String fileName) {
+    return loaders.get(fileName);
+  }
+
+  /**
+   * @return the names of the result files which can be loaded, in registration order
+   */
+  public Set<String> getFileNames() {
+    return Collections.unmodifiableSet(loaders.keySet());
+  }
+}
@@ -7,6 +7,14 @@ import java.util.*;
 public class MapCurrentTrace implements CurrentTrace {
   private final NavigableMap<Long, Double> map;
   private final int nodeId;
+  // times of the samples and compensated prefix sums of their values and of the trapezoids of the segments before
+  // them, built on the first query and again when the number of samples changed
+  private long[] times;
+  private double[] values;
+  private double[] sums;
+  private double[] sumCompensations;
+  private double[] integrals;
+  private double[] integralCompensations;
 
   public MapCurrentTrace(int nodeId, NavigableMap<Long, Double> map) {
     if (map == null)
@@ -42,22 +50,84 @@ public class MapCurrentTrace implements CurrentTrace {
     }
   }
 
+  private void index() {
+    int n = map.size();
+    if (times != null && times.length == n)
+      return;
+    times = new long[n];
+    values = new double[n];
+    sums = new double[n + 1];
+    sumCompensations = new double[n + 1];
+    integrals = new double[n];
+    integralCompensations = new double[n];
+    CompensatedSum sum = new CompensatedSum();
+    CompensatedSum integral = new CompensatedSum();
+    int i = 0;
+    for (Map.Entry<Long, Double> sample : map.entrySet()) {
+      times[i] = sample.getKey();
+      values[i] = sample.getValue();
+      if (i > 0)
+        integral.add((values[i - 1] + values[i]) / 2 * (times[i] - times[i - 1]));
+      integrals[i] = integral.sum();
+      integralCompensations[i] = integral.compensation();
+      sums[i] = sum.sum();
+      sumCompensations[i] = sum.compensation();
+      sum.add(values[i]);
+      ++i;
+    }
+    sums[n] = sum.sum();
+    sumCompensations[n] = sum.compensation();
+  }
+
+  /**
+   * @return index of the first sample after time (inclusive) or at or after it (exclusive)
+   */
+  private int search(long time, boolean inclusive) {
+    int i = Arrays.binarySearch(times, time);
+    if (i < 0)
+      return -(i + 1);
+    return inclusive ? i + 1 : i;
+  }
+
   @Override
   public Double averageIn(long timeA, long timeB) {
     long startTime = timeA >= timeB ? timeB : timeA;
     long endTime = timeA >= timeB ? timeA : timeB;
 
-    Collection<Double> sampleValues = map.subMap(startTime, true, endTime, true).values();
-    final int nSamples = sampleValues.size();
+    index();
+    int from = search(startTime, false);
+    int to = search(endTime, true);
+    if (from < to)
+      return CompensatedSum.difference(sums[from], sumCompensations[from], sums[to], sumCompensations[to]) / (to - from);
+    else
+      return null;
+  }
 
-    if (nSamples > 0) {
-      double currentSum = 0;
-      for (double v : sampleValues) {
-        currentSum += v;
-      }
-      return currentSum / nSamples;
-    } else
+  @Override
+  public Double integralIn(long timeA, long timeB) {
+    index();
+    if (times.length == 0)
+      return null;
+    long start = Math.max(Math.min(timeA, timeB), times[0]);
+    long end = Math.min(Math.max(timeA, timeB), times[times.length - 1]);
+    if (start > end)
       return null;
+
+    int first = search(start, true) - 1;
+    int last = search(end, true) - 1;
+    return CompensatedSum.difference(integrals[first], integralCompensations[first],
+                                     integrals[last], integralCompensations[last]) +
+        integralInSegment(last, end) - integralInSegment(first, start);
+  }
+
+  /**
+   * @return integral from the sample to time, which is before the next sample
+   */
+  private double integralInSegment(int i, long time) {
+    if (time == times[i])
+      return 0;
+    double valueAtTime = values[i] + (time - times[i]) / (double) (times[i + 1] - times[i]) * (values[i + 1] - values[i]);
+    return (values[i] + valueAtTime) / 2 * (time - times[i]);
   }
 
   @Override
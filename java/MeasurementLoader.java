@@ -0,0 +1,158 @@
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Loads all result files of a test directory which the registry knows concurrently, so the total load time is
+ * about that of the largest file.
+ *
+ * Every file is loaded by a task of a fixed size thread pool (one thread per file, at most one per processor);
+ * the chunks of the files share the common ForkJoinPool. The global time range is extended as the files finish.
+ */
+public class MeasurementLoader {
+  public interface Listener {
+    /**
+     * Called from the loading thread of the file after it was loaded.
+     */
+    void fileLoaded(String fileName, FlocklabCsvParser loader);
+
+    /**
+     * Called from the loading thread of a file whose events extended the time range.
+     */
+    void timeRangeChanged(long startTime, long endTime);
+  }
+
+  private final File directory;
+  private final LoaderRegistry registry;
+  private final LoadProgress progress;
+  private final List<Listener> listeners;
+  private final Map<String, Future<FlocklabCsvParser>> futures;
+  private final Map<String, LoadProgress> fileProgress;
+  private ExecutorService executor;
+
+  // guarded by this
+  private long startTime;
+  private long endTime;
+
+  /**
+   * @param progress receives the progress of all files, cancelling it stops the loading
+   */
+  public MeasurementLoader(File directory, LoaderRegistry registry, LoadProgress progress) {
+    if (directory == null)
+      throw new IllegalArgumentException("directory can't be null");
+    if (registry == null)
+      throw new IllegalArgumentException("registry can't be null");
+    if (progress == null)
+      throw new IllegalArgumentException("progress can't be null");
+
+    this.directory = directory;
+    this.registry = registry;
+    this.progress = progress;
+    this.listeners = new CopyOnWriteArrayList<Listener>();
+    this.futures = new LinkedHashMap<String, Future<FlocklabCsvParser>>();
+    this.fileProgress = new LinkedHashMap<String, LoadProgress>();
+    this.startTime = Long.MAX_VALUE;
+    this.endTime = Long.MIN_VALUE;
+  }
+
+  public void addListener(Listener listener) {
+    if (listener == null)
+      throw new IllegalArgumentException();
+    listeners.add(listener);
+  }
+
+  /**
+   * Starts loading every present result file known to the registry.
+   */
+  public synchronized void start() {
+    if (executor != null)
+      throw new IllegalStateException("already started");
+
+    final List<String> present = new ArrayList<String>();
+    for (String fileName : registry.getFileNames()) {
+      if (new File(directory, fileName).isFile())
+        present.add(fileName);
+    }
+    final int nProcessors = Runtime.getRuntime().availableProcessors();
+    executor = Executors.newFixedThreadPool(Math.max(1, Math.min(present.size(), nProcessors)));
+    for (final String fileName : present) {
+      final File file = new File(directory, fileName);
+      final LoaderRegistry.FileLoader fileLoader = registry.get(fileName);
+      final LoadProgress progressOfFile = new LoadProgress(progress);
+      fileProgress.put(fileName, progressOfFile);
+      futures.put(fileName, executor.submit(new Callable<FlocklabCsvParser>() {
+        @Override
+        public FlocklabCsvParser call() throws Exception {
+          try {
+            FlocklabCsvParser loader = fileLoader.load(file, progressOfFile, ForkJoinPool.commonPool(), nProcessors);
+            fileLoaded(fileName, loader);
+            return loader;
+          } finally {
+            progressOfFile.finish();
+          }
+        }
+      }));
+    }
+    executor.shutdown();
+  }
+
+  private void fileLoaded(String fileName, FlocklabCsvParser loader) {
+    for (Listener l : listeners)
+      l.fileLoaded(fileName, loader);
+    if (loader.getStartTime() > loader.getEndTime())
+      return;
+
+    long start;
+    long end;
+    synchronized (this) {
+      if (loader.getStartTime() >= startTime && loader.getEndTime() <= endTime)
+        return;
+      startTime = Math.min(startTime, loader.getStartTime());
+      endTime = Math.max(endTime, loader.getEndTime());
+      start = startTime;
+      end = endTime;
+    }
+    for (Listener l : listeners)
+      l.timeRangeChanged(start, end);
+  }
+
+  /**
+   * @return the result of every file being loaded, by file name
+   */
+  public synchronized Map<String, Future<FlocklabCsvParser>> getFutures() {
+    return Collections.unmodifiableMap(new LinkedHashMap<String, Future<FlocklabCsvParser>>(futures));
+  }
+
+  /**
+   * @return the progress of every file being loaded, by file name
+   */
+  public synchronized Map<String, LoadProgress> getFileProgress() {
+    return Collections.unmodifiableMap(new LinkedHashMap<String, LoadProgress>(fileProgress));
+  }
+
+  /**
+   * @return start of the time range of the files loaded so far, Long.MAX_VALUE if there is none yet
+   */
+  public synchronized long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * @return end of the time range of the files loaded so far, Long.MIN_VALUE if there is none yet
+   */
+  public synchronized long getEndTime() {
+    return endTime;
+  }
+
+  /**
+   * Waits until all files are loaded (or failed).
+   */
+  public void awaitTermination() throws InterruptedException {
+    ExecutorService started;
+    synchronized (this) {
+      started = executor;
+    }
+    if (started != null)
+      started.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,152 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Offsets of the rows of every node in a flocklab csv file, so the rows of a single node can be parsed with
+ * FlocklabCsvParser.loadRows() without touching the rows of the other nodes.
+ *
+ * The offsets of a node are kept as varint encoded differences to the previous row of the node, which usually
+ * takes one or two bytes per row. Like the other loaders the index can be cached in a sidecar file.
+ */
+public class NodeRowIndex extends FlocklabCsvLoader {
+  static final String SUFFIX = ".nodes";
+
+  private final Map<Integer, Rows> nodeRows;
+
+  public NodeRowIndex(File file) {
+    super(file);
+    nodeRows = new HashMap<Integer, Rows>();
+  }
+
+  private NodeRowIndex() {
+    super();
+    nodeRows = new HashMap<Integer, Rows>();
+  }
+
+  static File indexFileOf(File csvFile) {
+    return new File(csvFile.getParentFile(), csvFile.getName() + SUFFIX);
+  }
+
+  public SortedSet<Integer> getNodeIds() {
+    return new TreeSet<Integer>(nodeRows.keySet());
+  }
+
+  public int getRowCount(int nodeId) {
+    Rows rows = nodeRows.get(nodeId);
+    return rows == null ? 0 : rows.count;
+  }
+
+  /**
+   * @return ascending offsets of the rows of the node, empty for unknown nodes
+   */
+  public long[] getRowOffsets(int nodeId) {
+    Rows rows = nodeRows.get(nodeId);
+    if (rows == null)
+      return new long[0];
+    long[] offsets = new long[rows.count];
+    VarInts.decodeDeltas(rows.data, 0, rows.length, 0, offsets);
+    return offsets;
+  }
+
+  @Override
+  protected void processRow(long time, int observerID, ByteBuffer row, int restStart, int restEnd) {
+    Rows rows = nodeRows.get(observerID);
+    if (rows == null)
+      nodeRows.put(observerID, rows = new Rows());
+    rows.add(getRowOffset());
+  }
+
+  @Override
+  protected FlocklabCsvLoader newChunkLoader() {
+    return new NodeRowIndex();
+  }
+
+  @Override
+  protected void mergeChunks(List<FlocklabCsvLoader> chunks) {
+    for (FlocklabCsvLoader chunk : chunks) {
+      for (Map.Entry<Integer, Rows> node : ((NodeRowIndex) chunk).nodeRows.entrySet()) {
+        Rows rows = nodeRows.get(node.getKey());
+        if (rows == null)
+          nodeRows.put(node.getKey(), node.getValue());
+        else
+          rows.append(node.getValue());
+      }
+    }
+  }
+
+  @Override
+  protected void writeCacheColumns(FlocklabCache.Writer out) throws IOException {
+    out.putInt(nodeRows.size());
+    for (Map.Entry<Integer, Rows> node : nodeRows.entrySet()) {
+      Rows rows = node.getValue();
+      out.putInt(node.getKey());
+      out.putInt(rows.count);
+      out.putLong(rows.last);
+      out.putInt(rows.length);
+      out.putBytes(rows.data, 0, rows.length);
+    }
+  }
+
+  @Override
+  protected boolean readCacheColumns(FlocklabCache.Reader in) throws IOException {
+    int nNodes = in.getInt();
+    if (nNodes < 0)
+      throw new IOException("corrupt cache file");
+
+    Map<Integer, Rows> cachedRows = new HashMap<Integer, Rows>();
+    for (int i = 0; i < nNodes; ++i) {
+      int nodeId = in.getInt();
+      Rows rows = new Rows();
+      rows.count = in.getInt();
+      rows.last = in.getLong();
+      rows.length = in.getInt();
+      if (rows.count < 0 || rows.length < rows.count || rows.length > (long) rows.count * VarInts.MAX_LENGTH)
+        throw new IOException("corrupt cache file");
+      rows.data = new byte[rows.length + VarInts.MAX_LENGTH];
+      in.getBytes(rows.data, 0, rows.length);
+      cachedRows.put(nodeId, rows);
+    }
+    nodeRows.putAll(cachedRows);
+    return true;
+  }
+
+  /**
+   * Growable varint delta encoded list of ascending row offsets.
+   */
+  private static final class Rows {
+    private byte[] data = new byte[64];
+    private int length = 0;
+    private int count = 0;
+    private long last = 0;
+
+    void add(long offset) {
+      ensureCapacity(VarInts.MAX_LENGTH);
+      length = VarInts.write(data, length, offset - last);
+      last = offset;
+      ++count;
+    }
+
+    /**
+     * Appends the rows of a later chunk, only its first difference (which is relative to 0) has to be re-encoded.
+     */
+    void append(Rows other) {
+      if (other.count == 0)
+        return;
+      long first = VarInts.read(other.data, 0);
+      int rest = VarInts.skip(other.data, 0);
+      ensureCapacity(VarInts.MAX_LENGTH + other.length - rest);
+      length = VarInts.write(data, length, first - last);
+      System.arraycopy(other.data, rest, data, length, other.length - rest);
+      length += other.length - rest;
+      count += other.count;
+      last = other.last;
+    }
+
+    private void ensureCapacity(int n) {
+      if (length + n > data.length)
+        data = Arrays.copyOf(data, Math.max(data.length * 2, length + n));
+    }
+  }
+}
@@ -0,0 +1,93 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Converts a powerprofiling.csv (rows: time, observer id, node id, current, ...) into one CurrentTraceFromFile per
+ * observer, named by the observer id.
+ *
+ * The csv is parsed in a single sequential pass, the samples go straight to a CurrentTraceWriter per observer,
+ * so only the writers' buffers are kept in memory. Hence it is a plain FlocklabCsvParser, without the chunked
+ * loading and caching of a FlocklabCsvLoader. The rows of an observer must be in time order.
+ */
+public class PowerProfilingConverter extends FlocklabCsvParser {
+  private final File outputDir;
+  private final long samplingPeriod;
+  private final SortedMap<Integer, CurrentTraceWriter> writers;
+  private final SortedMap<Integer, File> traceFiles;
+
+  /**
+   * @param samplingPeriod written to the converted traces, estimated per trace if it is not positive
+   */
+  public PowerProfilingConverter(File csvFile, File outputDir, long samplingPeriod) {
+    super(csvFile);
+    if (outputDir == null)
+      throw new IllegalArgumentException("outputDir can't be null");
+
+    this.outputDir = outputDir;
+    this.samplingPeriod = samplingPeriod;
+    this.writers = new TreeMap<Integer, CurrentTraceWriter>();
+    this.traceFiles = new TreeMap<Integer, File>();
+  }
+
+  /**
+   * @return the converted trace of every observer
+   */
+  public SortedMap<Integer, File> convert() throws IOException {
+    if (!outputDir.isDirectory() && !outputDir.mkdirs())
+      throw new IOException("can't create " + outputDir);
+
+    try {
+      load();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      closeWriters();
+    }
+    return Collections.unmodifiableSortedMap(traceFiles);
+  }
+
+  private void closeWriters() throws IOException {
+    IOException failure = null;
+    for (CurrentTraceWriter writer : writers.values()) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        failure = failure == null ? e : failure;
+      }
+    }
+    writers.clear();
+    if (failure != null)
+      throw failure;
+  }
+
+  @Override
+  protected void processRow(long time, int observerID, ByteBuffer row, int restStart, int restEnd) {
+    int nodeEnd = CsvFields.indexOf(row, (byte) ',', restStart, restEnd);
+    if (nodeEnd < 0)
+      throw new IllegalArgumentException("power row without value: " + CsvFields.decode(row, restStart, restEnd));
+    int valueEnd = CsvFields.indexOf(row, (byte) ',', nodeEnd + 1, restEnd);
+    double value = CsvFields.parseDouble(row, nodeEnd + 1, valueEnd < 0 ? restEnd : valueEnd);
+
+    try {
+      writer(observerID).append(time, value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private CurrentTraceWriter writer(int observerID) throws IOException {
+    CurrentTraceWriter writer = writers.get(observerID);
+    if (writer == null) {
+      File traceFile = new File(outputDir, Integer.toString(observerID));
+      writer = new CurrentTraceWriter(traceFile, samplingPeriod);
+      writers.put(observerID, writer);
+      traceFiles.put(observerID, traceFile);
+    }
+    return writer;
+  }
+}
@@ -0,0 +1,107 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Watches result files of a test which is still running for modifications (tail mode).
+ *
+ * A watch thread waits for modifications of the files' directory; the events of a burst of writes are coalesced,
+ * so the listener is called (on the watch thread) at most once per file and burst.
+ */
+public class ResultFileWatcher {
+  public interface Listener {
+    /**
+     * The file was created or data was appended to it.
+     */
+    void fileModified(File file);
+  }
+
+  private final Path directory;
+  private final Map<Path, File> files;
+  private final Listener listener;
+  private final WatchService watchService;
+  private final Thread watchThread;
+
+  /**
+   * @param files the watched files, all in the same directory
+   */
+  public ResultFileWatcher(Collection<File> files, Listener listener) throws IOException {
+    if (files == null || files.isEmpty())
+      throw new IllegalArgumentException("no files to watch");
+    if (listener == null)
+      throw new IllegalArgumentException();
+
+    this.directory = files.iterator().next().getAbsoluteFile().getParentFile().toPath();
+    this.files = new HashMap<Path, File>();
+    for (File file : files) {
+      if (!file.getAbsoluteFile().getParentFile().toPath().equals(directory))
+        throw new IllegalArgumentException("files must be in the same directory");
+      this.files.put(Paths.get(file.getName()), file);
+    }
+    this.listener = listener;
+    this.watchService = FileSystems.getDefault().newWatchService();
+    directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    this.watchThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        watch();
+      }
+    }, "watching " + directory);
+    watchThread.setDaemon(true);
+  }
+
+  public void start() {
+    watchThread.start();
+  }
+
+  /**
+   * Stops watching; the listener isn't called after the current call returned.
+   */
+  public void stop() {
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    watchThread.interrupt();
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        Set<File> modified = new LinkedHashSet<File>();
+        // a write usually causes several events, collect everything that is queued
+        do {
+          collectModified(key, modified);
+          if (!key.reset())
+            return;
+        } while ((key = watchService.poll()) != null);
+
+        for (File file : modified) {
+          if (Thread.currentThread().isInterrupted())
+            return;
+          listener.fileModified(file);
+        }
+      }
+    } catch (InterruptedException e) {
+      // stopped
+    } catch (ClosedWatchServiceException e) {
+      // stopped
+    }
+  }
+
+  private void collectModified(WatchKey key, Set<File> modified) {
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        // events were lost, any file might have changed
+        modified.addAll(files.values());
+      } else {
+        File file = files.get((Path) event.context());
+        if (file != null)
+          modified.add(file);
+      }
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/**
+ * Reusable position in serial output. The values of the current line are read straight from the columns, scanning
+ * allocates nothing: the output is decoded into a buffer owned by the cursor.
+ *
+ * A new cursor is before the first line; call next() before reading the first line.
+ */
+public interface SerialCursor {
+  /**
+   * Positions the cursor before the lines in [start, end].
+   */
+  void seek(long start, long end);
+
+  /**
+   * @return false if there is no further line in the range
+   */
+  boolean next();
+
+  long time();
+
+  int observer();
+
+  SerialEvent.SerialDirection direction();
+
+  /**
+   * @return id of the template of the output, -1 if it has none (see SerialEvents.getTemplateId())
+   */
+  int templateId();
+
+  /**
+   * @return UTF-8 of the output in [0, outputLength()), overwritten by the next line
+   */
+  byte[] outputBytes();
+
+  int outputLength();
+}
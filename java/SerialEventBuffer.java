@@ -0,0 +1,327 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable columnar storage of serial output: times, observer ids, directions and template ids in primitive arrays.
+ * The output of a line is split into its template (see SerialTemplates), stored once, and the numbers of the line,
+ * stored as varints in one byte arena. A line of a known template takes about 21 bytes plus 1 to 3 bytes per number.
+ *
+ * Lines are appended in row order while loading and sorted by sort() afterwards, the sort is stable. The numbers
+ * of line i are values[offsets[i], offsets[i + 1]); lines which can't be split (template id -1) keep their UTF-8
+ * there instead.
+ */
+final class SerialEventBuffer {
+  private static final SerialEvent.SerialDirection[] DIRECTIONS = SerialEvent.SerialDirection.values();
+  // numbers with more digits or leading zeros stay part of the template
+  private static final int MAX_VARIABLE_DIGITS = 18;
+
+  private long[] times;
+  private int[] observers;
+  private byte[] directions;
+  private int[] templateIds;
+  private int[] offsets;
+  private byte[] values;
+  private SerialTemplates templates;
+  // the template of the line being added
+  private byte[] template;
+  private int size;
+  // lines [0, sortedSize) are sorted
+  private int sortedSize;
+
+  SerialEventBuffer() {
+    this.times = new long[16];
+    this.observers = new int[16];
+    this.directions = new byte[16];
+    this.templateIds = new int[16];
+    this.offsets = new int[17];
+    this.values = new byte[1024];
+    this.templates = new SerialTemplates();
+    this.template = new byte[256];
+  }
+
+  private static boolean isDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  void add(long time, int observerID, SerialEvent.SerialDirection direction, ByteBuffer row, int from, int to) {
+    // a number takes at most as many bytes as digits
+    ensureCapacity(size + 1, offsets[size] + to - from + VarInts.MAX_LENGTH);
+    if (template.length < to - from)
+      template = new byte[Math.max(to - from, template.length * 2)];
+    times[size] = time;
+    observers[size] = observerID;
+    directions[size] = (byte) direction.ordinal();
+
+    int pos = offsets[size];
+    int length = 0;
+    for (int i = from; i < to; ) {
+      byte b = row.get(i);
+      if (b == SerialTemplates.VARIABLE) {
+        length = -1;
+        break;
+      }
+      if (!isDigit(b)) {
+        template[length++] = b;
+        ++i;
+        continue;
+      }
+
+      int end = i + 1;
+      while (end < to && isDigit(row.get(end)))
+        ++end;
+      if (end - i <= MAX_VARIABLE_DIGITS && (b != '0' || end - i == 1)) {
+        long value = 0;
+        for (int j = i; j < end; ++j)
+          value = value * 10 + (row.get(j) - '0');
+        pos = VarInts.write(values, pos, value);
+        template[length++] = SerialTemplates.VARIABLE;
+      } else {
+        for (int j = i; j < end; ++j)
+          template[length++] = row.get(j);
+      }
+      i = end;
+    }
+
+    if (length >= 0) {
+      templateIds[size] = templates.intern(template, 0, length);
+    } else {
+      templateIds[size] = -1;
+      ByteBuffer output = row.duplicate();
+      output.limit(to);
+      output.position(from);
+      output.get(values, offsets[size], to - from);
+      pos = offsets[size] + to - from;
+    }
+    offsets[size + 1] = pos;
+    ++size;
+  }
+
+  /**
+   * Appends all lines of the other buffer in its order.
+   */
+  void addAll(SerialEventBuffer other) {
+    int[] ids = new int[other.templates.count()];
+    for (int id = 0; id < ids.length; ++id)
+      ids[id] = templates.intern(other.templates.bytes(), other.templates.start(id), other.templates.end(id));
+
+    int valuesLength = offsets[size];
+    ensureCapacity(size + other.size, valuesLength + other.offsets[other.size]);
+    System.arraycopy(other.times, 0, times, size, other.size);
+    System.arraycopy(other.observers, 0, observers, size, other.size);
+    System.arraycopy(other.directions, 0, directions, size, other.size);
+    for (int i = 0; i < other.size; ++i)
+      templateIds[size + i] = other.templateIds[i] < 0 ? -1 : ids[other.templateIds[i]];
+    System.arraycopy(other.values, 0, values, valuesLength, other.offsets[other.size]);
+    for (int i = 1; i <= other.size; ++i)
+      offsets[size + i] = valuesLength + other.offsets[i];
+    size += other.size;
+  }
+
+  private void ensureCapacity(int capacity, int valuesCapacity) {
+    if (capacity > times.length) {
+      int newCapacity = Math.max(capacity, times.length + (times.length >> 1));
+      times = Arrays.copyOf(times, newCapacity);
+      observers = Arrays.copyOf(observers, newCapacity);
+      directions = Arrays.copyOf(directions, newCapacity);
+      templateIds = Arrays.copyOf(templateIds, newCapacity);
+      offsets = Arrays.copyOf(offsets, newCapacity + 1);
+    }
+    if (valuesCapacity < 0)
+      throw new IllegalStateException("more than 2 GB of serial output");
+    if (valuesCapacity > values.length)
+      values = Arrays.copyOf(values, (int) Math.min(Integer.MAX_VALUE - 8,
+                                                    Math.max(valuesCapacity, values.length + (long) (values.length >> 1))));
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of lines at the start which are sorted
+   */
+  int sortedSize() {
+    return sortedSize;
+  }
+
+  long getTime(int i) {
+    return times[i];
+  }
+
+  int getObserverID(int i) {
+    return observers[i];
+  }
+
+  SerialEvent.SerialDirection getDirection(int i) {
+    return DIRECTIONS[directions[i]];
+  }
+
+  /**
+   * @return id of the template of the line in templates(), -1 if the line wasn't split
+   */
+  int getTemplateId(int i) {
+    return templateIds[i];
+  }
+
+  SerialTemplates templates() {
+    return templates;
+  }
+
+  /**
+   * Decodes the output of the line.
+   */
+  String getOutput(int i) {
+    byte[] output = new byte[maxOutputLength(i)];
+    return new String(output, 0, getOutput(i, output), CsvFields.UTF_8);
+  }
+
+  /**
+   * @return upper bound of the length of the output of the line in bytes
+   */
+  int maxOutputLength(int i) {
+    int id = templateIds[i];
+    if (id < 0)
+      return offsets[i + 1] - offsets[i];
+    // every number is at least one byte and has at most 19 digits
+    return templates.end(id) - templates.start(id) + 19 * (offsets[i + 1] - offsets[i]);
+  }
+
+  /**
+   * Decodes the UTF-8 of the output of the line, i.e. fills its numbers into its template.
+   *
+   * @param output room for maxOutputLength(i) bytes
+   * @return length of the output
+   */
+  int getOutput(int i, byte[] output) {
+    int id = templateIds[i];
+    int pos = offsets[i];
+    if (id < 0) {
+      System.arraycopy(values, pos, output, 0, offsets[i + 1] - pos);
+      return offsets[i + 1] - pos;
+    }
+
+    byte[] templateBytes = templates.bytes();
+    int start = templates.start(id);
+    int end = templates.end(id);
+    int length = 0;
+    for (int j = start; j < end; ++j) {
+      if (templateBytes[j] != SerialTemplates.VARIABLE) {
+        output[length++] = templateBytes[j];
+        continue;
+      }
+      long value = VarInts.read(values, pos);
+      pos = VarInts.skip(values, pos);
+      int digitsEnd = length + 1;
+      for (long v = value; v >= 10; v /= 10)
+        ++digitsEnd;
+      for (int k = digitsEnd - 1; k >= length; --k) {
+        output[k] = (byte) ('0' + value % 10);
+        value /= 10;
+      }
+      length = digitsEnd;
+    }
+    return length;
+  }
+
+  /**
+   * Sorts the lines appended since the last sort into the sorted ones.
+   */
+  void sort() {
+    if (sortedSize == size)
+      return;
+
+    // sorted lines up to the earliest new one keep their position
+    long minNewTime = Long.MAX_VALUE;
+    for (int i = sortedSize; i < size; ++i)
+      minNewTime = Math.min(minNewTime, times[i]);
+    int from = 0;
+    int hi = sortedSize;
+    while (from < hi) {
+      int m = (from + hi) >>> 1;
+      if (times[m] <= minNewTime)
+        from = m + 1;
+      else
+        hi = m;
+    }
+
+    int[] order = SortedRuns.stableOrder(times, from, size);
+    sortedSize = size;
+    if (order == null)
+      return;
+
+    long[] sortedTimes = new long[order.length];
+    int[] sortedObservers = new int[order.length];
+    byte[] sortedDirections = new byte[order.length];
+    int[] sortedTemplateIds = new int[order.length];
+    byte[] sortedValues = new byte[offsets[size] - offsets[from]];
+    int[] sortedOffsets = new int[order.length + 1];
+    for (int i = 0; i < order.length; ++i) {
+      int line = order[i];
+      sortedTimes[i] = times[line];
+      sortedObservers[i] = observers[line];
+      sortedDirections[i] = directions[line];
+      sortedTemplateIds[i] = templateIds[line];
+      int length = offsets[line + 1] - offsets[line];
+      System.arraycopy(values, offsets[line], sortedValues, sortedOffsets[i], length);
+      sortedOffsets[i + 1] = sortedOffsets[i] + length;
+    }
+    System.arraycopy(sortedTimes, 0, times, from, order.length);
+    System.arraycopy(sortedObservers, 0, observers, from, order.length);
+    System.arraycopy(sortedDirections, 0, directions, from, order.length);
+    System.arraycopy(sortedTemplateIds, 0, templateIds, from, order.length);
+    System.arraycopy(sortedValues, 0, values, offsets[from], sortedValues.length);
+    for (int i = 1; i <= order.length; ++i)
+      offsets[from + i] = offsets[from] + sortedOffsets[i];
+  }
+
+  void writeCache(FlocklabCache.Writer out) throws IOException {
+    templates.writeCache(out);
+    out.putInt(size);
+    out.putLongs(times, size);
+    out.putInts(observers, size);
+    out.putBytes(directions, 0, size);
+    out.putInts(templateIds, size);
+    out.putInts(offsets, size + 1);
+    out.putBytes(values, 0, offsets[size]);
+  }
+
+  /**
+   * @return the lines of a cache written by writeCache()
+   */
+  static SerialEventBuffer readCache(FlocklabCache.Reader in) throws IOException {
+    SerialTemplates templates = SerialTemplates.readCache(in);
+    int n = in.getInt();
+    if (n < 0)
+      throw new IOException("corrupt cache file");
+    SerialEventBuffer buffer = new SerialEventBuffer();
+    buffer.templates = templates;
+    buffer.times = new long[n];
+    buffer.observers = new int[n];
+    buffer.directions = new byte[n];
+    buffer.templateIds = new int[n];
+    buffer.offsets = new int[n + 1];
+    in.getLongs(buffer.times, n);
+    in.getInts(buffer.observers, n);
+    in.getBytes(buffer.directions, 0, n);
+    in.getInts(buffer.templateIds, n);
+    in.getInts(buffer.offsets, n + 1);
+    for (int i = 0; i < n; ++i) {
+      if (i > 0 && buffer.times[i] < buffer.times[i - 1])
+        throw new IOException("corrupt cache file, unordered serial events");
+      if (buffer.directions[i] < 0 || buffer.directions[i] >= DIRECTIONS.length)
+        throw new IOException("corrupt cache file, unknown serial direction");
+      if (buffer.templateIds[i] < -1 || buffer.templateIds[i] >= templates.count())
+        throw new IOException("corrupt cache file, unknown serial template");
+      if (buffer.offsets[i + 1] < buffer.offsets[i])
+        throw new IOException("corrupt cache file, unordered serial value offsets");
+    }
+    if (buffer.offsets[0] != 0)
+      throw new IOException("corrupt cache file");
+    buffer.values = new byte[buffer.offsets[n]];
+    in.getBytes(buffer.values, 0, buffer.offsets[n]);
+    buffer.size = n;
+    buffer.sortedSize = n;
+    return buffer;
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * Serial output of a SerialLoader sorted by time, stored column wise. The output of a line is only decoded when
+ * it is requested, e.g. when its table row is rendered.
+ *
+ * The view grows when further lines are loaded and requested from the loader again.
+ */
+public final class SerialEvents {
+  private final class Cursor implements SerialCursor {
+    private byte[] output = new byte[256];
+    private int outputLength;
+    // line whose output is decoded, -1 if none
+    private int decoded = -1;
+    private int index = -1;
+    // end of the range, -1 for all lines (which might grow)
+    private int end = -1;
+
+    @Override
+    public void seek(long start, long end) {
+      index = ceilingIndex(start) - 1;
+      this.end = Math.max(index + 1, higherIndex(end));
+    }
+
+    @Override
+    public boolean next() {
+      if (index + 1 >= (end < 0 ? size() : end))
+        return false;
+      ++index;
+      return true;
+    }
+
+    @Override
+    public long time() {
+      return lines.getTime(index);
+    }
+
+    @Override
+    public int observer() {
+      return lines.getObserverID(index);
+    }
+
+    @Override
+    public SerialEvent.SerialDirection direction() {
+      return lines.getDirection(index);
+    }
+
+    @Override
+    public int templateId() {
+      return lines.getTemplateId(index);
+    }
+
+    private void decode() {
+      if (decoded == index)
+        return;
+      int length = lines.maxOutputLength(index);
+      if (length > output.length)
+        output = new byte[Math.max(length, output.length * 2)];
+      outputLength = lines.getOutput(index, output);
+      decoded = index;
+    }
+
+    @Override
+    public byte[] outputBytes() {
+      decode();
+      return output;
+    }
+
+    @Override
+    public int outputLength() {
+      decode();
+      return outputLength;
+    }
+  }
+
+  private final SerialEventBuffer lines;
+
+  SerialEvents(SerialEventBuffer lines) {
+    this.lines = lines;
+  }
+
+  public int size() {
+    return lines.sortedSize();
+  }
+
+  public long getTime(int i) {
+    return lines.getTime(i);
+  }
+
+  public int getObserverID(int i) {
+    return lines.getObserverID(i);
+  }
+
+  public SerialEvent.SerialDirection getDirection(int i) {
+    return lines.getDirection(i);
+  }
+
+  public String getOutput(int i) {
+    return lines.getOutput(i);
+  }
+
+  /**
+   * @return id of the template of the line's output (its text without numbers), -1 if it has none
+   */
+  public int getTemplateId(int i) {
+    return lines.getTemplateId(i);
+  }
+
+  /**
+   * @return number of templates, template ids are in [0, getTemplateCount())
+   */
+  public int getTemplateCount() {
+    return lines.templates().count();
+  }
+
+  /**
+   * Tells whether the lines of the template contain the text. The text has no digits, so it can't overlap the
+   * numbers of a line: either all or none of the lines contain it, filters can decide once per template.
+   */
+  public boolean templateContains(int templateId, String text) {
+    for (int i = 0; i < text.length(); ++i) {
+      char c = text.charAt(i);
+      if (c >= '0' && c <= '9' || c == SerialTemplates.VARIABLE)
+        throw new IllegalArgumentException("text can't contain digits: " + text);
+    }
+    return lines.templates().contains(templateId, text.getBytes(CsvFields.UTF_8));
+  }
+
+  /**
+   * @return the line as event, with its output decoded
+   */
+  public SerialEvent get(int i) {
+    return new SerialEvent(getTime(i), getObserverID(i), getDirection(i), getOutput(i));
+  }
+
+  /**
+   * @return index of the first line at or after time, size() if there is none
+   */
+  public int ceilingIndex(long time) {
+    return search(time, false);
+  }
+
+  /**
+   * @return index of the first line after time, size() if there is none
+   */
+  public int higherIndex(long time) {
+    return search(time, true);
+  }
+
+  private int search(long time, boolean inclusive) {
+    int lo = 0;
+    int hi = size();
+    while (lo < hi) {
+      int m = (lo + hi) >>> 1;
+      if (lines.getTime(m) < time || (inclusive && lines.getTime(m) == time))
+        lo = m + 1;
+      else
+        hi = m;
+    }
+    return lo;
+  }
+
+  /**
+   * @return new cursor before the first line
+   */
+  public SerialCursor cursor() {
+    return new Cursor();
+  }
+}
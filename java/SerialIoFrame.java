@@ -13,7 +13,10 @@ import java.util.*;
  * Created by andreas on 19.11.14.
  */
 public class SerialIoFrame extends JFrame {
-  public SerialIoFrame(final SerialEvent [] serialEvents, long testStartTime) {
+  /**
+   * @param serialEvents the shown lines, their output is decoded when a row is rendered
+   */
+  public SerialIoFrame(final SerialEvents serialEvents, long testStartTime) {
     super("Serial Output");
 
     if (serialEvents == null)
@@ -38,7 +41,7 @@ public class SerialIoFrame extends JFrame {
           int row = serialTable.getSelectedRow();
           if (row != -1) {
             int iModel = serialTable.convertRowIndexToModel(row);
-            long time = serialEvents[iModel].getTimestampTenNanoseconds();
+            long time = serialEvents.getTime(iModel);
             fireTimeSelected(time);
           }
         }
@@ -101,13 +104,11 @@ public class SerialIoFrame extends JFrame {
   }
 
   public void moveToTime(long time) {
-    int iSerialEvent = Arrays.binarySearch(serialEvents, new SerialEvent(time, -1, SerialEvent.SerialDirection.NONE, ""), FlocklabEvent.ORDER);
-    if (iSerialEvent < 0)
-      iSerialEvent = -(iSerialEvent + 1);
+    int iSerialEvent = serialEvents.ceilingIndex(time);
     int viewRow = -1;
-    if (iSerialEvent < serialEvents.length) {
+    if (iSerialEvent < serialEvents.size()) {
       // select first row starting at iSerialEvent which is visible
-      while (iSerialEvent < serialEvents.length) {
+      while (iSerialEvent < serialEvents.size()) {
         viewRow = serialTable.convertRowIndexToView(iSerialEvent++);
         if (viewRow != -1) {
           serialTable.setRowSelectionInterval(viewRow, viewRow);
@@ -136,15 +137,16 @@ public class SerialIoFrame extends JFrame {
   private final JTextField serialFilterInput;
   private final TableRowSorter<TableModel> logFilter;
   private final long testStartTime;
-  private final SerialEvent[] serialEvents;
+  private final SerialEvents serialEvents;
   private final JTable serialTable;
 
   private void updateFilter() {
     RowFilter<Object, Object> filter;
     if (!serialFilterInput.getText().equals("")) {
-      final RowFilter<Object, Object> nonInvertedFilter =
+      final RowFilter<Object, Object> nonInvertedFilter = templateFilter(
+          serialFilterInput.getText(),
           // TODO was: COLUMN_NODE, COLUMN_OVERSEER ok here?
-          RowFilter.regexFilter(serialFilterInput.getText(), COLUMN_OUTPUT, COLUMN_OVERSEER);
+          RowFilter.regexFilter(serialFilterInput.getText(), COLUMN_OUTPUT, COLUMN_OVERSEER));
 
       if (isFilterInverted.getValue()) {
         filter = new RowFilter<Object, Object>() {
@@ -163,14 +165,67 @@ public class SerialIoFrame extends JFrame {
     logFilter.setRowFilter(filter);
   }
 
+  private enum TemplateVerdict {
+    ALWAYS, NEVER, DEPENDS
+  }
+
+  private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+
+  /**
+   * @return whether the regular expression only matches the text itself and the text contains no digits
+   */
+  private static boolean isPlainTextWithoutDigits(String regex) {
+    for (int i = 0; i < regex.length(); ++i) {
+      char c = regex.charAt(i);
+      if (REGEX_METACHARACTERS.indexOf(c) >= 0 || Character.isDigit(c) || c == 0)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Filters the lines by the verdict of their template if the text decides it for all lines of a template, by the
+   * line filter otherwise.
+   */
+  private RowFilter<Object, Object> templateFilter(final String regex, final RowFilter<Object, Object> lineFilter) {
+    // the overseer ids have only digits, plain text without digits can only match the output
+    final boolean byTemplate = isPlainTextWithoutDigits(regex);
+    return new RowFilter<Object, Object>() {
+      private TemplateVerdict[] verdicts = new TemplateVerdict[serialEvents.getTemplateCount()];
+
+      private TemplateVerdict verdict(int templateId) {
+        if (templateId < 0 || !byTemplate)
+          return TemplateVerdict.DEPENDS;
+        if (templateId >= verdicts.length)
+          verdicts = Arrays.copyOf(verdicts, serialEvents.getTemplateCount());
+        if (verdicts[templateId] == null)
+          verdicts[templateId] =
+              serialEvents.templateContains(templateId, regex) ? TemplateVerdict.ALWAYS : TemplateVerdict.NEVER;
+        return verdicts[templateId];
+      }
+
+      @Override
+      public boolean include(Entry<?, ?> entry) {
+        switch (verdict(serialEvents.getTemplateId((Integer) entry.getIdentifier()))) {
+          case ALWAYS:
+            return true;
+          case NEVER:
+            return false;
+          default:
+            return lineFilter.include(entry);
+        }
+      }
+    };
+  }
+
   private class SerialTableModel extends AbstractTableModel {
     @Override
     public int getRowCount() {
-      return serialEvents.length;
+      return serialEvents.size();
     }
     @Override
     public int getColumnCount() {
-      return 5;
+      return COL_NAMES.length;
     }
     @Override
     public String getColumnName(int column) {
@@ -178,10 +233,9 @@ public class SerialIoFrame extends JFrame {
     }
     @Override
     public Object getValueAt(int i, int j) {
-      SerialEvent e = serialEvents[i];
       switch (j) {
         case COLUMN_TIME:
-          TimeValue t = new TimeValue(e.getTimestampTenNanoseconds() - testStartTime);
+          TimeValue t = new TimeValue(serialEvents.getTime(i) - testStartTime);
           return String.format(
               "%d:%02d.%03d%03d",
               t.minutes(),
@@ -189,11 +243,11 @@ public class SerialIoFrame extends JFrame {
               t.remainingMilliSeconds(),
               t.remainingMicroSeconds());
         case COLUMN_OVERSEER:
-          return e.getOverseerID();
+          return serialEvents.getObserverID(i);
         case COLUMN_DIRECTION:
-          return e.getDirection();
+          return serialEvents.getDirection(i);
         case COLUMN_OUTPUT:
-          return e.getOutput();
+          return serialEvents.getOutput(i);
         default:
           throw new IllegalArgumentException("No column " + j);
       }
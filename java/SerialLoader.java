@@ -1,56 +1,109 @@
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
  * Created by andreas on 01.10.14.
  */
+
+/**
+ * Loads serial output in two phases: the lines are appended in row order to a columnar SerialEventBuffer while
+ * parsing and sorted stably by time when they are requested. The output is kept as UTF-8 and only decoded when a
+ * line is shown.
+ */
 public class SerialLoader extends FlocklabCsvLoader {
-  private final TreeMap<TimeAndOrder, SerialEvent> serialEvents;
-  private int i=0;
+  private static final SerialEvent.SerialDirection[] DIRECTIONS = SerialEvent.SerialDirection.values();
+  private static final byte[][] ENCODED_DIRECTIONS = new byte[DIRECTIONS.length][];
+  static {
+    for (int i = 0; i < DIRECTIONS.length; ++i)
+      ENCODED_DIRECTIONS[i] = DIRECTIONS[i].name().getBytes(CsvFields.UTF_8);
+  }
+
+  private final SerialEventBuffer lines;
+
+  public SerialLoader(File file) {
+    super(file);
+    lines = new SerialEventBuffer();
+  }
 
   public SerialLoader(Reader reader) {
     super(reader);
-    serialEvents = new TreeMap<TimeAndOrder, SerialEvent>();
+    lines = new SerialEventBuffer();
   }
 
-  private class TimeAndOrder implements Comparable {
-    public long time;
-    public int order;
-
-    public TimeAndOrder (long time, int order) {
-      this.time = time;
-      this.order= order;
-    }
+  /**
+   * Loader without input of its own, fed through load(InputStream, ForkJoinPool) or used as chunk loader.
+   */
+  public SerialLoader() {
+    super();
+    lines = new SerialEventBuffer();
+  }
 
-    public int compareTo(Object o) {
-      long diff = this.time - ((TimeAndOrder)o).time;
-      if (diff < 0)
-        return -1;
-      if (diff > 0)
-        return 1;
-      return this.order - ((TimeAndOrder)o).order;
+  private static SerialEvent.SerialDirection direction(ByteBuffer row, int from, int to) {
+    from = CsvFields.skipSpaces(row, from, to);
+    to = CsvFields.trimEnd(row, from, to);
+    for (int i = 0; i < DIRECTIONS.length; ++i) {
+      if (CsvFields.equalBytes(row, from, to, ENCODED_DIRECTIONS[i]))
+        return DIRECTIONS[i];
     }
+    throw new IllegalArgumentException("unknown serial direction: " + CsvFields.decode(row, from, to));
   }
 
   @Override
-  protected void processRow(long time, int overseerID, String rest) {
-    String[] restParts = rest.split(",",2);
+  protected void processRow(long time, int overseerID, ByteBuffer row, int restStart, int restEnd) {
+    int directionEnd = CsvFields.indexOf(row, (byte) ',', restStart, restEnd);
+    if (directionEnd < 0)
+      throw new IllegalArgumentException("serial row without output: " + CsvFields.decode(row, restStart, restEnd));
 
     // direction of serial communication
-    SerialEvent.SerialDirection direction = SerialEvent.SerialDirection.valueOf(restParts[0].trim());
+    SerialEvent.SerialDirection direction = direction(row, restStart, directionEnd);
 
-    serialEvents.put(
-        new TimeAndOrder(time, i),
-        new SerialEvent(
-            time,
-            overseerID,
-            direction,
-            restParts[1]));
-    i++;
+    // the output stays encoded until it is shown
+    lines.add(time, overseerID, direction, row, directionEnd + 1, restEnd);
+  }
+
+  @Override
+  protected FlocklabCsvLoader newChunkLoader() {
+    return new SerialLoader();
   }
 
+  @Override
+  protected void mergeChunks(List<FlocklabCsvLoader> chunks) {
+    // the events of the chunks follow the events of this loader in row order, they are sorted on demand
+    for (FlocklabCsvLoader c : chunks)
+      lines.addAll(((SerialLoader) c).lines);
+  }
+
+  @Override
+  protected void writeCacheColumns(FlocklabCache.Writer out) throws IOException {
+    lines.sort();
+    lines.writeCache(out);
+  }
+
+  @Override
+  protected boolean readCacheColumns(FlocklabCache.Reader in) throws IOException {
+    // the cached lines are sorted, they are appended like loaded rows
+    lines.addAll(SerialEventBuffer.readCache(in));
+    return true;
+  }
+
+  /**
+   * Sorts the lines loaded so far if necessary; lines with the same time stay in row order. The returned view
+   * grows by the next call when further lines are loaded.
+   */
+  public SerialEvents getSerialEvents() {
+    lines.sort();
+    return new SerialEvents(lines);
+  }
+
+  /**
+   * @return the events sorted by time, events with the same time in row order
+   */
   public SerialEvent[] getEvents() {
-    return serialEvents.values().toArray(new SerialEvent[serialEvents.size()]);
+    SerialEvents sorted = getSerialEvents();
+    SerialEvent[] events = new SerialEvent[sorted.size()];
+    for (int i = 0; i < events.length; ++i)
+      events[i] = sorted.get(i);
+    return events;
   }
 }
-
@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Dictionary of the templates of serial output lines, e.g. "rx seq=%d rssi=%d" for "rx seq=12 rssi=-80".
+ *
+ * A template is the UTF-8 of a line with every number (digit run) replaced by the byte VARIABLE; lines containing
+ * that byte themselves aren't split into templates. Templates are interned through an open addressing hash table,
+ * so a line is mined without allocations.
+ */
+final class SerialTemplates {
+  static final byte VARIABLE = 0;
+
+  private byte[] bytes;
+  // template i is bytes[offsets[i], offsets[i + 1])
+  private int[] offsets;
+  private int[] hashes;
+  private int count;
+  // template id + 1 by hash, 0 for empty slots
+  private int[] slots;
+
+  SerialTemplates() {
+    this.bytes = new byte[1024];
+    this.offsets = new int[17];
+    this.hashes = new int[16];
+    this.slots = new int[64];
+  }
+
+  int count() {
+    return count;
+  }
+
+  private static int hash(byte[] template, int from, int to) {
+    int h = 1;
+    for (int i = from; i < to; ++i)
+      h = 31 * h + template[i];
+    return h;
+  }
+
+  /**
+   * @return id of the template, which is added if it isn't known yet
+   */
+  int intern(byte[] template, int from, int to) {
+    int hash = hash(template, from, to);
+    int mask = slots.length - 1;
+    for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+      int id = slots[slot] - 1;
+      if (id < 0) {
+        id = add(template, from, to, hash);
+        slots[slot] = id + 1;
+        if (count * 2 > slots.length)
+          rehash();
+        return id;
+      }
+      if (hashes[id] == hash && equals(id, template, from, to))
+        return id;
+    }
+  }
+
+  private static int mix(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private boolean equals(int id, byte[] template, int from, int to) {
+    int start = offsets[id];
+    int length = offsets[id + 1] - start;
+    if (length != to - from)
+      return false;
+    for (int i = 0; i < length; ++i) {
+      if (bytes[start + i] != template[from + i])
+        return false;
+    }
+    return true;
+  }
+
+  private int add(byte[] template, int from, int to, int hash) {
+    if (count == hashes.length) {
+      hashes = Arrays.copyOf(hashes, count * 2);
+      offsets = Arrays.copyOf(offsets, count * 2 + 1);
+    }
+    int start = offsets[count];
+    if (start + to - from > bytes.length)
+      bytes = Arrays.copyOf(bytes, Math.max(start + to - from, bytes.length + (bytes.length >> 1)));
+    System.arraycopy(template, from, bytes, start, to - from);
+    hashes[count] = hash;
+    offsets[count + 1] = start + to - from;
+    return count++;
+  }
+
+  private void rehash() {
+    slots = new int[slots.length * 2];
+    int mask = slots.length - 1;
+    for (int id = 0; id < count; ++id) {
+      int slot = mix(hashes[id]) & mask;
+      while (slots[slot] != 0)
+        slot = (slot + 1) & mask;
+      slots[slot] = id + 1;
+    }
+  }
+
+  int start(int id) {
+    return offsets[id];
+  }
+
+  int end(int id) {
+    return offsets[id + 1];
+  }
+
+  /**
+   * @return the templates, template id is [start(id), end(id))
+   */
+  byte[] bytes() {
+    return bytes;
+  }
+
+  /**
+   * @return whether the text (without VARIABLE bytes) occurs in the template outside of its variables
+   */
+  boolean contains(int id, byte[] text) {
+    int last = offsets[id + 1] - text.length;
+    for (int i = offsets[id]; i <= last; ++i) {
+      int j = 0;
+      while (j < text.length && bytes[i + j] == text[j])
+        ++j;
+      if (j == text.length)
+        return true;
+    }
+    return false;
+  }
+
+  void writeCache(FlocklabCache.Writer out) throws IOException {
+    out.putInt(count);
+    out.putInts(offsets, count + 1);
+    out.putBytes(bytes, 0, offsets[count]);
+  }
+
+  static SerialTemplates readCache(FlocklabCache.Reader in) throws IOException {
+    int n = in.getInt();
+    if (n < 0)
+      throw new IOException("corrupt cache file");
+    int[] offsets = new int[n + 1];
+    in.getInts(offsets, n + 1);
+    if (offsets[0] != 0)
+      throw new IOException("corrupt cache file");
+    for (int i = 0; i < n; ++i) {
+      if (offsets[i + 1] < offsets[i])
+        throw new IOException("corrupt cache file, unordered serial template offsets");
+    }
+    byte[] bytes = new byte[offsets[n]];
+    in.getBytes(bytes, 0, bytes.length);
+
+    SerialTemplates templates = new SerialTemplates();
+    for (int i = 0; i < n; ++i) {
+      if (templates.intern(bytes, offsets[i], offsets[i + 1]) != i)
+        throw new IOException("corrupt cache file, duplicate serial template");
+    }
+    return templates;
+  }
+}
@@ -0,0 +1,158 @@
+import java.util.*;
+
+/**
+ * Read only sorted map over parallel arrays of keys (in ascending order) and values.
+ *
+ * Mainly used to fill TreeMaps in linear time, see TreeMap(SortedMap).
+ */
+class SortedEntries<K, V> extends AbstractMap<K, V> implements SortedMap<K, V> {
+  private final K[] keys;
+  private final V[] values;
+  // the entries [from, to) of the arrays belong to the map, views share the arrays; the keys of a view are in
+  // [lowKey, highKey), null for no bound
+  private final int from;
+  private final int to;
+  private final K lowKey;
+  private final K highKey;
+
+  /**
+   * @param keys distinct keys in ascending natural order
+   */
+  public SortedEntries(K[] keys, V[] values) {
+    if (keys == null)
+      throw new IllegalArgumentException();
+    if (values == null)
+      throw new IllegalArgumentException();
+    if (keys.length != values.length)
+      throw new IllegalArgumentException("keys and values must contain same number of elements");
+
+    this.keys = keys;
+    this.values = values;
+    this.from = 0;
+    this.to = keys.length;
+    this.lowKey = null;
+    this.highKey = null;
+  }
+
+  private SortedEntries(SortedEntries<K, V> map, K lowKey, K highKey) {
+    this.keys = map.keys;
+    this.values = map.values;
+    this.lowKey = lowKey;
+    this.highKey = highKey;
+    this.from = lowKey == null ? map.from : map.indexOf(lowKey);
+    this.to = highKey == null ? map.to : map.indexOf(highKey);
+  }
+
+  /**
+   * @return index of the first key not less than key
+   */
+  private int indexOf(K key) {
+    if (key == null)
+      throw new NullPointerException();
+    int i = Arrays.binarySearch(keys, from, to, key);
+    return i >= 0 ? i : -(i + 1);
+  }
+
+  /**
+   * @param key a key of the map or the (exclusive) end of a range
+   */
+  private void checkInRange(K key) {
+    if ((lowKey != null && compare(key, lowKey) < 0) || (highKey != null && compare(key, highKey) > 0))
+      throw new IllegalArgumentException("key out of range");
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public boolean containsKey(Object key) {
+    int i = indexOf((K) key);
+    return i < to && compare(keys[i], (K) key) == 0;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(Object key) {
+    int i = indexOf((K) key);
+    return i < to && compare(keys[i], (K) key) == 0 ? values[i] : null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K> int compare(K a, K b) {
+    return ((Comparable<? super K>) a).compareTo(b);
+  }
+
+  @Override
+  public Comparator<? super K> comparator() {
+    return null;
+  }
+
+  @Override
+  public K firstKey() {
+    if (from == to)
+      throw new NoSuchElementException();
+    return keys[from];
+  }
+
+  @Override
+  public K lastKey() {
+    if (from == to)
+      throw new NoSuchElementException();
+    return keys[to - 1];
+  }
+
+  @Override
+  public SortedMap<K, V> subMap(K fromKey, K toKey) {
+    if (compare(fromKey, toKey) > 0)
+      throw new IllegalArgumentException("fromKey after toKey");
+    checkInRange(fromKey);
+    checkInRange(toKey);
+    return new SortedEntries<K, V>(this, fromKey, toKey);
+  }
+
+  @Override
+  public SortedMap<K, V> headMap(K toKey) {
+    checkInRange(toKey);
+    return new SortedEntries<K, V>(this, lowKey, toKey);
+  }
+
+  @Override
+  public SortedMap<K, V> tailMap(K fromKey) {
+    checkInRange(fromKey);
+    return new SortedEntries<K, V>(this, fromKey, highKey);
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return new AbstractSet<Entry<K, V>>() {
+      @Override
+      public Iterator<Entry<K, V>> iterator() {
+        return new Iterator<Entry<K, V>>() {
+          private int i = from;
+
+          @Override
+          public boolean hasNext() {
+            return i < to;
+          }
+
+          @Override
+          public Entry<K, V> next() {
+            if (i >= to)
+              throw new NoSuchElementException();
+            Entry<K, V> e = new SimpleImmutableEntry<K, V>(keys[i], values[i]);
+            ++i;
+            return e;
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return to - from;
+      }
+    };
+  }
+}
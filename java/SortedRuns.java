@@ -0,0 +1,152 @@
+import java.util.Arrays;
+
+/**
+ * Stable sorting of event times which are mostly in order already, as the rows of one observer usually are.
+ *
+ * The ascending runs of the times are detected first. A few runs (e.g. the parts loaded by several chunk
+ * loaders) are merged with galloping, so runs which don't overlap are copied as a whole. Many runs are sorted
+ * with Arrays.parallelSort instead, the index of every event is packed into the sort key to keep events with
+ * the same time in their original order.
+ */
+final class SortedRuns {
+  private static final int MAX_MERGED_RUNS = 64;
+  private static final int MIN_GALLOP = 8;
+
+  private SortedRuns() {
+  }
+
+  /**
+   * @return the indices of the events in [from, to) in stably sorted order or null if they are sorted already
+   */
+  static int[] stableOrder(long[] times, int from, int to) {
+    if (from < 0 || to > times.length || from > to)
+      throw new IndexOutOfBoundsException(String.format("[%d, %d) of %d events", from, to, times.length));
+
+    int[] runStarts = new int[16];
+    int nRuns = 0;
+    long minTime = Long.MAX_VALUE;
+    long maxTime = Long.MIN_VALUE;
+    for (int i = from; i < to; ++i) {
+      if (i == from || times[i] < times[i - 1]) {
+        if (nRuns == runStarts.length)
+          runStarts = Arrays.copyOf(runStarts, nRuns * 2);
+        runStarts[nRuns++] = i;
+      }
+      minTime = Math.min(minTime, times[i]);
+      maxTime = Math.max(maxTime, times[i]);
+    }
+    if (nRuns <= 1)
+      return null;
+
+    int n = to - from;
+    int indexBits = 32 - Integer.numberOfLeadingZeros(n);
+    if (nRuns > MAX_MERGED_RUNS && maxTime - minTime >= 0 && maxTime - minTime < 1L << (63 - indexBits))
+      return sortPacked(times, from, to, minTime, indexBits);
+    return mergeRuns(times, from, to, runStarts, nRuns);
+  }
+
+  private static int[] sortPacked(long[] times, int from, int to, long minTime, int indexBits) {
+    int n = to - from;
+    long[] keys = new long[n];
+    for (int i = 0; i < n; ++i)
+      keys[i] = (times[from + i] - minTime) << indexBits | i;
+    Arrays.parallelSort(keys);
+
+    long indexMask = (1L << indexBits) - 1;
+    int[] order = new int[n];
+    for (int i = 0; i < n; ++i)
+      order[i] = from + (int) (keys[i] & indexMask);
+    return order;
+  }
+
+  private static int[] mergeRuns(long[] times, int from, int to, int[] runStarts, int nRuns) {
+    int n = to - from;
+    int[] order = new int[n];
+    for (int i = 0; i < n; ++i)
+      order[i] = from + i;
+    int[] merged = new int[n];
+
+    // run boundaries relative to from, runs[nRuns] is the end
+    int[] runs = new int[nRuns + 1];
+    for (int i = 0; i < nRuns; ++i)
+      runs[i] = runStarts[i] - from;
+    runs[nRuns] = n;
+
+    while (nRuns > 1) {
+      int nMerged = 0;
+      for (int iRun = 0; iRun < nRuns; iRun += 2) {
+        int lo = runs[iRun];
+        if (iRun + 1 < nRuns) {
+          merge(times, order, merged, lo, runs[iRun + 1], runs[iRun + 2]);
+        } else {
+          System.arraycopy(order, lo, merged, lo, runs[iRun + 1] - lo);
+        }
+        runs[nMerged++] = lo;
+      }
+      runs[nMerged] = n;
+      nRuns = nMerged;
+
+      int[] swap = order;
+      order = merged;
+      merged = swap;
+    }
+    return order;
+  }
+
+  /**
+   * Merges the runs src[lo, mid) and src[mid, hi) into dst; on equal times the left run goes first.
+   */
+  private static void merge(long[] times, int[] src, int[] dst, int lo, int mid, int hi) {
+    int i = lo;
+    int j = mid;
+    int k = lo;
+    while (i < mid && j < hi) {
+      // everything of the left run up to the head of the right run
+      int end = gallop(times, src, i, mid, times[src[j]], true);
+      System.arraycopy(src, i, dst, k, end - i);
+      k += end - i;
+      i = end;
+      if (i == mid)
+        break;
+
+      // everything of the right run before the head of the left run
+      end = gallop(times, src, j, hi, times[src[i]], false);
+      System.arraycopy(src, j, dst, k, end - j);
+      k += end - j;
+      j = end;
+    }
+    System.arraycopy(src, i, dst, k, mid - i);
+    k += mid - i;
+    System.arraycopy(src, j, dst, k, hi - j);
+  }
+
+  /**
+   * @param inclusive whether events at time are skipped as well
+   * @return the first position in [from, to) whose time is after (inclusive) or not before (exclusive) time,
+   *         to if there is none
+   */
+  private static int gallop(long[] times, int[] src, int from, int to, long time, boolean inclusive) {
+    // probe exponentially growing steps, then search binary between the last two probes
+    int lo = from;
+    int step = 1;
+    int hi = from;
+    while (hi < to && isBefore(times[src[hi]], time, inclusive)) {
+      lo = hi + 1;
+      hi = step < MIN_GALLOP ? hi + 1 : Math.min(to, hi + step);
+      step *= 2;
+    }
+    hi = Math.min(hi, to);
+    while (lo < hi) {
+      int m = (lo + hi) >>> 1;
+      if (isBefore(times[src[m]], time, inclusive))
+        lo = m + 1;
+      else
+        hi = m;
+    }
+    return lo;
+  }
+
+  private static boolean isBefore(long t, long time, boolean inclusive) {
+    return inclusive ? t <= time : t < time;
+  }
+}
@@ -0,0 +1,282 @@
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Minimal sequential reader of tar archives (ustar, with gnu long names and pax path/size records). Only regular
+ * files are returned, their content is streamed from the underlying stream.
+ */
+final class TarReader {
+  private static final int BLOCK_SIZE = 512;
+
+  private final InputStream in;
+  private final byte[] header;
+  private EntryStream current;
+
+  TarReader(InputStream in) {
+    if (in == null)
+      throw new IllegalArgumentException();
+    this.in = in;
+    this.header = new byte[BLOCK_SIZE];
+  }
+
+  static final class Entry {
+    private final String name;
+    private final long size;
+    private final InputStream content;
+
+    private Entry(String name, long size, InputStream content) {
+      this.name = name;
+      this.size = size;
+      this.content = content;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    /**
+     * @return name without the directories
+     */
+    String getBaseName() {
+      return name.substring(name.lastIndexOf('/') + 1);
+    }
+
+    long getSize() {
+      return size;
+    }
+
+    /**
+     * @return the content of the entry; only valid until the next entry is read, closing it closes the archive
+     */
+    InputStream getContent() {
+      return content;
+    }
+  }
+
+  /**
+   * Skips the rest of the current entry and reads the header of the next regular file.
+   *
+   * @return null at the end of the archive
+   */
+  Entry next() throws IOException {
+    String longName = null;
+    long paxSize = -1;
+    while (true) {
+      if (current != null) {
+        skipFully(current.remaining + padding(current.size));
+        current = null;
+      }
+      if (!readBlock(header) || isZeroBlock(header))
+        return null;
+
+      long size = parseNumber(header, 124, 12);
+      char type = (char) header[156];
+      String name = longName != null ? longName : headerName();
+      if (paxSize >= 0)
+        size = paxSize;
+      longName = null;
+      paxSize = -1;
+
+      current = new EntryStream(in, size);
+      if (type == 'L') {
+        longName = trimNul(readContent(current));
+      } else if (type == 'x') {
+        String[] records = parsePax(readContent(current));
+        if (records[0] != null)
+          longName = records[0];
+        if (records[1] != null)
+          paxSize = Long.parseLong(records[1]);
+      } else if (type == '0' || type == '\0' || type == '7') {
+        return new Entry(name, size, current);
+      }
+    }
+  }
+
+  private String headerName() {
+    String name = string(header, 0, 100);
+    String prefix = isUstar() ? string(header, 345, 155) : "";
+    return prefix.isEmpty() ? name : prefix + "/" + name;
+  }
+
+  private boolean isUstar() {
+    return header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r';
+  }
+
+  private static String readContent(EntryStream content) throws IOException {
+    if (content.size > Integer.MAX_VALUE)
+      throw new IOException("tar extension header too large");
+    byte[] bytes = new byte[(int) content.size];
+    int n = 0;
+    while (n < bytes.length) {
+      int read = content.read(bytes, n, bytes.length - n);
+      if (read < 0)
+        throw new EOFException("truncated tar archive");
+      n += read;
+    }
+    return new String(bytes, CsvFields.UTF_8);
+  }
+
+  /**
+   * @return path and size of the pax records "<length> <key>=<value>\n", null if not present
+   */
+  private static String[] parsePax(String records) throws IOException {
+    String[] result = new String[2];
+    int pos = 0;
+    while (pos < records.length()) {
+      int space = records.indexOf(' ', pos);
+      if (space < 0)
+        break;
+      int length;
+      try {
+        length = Integer.parseInt(records.substring(pos, space));
+      } catch (NumberFormatException e) {
+        throw new IOException("malformed pax header");
+      }
+      if (length <= 0 || pos + length > records.length())
+        throw new IOException("malformed pax header");
+      String record = records.substring(space + 1, pos + length - 1);
+      if (record.startsWith("path="))
+        result[0] = record.substring(5);
+      else if (record.startsWith("size="))
+        result[1] = record.substring(5);
+      pos += length;
+    }
+    return result;
+  }
+
+  /**
+   * Parses an octal number, or a base-256 number if the high bit of the first byte is set (gnu extension for
+   * files larger than 8GB).
+   */
+  private static long parseNumber(byte[] buf, int from, int length) throws IOException {
+    if ((buf[from] & 0x80) != 0) {
+      long value = buf[from] & 0x7f;
+      for (int i = from + 1; i < from + length; ++i)
+        value = (value << 8) | (buf[i] & 0xff);
+      return value;
+    }
+    long value = 0;
+    for (int i = from; i < from + length; ++i) {
+      byte b = buf[i];
+      if (b == 0 || b == ' ') {
+        if (value != 0)
+          break;
+        continue;
+      }
+      if (b < '0' || b > '7')
+        throw new IOException("malformed tar header");
+      value = value * 8 + (b - '0');
+    }
+    return value;
+  }
+
+  private static String string(byte[] buf, int from, int length) {
+    int end = from;
+    while (end < from + length && buf[end] != 0)
+      ++end;
+    return new String(buf, from, end - from, CsvFields.UTF_8);
+  }
+
+  private static String trimNul(String s) {
+    int end = s.indexOf('\0');
+    return end < 0 ? s : s.substring(0, end);
+  }
+
+  private static long padding(long size) {
+    return (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+  }
+
+  private static boolean isZeroBlock(byte[] block) {
+    for (byte b : block) {
+      if (b != 0)
+        return false;
+    }
+    return true;
+  }
+
+  private boolean readBlock(byte[] block) throws IOException {
+    int n = 0;
+    while (n < block.length) {
+      int read = in.read(block, n, block.length - n);
+      if (read < 0) {
+        if (n == 0)
+          return false;
+        throw new EOFException("truncated tar archive");
+      }
+      n += read;
+    }
+    return true;
+  }
+
+  private void skipFully(long n) throws IOException {
+    byte[] skipBuffer = null;
+    while (n > 0) {
+      long skipped = in.skip(n);
+      if (skipped <= 0) {
+        // skip() of inflating streams may return 0 before the end
+        if (skipBuffer == null)
+          skipBuffer = new byte[8192];
+        int read = in.read(skipBuffer, 0, (int) Math.min(skipBuffer.length, n));
+        if (read < 0)
+          throw new EOFException("truncated tar archive");
+        skipped = read;
+      }
+      n -= skipped;
+    }
+  }
+
+  /**
+   * Content of an entry, limited to its size.
+   */
+  private static final class EntryStream extends FilterInputStream {
+    private final long size;
+    private long remaining;
+
+    EntryStream(InputStream in, long size) {
+      super(in);
+      this.size = size;
+      this.remaining = size;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining == 0)
+        return -1;
+      int b = super.read();
+      if (b < 0)
+        throw new EOFException("truncated tar archive");
+      --remaining;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining == 0)
+        return -1;
+      int n = super.read(b, off, (int) Math.min(len, remaining));
+      if (n < 0)
+        throw new EOFException("truncated tar archive");
+      remaining -= n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(Math.min(n, remaining));
+      remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(super.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+}
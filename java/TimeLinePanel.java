@@ -131,8 +131,8 @@ public class TimeLinePanel extends JPanel {
     };
     nodeLabel.addMouseListener(labelMouseListener);
 
-    final ObservableValue<Boolean> vis = new ObservableValue<Boolean>(true);
-    moteVisibilities.put(id, vis);
+    // the visibility might have been configured before the node was added
+    final ObservableValue<Boolean> vis = getMoteVisibility(id);
     vis.addObserver(new Observer() {
       @Override
       public void update(Observable observable, Object o) {
@@ -140,6 +140,8 @@ public class TimeLinePanel extends JPanel {
         nodeBox.setVisible(vis.getValue());
       }
     });
+    nodeLabel.setVisible(vis.getValue());
+    nodeBox.setVisible(vis.getValue());
 
     putNodeInGrid(moteOrder.size()-1);
   }
@@ -253,6 +255,12 @@ public class TimeLinePanel extends JPanel {
           Double averageCurrent = ((CurrentPlot) source).getTrace().averageIn(timeCursor.getStartTime(), timeCursor.getEndTime());
           if (averageCurrent != null)
             cursorText += String.format(", avg2d. current: %sA", FloatUtils.convert(averageCurrent / 1e3, 2));
+        } else if (source instanceof GpioPlot) {
+          GpioIntervals intervals = ((GpioPlot) source).getIntervals();
+          long start = Math.min(timeCursor.getStartTime(), timeCursor.getEndTime());
+          long end = Math.max(timeCursor.getStartTime(), timeCursor.getEndTime());
+          cursorText += String.format(", %.1f%% high, %d edges", 100 * intervals.getDutyCycle(start, end),
+                                      intervals.getEdgeCount(start, end));
         }
       }
 
@@ -72,6 +72,13 @@ public abstract class TimePlot extends JPanel implements MouseInputListener, Mou
     displayedWidthListeners.add(listener);
   }
 
+  /**
+   * @return false until a plot was laid out
+   */
+  public static boolean hasDisplayedWidth() {
+    return displayedWidth.getValue() != null;
+  }
+
   public static int getDisplayedWidth() {
     return displayedWidth.getValue();
   }
@@ -87,6 +94,13 @@ public abstract class TimePlot extends JPanel implements MouseInputListener, Mou
     });
   }
 
+  /**
+   * Forgets a plot which was taken out of the gui, e.g. because another plot replaced it.
+   */
+  public static void removeTimePlot(TimePlot plot) {
+    timePlots.remove(plot);
+  }
+
   public static Set<TimePlot> getTimePlots() {
     return Collections.unmodifiableSet(timePlots);
   }
@@ -0,0 +1,72 @@
+/**
+ * Unsigned LEB128 variable length encoding of longs: 7 bits per byte, least significant group first, the high bit
+ * is set on all but the last byte. Small values (e.g. differences of sorted offsets or timestamps) take one or two
+ * bytes.
+ */
+final class VarInts {
+  /**
+   * Maximum number of bytes of an encoded long.
+   */
+  static final int MAX_LENGTH = 10;
+
+  private VarInts() {
+  }
+
+  /**
+   * Writes the value at pos; the buffer must have room for MAX_LENGTH bytes.
+   *
+   * @return position after the written bytes
+   */
+  static int write(byte[] buf, int pos, long value) {
+    while ((value & ~0x7fL) != 0) {
+      buf[pos++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    buf[pos++] = (byte) value;
+    return pos;
+  }
+
+  static long read(byte[] buf, int pos) {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = buf[pos++];
+      value |= (long) (b & 0x7f) << shift;
+      if (b >= 0)
+        return value;
+    }
+  }
+
+  /**
+   * @return position after the value starting at pos
+   */
+  static int skip(byte[] buf, int pos) {
+    while (buf[pos] < 0)
+      ++pos;
+    return pos + 1;
+  }
+
+  /**
+   * Decodes the values in [from, to) as differences to their predecessor, the first one relative to base.
+   *
+   * @return number of values written to dst
+   */
+  static int decodeDeltas(byte[] src, int from, int to, long base, long[] dst) {
+    int n = 0;
+    long value = base;
+    long delta = 0;
+    int shift = 0;
+    for (int pos = from; pos < to; ++pos) {
+      byte b = src[pos];
+      delta |= (long) (b & 0x7f) << shift;
+      if (b < 0) {
+        shift += 7;
+      } else {
+        value += delta;
+        dst[n++] = value;
+        delta = 0;
+        shift = 0;
+      }
+    }
+    return n;
+  }
+}
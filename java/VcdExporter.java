@@ -0,0 +1,186 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes gpio traces as Value Change Dump, e.g. to inspect them in a logic analyzer tool. Every node is a module
+ * scope named "observer<id>" holding a 1 bit wire per pin; the timescale is 10 ns, the unit of flocklab timestamps.
+ *
+ * The traces are merged by time with a priority queue holding a cursor on every trace, so nothing is copied. The
+ * output is formatted into a byte buffer which is written in large blocks.
+ */
+public class VcdExporter {
+  public static final String SCOPE_PREFIX = "observer";
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final OutputStream out;
+  private final byte[] buffer;
+  private int bufferSize;
+
+  private VcdExporter(OutputStream out) {
+    this.out = out;
+    this.buffer = new byte[BUFFER_SIZE];
+  }
+
+  /**
+   * The next event of a trace.
+   */
+  private static final class Cursor {
+    final GpioTrace events;
+    final byte[] code;
+    // orders traces with events at the same time
+    final int index;
+    int iEvent = -1;
+    long time;
+    boolean level;
+
+    Cursor(GpioTrace events, byte[] code, int index) {
+      this.events = events;
+      this.code = code;
+      this.index = index;
+    }
+
+    boolean next() {
+      if (++iEvent >= events.size())
+        return false;
+      time = events.getTime(iEvent);
+      level = events.getLevel(iEvent);
+      return true;
+    }
+  }
+
+  public static void export(Map<Integer, ? extends Map<String, ? extends GpioTrace>> traces,
+                            File file) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      export(traces, out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes the traces (by node id and pin name) to the stream, which is not closed.
+   */
+  public static void export(Map<Integer, ? extends Map<String, ? extends GpioTrace>> traces,
+                            OutputStream out) throws IOException {
+    if (traces == null)
+      throw new IllegalArgumentException("traces can't be null");
+    if (out == null)
+      throw new IllegalArgumentException("out can't be null");
+
+    VcdExporter exporter = new VcdExporter(out);
+    PriorityQueue<Cursor> queue =
+        exporter.writeHeader(new TreeMap<Integer, Map<String, ? extends GpioTrace>>(traces));
+    exporter.writeChanges(queue);
+    exporter.flush();
+  }
+
+  /**
+   * Declares a wire for every trace.
+   *
+   * @return the cursors of the traces with events
+   */
+  private PriorityQueue<Cursor> writeHeader(
+      SortedMap<Integer, Map<String, ? extends GpioTrace>> traces) throws IOException {
+    PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(Math.max(1, traces.size()), new Comparator<Cursor>() {
+      @Override
+      public int compare(Cursor a, Cursor b) {
+        if (a.time != b.time)
+          return a.time < b.time ? -1 : 1;
+        return Integer.compare(a.index, b.index);
+      }
+    });
+
+    write("$timescale 10ns $end\n");
+    int index = 0;
+    for (Map.Entry<Integer, Map<String, ? extends GpioTrace>> node : traces.entrySet()) {
+      write("$scope module " + SCOPE_PREFIX + node.getKey() + " $end\n");
+      for (Map.Entry<String, ? extends GpioTrace> pin :
+          new TreeMap<String, GpioTrace>(node.getValue()).entrySet()) {
+        byte[] code = identifierCode(index);
+        write("$var wire 1 " + new String(code, CsvFields.UTF_8) + " " + pin.getKey().replaceAll("\\s", "_") +
+              " $end\n");
+        Cursor cursor = new Cursor(pin.getValue(), code, index++);
+        if (cursor.next())
+          queue.add(cursor);
+      }
+      write("$upscope $end\n");
+    }
+    write("$enddefinitions $end\n");
+    return queue;
+  }
+
+  private void writeChanges(PriorityQueue<Cursor> queue) throws IOException {
+    boolean first = true;
+    long time = 0;
+    Cursor cursor;
+    while ((cursor = queue.poll()) != null) {
+      if (first || cursor.time != time) {
+        if (cursor.time < 0)
+          throw new IllegalArgumentException("vcd times can't be negative: " + cursor.time);
+        time = cursor.time;
+        first = false;
+        ensureSpace(21);
+        buffer[bufferSize++] = '#';
+        writeLong(time);
+        buffer[bufferSize++] = '\n';
+      }
+      ensureSpace(cursor.code.length + 2);
+      buffer[bufferSize++] = (byte) (cursor.level ? '1' : '0');
+      System.arraycopy(cursor.code, 0, buffer, bufferSize, cursor.code.length);
+      bufferSize += cursor.code.length;
+      buffer[bufferSize++] = '\n';
+
+      if (cursor.next())
+        queue.add(cursor);
+    }
+  }
+
+  /**
+   * @return the shortest identifier of the printable ascii characters '!' to '~' for the index
+   */
+  static byte[] identifierCode(int index) {
+    int length = 1;
+    for (long n = 94; index >= n; n *= 94)
+      ++length;
+    byte[] code = new byte[length];
+    for (int i = length - 1; i >= 0; --i) {
+      code[i] = (byte) ('!' + index % 94);
+      index /= 94;
+    }
+    return code;
+  }
+
+  private void write(String s) throws IOException {
+    byte[] bytes = s.getBytes(CsvFields.UTF_8);
+    ensureSpace(bytes.length);
+    System.arraycopy(bytes, 0, buffer, bufferSize, bytes.length);
+    bufferSize += bytes.length;
+  }
+
+  private void writeLong(long value) {
+    int start = bufferSize;
+    do {
+      buffer[bufferSize++] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    // digits were written in reverse
+    for (int i = start, j = bufferSize - 1; i < j; ++i, --j) {
+      byte swap = buffer[i];
+      buffer[i] = buffer[j];
+      buffer[j] = swap;
+    }
+  }
+
+  private void ensureSpace(int n) throws IOException {
+    if (bufferSize + n > buffer.length)
+      flush();
+    if (n > buffer.length)
+      throw new IOException("line too long: " + n + " bytes");
+  }
+
+  private void flush() throws IOException {
+    out.write(buffer, 0, bufferSize);
+    bufferSize = 0;
+  }
+}
@@ -0,0 +1,304 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Reads the 1 bit signals of a Value Change Dump into a GpioLoader, e.g. a trace recorded by a logic analyzer or
+ * written by VcdExporter.
+ *
+ * The node of a signal is the number at the end of the name of its innermost numbered scope ("observer13" is node
+ * 13), 0 if there is none; the names of the scopes inside it are prepended to the pin name. Times are converted
+ * from the timescale of the file to tens of nanoseconds. Vector and real signals are skipped, x and z values are
+ * ignored.
+ *
+ * The file is tokenized from a byte buffer in a single pass and the value changes are appended to the event
+ * buffers of the loader directly, so apart from the loaded events the memory used doesn't grow with the file.
+ */
+public class VcdImporter {
+  private static final int BUFFER_SIZE = 1 << 20;
+  // identifiers of up to two characters are looked up in an array
+  private static final int SHORT_CODES = 1 << 14;
+
+  private final InputStream in;
+  private final byte[] buffer;
+  private int bufferPos;
+  private int bufferEnd;
+  private byte[] token;
+  private int tokenLength;
+
+  private final GpioLoader loader;
+  private final GpioEventBuffer[][] shortCodes;
+  private final Map<String, GpioEventBuffer[]> longCodes;
+  private final List<String> scopes;
+  // vcd time * timeFactor / timeDivisor is the time in tens of nanoseconds
+  private long timeFactor;
+  private long timeDivisor;
+  private long time;
+  private long startTime;
+  private long endTime;
+
+  private VcdImporter(InputStream in, GpioLoader loader) {
+    this.in = in;
+    this.buffer = new byte[BUFFER_SIZE];
+    this.token = new byte[64];
+    this.loader = loader;
+    this.shortCodes = new GpioEventBuffer[SHORT_CODES][];
+    this.longCodes = new HashMap<String, GpioEventBuffer[]>();
+    this.scopes = new ArrayList<String>();
+    this.timeFactor = 1;
+    this.timeDivisor = 1;
+    this.startTime = Long.MAX_VALUE;
+    this.endTime = Long.MIN_VALUE;
+  }
+
+  public static GpioLoader load(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      return load(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reads the signals of the stream, which is not closed.
+   */
+  public static GpioLoader load(InputStream in) throws IOException {
+    if (in == null)
+      throw new IllegalArgumentException("in can't be null");
+
+    GpioLoader loader = new GpioLoader();
+    VcdImporter importer = new VcdImporter(in, loader);
+    importer.readDefinitions();
+    importer.readChanges();
+    if (importer.startTime <= importer.endTime)
+      loader.extendTimeRange(importer.startTime, importer.endTime);
+    return loader;
+  }
+
+  private void readDefinitions() throws IOException {
+    while (nextToken()) {
+      String keyword = tokenString();
+      if (keyword.equals("$enddefinitions")) {
+        skipSection();
+        return;
+      } else if (keyword.equals("$timescale")) {
+        setTimescale(readSection());
+      } else if (keyword.equals("$scope")) {
+        List<String> args = readSection();
+        if (args.size() < 2)
+          throw new IOException("malformed scope: " + args);
+        scopes.add(args.get(1));
+      } else if (keyword.equals("$upscope")) {
+        skipSection();
+        if (scopes.isEmpty())
+          throw new IOException("$upscope without scope");
+        scopes.remove(scopes.size() - 1);
+      } else if (keyword.equals("$var")) {
+        addVar(readSection());
+      } else if (keyword.startsWith("$")) {
+        // $date, $version, $comment
+        skipSection();
+      } else {
+        throw new IOException("unexpected token in definitions: " + keyword);
+      }
+    }
+    throw new IOException("$enddefinitions missing");
+  }
+
+  private void setTimescale(List<String> args) throws IOException {
+    StringBuilder timescale = new StringBuilder();
+    for (String arg : args)
+      timescale.append(arg);
+    String s = timescale.toString();
+    int unitStart = 0;
+    while (unitStart < s.length() && Character.isDigit(s.charAt(unitStart)))
+      ++unitStart;
+    String[] units = {"s", "ms", "us", "ns", "ps", "fs"};
+    int unit = Arrays.asList(units).indexOf(s.substring(unitStart));
+    if (unitStart == 0 || unit < 0)
+      throw new IOException("illegal timescale: " + s);
+
+    long factor = Long.parseLong(s.substring(0, unitStart));
+    // one tick in seconds is factor * 10^(-3 unit), a flocklab time unit is 10^-8 s
+    int exponent = 8 - 3 * unit;
+    long divisor = 1;
+    for (; exponent > 0; --exponent)
+      factor *= 10;
+    for (; exponent < 0; ++exponent)
+      divisor *= 10;
+    long gcd = gcd(factor, divisor);
+    timeFactor = factor / gcd;
+    timeDivisor = divisor / gcd;
+  }
+
+  private static long gcd(long a, long b) {
+    while (b != 0) {
+      long r = a % b;
+      a = b;
+      b = r;
+    }
+    return a;
+  }
+
+  private void addVar(List<String> args) throws IOException {
+    // type, size, identifier, reference [, bit select]
+    if (args.size() < 4)
+      throw new IOException("malformed var: " + args);
+    if (!args.get(1).equals("1"))
+      return;
+
+    int nodeId = 0;
+    int nodeScope = -1;
+    for (int i = scopes.size() - 1; i >= 0 && nodeScope < 0; --i) {
+      String scope = scopes.get(i);
+      int digits = scope.length();
+      while (digits > 0 && Character.isDigit(scope.charAt(digits - 1)))
+        --digits;
+      if (digits < scope.length() && scope.length() - digits < 10) {
+        nodeId = Integer.parseInt(scope.substring(digits));
+        nodeScope = i;
+      }
+    }
+    StringBuilder pinName = new StringBuilder();
+    for (String scope : scopes.subList(nodeScope + 1, scopes.size()))
+      pinName.append(scope).append('.');
+    for (String part : args.subList(3, args.size()))
+      pinName.append(part);
+
+    byte[] code = args.get(2).getBytes(CsvFields.UTF_8);
+    GpioEventBuffer[] buffers = lookup(code, 0, code.length);
+    buffers = buffers == null ? new GpioEventBuffer[1] : Arrays.copyOf(buffers, buffers.length + 1);
+    buffers[buffers.length - 1] = loader.eventBuffer(nodeId, pinName.toString());
+    if (isShortCode(code, 0, code.length))
+      shortCodes[shortCode(code, 0, code.length)] = buffers;
+    else
+      longCodes.put(args.get(2), buffers);
+  }
+
+  private static boolean isShortCode(byte[] code, int from, int to) {
+    if (to - from == 1)
+      return code[from] >= 0;
+    // the first character is not 0, so the codes don't collide with those of one character
+    return to - from == 2 && code[from] > 0 && code[from + 1] >= 0;
+  }
+
+  private static int shortCode(byte[] code, int from, int to) {
+    return to - from == 1 ? code[from] : code[from] << 7 | code[from + 1];
+  }
+
+  /**
+   * @return the buffers of the signals with the identifier code[from, to), null if there is none
+   */
+  private GpioEventBuffer[] lookup(byte[] code, int from, int to) {
+    if (isShortCode(code, from, to))
+      return shortCodes[shortCode(code, from, to)];
+    return longCodes.get(new String(code, from, to - from, CsvFields.UTF_8));
+  }
+
+  private void readChanges() throws IOException {
+    while (nextToken()) {
+      byte first = token[0];
+      if (first == '#') {
+        time = vcdTime();
+      } else if (first == '0' || first == '1') {
+        change(lookup(token, 1, tokenLength), first == '1');
+      } else if (first == 'b' || first == 'B') {
+        // single bit vectors, e.g. b1 !
+        byte bit = token[tokenLength - 1];
+        if (!nextToken())
+          throw new IOException("vector value without identifier");
+        if (bit == '0' || bit == '1')
+          change(lookup(token, 0, tokenLength), bit == '1');
+      } else if (first == 'r' || first == 'R') {
+        if (!nextToken())
+          throw new IOException("real value without identifier");
+      } else if (first == '$') {
+        String keyword = tokenString();
+        if (keyword.equals("$comment"))
+          skipSection();
+        // the value changes of $dumpvars, $dumpall, $dumpon and $dumpoff are read as any others
+      } else if (first != 'x' && first != 'X' && first != 'z' && first != 'Z') {
+        throw new IOException("unexpected token: " + tokenString());
+      }
+    }
+  }
+
+  private void change(GpioEventBuffer[] buffers, boolean level) {
+    // value changes of vectors and reals aren't loaded
+    if (buffers == null)
+      return;
+    for (GpioEventBuffer eventBuffer : buffers)
+      eventBuffer.add(time, level);
+    startTime = Math.min(startTime, time);
+    endTime = Math.max(endTime, time);
+  }
+
+  private long vcdTime() throws IOException {
+    long t = 0;
+    for (int i = 1; i < tokenLength; ++i) {
+      int digit = token[i] - '0';
+      if (digit < 0 || digit > 9 || t > (Long.MAX_VALUE - digit) / 10)
+        throw new IOException("illegal time: " + tokenString());
+      t = t * 10 + digit;
+    }
+    if (tokenLength == 1)
+      throw new IOException("illegal time: #");
+    if (timeFactor != 1 && t > Long.MAX_VALUE / timeFactor)
+      throw new IOException("time out of range: " + tokenString());
+    return t * timeFactor / timeDivisor;
+  }
+
+  private List<String> readSection() throws IOException {
+    List<String> args = new ArrayList<String>();
+    while (nextToken()) {
+      String arg = tokenString();
+      if (arg.equals("$end"))
+        return args;
+      args.add(arg);
+    }
+    throw new IOException("$end missing");
+  }
+
+  private void skipSection() throws IOException {
+    while (nextToken()) {
+      if (tokenLength == 4 && token[0] == '$' && token[1] == 'e' && token[2] == 'n' && token[3] == 'd')
+        return;
+    }
+    throw new IOException("$end missing");
+  }
+
+  private String tokenString() {
+    return new String(token, 0, tokenLength, CsvFields.UTF_8);
+  }
+
+  /**
+   * Reads the next whitespace separated token into token[0, tokenLength).
+   *
+   * @return false at the end of the stream
+   */
+  private boolean nextToken() throws IOException {
+    tokenLength = 0;
+    while (true) {
+      if (bufferPos == bufferEnd && !fill())
+        return tokenLength > 0;
+      byte b = buffer[bufferPos++];
+      if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+        if (tokenLength > 0)
+          return true;
+      } else {
+        if (tokenLength == token.length)
+          token = Arrays.copyOf(token, tokenLength * 2);
+        token[tokenLength++] = b;
+      }
+    }
+  }
+
+  private boolean fill() throws IOException {
+    int n = in.read(buffer, 0, buffer.length);
+    if (n <= 0)
+      return false;
+    bufferPos = 0;
+    bufferEnd = n;
+    return true;
+  }
+}
@@ -0,0 +1,295 @@
+import javax.swing.*;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Gpio traces of a file which is too large to be loaded completely. Only the blocks (see CsvBlockIndex) overlapping
+ * the displayed time window and a prefetch margin around it are parsed, and at most maxResidentBlocks blocks are
+ * kept decoded (least recently used blocks are evicted first).
+ *
+ * The traces handed to the listeners are updated in place whenever blocks are loaded or evicted, they only contain
+ * the events of the resident blocks.
+ * Blocks are parsed and the resident blocks of a trace are merged on the executor, everything else happens on the swing
+ * event dispatch thread.
+ */
+public class WindowedGpioTraces {
+  public interface Listener {
+    /**
+     * A trace was found in the file. It is empty until blocks containing events of it are loaded.
+     */
+    void traceAdded(int nodeId, String pinName, GpioTrace trace);
+
+    /**
+     * Blocks were loaded or evicted, i.e. the content of (some) traces changed.
+     */
+    void tracesChanged();
+  }
+
+  private final GpioLoader loader;
+  private final CsvBlockIndex index;
+  private final ExecutorService executor;
+  private final int maxResidentBlocks;
+  private final List<Listener> listeners;
+
+  private final Map<Integer, Map<String, GpioTrace>> traces;
+  // the events behind the traces, rebuilt from the resident blocks
+  private final Map<GpioTrace, GpioEventBuffer> buffers;
+  // the latest merge of the resident blocks started for a trace
+  private final Map<GpioTrace, Integer> pendingMerges;
+  private int nMerges;
+  private final LinkedHashMap<Integer, Map<Integer, Map<String, GpioTrace>>> residentBlocks;
+  private final Set<Integer> pendingBlocks;
+  private int[] neededBlocks;
+  // read by the loading tasks to skip blocks which aren't needed anymore
+  private volatile int[] neededBlocksSnapshot;
+  private long windowStart;
+  private long windowEnd;
+
+  /**
+   * @param loader file based loader of the gpio traces; only used to parse the blocks, it stays empty itself
+   * @param index  index of the loader's file, may still be built
+   */
+  public WindowedGpioTraces(GpioLoader loader, CsvBlockIndex index, ExecutorService executor, int maxResidentBlocks) {
+    if (loader == null)
+      throw new IllegalArgumentException();
+    if (index == null)
+      throw new IllegalArgumentException();
+    if (executor == null)
+      throw new IllegalArgumentException();
+    if (maxResidentBlocks < 1)
+      throw new IllegalArgumentException("at least one block must be resident");
+
+    this.loader = loader;
+    this.index = index;
+    this.executor = executor;
+    this.maxResidentBlocks = maxResidentBlocks;
+    this.listeners = new ArrayList<Listener>();
+    this.traces = new HashMap<Integer, Map<String, GpioTrace>>();
+    this.buffers = new HashMap<GpioTrace, GpioEventBuffer>();
+    this.pendingMerges = new HashMap<GpioTrace, Integer>();
+    this.residentBlocks = new LinkedHashMap<Integer, Map<Integer, Map<String, GpioTrace>>>(16, 0.75f, true);
+    this.pendingBlocks = new HashSet<Integer>();
+    this.neededBlocks = new int[0];
+    this.neededBlocksSnapshot = neededBlocks;
+    this.windowStart = Long.MAX_VALUE;
+    this.windowEnd = Long.MIN_VALUE;
+
+    index.addListener(new CsvBlockIndex.Listener() {
+      @Override
+      public void blocksIndexed(CsvBlockIndex index) {
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            updateWindow();
+          }
+        });
+      }
+
+      @Override
+      public void seriesFound(CsvBlockIndex index, final int observerID, final String series) {
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            getTrace(observerID, series);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Adds a listener which is immediately informed about all traces found so far.
+   */
+  public void addListener(Listener listener) {
+    if (listener == null)
+      throw new IllegalArgumentException();
+    listeners.add(listener);
+    for (Map.Entry<Integer, Map<String, GpioTrace>> node : traces.entrySet()) {
+      for (Map.Entry<String, GpioTrace> pin : node.getValue().entrySet())
+        listener.traceAdded(node.getKey(), pin.getKey(), pin.getValue());
+    }
+  }
+
+  /**
+   * Makes sure the events in [start, end] and one window width before and after it get loaded.
+   */
+  public void showWindow(long start, long end) {
+    long margin = Math.max(0, end - start);
+    windowStart = start - margin;
+    windowEnd = end + margin;
+    updateWindow();
+  }
+
+  private GpioTrace getTrace(int nodeId, String pinName) {
+    Map<String, GpioTrace> nodeTraces = traces.get(nodeId);
+    if (nodeTraces == null) {
+      nodeTraces = new HashMap<String, GpioTrace>();
+      traces.put(nodeId, nodeTraces);
+    }
+    GpioTrace trace = nodeTraces.get(pinName);
+    if (trace == null) {
+      GpioEventBuffer buffer = new GpioEventBuffer();
+      trace = new ArrayGpioTrace(buffer, nodeId, GpioPins.id(pinName));
+      nodeTraces.put(pinName, trace);
+      buffers.put(trace, buffer);
+      for (Listener l : listeners)
+        l.traceAdded(nodeId, pinName, trace);
+    }
+    return trace;
+  }
+
+  private void updateWindow() {
+    if (windowStart > windowEnd)
+      return;
+
+    int[] blocks = index.blocksOverlapping(windowStart, windowEnd);
+    // when zoomed out too far not all blocks fit, the ones at the start of the window are shown then
+    neededBlocks = Arrays.copyOf(blocks, Math.min(blocks.length, maxResidentBlocks));
+    neededBlocksSnapshot = neededBlocks;
+
+    for (final int iBlock : neededBlocks) {
+      if (residentBlocks.get(iBlock) != null || pendingBlocks.contains(iBlock))
+        continue;
+
+      pendingBlocks.add(iBlock);
+      final long blockStart = index.getBlockStart(iBlock);
+      final long blockEnd = index.getBlockEnd(iBlock);
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          Map<Integer, Map<String, GpioTrace>> events = null;
+          if (Arrays.binarySearch(neededBlocksSnapshot, iBlock) >= 0) {
+            try {
+              events = ((GpioLoader) loader.loadRange(blockStart, blockEnd)).getTraces();
+            } catch (IOException e) {
+              e.printStackTrace();
+            }
+          }
+          final Map<Integer, Map<String, GpioTrace>> loadedEvents = events;
+          SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+              blockLoaded(iBlock, loadedEvents);
+            }
+          });
+        }
+      });
+    }
+  }
+
+  /**
+   * @param events null if the block was skipped or couldn't be loaded
+   */
+  private void blockLoaded(int iBlock, Map<Integer, Map<String, GpioTrace>> events) {
+    pendingBlocks.remove(iBlock);
+    if (events == null)
+      return;
+
+    Map<Integer, Set<String>> changedTraces = new HashMap<Integer, Set<String>>();
+    residentBlocks.put(iBlock, events);
+    addTraceKeys(changedTraces, events);
+
+    // evict least recently used blocks which are not needed for the current window
+    Iterator<Map.Entry<Integer, Map<Integer, Map<String, GpioTrace>>>> it =
+        residentBlocks.entrySet().iterator();
+    while (residentBlocks.size() > maxResidentBlocks && it.hasNext()) {
+      Map.Entry<Integer, Map<Integer, Map<String, GpioTrace>>> block = it.next();
+      if (Arrays.binarySearch(neededBlocks, block.getKey()) < 0) {
+        addTraceKeys(changedTraces, block.getValue());
+        it.remove();
+      }
+    }
+
+    // the traces are the union of the resident blocks, they are merged on the executor in block order so that events
+    // with the same time stay in row order
+    SortedSet<Integer> blockOrder = new TreeSet<Integer>(residentBlocks.keySet());
+    final Map<GpioTrace, List<GpioTrace>> blockTraces = new HashMap<GpioTrace, List<GpioTrace>>();
+    final int iMerge = ++nMerges;
+    for (Map.Entry<Integer, Set<String>> node : changedTraces.entrySet()) {
+      for (String pinName : node.getValue()) {
+        List<GpioTrace> parts = new ArrayList<GpioTrace>();
+        for (int iResident : blockOrder) {
+          Map<String, GpioTrace> blockNode = peekResident(iResident).get(node.getKey());
+          GpioTrace blockTrace = blockNode == null ? null : blockNode.get(pinName);
+          if (blockTrace != null)
+            parts.add(blockTrace);
+        }
+        GpioTrace trace = getTrace(node.getKey(), pinName);
+        blockTraces.put(trace, parts);
+        pendingMerges.put(trace, iMerge);
+      }
+    }
+
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        final Map<GpioTrace, GpioEventBuffer> merged = new HashMap<GpioTrace, GpioEventBuffer>();
+        for (Map.Entry<GpioTrace, List<GpioTrace>> trace : blockTraces.entrySet())
+          merged.put(trace.getKey(), merge(trace.getValue()));
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            mergeDone(iMerge, merged);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * @return the events of the block traces, which are in block order
+   */
+  private static GpioEventBuffer merge(List<GpioTrace> blockTraces) {
+    GpioEventBuffer buffer = new GpioEventBuffer();
+    for (GpioTrace blockTrace : blockTraces) {
+      for (int i = 0; i < blockTrace.size(); ++i)
+        buffer.add(blockTrace.getTime(i), blockTrace.getLevel(i));
+    }
+    // blocks are usually in time order already, the sort only merges the ones overlapping in time then
+    buffer.sort();
+    return buffer;
+  }
+
+  /**
+   * Swaps in the merged events of the traces which weren't changed again meanwhile.
+   */
+  private void mergeDone(int iMerge, Map<GpioTrace, GpioEventBuffer> merged) {
+    boolean changed = false;
+    for (Map.Entry<GpioTrace, GpioEventBuffer> trace : merged.entrySet()) {
+      Integer pendingMerge = pendingMerges.get(trace.getKey());
+      if (pendingMerge != null && pendingMerge == iMerge) {
+        pendingMerges.remove(trace.getKey());
+        buffers.get(trace.getKey()).moveFrom(trace.getValue());
+        changed = true;
+      }
+    }
+
+    if (changed) {
+      for (Listener l : listeners)
+        l.tracesChanged();
+    }
+  }
+
+  /**
+   * Gets a resident block without changing the eviction order.
+   */
+  private Map<Integer, Map<String, GpioTrace>> peekResident(int iBlock) {
+    for (Map.Entry<Integer, Map<Integer, Map<String, GpioTrace>>> block : residentBlocks.entrySet()) {
+      if (block.getKey() == iBlock)
+        return block.getValue();
+    }
+    return null;
+  }
+
+  private static void addTraceKeys(Map<Integer, Set<String>> keys, Map<Integer, Map<String, GpioTrace>> events) {
+    for (Map.Entry<Integer, Map<String, GpioTrace>> node : events.entrySet()) {
+      Set<String> pinNames = keys.get(node.getKey());
+      if (pinNames == null) {
+        pinNames = new HashSet<String>();
+        keys.put(node.getKey(), pinNames);
+      }
+      pinNames.addAll(node.getValue().keySet());
+    }
+  }
+}
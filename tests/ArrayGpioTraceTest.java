@@ -0,0 +1,108 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ArrayGpioTraceTest {
+  private static GpioEventBuffer events(long... times) {
+    GpioEventBuffer events = new GpioEventBuffer();
+    for (int i = 0; i < times.length; ++i)
+      events.add(times[i], i % 2 == 0);
+    return events;
+  }
+
+  @Test
+  public void testIndexQueries() {
+    GpioEventBuffer events = events(10, 20, 30);
+    events.sort();
+    ArrayGpioTrace trace = new ArrayGpioTrace(events, 1, GpioPins.id("LED1"));
+
+    assertEquals(-1, trace.floorIndex(9));
+    assertEquals(0, trace.floorIndex(10));
+    assertEquals(-1, trace.lowerIndex(10));
+    assertEquals(1, trace.ceilingIndex(11));
+    assertEquals(1, trace.higherIndex(10));
+    assertEquals(3, trace.higherIndex(30));
+    assertEquals(10, trace.getStartTime());
+    assertEquals(30, trace.getEndTime());
+    assertEquals("LED1", trace.getPinName());
+
+    GpioTrace range = trace.range(15, 30);
+    assertEquals(2, range.size());
+    assertEquals(20, range.getTime(0));
+    assertFalse(range.getLevel(0));
+    assertEquals(0, range.floorIndex(25));
+    assertEquals(0, trace.range(31, 40).size());
+
+    GpioEvent[] covering = trace.getEventsCoveringTimespan(15, 25);
+    assertEquals(2, covering.length);
+    assertEquals(10, covering[0].getTimestampTenNanoseconds());
+  }
+
+  @Test
+  public void testCursor() {
+    GpioEventBuffer events = events(10, 20, 30, 40);
+    events.sort();
+    GpioCursor cursor = new ArrayGpioTrace(events, 1, GpioPins.id("LED1")).cursor();
+    assertTrue(cursor.next());
+    assertEquals(10, cursor.time());
+    assertEquals(1, cursor.observer());
+    assertEquals(GpioPins.id("LED1"), cursor.pin());
+    assertTrue(cursor.level());
+
+    // like getEventsCoveringTimespan(), the event before the range gives its starting level
+    cursor.seek(25, 30);
+    assertTrue(cursor.next());
+    assertEquals(20, cursor.time());
+    assertFalse(cursor.level());
+    assertTrue(cursor.next());
+    assertEquals(30, cursor.time());
+    assertFalse(cursor.next());
+
+    cursor.seek(41, 50);
+    assertTrue(cursor.next());
+    assertEquals(40, cursor.time());
+    assertFalse(cursor.next());
+    cursor.seek(0, 5);
+    assertFalse(cursor.next());
+  }
+
+  @Test
+  public void testLiveView() {
+    GpioEventBuffer events = events(30, 10);
+    ArrayGpioTrace trace = new ArrayGpioTrace(events, 1, GpioPins.id("LED1"));
+    // events appear once they are sorted
+    assertEquals(0, trace.size());
+    events.sort();
+    assertEquals(2, trace.size());
+    assertEquals(10, trace.getTime(0));
+
+    // events at the same time stay in row order
+    events.add(10, true);
+    events.add(40, true);
+    events.sort();
+    assertEquals(4, trace.size());
+    assertEquals(10, trace.getTime(0));
+    assertEquals(10, trace.getTime(1));
+    assertFalse(trace.getLevel(0));
+    assertTrue(trace.getLevel(1));
+    assertEquals(40, trace.getEndTime());
+  }
+
+  @Test
+  public void testMoveFrom() {
+    GpioEventBuffer events = events(10, 20);
+    events.sort();
+    ArrayGpioTrace trace = new ArrayGpioTrace(events, 1, GpioPins.id("LED1"));
+    int modCount = trace.getModCount();
+
+    GpioEventBuffer merged = events(5, 15, 25);
+    merged.sort();
+    events.moveFrom(merged);
+    assertTrue(trace.getModCount() != modCount);
+    assertEquals(3, trace.size());
+    assertEquals(5, trace.getTime(0));
+    assertFalse(trace.getLevel(1));
+    assertEquals(25, trace.getEndTime());
+    assertEquals(0, merged.size());
+  }
+}
@@ -0,0 +1,127 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class CompressedGpioTraceTest {
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = CsvFixture.createFile("gpiotracing");
+  }
+
+  @After
+  public void tearDown() {
+    CsvFixture.delete(file);
+  }
+
+  /**
+   * Edges a few microseconds apart, partly out of order and with duplicate times.
+   */
+  private static String rows(int nRows, long seed) {
+    Random random = new Random(seed);
+    StringBuilder rows = new StringBuilder();
+    long time = 1000000;
+    for (int i = 0; i < nRows; ++i) {
+      time += 100 + random.nextInt(2000);
+      long rowTime = random.nextInt(20) == 0 ? time - random.nextInt(5000) : time;
+      rows.append(CsvFixture.gpioRow(rowTime, 1 + random.nextInt(3), "LED" + random.nextInt(2), random.nextBoolean()));
+    }
+    return rows.toString();
+  }
+
+  private static GpioLoader load(String rows, boolean compressed) throws IOException {
+    GpioLoader loader = new GpioLoader(new StringReader(rows));
+    loader.setCompressTraces(compressed);
+    loader.load();
+    return loader;
+  }
+
+  @Test
+  public void testSameAsArrayTrace() throws Exception {
+    String rows = rows(20000, 1);
+    GpioLoader compressed = load(rows, true);
+    GpioLoader array = load(rows, false);
+    assertEquals(array.getEvents(), compressed.getEvents());
+
+    long bytes = 0;
+    int edges = 0;
+    for (Map.Entry<Integer, Map<String, GpioTrace>> node : compressed.getTraces().entrySet()) {
+      for (Map.Entry<String, GpioTrace> pin : node.getValue().entrySet()) {
+        CompressedGpioTrace trace = (CompressedGpioTrace) pin.getValue();
+        GpioTrace expected = array.getTraces().get(node.getKey()).get(pin.getKey());
+        bytes += trace.getMemoryUsage();
+        edges += trace.size();
+        assertEquals(expected.size(), trace.size());
+
+        for (long time = expected.getStartTime() - 10; time < expected.getStartTime() + 200000; time += 997) {
+          assertEquals(expected.floorIndex(time), trace.floorIndex(time));
+          assertEquals(expected.lowerIndex(time), trace.lowerIndex(time));
+          assertEquals(expected.ceilingIndex(time), trace.ceilingIndex(time));
+          assertEquals(expected.higherIndex(time), trace.higherIndex(time));
+        }
+        GpioCursor cursor = trace.cursor();
+        cursor.seek(2000000, 3000000);
+        for (GpioEvent event : expected.getEventsCoveringTimespan(2000000, 3000000)) {
+          assertTrue(cursor.next());
+          assertEquals(event.getTimestampTenNanoseconds(), cursor.time());
+          assertEquals(event.isPositiveFlank(), cursor.level());
+        }
+        assertFalse(cursor.next());
+        GpioTrace range = trace.range(2000000, 3000000);
+        assertEquals(GpioLoader.toNavigableMap(expected.range(2000000, 3000000)), GpioLoader.toNavigableMap(range));
+      }
+    }
+    // deltas of up to 2100 fit in two bytes, the buffers grow by half
+    assertTrue(bytes + " bytes for " + edges + " edges", bytes < 4L * edges);
+  }
+
+  @Test
+  public void testAppendedOutOfOrder() throws Exception {
+    String rows = rows(5000, 2);
+    int split = rows.indexOf('\n', rows.length() / 2) + 1;
+    GpioLoader loader = new GpioLoader(new StringReader(rows.substring(0, split)));
+    loader.setCompressTraces(true);
+    loader.load();
+    // rows before the end of the traces, one at the time of the last edge of a trace
+    GpioTrace led0 = loader.getTraces().get(1).get("LED0");
+    long lastTime = led0.getTime(led0.size() - 1);
+    String appended = CsvFixture.gpioRow(lastTime, 1, "LED0", !led0.getLevel(led0.size() - 1)) +
+        CsvFixture.gpioRow(1000050, 1, "LED0", true) + rows.substring(split);
+    loader.appendChunk(loader.parseRows(ByteBuffer.wrap(appended.getBytes(CsvFields.UTF_8))));
+
+    GpioLoader expected = load(rows.substring(0, split) + appended, false);
+    assertEquals(expected.getEvents(), loader.getEvents());
+    assertSame(led0, loader.getTraces().get(1).get("LED0"));
+    // edges with the same time stay in row order
+    GpioTrace expectedLed0 = expected.getTraces().get(1).get("LED0");
+    assertEquals(expectedLed0.size(), led0.size());
+    for (int i = 0; i < led0.size(); ++i) {
+      assertEquals(expectedLed0.getTime(i), led0.getTime(i));
+      assertEquals(expectedLed0.getLevel(i), led0.getLevel(i));
+    }
+  }
+
+  @Test
+  public void testCache() throws Exception {
+    String rows = rows(5000, 3);
+    CsvFixture.write(file, rows);
+    File cacheFile = FlocklabCache.cacheFileOf(file);
+
+    GpioLoader loader = new GpioLoader(file);
+    loader.setCompressTraces(true);
+    LoaderRegistry.loadCached(loader, cacheFile, ForkJoinPool.commonPool(), 2);
+    GpioLoader cached = new GpioLoader(file);
+    assertTrue(cached.loadCache(cacheFile));
+    assertEquals(load(rows, false).getEvents(), cached.getEvents());
+  }
+}
@@ -0,0 +1,51 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Temporary flocklab csv files for the loader tests.
+ */
+final class CsvFixture {
+  private CsvFixture() {
+  }
+
+  static File createFile(String prefix) throws IOException {
+    return File.createTempFile(prefix, ".csv");
+  }
+
+  /**
+   * Deletes the file and the cache written next to it.
+   */
+  static void delete(File file) {
+    file.delete();
+    FlocklabCache.cacheFileOf(file).delete();
+  }
+
+  static void write(File file, String rows) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(rows.getBytes(CsvFields.UTF_8));
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @param time in 10 ns
+   */
+  static String gpioRow(long time, int node, String pin, boolean level) {
+    return row(time, node, pin, level ? "1" : "0");
+  }
+
+  /**
+   * @param time in 10 ns
+   */
+  static String serialRow(long time, int node, String direction, String output) {
+    return row(time, node, direction, output);
+  }
+
+  private static String row(long time, int node, String field, String rest) {
+    return String.format("%d.%08d,%d,%s,%s\n", time / 100000000, time % 100000000, node, field, rest);
+  }
+}
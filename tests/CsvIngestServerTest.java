@@ -0,0 +1,124 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CsvIngestServerTest {
+  private GpioLoader received;
+  private CountDownLatch sinkOpen;
+  private CsvIngestServer server;
+
+  @Before
+  public void setUp() throws IOException {
+    received = new GpioLoader();
+    sinkOpen = new CountDownLatch(0);
+    server = new CsvIngestServer(new GpioLoader(), new CsvIngestServer.Sink() {
+      @Override
+      public void rowsReceived(FlocklabCsvLoader chunk) throws InterruptedException {
+        sinkOpen.await();
+        synchronized (received) {
+          received.appendChunk(chunk);
+          received.notifyAll();
+        }
+      }
+    }, 64 << 10);
+    server.start(0);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.close();
+  }
+
+  private Socket connect() throws IOException {
+    return new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+  }
+
+  private static byte[] rows(int from, int to, String pin) {
+    StringBuilder rows = new StringBuilder();
+    for (int i = from; i < to; ++i)
+      rows.append(i).append(".000000000,13,").append(pin).append(',').append(i & 1).append('\n');
+    return rows.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private int awaitEvents(String pin, int expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    synchronized (received) {
+      while (eventCount(pin) < expected && System.currentTimeMillis() < deadline)
+        received.wait(100);
+      return eventCount(pin);
+    }
+  }
+
+  private int eventCount(String pin) {
+    if (!received.getTraces().containsKey(13) || !received.getTraces().get(13).containsKey(pin))
+      return 0;
+    return received.getTraces().get(13).get(pin).size();
+  }
+
+  @Test
+  public void testRowsSplitAcrossWrites() throws Exception {
+    byte[] rows = rows(0, 1000, "LED1");
+    Socket socket = connect();
+    OutputStream out = socket.getOutputStream();
+    for (int i = 0; i < rows.length; i += 7) {
+      out.write(rows, i, Math.min(7, rows.length - i));
+      out.flush();
+    }
+    // the last row of a connection doesn't need a line terminator
+    out.write("1000.000000000,13,LED1,0".getBytes(StandardCharsets.UTF_8));
+    socket.close();
+
+    assertEquals(1001, awaitEvents("LED1", 1001));
+    assertEquals(Boolean.FALSE, received.getEvents().get(13).get("LED1").get(100000000000L));
+  }
+
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    Socket first = connect();
+    Socket second = connect();
+    first.getOutputStream().write(rows(0, 500, "LED1"));
+    second.getOutputStream().write(rows(0, 300, "LED2"));
+    first.close();
+    second.close();
+
+    assertEquals(500, awaitEvents("LED1", 500));
+    assertEquals(300, awaitEvents("LED2", 300));
+  }
+
+  @Test
+  public void testBackpressure() throws Exception {
+    sinkOpen = new CountDownLatch(1);
+    final byte[] rows = rows(0, 1500000, "LED1");
+    final Socket socket = connect();
+    final CountDownLatch sent = new CountDownLatch(1);
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          socket.getOutputStream().write(rows);
+          socket.close();
+          sent.countDown();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    });
+    producer.start();
+
+    // the sink doesn't take rows, the producer is blocked once the ring and the socket buffers are full
+    assertFalse(sent.await(1, TimeUnit.SECONDS));
+    sinkOpen.countDown();
+    assertTrue(sent.await(30, TimeUnit.SECONDS));
+    assertEquals(1500000, awaitEvents("LED1", 1500000));
+  }
+}
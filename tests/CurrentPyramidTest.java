@@ -0,0 +1,226 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class CurrentPyramidTest {
+  private static final long START = 100000;
+  private static final long PERIOD = 100;
+
+  private File dir;
+  private File file;
+  private double[] values;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = File.createTempFile("currenttraces", "");
+    dir.delete();
+    dir.mkdirs();
+    file = new File(dir, "5");
+
+    // noise with single sample spikes, e.g. radio transmissions
+    Random random = new Random(1);
+    values = new double[100003];
+    CurrentTraceWriter writer = new CurrentTraceWriter(file, PERIOD);
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = random.nextInt(500) == 0 ? 20 + random.nextDouble() : random.nextDouble();
+      writer.append(START + i * PERIOD, values[i]);
+    }
+    writer.close();
+  }
+
+  @After
+  public void tearDown() {
+    for (File f : dir.listFiles())
+      f.delete();
+    dir.delete();
+  }
+
+  @Test
+  public void testEnvelope() throws Exception {
+    CurrentTraceFromFile trace = new CurrentTraceFromFile(file);
+    long startTime = START + 1234 * PERIOD + 50;
+    long endTime = START + 98765 * PERIOD;
+    SampleIterator<Double> samples = trace.getMeasurementsCovering(startTime, endTime, 333 * PERIOD);
+
+    int nPoints = 0;
+    int nextSample = 1234;
+    while (samples.next()) {
+      // points come in pairs: min of the samples from the first one, max up to the last one
+      int from = (int) ((samples.time() - START) / PERIOD);
+      double min = samples.value();
+      assertTrue(samples.next());
+      int to = (int) ((samples.time() - START) / PERIOD) + 1;
+      double max = samples.value();
+      assertEquals(nextSample, from);
+
+      double expectedMin = Double.POSITIVE_INFINITY;
+      double expectedMax = Double.NEGATIVE_INFINITY;
+      for (int i = from; i < to; ++i) {
+        expectedMin = Math.min(expectedMin, values[i]);
+        expectedMax = Math.max(expectedMax, values[i]);
+      }
+      assertEquals(expectedMin, min, 0);
+      assertEquals(expectedMax, max, 0);
+      nextSample = to;
+      nPoints += 2;
+    }
+    assertEquals(98766, nextSample);
+    assertTrue(nPoints < 2 * (98765 - 1234) / 333 + 4);
+  }
+
+  /**
+   * @return integral of the interpolated values in [start, end] by walking over all samples
+   */
+  private double integral(long start, long end) {
+    double integral = 0;
+    for (int i = 0; i + 1 < values.length; ++i) {
+      long t0 = START + i * PERIOD;
+      long a = Math.max(start, t0);
+      long b = Math.min(end, t0 + PERIOD);
+      if (a < b) {
+        double va = values[i] + (a - t0) / (double) PERIOD * (values[i + 1] - values[i]);
+        double vb = values[i] + (b - t0) / (double) PERIOD * (values[i + 1] - values[i]);
+        integral += (va + vb) / 2 * (b - a);
+      }
+    }
+    return integral;
+  }
+
+  @Test
+  public void testAverageAndIntegral() throws Exception {
+    NavigableMap<Long, Double> map = new TreeMap<Long, Double>();
+    for (int i = 0; i < values.length; ++i)
+      map.put(START + i * PERIOD, values[i]);
+    CurrentTrace[] traces = {new CurrentTraceFromFile(file), new MapCurrentTrace(5, map)};
+
+    Random random = new Random(2);
+    for (int n = 0; n < 50; ++n) {
+      long start = START - 1000 + (long) (random.nextDouble() * values.length * PERIOD);
+      long end = start + (n % 2 == 0 ? random.nextInt(3000) : random.nextInt(values.length) * PERIOD);
+      double sum = 0;
+      int count = 0;
+      for (int i = 0; i < values.length; ++i) {
+        long time = START + i * PERIOD;
+        if (time >= start && time <= end) {
+          sum += values[i];
+          ++count;
+        }
+      }
+      double integral = integral(start, end);
+      for (CurrentTrace trace : traces) {
+        if (count == 0)
+          assertNull(trace.averageIn(end, start));
+        else
+          assertEquals(sum / count, trace.averageIn(end, start), 1e-9);
+        assertEquals(integral, trace.integralIn(start, end), 1e-9 * Math.max(1, integral));
+      }
+    }
+    for (CurrentTrace trace : traces) {
+      assertNull(trace.integralIn(0, START - 1));
+      assertEquals(0, trace.integralIn(START + 5 * PERIOD, START + 5 * PERIOD), 0);
+    }
+  }
+
+  @Test
+  public void testSegmentsAndThreads() throws Exception {
+    final CurrentTraceFromFile single = new CurrentTraceFromFile(file);
+    // segments of 32 samples, blocks and ranges cross their borders
+    final CurrentTraceFromFile segmented = new CurrentTraceFromFile(file, 5);
+    assertEquals(single.getLastTime(), segmented.getLastTime());
+
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (int t = 0; t < 8; ++t) {
+        final long seed = t;
+        results.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            Random random = new Random(seed);
+            for (int n = 0; n < 2000; ++n) {
+              long start = START + (long) (random.nextDouble() * values.length * PERIOD);
+              long end = start + random.nextInt(100000);
+              assertEquals(single.interpolationAt(start), segmented.interpolationAt(start));
+              assertEquals(single.averageIn(start, end), segmented.averageIn(start, end));
+              assertEquals(single.integralIn(start, end), segmented.integralIn(start, end));
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> result : results)
+        result.get();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testJitterAndGaps() throws Exception {
+    // samples with jitter, a gap of 2000 periods and a burst of samples right after each other
+    File jittered = new File(dir, "6");
+    Random random = new Random(3);
+    NavigableMap<Long, Double> map = new TreeMap<Long, Double>();
+    CurrentTraceWriter writer = new CurrentTraceWriter(jittered, PERIOD);
+    long time = START;
+    for (int i = 0; i < 50000; ++i) {
+      time += i == 20000 ? 2000 * PERIOD : i > 30000 && i < 30010 ? 1 : PERIOD - 10 + random.nextInt(21);
+      double value = random.nextDouble();
+      writer.append(time, value);
+      map.put(time, value);
+    }
+    writer.close();
+    CurrentTraceFromFile trace = new CurrentTraceFromFile(jittered);
+    MapCurrentTrace expected = new MapCurrentTrace(6, map);
+
+    for (int n = 0; n < 5000; ++n) {
+      long t = START - 1000 + (long) (random.nextDouble() * (time - START + 2000));
+      long end = t + random.nextInt(10000);
+      // times of samples as well, MapCurrentTrace can't interpolate at them
+      if (n % 3 == 0)
+        t = map.ceilingKey(Math.min(t, time));
+      assertEquals(map.containsKey(t) ? map.get(t) : expected.interpolationAt(t), trace.interpolationAt(t));
+      Double average = expected.averageIn(t, end);
+      if (average == null)
+        assertNull(trace.averageIn(t, end));
+      else
+        assertEquals(average, trace.averageIn(t, end), 1e-12);
+    }
+  }
+
+  @Test
+  public void testSidecarReused() throws Exception {
+    new CurrentTraceFromFile(file);
+    File pyramid = CurrentPyramid.pyramidFileOf(file);
+    assertTrue(pyramid.isFile());
+    long built = pyramid.lastModified();
+    pyramid.setLastModified(built - 10000);
+    new CurrentTraceFromFile(file);
+    assertEquals(built - 10000, pyramid.lastModified());
+
+    // rebuilt for the appended samples
+    CurrentTraceWriter writer = CurrentTraceWriter.append(file);
+    writer.append(START + values.length * PERIOD, 100);
+    writer.close();
+    CurrentTraceFromFile trace = new CurrentTraceFromFile(file);
+    double max = 0;
+    SampleIterator<Double> samples = trace.getMeasurementsCovering(START, START + values.length * PERIOD, 1000 * PERIOD);
+    while (samples.next())
+      max = Math.max(max, samples.value());
+    assertEquals(100, max, 0);
+  }
+}
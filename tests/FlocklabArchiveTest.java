@@ -0,0 +1,77 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class FlocklabArchiveTest {
+  private static final String GPIO_TRACE =
+      "# timestamp,observer_id,node_id,pin_name,value\n" +
+      "100.0,13,LED2,1\n" +
+      "101.0,13,LED2,0\n";
+  private static final String SERIAL_OUTPUT =
+      "# timestamp,observer_id,node_id,direction,output\n" +
+      "100.5,13,r,hello\n";
+
+  private File archive;
+
+  @Before
+  public void setUp() throws IOException {
+    archive = File.createTempFile("results", ".tar.gz");
+    OutputStream out = new GZIPOutputStream(new FileOutputStream(archive));
+    writeEntry(out, "12345/", '5', new byte[0]);
+    writeEntry(out, "12345/serial.csv", '0', SERIAL_OUTPUT.getBytes("UTF-8"));
+    // gnu long name entry followed by the file it names
+    String longName = "12345/" + new String(new char[120]).replace('\0', 'x') + "/gpiotraces.csv";
+    writeEntry(out, "././@LongLink", 'L', (longName + "\0").getBytes("UTF-8"));
+    writeEntry(out, longName.substring(0, 99), '0', GPIO_TRACE.getBytes("UTF-8"));
+    out.write(new byte[1024]);
+    out.close();
+  }
+
+  @After
+  public void tearDown() {
+    archive.delete();
+  }
+
+  private static void writeEntry(OutputStream out, String name, char type, byte[] content) throws IOException {
+    byte[] header = new byte[512];
+    byte[] nameBytes = name.getBytes("UTF-8");
+    System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+    byte[] size = String.format("%011o", content.length).getBytes("UTF-8");
+    System.arraycopy(size, 0, header, 124, size.length);
+    header[156] = (byte) type;
+    System.arraycopy("ustar".getBytes("UTF-8"), 0, header, 257, 5);
+    out.write(header);
+    out.write(content);
+    out.write(new byte[(512 - content.length % 512) % 512]);
+  }
+
+  @Test
+  public void testLoadFromArchive() throws Exception {
+    FlocklabArchive measurements = new FlocklabArchive(archive);
+    assertTrue(FlocklabArchive.isArchive(archive));
+    assertNull(measurements.getGpioTraceFile());
+
+    GpioLoader gpioLoader = new GpioLoader();
+    InputStream gpioTrace = measurements.openGpioTrace();
+    gpioLoader.load(gpioTrace, new ForkJoinPool(2));
+    gpioTrace.close();
+    NavigableMap<Long, Boolean> led2 = gpioLoader.getEvents().get(13).get("LED2");
+    assertEquals(Arrays.asList(10000000000L, 10100000000L), Arrays.asList(led2.keySet().toArray()));
+    assertEquals(Arrays.asList(true, false), Arrays.asList(led2.values().toArray()));
+
+    SerialLoader serialLoader = new SerialLoader();
+    InputStream serialOutput = measurements.openSerialOutput();
+    serialLoader.load(serialOutput, new ForkJoinPool(2));
+    serialOutput.close();
+    assertEquals(1, serialLoader.getEvents().length);
+    assertEquals(10050000000L, serialLoader.getStartTime());
+  }
+}
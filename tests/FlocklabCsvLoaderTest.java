@@ -0,0 +1,198 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class FlocklabCsvLoaderTest {
+  private static class RecordingLoader extends FlocklabCsvLoader {
+    final List<Long> times = new ArrayList<Long>();
+    final List<Integer> observers = new ArrayList<Integer>();
+    final List<String> rests = new ArrayList<String>();
+
+    RecordingLoader(Reader reader) {
+      super(reader);
+    }
+
+    @Override
+    protected void processRow(long time, int observerID, ByteBuffer row, int restStart, int restEnd) {
+      times.add(time);
+      observers.add(observerID);
+      rests.add(CsvFields.decode(row, restStart, restEnd));
+    }
+
+    @Override
+    protected FlocklabCsvLoader newChunkLoader() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void mergeChunks(List<FlocklabCsvLoader> chunks) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void writeCacheColumns(FlocklabCache.Writer out) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected boolean readCacheColumns(FlocklabCache.Reader in) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Counts the rows, also of a stream loaded in parallel chunks.
+   */
+  private static class CountingLoader extends FlocklabCsvLoader {
+    long rows;
+
+    @Override
+    protected void processRow(long time, int observerID, ByteBuffer row, int restStart, int restEnd) {
+      ++rows;
+    }
+
+    @Override
+    protected FlocklabCsvLoader newChunkLoader() {
+      return new CountingLoader();
+    }
+
+    @Override
+    protected void mergeChunks(List<FlocklabCsvLoader> chunks) {
+      for (FlocklabCsvLoader chunk : chunks)
+        rows += ((CountingLoader) chunk).rows;
+    }
+
+    @Override
+    protected void writeCacheColumns(FlocklabCache.Writer out) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected boolean readCacheColumns(FlocklabCache.Reader in) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Repeats a row up to a size and tracks the arrays it is read into, i.e. the blocks buffered by the loader.
+   */
+  private static class RowStream extends InputStream {
+    private final byte[] row;
+    private final long size;
+    private long position;
+    private final List<WeakReference<byte[]>> blocks = new ArrayList<WeakReference<byte[]>>();
+    int maxBufferedBlocks;
+
+    RowStream(String row, long size) throws Exception {
+      this.row = row.getBytes("UTF-8");
+      this.size = size;
+    }
+
+    @Override
+    public int read() {
+      return position < size ? row[(int) (position++ % row.length)] : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (position == size)
+        return -1;
+      if (blocks.isEmpty() || blocks.get(blocks.size() - 1).get() != b) {
+        blocks.add(new WeakReference<byte[]>(b));
+        System.gc();
+        int buffered = 0;
+        for (WeakReference<byte[]> block : blocks) {
+          if (block.get() != null)
+            ++buffered;
+        }
+        maxBufferedBlocks = Math.max(maxBufferedBlocks, buffered);
+      }
+      int n = (int) Math.min(len, size - position);
+      for (int i = 0; i < n; ++i)
+        b[off + i] = row[(int) (position++ % row.length)];
+      return n;
+    }
+  }
+
+  @Test
+  public void testStreamBuffersBoundedBlocks() throws Exception {
+    String row = "1.5,1,LED1,1\n";
+    // 17 blocks of 8 MB
+    RowStream in = new RowStream(row, 10L * row.length() << 20);
+    CountingLoader loader = new CountingLoader();
+    ForkJoinPool pool = new ForkJoinPool(2);
+    loader.load(in, pool);
+    pool.shutdown();
+
+    assertEquals(10L << 20, loader.rows);
+    // two blocks per worker, the block being read and the one carried over
+    assertTrue(in.maxBufferedBlocks + " blocks buffered", in.maxBufferedBlocks <= 2 * 2 + 2);
+  }
+
+  @Test
+  public void testTimestampsAndFields() throws Exception {
+    RecordingLoader loader = new RecordingLoader(new StringReader(
+        "# timestamp,observer_id,pin_name,value\r\n" +
+        "1234567999.11145678,13,LED2,0\r\n" +
+        "\n" +
+        "123.45678,   13,r,some, text\n" +
+        "123.456789123, 7 ,x\n" +
+        "1234567890,11,INT1,1"));
+    loader.load();
+
+    assertEquals(Arrays.asList(123456799911145678L, 12345678000L, 12345678912L, 123456789L), loader.times);
+    assertEquals(Arrays.asList(13, 13, 7, 11), loader.observers);
+    assertEquals(Arrays.asList("LED2,0", "r,some, text", "x", "INT1,1"), loader.rests);
+    assertEquals(123456789L, loader.getStartTime());
+    assertEquals(123456799911145678L, loader.getEndTime());
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testIllegalTimestamp() throws Exception {
+    new RecordingLoader(new StringReader("12a.5,13,LED2,0\n")).load();
+  }
+
+  @Test
+  public void testLoadAppended() throws Exception {
+    File file = File.createTempFile("gpiotracing", ".csv");
+    file.deleteOnExit();
+    append(file, "1.0,1,LED1,1\n2.0,1,LED1,0\n3.0,2,LED2,1");
+
+    GpioLoader loader = new GpioLoader(file);
+    loader.load();
+    assertEquals(2, loader.getEvents().get(1).get("LED1").size());
+    // the last row might still be written, it is loaded again once it is terminated
+    assertEquals(file.length() - "3.0,2,LED2,1".length(), loader.getLoadedSize());
+    assertNull(loader.loadAppended(loader.getLoadedSize()));
+
+    append(file, "\n4.0,1,LED1,1\n5.0,");
+    FlocklabCsvLoader chunk = loader.loadAppended(loader.getLoadedSize());
+    assertNotNull(chunk);
+    loader.appendChunk(chunk);
+    assertEquals(3, loader.getEvents().get(1).get("LED1").size());
+    assertEquals(Boolean.TRUE, loader.getEvents().get(2).get("LED2").get(300000000L));
+    assertEquals(400000000L, loader.getEndTime());
+    assertEquals(file.length() - "5.0,".length(), loader.getLoadedSize());
+  }
+
+  private static void append(File file, String rows) throws Exception {
+    FileOutputStream out = new FileOutputStream(file, true);
+    try {
+      out.write(rows.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+  }
+}
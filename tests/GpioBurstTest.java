@@ -0,0 +1,194 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class GpioBurstTest {
+  private static final GpioBurstPolicy POLICY = new GpioBurstPolicy(4, 10);
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = CsvFixture.createFile("gpiotracing");
+  }
+
+  @After
+  public void tearDown() {
+    CsvFixture.delete(file);
+  }
+
+  /**
+   * LED1 of node 1: a slow edge, a burst of 100 edges one unit apart and a slow edge; LED2 toggles slowly.
+   */
+  private static String burstRows() {
+    StringBuilder rows = new StringBuilder();
+    rows.append(CsvFixture.gpioRow(0, 1, "LED1", true));
+    for (int i = 0; i < 100; ++i) {
+      rows.append(CsvFixture.gpioRow(100 + i, 1, "LED1", i % 2 == 1));
+      rows.append(CsvFixture.gpioRow(100 + 20 * i, 1, "LED2", i % 2 == 0));
+    }
+    rows.append(CsvFixture.gpioRow(1000, 1, "LED1", false));
+    return rows.toString();
+  }
+
+  private static long highTime(NavigableMap<Long, Boolean> edges) {
+    long high = 0;
+    Map.Entry<Long, Boolean> previous = null;
+    for (Map.Entry<Long, Boolean> edge : edges.entrySet()) {
+      if (previous != null && previous.getValue())
+        high += edge.getKey() - previous.getKey();
+      previous = edge;
+    }
+    return high;
+  }
+
+  @Test
+  public void testBurstCollapsed() throws Exception {
+    GpioLoader loader = new GpioLoader(new StringReader(burstRows()));
+    loader.setBurstPolicy("LED1", POLICY);
+    loader.load();
+
+    NavigableMap<Long, Boolean> expectedEvents = new TreeMap<Long, Boolean>();
+    expectedEvents.put(0L, true);
+    expectedEvents.put(199L, true);
+    expectedEvents.put(1000L, false);
+    assertEquals(expectedEvents, loader.getEvents().get(1).get("LED1"));
+    assertEquals(100, loader.getEvents().get(1).get("LED2").size());
+
+    NavigableMap<Long, GpioBurst> bursts = loader.getBursts(1, "LED1");
+    assertEquals(1, bursts.size());
+    GpioBurst burst = bursts.firstEntry().getValue();
+    assertEquals(100, burst.getStartTime());
+    assertEquals(199, burst.getEndTime());
+    assertEquals(100, burst.getEdgeCount());
+    assertEquals(49, burst.getHighTime());
+    assertTrue(loader.getBursts(1, "LED2").isEmpty());
+  }
+
+  @Test
+  public void testStatisticsExactWithChunks() throws Exception {
+    // many bursts of random length across several chunks
+    Random random = new Random(7);
+    StringBuilder rows = new StringBuilder();
+    long time = 0;
+    long nRows = 0;
+    while (rows.length() < 4 << 20) {
+      int n = random.nextInt(50);
+      long step = random.nextBoolean() ? 1 : 30;
+      for (int i = 0; i < n; ++i, ++nRows) {
+        time += step;
+        rows.append(CsvFixture.gpioRow(time, 3, "INT1", random.nextBoolean()));
+      }
+    }
+    CsvFixture.write(file, rows.toString());
+
+    GpioLoader raw = new GpioLoader(file);
+    raw.load(ForkJoinPool.commonPool(), 4);
+    NavigableMap<Long, Boolean> rawEdges = raw.getEvents().get(3).get("INT1");
+    assertEquals(nRows, rawEdges.size());
+
+    GpioLoader loader = new GpioLoader(file);
+    loader.setBurstPolicy(null, POLICY);
+    loader.load(ForkJoinPool.commonPool(), 4);
+    NavigableMap<Long, Boolean> events = loader.getEvents().get(3).get("INT1");
+    NavigableMap<Long, GpioBurst> bursts = loader.getBursts(3, "INT1");
+    assertFalse(bursts.isEmpty());
+    assertTrue(events.size() < nRows / 2);
+
+    // the last edge of a burst is an event as well
+    long edges = events.size();
+    for (GpioBurst burst : bursts.values()) {
+      edges += burst.getEdgeCount() - 1;
+      NavigableMap<Long, Boolean> burstEdges =
+          rawEdges.subMap(burst.getStartTime(), true, burst.getEndTime(), true);
+      assertEquals(burstEdges.size(), burst.getEdgeCount());
+      assertEquals(highTime(burstEdges), burst.getHighTime());
+      assertEquals(burstEdges.lastEntry().getValue(), events.get(burst.getEndTime()));
+      assertTrue(events.subMap(burst.getStartTime(), true, burst.getEndTime(), false).isEmpty());
+    }
+    assertEquals(nRows, edges);
+
+    GpioBurst someBurst = bursts.get(bursts.lastKey());
+    assertEquals(rawEdges.subMap(someBurst.getStartTime(), true, someBurst.getEndTime(), true),
+                 GpioLoader.toNavigableMap(loader.loadBurstEdges(3, "INT1", someBurst)));
+  }
+
+  private static void assertSameTraces(GpioLoader expected, GpioLoader loader) {
+    assertEquals(expected.getTraces().keySet(), loader.getTraces().keySet());
+    for (Map.Entry<Integer, Map<String, GpioTrace>> node : expected.getTraces().entrySet()) {
+      assertEquals(node.getValue().keySet(), loader.getTraces().get(node.getKey()).keySet());
+      for (Map.Entry<String, GpioTrace> pin : node.getValue().entrySet()) {
+        GpioTrace trace = loader.getTraces().get(node.getKey()).get(pin.getKey());
+        assertEquals(pin.getValue().size(), trace.size());
+        for (int i = 0; i < trace.size(); ++i) {
+          assertEquals(pin.getValue().getTime(i), trace.getTime(i));
+          assertEquals(pin.getValue().getLevel(i), trace.getLevel(i));
+        }
+        assertEquals(expected.getBursts(node.getKey(), pin.getKey()), loader.getBursts(node.getKey(), pin.getKey()));
+      }
+    }
+  }
+
+  @Test
+  public void testParallelSameAsSequential() throws Exception {
+    // short bursts, a long one across the chunk boundaries in the middle of the file and short ones again
+    Random random = new Random(11);
+    StringBuilder rows = new StringBuilder();
+    long time = 0;
+    while (rows.length() < 6 << 20) {
+      boolean middle = rows.length() > 1 << 20 && rows.length() < 5 << 20;
+      int n = middle ? 1000 : random.nextInt(50);
+      long step = middle || random.nextBoolean() ? 1 : 30;
+      for (int i = 0; i < n; ++i) {
+        time += step;
+        rows.append(CsvFixture.gpioRow(time, 3, "INT1", random.nextBoolean()));
+        if (i % 7 == 0)
+          rows.append(CsvFixture.gpioRow(time, 3, "LED1", i % 2 == 0));
+      }
+    }
+    CsvFixture.write(file, rows.toString());
+
+    GpioLoader sequential = new GpioLoader(file);
+    sequential.setBurstPolicy(null, POLICY);
+    sequential.load();
+    assertFalse(sequential.getBursts(3, "INT1").isEmpty());
+    for (int nChunks = 2; nChunks <= 6; ++nChunks) {
+      GpioLoader parallel = new GpioLoader(file);
+      parallel.setBurstPolicy(null, POLICY);
+      parallel.load(ForkJoinPool.commonPool(), nChunks);
+      assertSameTraces(sequential, parallel);
+    }
+
+    // a chunk used on its own, e.g. a block of the windowed traces
+    GpioLoader range = (GpioLoader) sequential.loadRange(0, file.length());
+    assertSameTraces(sequential, range);
+  }
+
+  @Test
+  public void testCache() throws Exception {
+    CsvFixture.write(file, burstRows());
+    File cacheFile = FlocklabCache.cacheFileOf(file);
+    GpioLoader loader = new GpioLoader(file);
+    loader.setBurstPolicy("LED1", POLICY);
+    loader.load();
+    loader.writeCache(cacheFile);
+
+    GpioLoader cached = new GpioLoader(file);
+    cached.setBurstPolicy("LED1", POLICY);
+    assertTrue(cached.loadCache(cacheFile));
+    assertEquals(loader.getEvents(), cached.getEvents());
+    assertEquals(loader.getBursts(1, "LED1"), cached.getBursts(1, "LED1"));
+    assertEquals(100, cached.loadBurstEdges(1, "LED1", cached.getBursts(1, "LED1").firstEntry().getValue()).size());
+
+    // the bursts depend on the policy
+    GpioLoader otherPolicy = new GpioLoader(file);
+    assertFalse(otherPolicy.loadCache(cacheFile));
+  }
+}
@@ -0,0 +1,128 @@
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GpioIntervalsTest {
+  private static ArrayGpioTrace trace(GpioEventBuffer events) {
+    events.sort();
+    return new ArrayGpioTrace(events, 1, GpioPins.id("LED2"));
+  }
+
+  /**
+   * @return high time in [start, end] by walking the edges, low before the first one
+   */
+  private static long highTime(GpioTrace trace, long start, long end) {
+    long high = 0;
+    for (long t = start; t < end; ++t) {
+      int i = trace.floorIndex(t);
+      if (i >= 0 && trace.getLevel(i))
+        ++high;
+    }
+    return high;
+  }
+
+  @Test
+  public void testSameAsEdgeWalk() {
+    Random random = new Random(1);
+    GpioEventBuffer events = new GpioEventBuffer();
+    long time = 100;
+    for (int i = 0; i < 300; ++i) {
+      time += 1 + random.nextInt(20);
+      // repeated levels are merged into one run
+      events.add(time, random.nextInt(3) == 0);
+    }
+    ArrayGpioTrace trace = trace(events);
+    GpioIntervals intervals = new GpioIntervals(trace);
+
+    for (int n = 0; n < 500; ++n) {
+      long start = random.nextInt(4000);
+      long end = start + random.nextInt(1000);
+      assertEquals(highTime(trace, start, end), intervals.getHighTime(start, end));
+      int edges = 0;
+      for (int i = Math.max(1, trace.higherIndex(start)); i <= trace.floorIndex(end); ++i) {
+        if (trace.getLevel(i) != trace.getLevel(i - 1))
+          ++edges;
+      }
+      assertEquals(edges, intervals.getEdgeCount(start, end));
+
+      int run = intervals.runIndex(start);
+      int i = trace.floorIndex(start);
+      assertEquals(i < 0, run < 0);
+      if (i >= 0) {
+        assertEquals(trace.getLevel(i), intervals.getRunLevel(run));
+        assertTrue(intervals.getRunStart(run) <= start && start < intervals.getRunEnd(run));
+      }
+    }
+  }
+
+  @Test
+  public void testUpdate() {
+    GpioEventBuffer events = new GpioEventBuffer();
+    events.add(10, true);
+    events.add(20, true);
+    events.add(30, false);
+    ArrayGpioTrace trace = trace(events);
+    GpioIntervals intervals = new GpioIntervals(trace);
+    assertEquals(2, intervals.getRunCount());
+    assertEquals(20, intervals.getHighTime(0, 40));
+    assertEquals(0.5, intervals.getDutyCycle(0, 40), 1e-9);
+
+    events.add(40, true);
+    trace(events);
+    intervals.update();
+    assertEquals(3, intervals.getRunCount());
+    assertEquals(25, intervals.getHighTime(0, 45));
+    assertEquals(2, intervals.getEdgeCount(10, 40));
+
+    // an event sorted before indexed ones rebuilds the index, the glitch at 30 counts as two edges
+    events.add(30, true);
+    events.sort();
+    intervals.update();
+    assertEquals(3, intervals.getRunCount());
+    assertEquals(35, intervals.getHighTime(0, 45));
+    assertEquals(2, intervals.getEdgeCount(20, 30));
+  }
+
+  @Test
+  public void testBursts() throws Exception {
+    // a slow edge, a burst of 100 alternating edges one unit apart and a slow edge
+    StringBuilder rows = new StringBuilder();
+    rows.append("0.00000000,1,LED1,1\n");
+    for (int i = 0; i < 100; ++i)
+      rows.append(String.format("0.%08d,1,LED1,%d\n", 100 + i, i % 2));
+    rows.append("0.00001000,1,LED1,0\n");
+    GpioLoader raw = new GpioLoader(new StringReader(rows.toString()));
+    raw.load();
+    GpioIntervals expected = new GpioIntervals(raw.getTraces().get(1).get("LED1"));
+    GpioLoader collapsed = new GpioLoader(new StringReader(rows.toString()));
+    collapsed.setBurstPolicy(null, new GpioBurstPolicy(4, 10));
+    collapsed.load();
+    GpioIntervals intervals = new GpioIntervals(collapsed.getTraces().get(1).get("LED1"));
+    assertEquals(1, collapsed.getBursts(1, "LED1").size());
+
+    // without the bursts the level before the burst is assumed up to its last edge
+    assertEquals(1000, intervals.getHighTime(0, 2000));
+    assertEquals(1, intervals.getEdgeCount(0, 2000));
+
+    intervals.setBursts(collapsed.getBursts(1, "LED1"));
+    assertEquals(950, expected.getHighTime(0, 2000));
+    assertEquals(101, expected.getEdgeCount(0, 2000));
+    // ranges covering the burst are exact
+    long[][] covering = {{0, 2000}, {100, 199}, {50, 500}, {99, 1000}};
+    for (long[] range : covering) {
+      assertEquals(expected.getHighTime(range[0], range[1]), intervals.getHighTime(range[0], range[1]));
+      assertEquals(expected.getEdgeCount(range[0], range[1]), intervals.getEdgeCount(range[0], range[1]));
+    }
+    // parts of the burst are pro-rated
+    long[][] partial = {{150, 2000}, {0, 150}, {120, 180}};
+    for (long[] range : partial) {
+      assertEquals(expected.getHighTime(range[0], range[1]), intervals.getHighTime(range[0], range[1]), 1);
+      assertEquals(expected.getEdgeCount(range[0], range[1]), intervals.getEdgeCount(range[0], range[1]), 1);
+    }
+    assertEquals(0, intervals.getHighTime(1000, 2000));
+    assertEquals(0, intervals.getEdgeCount(1000, 2000));
+  }
+}
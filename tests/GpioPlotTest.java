@@ -0,0 +1,79 @@
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+public class GpioPlotTest {
+  private static final int WIDTH = 10;
+  private static final int BACKGROUND = Color.WHITE.getRGB();
+
+  private static GpioPlot plot(GpioEventBuffer events) {
+    events.sort();
+    GpioTrace trace = new ArrayGpioTrace(events, 1, GpioPins.id("LED1"));
+    GpioPlot plot = new GpioPlot(trace, "LED1", new BoundedTimeValue(0, 1000, 0), new ObservableValue<String>(""));
+    plot.setSize(WIDTH, plot.getHeight());
+    return plot;
+  }
+
+  /**
+   * @return the columns of the plot painted from time 0 on, a time of 10 per pixel column
+   */
+  private static BufferedImage paintColumns(GpioPlot plot) {
+    BufferedImage image = new BufferedImage(WIDTH, plot.getHeight(), BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, image.getWidth(), image.getHeight());
+    plot.paintColumns(g, 10);
+    g.dispose();
+    return image;
+  }
+
+  private static void assertFullHeight(BufferedImage image, int x) {
+    for (int y = 0; y < image.getHeight(); ++y)
+      assertTrue("column " + x + " not painted at " + y, image.getRGB(x, y) != BACKGROUND);
+  }
+
+  @Test
+  public void testColumnExtents() {
+    GpioEventBuffer events = new GpioEventBuffer();
+    events.add(0, true);
+    // several edges in column 2, a single one in column 6
+    events.add(23, false);
+    events.add(25, true);
+    events.add(27, false);
+    events.add(65, true);
+    GpioPlot plot = plot(events);
+    BufferedImage image = paintColumns(plot);
+    int bottom = image.getHeight() - 1;
+    int middle = image.getHeight() / 2;
+
+    // columns with both levels are drawn over the full height
+    assertFullHeight(image, 2);
+    assertFullHeight(image, 6);
+
+    // columns of one level only draw its line, high columns with the interior below it
+    assertEquals(plot.highColor.getRGB(), image.getRGB(0, 0));
+    assertEquals(plot.interiorColor.getRGB(), image.getRGB(0, middle));
+    assertEquals(plot.interiorColor.getRGB(), image.getRGB(0, bottom));
+    assertEquals(BACKGROUND, image.getRGB(4, 0));
+    assertEquals(BACKGROUND, image.getRGB(4, middle));
+    assertEquals(plot.lowColor.getRGB(), image.getRGB(4, bottom));
+    assertEquals(plot.highColor.getRGB(), image.getRGB(8, 0));
+    assertEquals(plot.interiorColor.getRGB(), image.getRGB(8, middle));
+  }
+
+  @Test
+  public void testGlitchColumn() {
+    GpioEventBuffer events = new GpioEventBuffer();
+    events.add(0, false);
+    // a pulse too short to have a duration still shows up as activity
+    events.add(43, true);
+    events.add(43, false);
+    BufferedImage image = paintColumns(plot(events));
+
+    assertFullHeight(image, 4);
+    assertEquals(BACKGROUND, image.getRGB(7, image.getHeight() / 2));
+  }
+}
@@ -0,0 +1,76 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class MeasurementLoaderTest {
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = File.createTempFile("results", "");
+    dir.delete();
+    dir.mkdir();
+    write(LoaderRegistry.SERIAL,
+        "# timestamp,observer_id,node_id,direction,output\n" +
+        "100.0,13,r,hello\n" +
+        "105.0,11,r,world\n");
+    write(LoaderRegistry.GPIO_TRACING,
+        "# timestamp,observer_id,node_id,pin_name,value\n" +
+        "99.0,13,LED2,1\n" +
+        "101.0,13,LED2,0\n");
+  }
+
+  @After
+  public void tearDown() {
+    for (File file : dir.listFiles())
+      file.delete();
+    dir.delete();
+  }
+
+  private void write(String name, String content) throws IOException {
+    OutputStream out = new FileOutputStream(new File(dir, name));
+    out.write(content.getBytes("UTF-8"));
+    out.close();
+  }
+
+  @Test
+  public void testLoadAll() throws Exception {
+    LoadProgress progress = new LoadProgress();
+    MeasurementLoader loader = new MeasurementLoader(dir, LoaderRegistry.createDefault(), progress);
+    final List<String> loaded = Collections.synchronizedList(new ArrayList<String>());
+    loader.addListener(new MeasurementLoader.Listener() {
+      @Override
+      public void fileLoaded(String fileName, FlocklabCsvParser loader) {
+        loaded.add(fileName);
+      }
+
+      @Override
+      public void timeRangeChanged(long startTime, long endTime) {
+      }
+    });
+    loader.start();
+    loader.awaitTermination();
+
+    Map<String, Future<FlocklabCsvParser>> futures = loader.getFutures();
+    assertEquals(new HashSet<String>(Arrays.asList(LoaderRegistry.SERIAL, LoaderRegistry.GPIO_TRACING)), futures.keySet());
+    assertEquals(futures.keySet(), new HashSet<String>(loaded));
+    assertEquals(2, ((SerialLoader) futures.get(LoaderRegistry.SERIAL).get()).getEvents().length);
+    assertEquals(2, ((GpioLoader) futures.get(LoaderRegistry.GPIO_TRACING).get()).getEvents().get(13).get("LED2").size());
+    assertEquals(9900000000L, loader.getStartTime());
+    assertEquals(10500000000L, loader.getEndTime());
+
+    long fileBytes = new File(dir, LoaderRegistry.SERIAL).length() + new File(dir, LoaderRegistry.GPIO_TRACING).length();
+    assertEquals(fileBytes, progress.getTotalBytes());
+    assertEquals(fileBytes, progress.getBytes());
+    assertTrue(loader.getFileProgress().get(LoaderRegistry.SERIAL).isFinished());
+  }
+}
@@ -0,0 +1,102 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class NodeRowIndexTest {
+  private static final String CSV =
+      "# timestamp,observer_id,node_id,pin_name,value\n" +
+      "100.0,13,LED2,1\n" +
+      "100.5,11,INT1,1\n" +
+      "101.0,13,LED2,0\r\n" +
+      "102.0,11,INT1,0\n" +
+      "103.0,13,LED3,1";
+
+  private File csv;
+  private File index;
+
+  @Before
+  public void setUp() throws IOException {
+    csv = File.createTempFile("gpiotraces", ".csv");
+    index = NodeRowIndex.indexFileOf(csv);
+    OutputStream out = new FileOutputStream(csv);
+    out.write(CSV.getBytes("UTF-8"));
+    out.close();
+  }
+
+  @After
+  public void tearDown() {
+    csv.delete();
+    index.delete();
+  }
+
+  @Test
+  public void testRowOffsets() throws Exception {
+    NodeRowIndex nodeIndex = new NodeRowIndex(csv);
+    nodeIndex.load();
+
+    assertEquals(new TreeSet<Integer>(Arrays.asList(11, 13)), nodeIndex.getNodeIds());
+    assertEquals(3, nodeIndex.getRowCount(13));
+    assertArrayEquals(new long[]{CSV.indexOf("100.5"), CSV.indexOf("102.0")}, nodeIndex.getRowOffsets(11));
+    assertEquals(0, nodeIndex.getRowOffsets(12).length);
+    assertEquals(10000000000L, nodeIndex.getStartTime());
+    assertEquals(10300000000L, nodeIndex.getEndTime());
+  }
+
+  @Test
+  public void testLoadNode() throws Exception {
+    NodeRowIndex nodeIndex = new NodeRowIndex(csv);
+    nodeIndex.load();
+
+    GpioLoader node = new GpioLoader(csv);
+    node.loadRows(nodeIndex.getRowOffsets(13));
+
+    assertEquals(Collections.singleton(13), node.getEvents().keySet());
+    Map<String, NavigableMap<Long, Boolean>> traces = node.getEvents().get(13);
+    assertEquals(Arrays.asList(10000000000L, 10100000000L), new ArrayList<Long>(traces.get("LED2").keySet()));
+    assertEquals(Arrays.asList(true, false), new ArrayList<Boolean>(traces.get("LED2").values()));
+    assertEquals(Collections.singleton(10300000000L), traces.get("LED3").keySet());
+  }
+
+  @Test
+  public void testAddNodes() throws Exception {
+    NodeRowIndex nodeIndex = new NodeRowIndex(csv);
+    nodeIndex.load();
+    GpioLoader all = new GpioLoader(csv);
+    all.load();
+
+    GpioLoader combined = new GpioLoader(csv);
+    for (int id : nodeIndex.getNodeIds()) {
+      GpioLoader node = new GpioLoader(csv);
+      node.loadRows(nodeIndex.getRowOffsets(id));
+      combined.addNodes(node);
+    }
+    assertEquals(all.getEvents(), combined.getEvents());
+    assertEquals(all.getStartTime(), combined.getStartTime());
+    assertEquals(all.getEndTime(), combined.getEndTime());
+  }
+
+  @Test
+  public void testParallelAndCached() throws Exception {
+    NodeRowIndex sequential = new NodeRowIndex(csv);
+    sequential.load();
+    NodeRowIndex parallel = new NodeRowIndex(csv);
+    parallel.load(new ForkJoinPool(2), 3);
+    parallel.writeCache(index);
+    NodeRowIndex cached = new NodeRowIndex(csv);
+    assertTrue(cached.loadCache(index));
+
+    for (int id : sequential.getNodeIds()) {
+      assertArrayEquals(sequential.getRowOffsets(id), parallel.getRowOffsets(id));
+      assertArrayEquals(sequential.getRowOffsets(id), cached.getRowOffsets(id));
+    }
+  }
+}
@@ -0,0 +1,96 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.SortedMap;
+
+import static org.junit.Assert.*;
+
+public class PowerProfilingConverterTest {
+  private static final String CSV =
+      "# timestamp,observer_id,node_id,value_mA\n" +
+      "100.0,13,1,1.5\n" +
+      "100.0,11,2,-0.25\n" +
+      "100.00001,13,1,2.5\n" +
+      "100.00001,11,2,0.125\r\n" +
+      "100.00002,13,1,1e-3";
+
+  private File csv;
+  private File outputDir;
+
+  @Before
+  public void setUp() throws IOException {
+    csv = File.createTempFile("powerprofiling", ".csv");
+    outputDir = new File(csv.getPath() + ".traces");
+    OutputStream out = new FileOutputStream(csv);
+    out.write(CSV.getBytes("UTF-8"));
+    out.close();
+  }
+
+  @After
+  public void tearDown() {
+    File[] traces = outputDir.listFiles();
+    if (traces != null) {
+      for (File trace : traces)
+        trace.delete();
+    }
+    outputDir.delete();
+    csv.delete();
+  }
+
+  @Test
+  public void testConvert() throws Exception {
+    SortedMap<Integer, File> traces = new PowerProfilingConverter(csv, outputDir, 0).convert();
+    assertEquals(2, traces.size());
+
+    CurrentTraceFromFile trace = new CurrentTraceFromFile(traces.get(13));
+    assertEquals(13, trace.getMoteId());
+    assertEquals(Long.valueOf(10000000000L), trace.getFirstTime());
+    assertEquals(Long.valueOf(10000002000L), trace.getLastTime());
+    assertEquals(2.5, trace.interpolationAt(10000001000L), 0);
+    assertEquals(2.0, trace.interpolationAt(10000000500L), 1e-12);
+    assertEquals((1.5 + 2.5 + 1e-3) / 3, trace.averageIn(0, Long.MAX_VALUE), 1e-12);
+
+    trace = new CurrentTraceFromFile(traces.get(11));
+    assertEquals(-0.25, trace.interpolationAt(10000000000L), 0);
+    assertEquals(0.125, trace.interpolationAt(10000001000L), 0);
+  }
+
+  @Test
+  public void testAppend() throws Exception {
+    File file = new File(outputDir, "7");
+    outputDir.mkdirs();
+    CurrentTraceWriter writer = new CurrentTraceWriter(file, 100);
+    writer.append(1000, 1);
+    writer.append(1100, 2);
+    writer.flush();
+    // readable while it is still written
+    assertEquals(Long.valueOf(1100), new CurrentTraceFromFile(file).getLastTime());
+    writer.close();
+
+    writer = CurrentTraceWriter.append(file);
+    assertEquals(2, writer.getSampleCount());
+    writer.append(1200, 3);
+    writer.close();
+    CurrentTraceFromFile trace = new CurrentTraceFromFile(file);
+    assertEquals(Long.valueOf(1000), trace.getFirstTime());
+    assertEquals(Long.valueOf(1200), trace.getLastTime());
+    assertEquals(2.5, trace.interpolationAt(1150), 1e-12);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnorderedSamples() throws Exception {
+    outputDir.mkdirs();
+    CurrentTraceWriter writer = new CurrentTraceWriter(new File(outputDir, "7"), 100);
+    try {
+      writer.append(1000, 1);
+      writer.append(900, 2);
+    } finally {
+      writer.close();
+    }
+  }
+}
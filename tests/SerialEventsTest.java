@@ -0,0 +1,129 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class SerialEventsTest {
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = CsvFixture.createFile("serial");
+  }
+
+  @After
+  public void tearDown() {
+    CsvFixture.delete(file);
+  }
+
+  /**
+   * Lines of three nodes, every tenth one late; the outputs contain commas and non ASCII characters.
+   */
+  private static String rows(int nRows) {
+    StringBuilder rows = new StringBuilder();
+    for (int i = 0; i < nRows; ++i) {
+      long time = 100000 + (i % 10 == 9 ? 1000L * i - 25000 : 1000L * i);
+      String output = "line " + i + ", température " + (i % 40);
+      rows.append(CsvFixture.serialRow(time, 1 + i % 3, i % 7 == 0 ? "w" : "r", output));
+    }
+    return rows.toString();
+  }
+
+  @Test
+  public void testSortedAndDecoded() throws Exception {
+    SerialLoader loader = new SerialLoader(new StringReader(rows(1000)));
+    loader.load();
+    SerialEvents events = loader.getSerialEvents();
+
+    assertEquals(1000, events.size());
+    for (int i = 1; i < events.size(); ++i)
+      assertTrue(events.getTime(i - 1) <= events.getTime(i));
+    // lines 9 and 19 are late, they come before line 0
+    assertEquals(84000, events.getTime(0));
+    assertEquals("line 9, température 9", events.getOutput(0));
+    int i = events.ceilingIndex(100000);
+    assertEquals(2, i);
+    assertEquals("line 0, température 0", events.getOutput(i));
+    assertEquals(SerialEvent.SerialDirection.w, events.getDirection(i));
+    assertEquals(1, events.getObserverID(i));
+    // line 29 at the time of line 4 comes after it
+    i = events.ceilingIndex(104000);
+    assertEquals("line 4, température 4", events.getOutput(i));
+    assertEquals("line 29, température 29", events.getOutput(i + 1));
+    assertEquals(events.get(i + 1), loader.getEvents()[i + 1]);
+    assertEquals(events.size(), events.ceilingIndex(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testCursor() throws Exception {
+    String rows = rows(1000) + CsvFixture.serialRow(2000000, 2, "r", "id 0123");
+    SerialLoader loader = new SerialLoader(new StringReader(rows));
+    loader.load();
+    SerialEvents events = loader.getSerialEvents();
+
+    SerialCursor cursor = events.cursor();
+    cursor.seek(104000, 106000);
+    for (int i = events.ceilingIndex(104000); i < events.higherIndex(106000); ++i) {
+      assertTrue(cursor.next());
+      assertEquals(events.getTime(i), cursor.time());
+      assertEquals(events.getObserverID(i), cursor.observer());
+      assertEquals(events.getDirection(i), cursor.direction());
+      assertEquals(events.getTemplateId(i), cursor.templateId());
+      assertEquals(events.getOutput(i), new String(cursor.outputBytes(), 0, cursor.outputLength(), CsvFields.UTF_8));
+    }
+    assertFalse(cursor.next());
+
+    cursor.seek(2000000, 2000000);
+    assertTrue(cursor.next());
+    assertEquals("id 0123", new String(cursor.outputBytes(), 0, cursor.outputLength(), CsvFields.UTF_8));
+    assertFalse(cursor.next());
+  }
+
+  @Test
+  public void testTemplates() throws Exception {
+    String[] outputs = {
+        "rx seq=12 rssi=-80", "rx seq=13 rssi=-79", "rx seq=007 rssi=-0", "id 12345678901234567890",
+        "id 999999999999999999", "bin\u0000ary 12", "température 21", "0", "",
+    };
+    StringBuilder rows = new StringBuilder();
+    for (int i = 0; i < outputs.length; ++i)
+      rows.append(CsvFixture.serialRow(100000 + i, 1, "r", outputs[i]));
+    SerialLoader loader = new SerialLoader(new StringReader(rows.toString()));
+    loader.load();
+    SerialEvents events = loader.getSerialEvents();
+
+    for (int i = 0; i < outputs.length; ++i)
+      assertEquals(outputs[i], events.getOutput(i));
+    assertEquals(events.getTemplateId(0), events.getTemplateId(1));
+    // numbers with leading zeros stay in the template
+    assertTrue(events.getTemplateId(0) != events.getTemplateId(2));
+    assertEquals(-1, events.getTemplateId(5));
+    assertEquals(7, events.getTemplateCount());
+
+    assertTrue(events.templateContains(events.getTemplateId(0), "rssi=-"));
+    assertFalse(events.templateContains(events.getTemplateId(0), "tx"));
+    assertTrue(events.templateContains(events.getTemplateId(6), "tempé"));
+  }
+
+  @Test
+  public void testChunksAndCache() throws Exception {
+    CsvFixture.write(file, rows(5000));
+    File cacheFile = FlocklabCache.cacheFileOf(file);
+
+    SerialLoader loader = new SerialLoader(file);
+    LoaderRegistry.loadCached(loader, cacheFile, new ForkJoinPool(4), 4);
+    SerialLoader single = new SerialLoader(file);
+    single.load();
+    assertArrayEquals(single.getEvents(), loader.getEvents());
+
+    SerialLoader cached = new SerialLoader(file);
+    assertTrue(cached.loadCache(cacheFile));
+    assertArrayEquals(single.getEvents(), cached.getEvents());
+  }
+}
@@ -0,0 +1,33 @@
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SortedEntriesTest {
+  @Test
+  public void testSameAsTreeMap() {
+    Long[] keys = {10L, 20L, 30L, 40L};
+    String[] values = {"a", "b", "c", "d"};
+    SortedMap<Long, String> map = new SortedEntries<Long, String>(keys, values);
+    TreeMap<Long, String> expected = new TreeMap<Long, String>(map);
+
+    assertEquals(expected, map);
+    assertEquals("c", map.get(30L));
+    assertNull(map.get(35L));
+    assertEquals(expected.subMap(15L, 40L), map.subMap(15L, 40L));
+    assertEquals(expected.headMap(30L), map.headMap(30L));
+    assertEquals(expected.tailMap(30L), map.tailMap(30L));
+    assertEquals(Long.valueOf(20), map.subMap(15L, 40L).firstKey());
+    assertEquals(Long.valueOf(30), map.subMap(15L, 40L).lastKey());
+    assertEquals(expected.subMap(15L, 40L).headMap(25L), map.subMap(15L, 40L).headMap(25L));
+    assertTrue(map.subMap(21L, 29L).isEmpty());
+    assertFalse(map.headMap(30L).containsKey(30L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testKeyOutOfView() {
+    Long[] keys = {10L, 20L, 30L};
+    new SortedEntries<Long, String>(keys, new String[]{"a", "b", "c"}).headMap(20L).tailMap(25L);
+  }
+}
@@ -0,0 +1,62 @@
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SortedRunsTest {
+  @Test
+  public void testSorted() {
+    assertNull(SortedRuns.stableOrder(new long[]{1, 2, 2, 5}, 0, 4));
+    assertNull(SortedRuns.stableOrder(new long[]{9, 1, 2, 0}, 1, 3));
+  }
+
+  @Test
+  public void testFewRuns() {
+    // chunks loaded in parallel, partly overlapping
+    Random random = new Random(1);
+    long[] times = new long[10000];
+    for (int i = 0; i < times.length; ++i)
+      times[i] = (i % 2500) * 3 + random.nextInt(5);
+    for (int iChunk = 0; iChunk < 4; ++iChunk)
+      Arrays.sort(times, iChunk * 2500, (iChunk + 1) * 2500);
+    assertStableOrder(times, 0, times.length);
+    assertStableOrder(times, 1000, 6000);
+  }
+
+  @Test
+  public void testManyRuns() {
+    Random random = new Random(2);
+    long[] times = new long[10000];
+    for (int i = 0; i < times.length; ++i)
+      times[i] = 140000000000000000L + random.nextInt(100);
+    assertStableOrder(times, 0, times.length);
+  }
+
+  @Test
+  public void testLargeTimeRange() {
+    // too large to pack the index into the sort key
+    long[] times = new long[1000];
+    for (int i = 0; i < times.length; ++i)
+      times[i] = i % 2 == 0 ? Long.MIN_VALUE + i % 7 : Long.MAX_VALUE - i % 5;
+    assertStableOrder(times, 0, times.length);
+  }
+
+  private static void assertStableOrder(final long[] times, int from, int to) {
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int i = from; i < to; ++i)
+      expected.add(i);
+    Collections.sort(expected, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Long.compare(times[a], times[b]);
+      }
+    });
+
+    int[] order = SortedRuns.stableOrder(times, from, to);
+    assertNotNull(order);
+    assertEquals(expected.size(), order.length);
+    for (int i = 0; i < order.length; ++i)
+      assertEquals((int) expected.get(i), order[i]);
+  }
+}
@@ -0,0 +1,120 @@
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class VcdImporterTest {
+  private static GpioLoader load(String vcd) throws IOException {
+    return VcdImporter.load(new ByteArrayInputStream(vcd.getBytes(CsvFields.UTF_8)));
+  }
+
+  private static NavigableMap<Long, Boolean> edges(Object... timesAndLevels) {
+    NavigableMap<Long, Boolean> edges = new TreeMap<Long, Boolean>();
+    for (int i = 0; i < timesAndLevels.length; i += 2)
+      edges.put(((Number) timesAndLevels[i]).longValue(), (Boolean) timesAndLevels[i + 1]);
+    return edges;
+  }
+
+  private static GpioTrace trace(int nodeId, String pinName, Object... timesAndLevels) {
+    GpioEventBuffer events = new GpioEventBuffer();
+    for (Map.Entry<Long, Boolean> edge : edges(timesAndLevels).entrySet())
+      events.add(edge.getKey(), edge.getValue());
+    events.sort();
+    return new ArrayGpioTrace(events, nodeId, GpioPins.id(pinName));
+  }
+
+  private static Map<Integer, Map<String, NavigableMap<Long, Boolean>>> events(
+      Map<Integer, Map<String, GpioTrace>> traces) {
+    Map<Integer, Map<String, NavigableMap<Long, Boolean>>> events =
+        new HashMap<Integer, Map<String, NavigableMap<Long, Boolean>>>();
+    for (Map.Entry<Integer, Map<String, GpioTrace>> node : traces.entrySet()) {
+      Map<String, NavigableMap<Long, Boolean>> nodeEvents = new HashMap<String, NavigableMap<Long, Boolean>>();
+      for (Map.Entry<String, GpioTrace> pin : node.getValue().entrySet())
+        nodeEvents.put(pin.getKey(), GpioLoader.toNavigableMap(pin.getValue()));
+      events.put(node.getKey(), nodeEvents);
+    }
+    return events;
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Map<Integer, Map<String, GpioTrace>> traces = new TreeMap<Integer, Map<String, GpioTrace>>();
+    Map<String, GpioTrace> node13 = new TreeMap<String, GpioTrace>();
+    node13.put("LED1", trace(13, "LED1", 100, true, 250, false, 400, true));
+    node13.put("INT1", trace(13, "INT1", 250, true));
+    traces.put(13, node13);
+    Map<String, GpioTrace> node2 = new TreeMap<String, GpioTrace>();
+    // more traces than one character identifiers
+    for (int i = 0; i < 200; ++i)
+      node2.put("P" + i, trace(2, "P" + i, i, true, 1000 + i, false));
+    traces.put(2, node2);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    VcdExporter.export(traces, out);
+    String vcd = new String(out.toByteArray(), CsvFields.UTF_8);
+    assertTrue(vcd, vcd.contains("$scope module observer13 $end"));
+
+    GpioLoader loader = load(vcd);
+    assertEquals(events(traces), loader.getEvents());
+    assertEquals(0, loader.getStartTime());
+    assertEquals(1199, loader.getEndTime());
+  }
+
+  @Test
+  public void testExportMergesByTime() throws Exception {
+    Map<Integer, Map<String, GpioTrace>> traces = new TreeMap<Integer, Map<String, GpioTrace>>();
+    traces.put(1, Collections.singletonMap("A", trace(1, "A", 5, true, 20, false)));
+    traces.put(2, Collections.singletonMap("B", trace(2, "B", 5, false, 10, true)));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    VcdExporter.export(traces, out);
+    String vcd = new String(out.toByteArray(), CsvFields.UTF_8);
+    String changes = vcd.substring(vcd.indexOf("$enddefinitions $end\n") + "$enddefinitions $end\n".length());
+    assertEquals("#5\n1!\n0\"\n#10\n1\"\n#20\n0!\n", changes);
+  }
+
+  @Test
+  public void testForeignDump() throws Exception {
+    GpioLoader loader = load(
+        "$date today $end\n" +
+        "$timescale 1 us $end\n" +
+        "$scope module top $end\n" +
+        "$var wire 1 ! clk $end\n" +
+        "$var wire 8 # bus [7:0] $end\n" +
+        "$scope module node7 $end\n" +
+        "$scope module radio $end\n" +
+        "$var wire 1 %x tx $end\n" +
+        "$var wire 1 ! clk_alias $end\n" +
+        "$upscope $end\n" +
+        "$upscope $end\n" +
+        "$upscope $end\n" +
+        "$enddefinitions $end\n" +
+        "#0\n" +
+        "$dumpvars\n" +
+        "0!\n" +
+        "x%x\n" +
+        "b00000000 #\n" +
+        "$end\n" +
+        "#3 1! b1 %x\n" +
+        "$comment 1! $end\n" +
+        "#5\n" +
+        "0%x\n" +
+        "r1.5 #\n");
+
+    assertEquals(edges(0, false, 300, true), loader.getEvents().get(0).get("top.clk"));
+    assertEquals(edges(300, true, 500, false), loader.getEvents().get(7).get("radio.tx"));
+    assertEquals(edges(0, false, 300, true), loader.getEvents().get(7).get("radio.clk_alias"));
+    assertFalse(loader.getEvents().get(0).containsKey("top.bus[7:0]"));
+    assertEquals(0, loader.getStartTime());
+    assertEquals(500, loader.getEndTime());
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingDefinitions() throws Exception {
+    load("$timescale 10ns $end\n#1\n1!\n");
+  }
+}